@@ -10,8 +10,29 @@ package org.opendaylight.Antivirus.cli.api;
 public interface AntivirusCliCommands {
 
     /**
-     * Define the Karaf command method signatures and the Javadoc for each.
-     * Below method is just an example
+     * Streams the stored rules, one export-rules page at a time, into a local file.
+     * The filters are optional and may be null.
      */
-    Object testCommand(Object testArgument);
+    Object exportRules(String file, String appID, String action, Integer minPriority, Integer maxPriority);
+
+    /**
+     * Lists the rule usage and threshold of every application handled by this member.
+     */
+    Object quotaUsage();
+
+    /**
+     * Shows the sizes of the in-memory rule indexes and an estimate of their memory footprint.
+     */
+    Object indexStats();
+
+    /**
+     * Prints the latency histograms of the Application-hello decision pipeline.
+     */
+    Object latencyHistograms();
+
+    /**
+     * Replays the stored rules through evaluate-rule and reports the throughput.
+     * The number of passes may be null for a single pass.
+     */
+    Object benchmark(Integer iterations);
 }
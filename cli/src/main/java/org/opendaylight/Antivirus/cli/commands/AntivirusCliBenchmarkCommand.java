@@ -0,0 +1,39 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.cli.commands;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.apache.karaf.shell.console.AbstractAction;
+import org.opendaylight.Antivirus.cli.api.AntivirusCliCommands;
+
+/**
+ * Replays the stored rules through evaluate-rule, which changes nothing, and
+ * reports the evaluation throughput of the current rule set.
+ */
+@Command(name = "benchmark", scope = "antivirus", description = "Benchmark rule evaluation against the current rule set")
+public class AntivirusCliBenchmarkCommand extends AbstractAction {
+
+    protected final AntivirusCliCommands service;
+
+    public AntivirusCliBenchmarkCommand(final AntivirusCliCommands service) {
+        this.service = service;
+    }
+
+    @Option(name = "-i",
+            aliases = { "--iterations" },
+            description = "passes over the stored rules (default 1, at most 100)",
+            required = false,
+            multiValued = false)
+    private Integer iterations;
+
+    @Override
+    protected Object doExecute() throws Exception {
+        return service.benchmark(iterations);
+    }
+}
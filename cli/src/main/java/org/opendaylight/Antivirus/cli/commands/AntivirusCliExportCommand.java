@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.cli.commands;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.apache.karaf.shell.console.AbstractAction;
+import org.opendaylight.Antivirus.cli.api.AntivirusCliCommands;
+
+/**
+ * Exports the stored rules to a local CSV file, streaming them page by page
+ * through the export-rules RPC.
+ */
+@Command(name = "export-rules", scope = "antivirus", description = "Export stored rules to a local file")
+public class AntivirusCliExportCommand extends AbstractAction {
+
+    protected final AntivirusCliCommands service;
+
+    public AntivirusCliExportCommand(final AntivirusCliCommands service) {
+        this.service = service;
+    }
+
+    @Option(name = "-f",
+            aliases = { "--file" },
+            description = "file to write the rules to",
+            required = true,
+            multiValued = false)
+    private String file;
+
+    @Option(name = "-a",
+            aliases = { "--app-id" },
+            description = "only export the rules of this App ID",
+            required = false,
+            multiValued = false)
+    private String appID;
+
+    @Option(name = "--action",
+            description = "only export rules with this action (ALLOW or DENY)",
+            required = false,
+            multiValued = false)
+    private String action;
+
+    @Option(name = "--min-priority",
+            description = "only export rules with at least this priority",
+            required = false,
+            multiValued = false)
+    private Integer minPriority;
+
+    @Option(name = "--max-priority",
+            description = "only export rules with at most this priority",
+            required = false,
+            multiValued = false)
+    private Integer maxPriority;
+
+    @Override
+    protected Object doExecute() throws Exception {
+        return service.exportRules(file, appID, action, minPriority, maxPriority);
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.cli.commands;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.console.AbstractAction;
+import org.opendaylight.Antivirus.cli.api.AntivirusCliCommands;
+
+/**
+ * Shows the sizes of the in-memory rule indexes and an estimate of the heap
+ * they take, read without pausing rule processing.
+ */
+@Command(name = "index-stats", scope = "antivirus", description = "Show the sizes and memory footprint of the rule indexes")
+public class AntivirusCliIndexStatsCommand extends AbstractAction {
+
+    protected final AntivirusCliCommands service;
+
+    public AntivirusCliIndexStatsCommand(final AntivirusCliCommands service) {
+        this.service = service;
+    }
+
+    @Override
+    protected Object doExecute() throws Exception {
+        return service.indexStats();
+    }
+}
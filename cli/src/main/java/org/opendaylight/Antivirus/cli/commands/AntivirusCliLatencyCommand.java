@@ -0,0 +1,31 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.cli.commands;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.console.AbstractAction;
+import org.opendaylight.Antivirus.cli.api.AntivirusCliCommands;
+
+/**
+ * Prints how long Application-hello calls waited for the catalog lock and
+ * then took to decide, as power-of-two microsecond histograms.
+ */
+@Command(name = "latency", scope = "antivirus", description = "Show the latency histograms of the decision pipeline")
+public class AntivirusCliLatencyCommand extends AbstractAction {
+
+    protected final AntivirusCliCommands service;
+
+    public AntivirusCliLatencyCommand(final AntivirusCliCommands service) {
+        this.service = service;
+    }
+
+    @Override
+    protected Object doExecute() throws Exception {
+        return service.latencyHistograms();
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.cli.commands;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.console.AbstractAction;
+import org.opendaylight.Antivirus.cli.api.AntivirusCliCommands;
+
+/**
+ * Lists the rule usage of the applications handled by this member, from one
+ * consistent quota snapshot.
+ */
+@Command(name = "quota", scope = "antivirus", description = "Show the rule usage of every application")
+public class AntivirusCliQuotaCommand extends AbstractAction {
+
+    protected final AntivirusCliCommands service;
+
+    public AntivirusCliQuotaCommand(final AntivirusCliCommands service) {
+        this.service = service;
+    }
+
+    @Override
+    protected Object doExecute() throws Exception {
+        return service.quotaUsage();
+    }
+}
@@ -7,7 +7,26 @@
  */
 package org.opendaylight.Antivirus.cli.impl;
 
-import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.AntivirusService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ExportRulesInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ExportRulesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.GetDiagnosticsOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.QuotaStatusOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.RunBenchmarkInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.RunBenchmarkOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.export.rules.output.ExportedRule;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.get.diagnostics.output.Latency;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.get.diagnostics.output.latency.Bucket;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.quota.status.output.ApplicationQuota;
+import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opendaylight.Antivirus.cli.api.AntivirusCliCommands;
@@ -15,15 +34,154 @@ import org.opendaylight.Antivirus.cli.api.AntivirusCliCommands;
 public class AntivirusCliCommandsImpl implements AntivirusCliCommands {
 
     private static final Logger LOG = LoggerFactory.getLogger(AntivirusCliCommandsImpl.class);
-    private final DataBroker dataBroker;
+    private static final int EXPORT_PAGE_SIZE = 500;
+    private final AntivirusService antivirusService;
 
-    public AntivirusCliCommandsImpl(final DataBroker db) {
-        this.dataBroker = db;
+    public AntivirusCliCommandsImpl(final AntivirusService antivirusService) {
+        this.antivirusService = antivirusService;
         LOG.info("AntivirusCliCommandImpl initialized");
     }
 
     @Override
-    public Object testCommand(Object testArgument) {
-        return "This is a test implementation of test-command";
+    public Object exportRules(String file, String appID, String action, Integer minPriority, Integer maxPriority) {
+        long written = 0;
+        String cursor = null;
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+            writer.write("Rule-ID,App-ID,SourceIP,DestinationIP,SourcePort,DestinationPort,Priority,Action,TTL");
+            writer.newLine();
+            do {
+                RpcResult<ExportRulesOutput> result = antivirusService.exportRules(new ExportRulesInputBuilder()
+                        .setCursor(cursor)
+                        .setPageSize(EXPORT_PAGE_SIZE)
+                        .setAppID(appID)
+                        .setAction(action)
+                        .setMinPriority(minPriority)
+                        .setMaxPriority(maxPriority)
+                        .build()).get();
+                if (!result.isSuccessful()) {
+                    return "Export failed after " + written + " rules: " + result.getErrors();
+                }
+                if (result.getResult().getExportedRule() != null) {
+                    for (ExportedRule rule : result.getResult().getExportedRule()) {
+                        writer.write(csv(rule.getRuleID()) + "," + csv(rule.getAppID()) + "," + csv(rule.getSourceIP())
+                                + "," + csv(rule.getDestinationIP()) + "," + csv(rule.getSourcePort()) + ","
+                                + csv(rule.getDestinationPort()) + "," + csv(rule.getPriority()) + ","
+                                + csv(rule.getAction()) + "," + csv(rule.getTTL()));
+                        writer.newLine();
+                        written++;
+                    }
+                }
+                cursor = result.getResult().getNextCursor();
+            } while (cursor != null);
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            LOG.warn("Exporting rules to {} failed", file, e);
+            return "Export to " + file + " failed after " + written + " rules: " + e.getMessage();
+        }
+        return written + " rules exported to " + file;
+    }
+
+    @Override
+    public Object quotaUsage() {
+        RpcResult<QuotaStatusOutput> result = call(antivirusService.quotaStatus());
+        if (result == null || !result.isSuccessful()) {
+            return failure("quota-status", result);
+        }
+        QuotaStatusOutput quota = result.getResult();
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-8s %10s %10s%n", "App-ID", "Used", "Threshold"));
+        if (quota.getApplicationQuota() != null) {
+            for (ApplicationQuota app : quota.getApplicationQuota()) {
+                out.append(String.format("%-8s %10d %10d%n", app.getAppID(), app.getUsed(), app.getThreshold()));
+            }
+        }
+        out.append("Remaining capacity: ").append(quota.getRemainingCapacity())
+                .append(" (snapshot ").append(quota.getSnapshotVersion()).append(')');
+        return out.toString();
+    }
+
+    @Override
+    public Object indexStats() {
+        RpcResult<GetDiagnosticsOutput> result = call(antivirusService.getDiagnostics());
+        if (result == null || !result.isSuccessful()) {
+            return failure("get-diagnostics", result);
+        }
+        GetDiagnosticsOutput diagnostics = result.getResult();
+        return String.format("Rules stored:              %d of %d%n"
+                + "Slot index entries:        %d%n"
+                + "Tuple index entries:       %d%n"
+                + "Application index entries: %d%n"
+                + "Identifier cache entries:  %d%n"
+                + "Eviction index entries:    %d%n"
+                + "Inventory slots allocated: %d%n"
+                + "Estimated index footprint: %d KiB%n"
+                + "Heap used:                 %d KiB%n"
+                + "Rule ID filter:            %d lookups, %d possible hits, %d false positives (%d ppm)",
+                diagnostics.getRulesStored(), diagnostics.getCapacity(), diagnostics.getSlotIndexEntries(),
+                diagnostics.getTupleIndexEntries(), diagnostics.getApplicationIndexEntries(),
+                diagnostics.getIdentifierCacheEntries(), diagnostics.getEvictionIndexEntries(),
+                diagnostics.getInventorySlotsAllocated(),
+                diagnostics.getEstimatedIndexBytes().shiftRight(10), diagnostics.getHeapUsedBytes().shiftRight(10),
+                diagnostics.getRuleIdFilterLookups(), diagnostics.getRuleIdFilterPossibleHits(),
+                diagnostics.getRuleIdFilterFalsePositives(), diagnostics.getRuleIdFilterFalsePositivePpm());
+    }
+
+    @Override
+    public Object latencyHistograms() {
+        RpcResult<GetDiagnosticsOutput> result = call(antivirusService.getDiagnostics());
+        if (result == null || !result.isSuccessful()) {
+            return failure("get-diagnostics", result);
+        }
+        StringBuilder out = new StringBuilder();
+        if (result.getResult().getLatency() != null) {
+            for (Latency latency : result.getResult().getLatency()) {
+                out.append(latency.getStage()).append(':').append(String.format("%n"));
+                for (Bucket bucket : latency.getBucket()) {
+                    if (bucket.getCount().signum() == 0) {
+                        continue;
+                    }
+                    String bound = (bucket.getBelowMicros() == null) ? "slower" : "< " + bucket.getBelowMicros() + " us";
+                    out.append(String.format("  %-14s %12s%n", bound, bucket.getCount()));
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    @Override
+    public Object benchmark(Integer iterations) {
+        RpcResult<RunBenchmarkOutput> result = call(antivirusService.runBenchmark(new RunBenchmarkInputBuilder()
+                .setIterations(iterations)
+                .build()));
+        if (result == null || !result.isSuccessful()) {
+            return failure("run-benchmark", result);
+        }
+        RunBenchmarkOutput benchmark = result.getResult();
+        return benchmark.getEvaluations() + " evaluations of " + benchmark.getRules() + " rules, "
+                + benchmark.getMeanNanos() + " ns each, " + benchmark.getEvaluationsPerSecond() + " per second";
+    }
+
+    /* A CSV field, quoted with its quotes doubled when it holds a comma, quote or line break; null is empty. */
+    private static String csv(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String field = value.toString();
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    private static <T> RpcResult<T> call(Future<RpcResult<T>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            LOG.warn("Antivirus diagnostics RPC failed", e);
+            return null;
+        }
+    }
+
+    private static String failure(String rpc, RpcResult<?> result) {
+        return rpc + " failed" + ((result == null) ? "" : ": " + result.getErrors());
     }
-}
\ No newline at end of file
+}
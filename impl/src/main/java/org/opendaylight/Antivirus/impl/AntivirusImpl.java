@@ -8,7 +8,32 @@
 
 package org.opendaylight.Antivirus.impl;
 
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
 import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
@@ -19,14 +44,61 @@ import org.opendaylight.controller.md.sal.common.api.data.ReadFailedException;
 import org.opendaylight.controller.md.sal.common.api.data.TransactionCommitFailedException;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.AntivirusService;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.BulkLoadRulesInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.BulkLoadRulesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.BulkLoadRulesOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRules;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRulesRegistry;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRulesRegistryBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.EvaluateRuleInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.EvaluateRuleOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.EvaluateRuleOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ExportRulesInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ExportRulesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ExportRulesOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardApplicationHelloInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardApplicationHelloOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardApplicationHelloOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardBulkLoadRulesInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardBulkLoadRulesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardBulkLoadRulesOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardEvaluateRuleInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardEvaluateRuleOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardEvaluateRuleOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardPurgeApplicationInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardPurgeApplicationOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardPurgeApplicationOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.GetDiagnosticsOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.GetDiagnosticsOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.PurgeApplicationInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.PurgeApplicationOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.PurgeApplicationInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.PurgeApplicationOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.QuotaStatusOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.QuotaStatusOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.RunBenchmarkInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.RunBenchmarkOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.RunBenchmarkOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.YieldRuleInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.YieldRuleOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.YieldRuleOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.bulk.load.rules.output.Result;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.bulk.load.rules.output.ResultBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntry;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntryBuilder;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntryKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.export.rules.output.ExportedRule;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.export.rules.output.ExportedRuleBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.get.diagnostics.output.Latency;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.get.diagnostics.output.LatencyBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.get.diagnostics.output.latency.Bucket;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.get.diagnostics.output.latency.BucketBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.quota.status.output.ApplicationQuota;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.quota.status.output.ApplicationQuotaBuilder;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.common.RpcError.ErrorType;
 import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 import org.slf4j.Logger;
@@ -34,7 +106,10 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
 import com.google.common.util.concurrent.CheckedFuture;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 public class AntivirusImpl implements AntivirusService {
 	
@@ -48,14 +123,16 @@ public class AntivirusImpl implements AntivirusService {
 
 	/*---------- The following parameters are configured by Network Practitioner ----------*/
 	/* (1) Total number of Applications that can access configuration datastore. There are typically 400 applications.*/
-	int Number_of_Applications = 3;//400;
+	static final int DEFAULT_NUMBER_OF_APPLICATIONS = 3;//400;
+	int Number_of_Applications;
 
 	/* (2) The total capacity in configuration datastore.*/
-	int C = 9;//4000;
+	static final int DEFAULT_CAPACITY = 9;//4000;
+	int C;
 	
 	/* (3) Password Dictionary. */
 	// Use something like OTP or RSA...depending on which one is more efficient.
-	String [] Password_Dictionary = new String [Number_of_Applications];
+	String [] Password_Dictionary;
 			                       
 	/* (4) The applications can be allocated three different kind of roles. */
 	int TierOneApplications = 200;
@@ -66,55 +143,229 @@ public class AntivirusImpl implements AntivirusService {
 	int Mode = 0;
 	
 	/*-------------------- Temporary Variables --------------------*/
-	int [] App_Inventory = new int [Number_of_Applications];
+	/* App_Inventory counts the stored rules of each application and the remaining dynamic capacity. The counts of an
+	 * application are only updated under the lock of its shard, but can be read, or snapshotted for the quota-status
+	 * RPC, without it. */
+	QuotaLedger App_Inventory;
+	
+	/* Per shard, the slot a dry-run Mode 2 Rule ID check of one of its applications would have evicted, or -2; only
+	 * meaningful under the lock of that shard. */
+	int [] Predicted_Eviction_Slot;
 
-	/* Threshold_Inventory specifies an upper limit on how many rules each application can store in configuration datastore. */
-	int [] Threshold_Inventory = new int [Number_of_Applications];
+	/* Threshold_Tiers specifies an upper limit on how many rules an application can store in configuration datastore,
+	 * one entry per precedence tier (Mode 0 gives every tier the same value). Mode 2 keeps no thresholds: Get_Threshold
+	 * reads the remaining capacity directly, so a rule change never has to rewrite them. Set once in the constructor. */
+	int [] Threshold_Tiers = new int [3];
 	
 	/* App_Precedence identifies the priority of each application accessing the datastores. */
-	int [] App_Precedence = new int [Number_of_Applications];
+	int [] App_Precedence;
 		
+	/* The catalog is partitioned by AppID into Number_of_Shards shards, see CatalogShards.shardOf. Shard k owns the
+	 * slots k*C to k*C+C-1 of the rule inventories below, and keeps its Shard_Counter[k] rules dense from the start of
+	 * that range. Each inventory only allocates segments as rules are stored; capacity is still enforced by
+	 * App_Inventory and the capacity lease. */
+	int Number_of_Shards;
+	AtomicIntegerArray Shard_Counter;
+	
 	/*---------- Rule ID Inventory ----------*/
-	String [] RuleIDInventory = new String [C];
+	ShardedArray<String> RuleIDInventory;
 	
-	/*---------- Source IP Inventory ----------*/
-	String [] SourceIPInventory = new String [C];
+	/*---------- Source IP Inventory, in canonical binary form ----------*/
+	ShardedArray<IPPrefix> SourceIPInventory;
 	
-	/*---------- Destination IP Inventory ----------*/
-	String [] DestinationIPInventory = new String [C];
+	/*---------- Destination IP Inventory, in canonical binary form ----------*/
+	ShardedArray<IPPrefix> DestinationIPInventory;
 	
 	/*---------- Source Port Inventory ----------*/
-	String [] SourcePortInventory = new String [C];
+	ShardedArray<String> SourcePortInventory;
 	
 	/*---------- Destination Port Inventory ----------*/
-	String [] DestinationPortInventory = new String [C];
+	ShardedArray<String> DestinationPortInventory;
 
 	/*---------- Priority Inventory ----------*/
-	int [] PriorityInventory = new int [C];
+	ShardedIntArray PriorityInventory;
 	
 	/*---------- Action Inventory ----------*/
-	String [] ActionInventory = new String [C];
-			
-	int Universal_Counter = 0; 
-	int dynamic_capacity = C;
+	ShardedArray<String> ActionInventory;
+	
+	/*---------- Stored Rule IDs, so that an add for a new Rule ID can skip the datastore read ----------*/
+	static final double RULE_ID_FILTER_FALSE_POSITIVE_RATE = 0.01;
+	CountingBloomFilter Rule_ID_Filter;
+	
+	/*---------- Rule expiry: the TTLs, in seconds, are kept in a timing wheel that a daemon thread advances every tick ----------*/
+	long Expiry_Tick_Millis = 1000;
+	int Expiry_Batch_Size = 1000;
+	final long Expiry_Origin = System.nanoTime();
+	/* The wheel and the timers span the shards, so both are only used synchronized on the wheel. */
+	final TimingWheel<String> Rule_Expiry = new TimingWheel<String>(0);
+	Map<String, TimingWheel.Timeout<String>> Rule_Expiry_Timers = new HashMap<String, TimingWheel.Timeout<String>>();
+	ScheduledExecutorService Expiry_Ticker;
+	
+	/*---------- InstanceIdentifier cache, sized so that every stored rule can stay resident ----------*/
+	RuleIdentifierCache Rule_IID_Cache;
+	
+	/*---------- Match-tuple index for duplicate/conflict checks across all applications ----------*/
+	RuleTupleIndex Rule_Tuple_Index = new RuleTupleIndex();
+	
+	/*---------- Every rule decision, for the audit log; see AuditJournal ----------*/
+	static final int AUDIT_RING_SIZE = 8192;
+	AuditRing Audit_Ring = new AuditRing(AUDIT_RING_SIZE);
+	/* Per shard, the decisions of its applications that changed the catalog: rules stored, replacing a duplicate or
+	 * conflicting rule, or deleted on request. Guarded by the lock of the shard. */
+	long [] Applied_Decisions;
+	
+	/*---------- Rule ID -> slot in the inventories above, sorted so that exports can page through it ----------*/
+	NavigableMap<String, Integer> Rule_Slot_Index = new ConcurrentSkipListMap<String, Integer>();
+	
+	/*---------- Every stored rule from the weakest to the strongest, for Mode 2 eviction ----------*/
+	final EvictionIndex Eviction_Index = new EvictionIndex();
+	
+	/*---------- Merkle digest of the stored rules by AppID, compared with the datastore's by RuleReconciler ----------*/
+	RuleDigest Rule_Digest;
+	
+	/*---------- AppID -> Rule IDs of that application in Rule ID order, maintained alongside the slot index under the application's shard lock ----------*/
+	Map<Integer, NavigableSet<String>> App_Rule_Index = new ConcurrentHashMap<Integer, NavigableSet<String>>();
+	
+	/*---------- Export paging ----------*/
+	int Default_Export_Page_Size = 100;
+	int Max_Export_Page_Size = 1000;
+	/* Rule IDs looked at per call, matching or not, so that a filter few rules match cannot hold the locks for a whole scan. */
+	int Max_Export_Scan = 10000;
+	
+	/*---------- Runs the RPCs; by default single-writer event loops, one per catalog shard, keyed by AppID ----------*/
+	RequestDispatcher Dispatcher;
+	
+	/*---------- Latency of Application-hello: waiting for the shard locks, then deciding and storing the rule ----------*/
+	final LatencyHistogram Lock_Wait_Latency = new LatencyHistogram();
+	final LatencyHistogram Decision_Latency = new LatencyHistogram();
+	
+	/*---------- Micro-batching of concurrent Application-hello calls; off (null) unless enabled ----------*/
+	HelloBatcher Hello_Batcher;
+	/* The transaction shared by the batch being decided, and the registry entry each Rule ID it touched ends up with
+	 * (absent if deleted); only set while a batch holds every shard lock. */
+	WriteTransaction Batch_Transaction;
+	Map<String, Optional<ConfigurationRulesRegistryEntry>> Batch_Writes;
+	
+	/*---------- Benchmark passes over the stored rules ----------*/
+	int Max_Benchmark_Iterations = 100;
+	/* Stored rules sized per hold of the shard locks by the diagnostics byte estimate. */
+	int Diagnostics_Chunk = 1000;
+	
+	/*---------- Bulk loads: the stateless checks of a batch are spread over the cores ----------*/
+	final ForkJoinPool Validation_Pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	
+	/* One lock per catalog shard. A decision locks the shard of its application and those of the rules it replaces or
+	 * evicts; Catalog_Lock.lock() takes them all, for the work that spans the catalog. See With_Rule_Shards. */
+	final ShardLocks Catalog_Lock;
+	/* Tries of a decision with only the shards it named before it locks every shard. */
+	static final int MAX_SHARD_ATTEMPTS = 3;
+	
+	/*---------- Cluster: which applications this node owns, and its local share of the capacity C ----------*/
+	ApplicationOwnership Ownership;
+	static final int MAX_CAPACITY_LEASE_BATCH = 16;
+	int Capacity_Lease_Batch;
+	/* A lease unused for this long gives its slots back to the pool; checked on the expiry ticker. 0 keeps them. */
+	long Capacity_Lease_Idle_Millis = 5000;
+	CapacityLease Capacity_Lease;
+	/* The rules of the applications other members own, so that duplicates and conflicts are found cluster-wide; null on a
+	 * single node. */
+	RemoteRuleDirectory Remote_Rules;
+	/* Passes requests for the applications of other members on to them; null leaves them to be rejected. */
+	MemberRouter Member_Router;
+	/* How long a member asked to yield a rule waits for the lock of its shard. The asking member holds its own meanwhile,
+	 * so two members asking each other at once give up instead of waiting on each other forever. */
+	long Yield_Timeout_Millis = 1000;
 	
 	public AntivirusImpl (DataBroker db) {
+		this(db, ApplicationOwnership.singleNode());
+	}
+	
+	public AntivirusImpl (DataBroker db, ApplicationOwnership Ownership) {
+		this(db, Ownership, null);
+	}
+	
+	public AntivirusImpl (DataBroker db, ApplicationOwnership Ownership, CapacityPool Pool) {
+		this(db, DEFAULT_NUMBER_OF_APPLICATIONS, DEFAULT_CAPACITY, Ownership, Pool);
+	}
+	
+	/* Without an explicit Pool, a single node keeps the capacity C in this JVM and a cluster shares it through the OPERATIONAL datastore. */
+	public AntivirusImpl (DataBroker db, int Number_of_Applications, int C, ApplicationOwnership Ownership, CapacityPool Pool) {
+		this(db, Number_of_Applications, C, Ownership, Pool, null);
+	}
+	
+	/* Without an explicit Dispatcher, RPCs run on one event loop per core, keyed by AppID. The catalog has one shard per
+	 * loop of a dispatcher that runs requests by shard, so that each loop writes its own shard, and otherwise one per core. */
+	public AntivirusImpl (DataBroker db, int Number_of_Applications, int C, ApplicationOwnership Ownership, CapacityPool Pool,
+			RequestDispatcher Dispatcher) {
 		this.db = db;
+		this.Dispatcher = (Dispatcher == null) ? new CatalogShards(Runtime.getRuntime().availableProcessors()) : Dispatcher;
+		this.Number_of_Applications = Number_of_Applications;
+		this.C = C;
+		this.Ownership = Ownership;
+		this.Number_of_Shards = (this.Dispatcher.shards() > 0) ? this.Dispatcher.shards()
+				: Runtime.getRuntime().availableProcessors();
+		
+		Password_Dictionary = new String [Number_of_Applications];
+		App_Inventory = new QuotaLedger(Number_of_Applications, C, Number_of_Shards);
+		App_Precedence = new int [Number_of_Applications];
+		Catalog_Lock = new ShardLocks(Number_of_Shards);
+		Shard_Counter = new AtomicIntegerArray(Number_of_Shards);
+		Applied_Decisions = new long [Number_of_Shards];
+		Predicted_Eviction_Slot = new int [Number_of_Shards];
+		RuleIDInventory = new ShardedArray<>(Number_of_Shards, C);
+		SourceIPInventory = new ShardedArray<>(Number_of_Shards, C);
+		DestinationIPInventory = new ShardedArray<>(Number_of_Shards, C);
+		SourcePortInventory = new ShardedArray<>(Number_of_Shards, C);
+		DestinationPortInventory = new ShardedArray<>(Number_of_Shards, C);
+		PriorityInventory = new ShardedIntArray(Number_of_Shards, C);
+		ActionInventory = new ShardedArray<>(Number_of_Shards, C);
+		Rule_IID_Cache = new RuleIdentifierCache(C);
+		Rule_ID_Filter = new CountingBloomFilter(C, RULE_ID_FILTER_FALSE_POSITIVE_RATE);
+		Rule_Digest = new RuleDigest(Number_of_Applications);
+		
+		if (Pool == null) {
+			Pool = (Ownership.getMemberCount() > 1) ? new DatastoreCapacityPool(db, C, Ownership.getMemberIndex()) : new SharedCapacityPool(C);
+		}
+		this.Capacity_Lease_Batch = CapacityLease.batchSizeFor(C, Ownership.getMemberCount(), MAX_CAPACITY_LEASE_BATCH);
+		this.Capacity_Lease = new CapacityLease(Pool, Capacity_Lease_Batch);
 		initializeDataTree(db);
-		App_Inventory = initialize_App_Inventory();
 		App_Precedence = Set_App_Precedence(Mode);
-		
-		SourcePortInventory = initialize_String_Array (SourcePortInventory);
-		DestinationPortInventory = initialize_String_Array (DestinationPortInventory);
-		SourceIPInventory = initialize_String_Array (SourceIPInventory);
-		DestinationIPInventory = initialize_String_Array (DestinationIPInventory);
-		PriorityInventory = initialize_Integer_Array (PriorityInventory);
-		ActionInventory = initialize_String_Array (ActionInventory);
+		this.Dispatcher.setPrecedence(App_Precedence);
 		
 		Password_Dictionary = initialize_Password_Dictionary ();
-		Threshold_Inventory = Set_Threshold_Inventory(Mode);
+		Threshold_Tiers = Set_Threshold_Inventory(Mode);
+		if (Ownership.getMemberCount() > 1) {
+			Remote_Rules = new RemoteRuleDirectory(Ownership);
+			Remote_Rules.start(db);
+		}
+		Restore_Rule_Catalog();
+		Start_Rule_Expiry();
 	}	
 
+	public void close() {
+		if (Hello_Batcher != null) {
+			Hello_Batcher.close();
+		}
+		Dispatcher.close();
+		Validation_Pool.shutdown();
+		Expiry_Ticker.shutdownNow();
+		if (Remote_Rules != null) {
+			Remote_Rules.close();
+		}
+		// The slots of the stored rules go back too: the next start takes them again as it restores the rules.
+		Catalog_Lock.lock();
+		try {
+			for (int i = Stored_Rules(); i > 0; i--) {
+				Capacity_Lease.release();
+			}
+		} finally {
+			Catalog_Lock.unlock();
+		}
+		Capacity_Lease.flush();
+	}
+
+	/* Creates the registry containers if they are missing. Merged, not put: every member of a cluster runs this at
+	 * startup, and a put would wipe the rules the other members have stored. */
 	private void initializeDataTree(DataBroker db) {
 		final Logger LOG = LoggerFactory.getLogger(AntivirusImpl.class);		
         LOG.info("Preparing to initialize the greeting registry");
@@ -122,8 +373,8 @@ public class AntivirusImpl implements AntivirusService {
         InstanceIdentifier<ConfigurationRulesRegistry> iid = InstanceIdentifier.create(ConfigurationRulesRegistry.class);
         ConfigurationRulesRegistry ruleregistry = new ConfigurationRulesRegistryBuilder()
                 .build();
-        transaction.put(LogicalDatastoreType.OPERATIONAL, iid, ruleregistry);
-        transaction.put(LogicalDatastoreType.CONFIGURATION, iid, ruleregistry);
+        transaction.merge(LogicalDatastoreType.OPERATIONAL, iid, ruleregistry);
+        transaction.merge(LogicalDatastoreType.CONFIGURATION, iid, ruleregistry);
         CheckedFuture<Void, TransactionCommitFailedException> future = transaction.submit();
         Futures.addCallback(future, new LoggingFuturesCallBack<>("Failed to create rule registry", LOG));
     }
@@ -136,47 +387,34 @@ public class AntivirusImpl implements AntivirusService {
 		return Password_Dictionary;
 	}
 		
-	public int[] initialize_App_Inventory () {
-
-		for (int i = 0; i < App_Inventory.length; i++)
-		{
-			App_Inventory [i] = 0;
-		}
-		return App_Inventory;		
-	}
-	
-	public int[] initialize_Integer_Array (int [] Integer_Array) {
-		for (int i =0; i < Integer_Array.length; i++) {
-			Integer_Array [i] = 0;
-		}
-		return Integer_Array;
-	}
-		
-	public String[] initialize_String_Array (String [] String_Array) {
-		for (int i=0; i< String_Array.length; i++) {
-			String_Array [i] = "";
-		}
-		return String_Array;
-	}
-	
 	public int[] Set_Threshold_Inventory (int Mode) {
 		/* Mode can be:
 		 * 0 -- Fair Resource Allocation
 		 * 1 -- Role Based Resource Allocation
 		 * 2 -- Resource Allocation as an Optimization Problem */
 		if (Mode == 0) {
-			Threshold_Inventory = Fair_Resource_Allocation ();
+			Threshold_Tiers = Fair_Resource_Allocation ();
 		}
 		else if (Mode == 1) {
-			Threshold_Inventory = Role_Based_Resource_Allocation ();
+			Threshold_Tiers = Role_Based_Resource_Allocation ();
+		}
+		else {
+			// Mode 2 follows the remaining capacity, see Get_Threshold.
+		}
+		return Threshold_Tiers;
+	}
+	
+	/* The upper limit on the rules of an application, in O(1) for every mode. */
+	public int Get_Threshold (int AppID) {
+		if (Mode == 2) {
+			return App_Inventory.remaining();
 		}
-		else if (Mode == 2) {
-			Threshold_Inventory = Resource_Allocation_As_An_Optimization_Problem (dynamic_capacity);
+		else if (Mode == 1) {
+			return Threshold_Tiers[App_Precedence[AppID]];
 		}
 		else {
-			// do nothing
+			return Threshold_Tiers[0];
 		}
-		return Threshold_Inventory;
 	}
 	
 	public int[] Set_App_Precedence (int Mode) {
@@ -219,16 +457,15 @@ public class AntivirusImpl implements AntivirusService {
 		
 	public int[] Fair_Resource_Allocation () {
 		
-		int threshold;
+		/*---------- Fairness (conceived in terms of the ideal of equal) Resource Allocation ----------*/
+		int threshold = C/Number_of_Applications;
+		LOG.info("The threshold for every AppID is " + threshold);
 		
-		for (int i = 0; i < Threshold_Inventory.length; i++)
+		for (int i = 0; i < Threshold_Tiers.length; i++)
 		{
-			/*---------- Fairness (conceived in terms of the ideal of equal) Resource Allocation ----------*/
-			threshold = C/Number_of_Applications;
-			LOG.info("Breakpoint: The threshold for AppID: i" + i + "is " + Threshold_Inventory[i]);
-			Threshold_Inventory [i] = threshold;
+			Threshold_Tiers [i] = threshold;
 		}
-		return Threshold_Inventory;
+		return Threshold_Tiers;
 	}
 
 	public int[] Role_Based_Resource_Allocation () {
@@ -252,29 +489,19 @@ public class AntivirusImpl implements AntivirusService {
 		ThresholdForTierTwoApplications = SpaceForTierTwoApplications/TierTwoApplications;
 		ThresholdForTierThreeApplications = SpaceForTierThreeApplications/TierThreeApplications;
 		
-		for (int i = 0; i < Threshold_Inventory.length; i++) {
-			if (App_Precedence[i] == 0) {
-				Threshold_Inventory[i] = ThresholdForTierOneApplications;
-			}
-			else if (App_Precedence[i] == 1) {
-				Threshold_Inventory[i] = ThresholdForTierTwoApplications;
-			}
-			else if (App_Precedence[i] == 2) {
-				Threshold_Inventory[i] = ThresholdForTierThreeApplications;
-			}
-		}
-		return Threshold_Inventory;
+		Threshold_Tiers[0] = ThresholdForTierOneApplications;
+		Threshold_Tiers[1] = ThresholdForTierTwoApplications;
+		Threshold_Tiers[2] = ThresholdForTierThreeApplications;
+		return Threshold_Tiers;
 	}
 	
-	public int[] Resource_Allocation_As_An_Optimization_Problem (int threshold) {
-		
-		for (int i = 0; i < Threshold_Inventory.length; i++) {
-			Threshold_Inventory [i] = threshold;
-		}		
-		return Threshold_Inventory;
+	public boolean HandleResourceAllocationAsAnOptimizationProblem (ApplicationHelloInput input, int RuleNumber_part) {
+		return HandleResourceAllocationAsAnOptimizationProblem (input, RuleNumber_part, true);
 	}
 	
-	public boolean HandleResourceAllocationAsAnOptimizationProblem (ApplicationHelloInput input, int RuleNumber_part) {
+	/* With Make_Capacity false nothing is evicted; the rule that would be is left in the Predicted_Eviction_Slot of the
+	 * application's shard. The rule to evict may be in any shard, which the caller must hold. */
+	public boolean HandleResourceAllocationAsAnOptimizationProblem (ApplicationHelloInput input, int RuleNumber_part, boolean Make_Capacity) {
 		boolean format_correct = true;
 		String [] parameters = {"false","-2","false","-2"};
 		int LowPriorityApp = -2;
@@ -284,7 +511,10 @@ public class AntivirusImpl implements AntivirusService {
 		
 		parameters = FindDuplicateConflictingRule (input);
 		
-		if ((RuleNumber_part > 0) && (dynamic_capacity == 0) && (Operation == 1)) {
+		// Whether there is room follows the cluster-wide capacity C, held by Capacity_Lease, not this member's App_Inventory.
+		// A prediction only looks: it must not reserve a batch from the pool.
+		boolean Has_Capacity = Make_Capacity ? Capacity_Lease.hasCapacity() : Capacity_Lease.peek();
+		if ((RuleNumber_part > 0) && !Has_Capacity && (Operation == 1)) {
 			
 			if (parameters[0].equals("true")) { // rule exists and can be deleted
 				format_correct = true && format_correct;
@@ -293,16 +523,26 @@ public class AntivirusImpl implements AntivirusService {
 				format_correct = false; // Greeting Message should be correct
 			}
 		}
-		else if ((RuleNumber_part > 0) && (dynamic_capacity == 0) && (Operation == 0)) {
+		else if ((RuleNumber_part > 0) && !Has_Capacity && (Operation == 0)) {
 			if (parameters[0].equals("true")) { // handles existing matching rule case.
 				format_correct = true && format_correct;
 			}
 			else {
 				// Make capacity
-				LowPriorityApp = FindLowPriorityApp(App_Precedence[Integer.parseInt(input.getAppID())],Integer.parseInt(input.getAppID()));
-				RuleIndex = FindLowestPriorityRuleForAnApplication (LowPriorityApp);
-				if (RuleIndex != -2) { //a low priority App and a low priority rule found
-					Greeting_Message = DeleteFromRuleCatalog (RuleIDInventory[RuleIndex], Integer.toString(LowPriorityApp), RuleIndex);							
+				// The globally weakest rule, among the applications with a lower precedence than this one.
+				EvictionIndex.Entry Weakest = Eviction_Index.weakestBelow(App_Precedence[Integer.parseInt(input.getAppID())]);
+				if (Weakest != null) {
+					Catalog_Lock.checkHeld(Shard_Of_Rule (Weakest.getRuleID()));
+					LowPriorityApp = FindAppIDFromRuleID (Weakest.getRuleID());
+					RuleIndex = Rule_Slot_Index.get(Weakest.getRuleID());
+				}
+				if ((RuleIndex != -2) && !Make_Capacity) {
+					Predicted_Eviction_Slot[Shard_Of (Integer.parseInt(input.getAppID()))] = RuleIndex;
+					format_correct = true;
+				}
+				else if (RuleIndex != -2) { //a low priority App and a low priority rule found
+					Audit_Ring.publish(AuditRing.EVICTED, RuleIDInventory.get(RuleIndex), input.getRuleID());
+					Greeting_Message = DeleteFromRuleCatalog (RuleIDInventory.get(RuleIndex), Integer.toString(LowPriorityApp), RuleIndex);							
 					format_correct = true;
 				}
 				else {
@@ -310,7 +550,7 @@ public class AntivirusImpl implements AntivirusService {
 				}
 			}
 		}
-		else if ((RuleNumber_part > 0) && (dynamic_capacity != 0)) 
+		else if ((RuleNumber_part > 0) && Has_Capacity) 
 		{
 			format_correct = true && format_correct;
 		}
@@ -355,6 +595,10 @@ public class AntivirusImpl implements AntivirusService {
 	}
 	
 	public boolean check_format_RuleID (ApplicationHelloInput input) {
+		return check_format_RuleID (input, true);
+	}
+	
+	public boolean check_format_RuleID (ApplicationHelloInput input, boolean Make_Capacity) {
 		
 		boolean correct_format = false;
 	    boolean format_correct = true;
@@ -392,10 +636,10 @@ public class AntivirusImpl implements AntivirusService {
 				RuleNumber_part = Integer.parseInt(str);
 				
 				if (Mode == 2) {
-					format_correct = HandleResourceAllocationAsAnOptimizationProblem (input, RuleNumber_part);
+					format_correct = HandleResourceAllocationAsAnOptimizationProblem (input, RuleNumber_part, Make_Capacity);
 				}
 				else {
-					if ((RuleNumber_part > 0) && (RuleNumber_part <= Threshold_Inventory[AppID_part])) 
+					if ((RuleNumber_part > 0) && (RuleNumber_part <= Get_Threshold(AppID_part))) 
 					{
 						format_correct = true && format_correct;
 					}
@@ -421,95 +665,16 @@ public class AntivirusImpl implements AntivirusService {
 		return correct_format;
 	}
 		
-	public int FindLowestPriorityRuleForAnApplication (int AppIDToBeMatched) {
-		int Rule_Index = -2;
-		int currentAppID;
-		int LowestPriority = 65535;
-		
-		for (int i = 0; i < Universal_Counter; i++) {
-			currentAppID = FindAppIDFromRuleID(RuleIDInventory[i]);
-			if (currentAppID == AppIDToBeMatched) {
-				if (PriorityInventory[i] <= LowestPriority) {
-					LowestPriority = PriorityInventory[i];
-					Rule_Index = i;
-				}
-				else {
-					continue;
-				}
-			}
-			else {
-				continue;
-			}
-		}
-		return Rule_Index;
+	/* ANY and NONE, in any case, match every port; the catalog stores both ports as "0" for them. */
+	static boolean Is_Any_Port (String Port) {
+		return "ANY".equalsIgnoreCase(Port) || "NONE".equalsIgnoreCase(Port);
 	}
 	
-	public int FindLowPriorityApp (int currentAppPriority, int AppID) {
-
-		int LowPriorityApp = -2;
-		
-		for (int i = 0; i < App_Precedence.length; i++) {				
-			if (i != AppID) {
-				
-				if (currentAppPriority == 2) {
-					//identify Apps; first with precedence 0 and then with precedence 1. 
-					if (App_Precedence[i] == 0) {
-						
-						if (App_Inventory[i] != 0) {
-							LowPriorityApp = i;
-							break;
-						}
-						else {
-							// do nothing
-						}
-					}
-					else if (App_Precedence[i] == 1) {
-						
-						if (App_Inventory[i] != 0) {
-							LowPriorityApp = i;
-							break;
-						}
-						else {
-							// do nothing
-						}
-					}
-					else {
-						// do nothing 
-					}
-				}
-				else if (currentAppPriority == 1) {
-					if (App_Precedence[i] == 0) {
-						if (App_Inventory[i] != 0) {
-							LowPriorityApp = i;
-							break;
-						}
-						else {
-							// do nothing
-						}
-					}
-				}
-				else { // currentAppPriority == 0, so do nothing
-					// do nothing
-				}
-			}
-			else { // skip if i == AppID
-				continue;
-				}
-			}
-		return LowPriorityApp;
-		}
-	
 	public boolean check_format_ports (String port) {
 		
 		boolean correct_format = false;
-		String ANY = "ANY";
-		String NONE = "NONE";
-		String any = "any";
-		String none = "none";
-		String Any = "Any";
-		String None = "None";
-		
-		if ((port.equals(ANY)) || (port.equals(NONE)) || (port.equals(any)) || (port.equals(none)) || (port.equals(Any)) || (port.equals(None)))
+		
+		if (Is_Any_Port (port))
 		{
 			correct_format = true;
 		}
@@ -544,65 +709,12 @@ public class AntivirusImpl implements AntivirusService {
 		return correct_format;
 	}
 			
+	/* IPv4 "X.X.X.X/X." or IPv6 "X:X::X/X.", the trailing dot being optional; see IPPrefix. */
 	public boolean check_format_IP_address (String IP_address) {
-		int number_of_dots = 0;
-		int k = 0;
-	    StringBuilder sb = new StringBuilder();
-	    boolean format_correct = true;
-	    boolean correct_format = false;
-	    int backslash = 0;
-        String str;
-		
-	    for (int i = 0; i < IP_address.length(); i++)
-	    {
-            if (IP_address.charAt(i) == '.') 
-            {
-                str = sb.toString();
-                k = Integer.parseInt(str);
-	                
-                if (backslash == 0) {
-                    if ((k >= 0) && (k <= 255))
-                    {
-                        str = "";
-                        sb = new StringBuilder();
-                        format_correct = true && format_correct;
-                    }
-                    else 
-                    {
-                        format_correct = false;
-                    }                	                            	
-                }
-                else {
-                	if ((k >= 8) || (k <= 32)) {
-                		format_correct = true && format_correct;
-                	}
-                	else {
-                		format_correct = false;
-                	}
-                }
-
-                number_of_dots = number_of_dots + 1;
-            }
-            else if (IP_address.charAt(i) == '/') {
-            	backslash = 1;
-            }
-	        else 
-	        {
-	            sb.append(IP_address.charAt(i));
-	        }
-	  }
-	        
-	  if ((number_of_dots == 4) && (backslash == 1) && (format_correct)) 
-	  {
-		  correct_format = true;
-	  }
-	  else
-	  {
-		  correct_format = false;
-	  }
-	  return correct_format;
+		return IPPrefix.parse(IP_address) != null;
 	}
 
+
 	public boolean check_Password (String Password, int AppID) {
 		boolean PasswordCorrect = false;
 		
@@ -617,9 +729,36 @@ public class AntivirusImpl implements AntivirusService {
 	}
 
 	public String checkInputFormat (ApplicationHelloInput input) {
+		String Greeting_Message = Format_Error_Message (input, true);
+		
+		if (Greeting_Message == null)
+		{
+				Greeting_Message = Decision_Engine (input);				
+		}
+		return Greeting_Message;
+	}
+	
+	/* As above, with the registry already read by Find_Registered_Rule_ID before the shard locks were taken. */
+	private String checkInputFormat (ApplicationHelloInput input, String Registry_Result) {
+		String Greeting_Message = Format_Error_Message (input, true);
+		
+		if (Greeting_Message == null)
+		{
+				Greeting_Message = Decision_Engine (input, Registry_Result);
+		}
+		return Greeting_Message;
+	}
+	
+	/* Returns why the input is malformed, or null if it is well formed. In Mode 2 the Rule ID check may evict a rule,
+	 * unless Make_Capacity is false. */
+	public String Format_Error_Message (ApplicationHelloInput input, boolean Make_Capacity) {
+		return Stateless_Error_Message (input, check_format_RuleID (input, Make_Capacity));
+	}
+	
+	/* The checks that only look at the rule itself, given the outcome of the stateful Rule ID check. */
+	public String Stateless_Error_Message (ApplicationHelloInput input, boolean check_Rule_ID_format) {
 		String Greeting_Message = null;
 		boolean check_Operation_format = check_format_Operation (input.getOperation());
-		boolean check_Rule_ID_format = check_format_RuleID (input); 
 		boolean check_format_SourceIP = check_format_IP_address (input.getSourceIP());
 		boolean check_format_DestinationIP = check_format_IP_address (input.getDestinationIP());
 		boolean check_source_port_format = check_format_ports (input.getSourcePort());
@@ -631,11 +770,7 @@ public class AntivirusImpl implements AntivirusService {
 				               && check_format_DestinationIP && check_source_port_format && check_destination_port_format 
 				               && check_format_action;
 		
-		if (check_format)
-		{
-				Greeting_Message = Decision_Engine (input);				
-		}
-		else
+		if (!check_format)
 		{
 			if (check_Operation_format == false) 
 			{
@@ -644,7 +779,7 @@ public class AntivirusImpl implements AntivirusService {
 			else if (check_Rule_ID_format == false) 
 			{
 				Greeting_Message = "Check Rule ID format, X:Y. (X is the AppID and Y is the rule number). Make sure rule number is within limits (Limit = " +
-						Threshold_Inventory[current_AppID] +").";
+						Get_Threshold(current_AppID) +").";
 			}
 			else if (check_format_SourceIP == false)
 			{
@@ -749,124 +884,538 @@ public class AntivirusImpl implements AntivirusService {
 	public String UpdateRuleCatalog (ApplicationHelloInput input) {
 
 		String Greeting_Message = null;
-				
-		RuleIDInventory [Universal_Counter] = input.getRuleID();
-		SourceIPInventory [Universal_Counter] = input.getSourceIP();
-		DestinationIPInventory [Universal_Counter] = input.getDestinationIP();
-		PriorityInventory[Universal_Counter] = input.getPriority();
-		ActionInventory[Universal_Counter] = input.getAction();
-		
-		if ( (input.getSourcePort().equals("ANY")) || (input.getSourcePort().equals("NONE")) || (input.getSourcePort().equals("any")) || (input.getSourcePort().equals("none"))
-			 || (input.getSourcePort().equals("Any")) || (input.getSourcePort().equals("None")))
-		{
-			SourcePortInventory [Universal_Counter] = "0";
-			DestinationPortInventory [Universal_Counter] = "0";
-		}
-		else {
-			SourcePortInventory [Universal_Counter] = input.getSourcePort();				
-			DestinationPortInventory [Universal_Counter] = input.getDestinationPort();
+		
+		if (!Capacity_Lease.tryAcquire()) { // the cluster-wide capacity C is used up
+			Audit_Ring.publish(AuditRing.REJECTED_FULL, input.getRuleID(), null);
+			return "Rule ID: " + input.getRuleID() + " for App ID: " + input.getAppID() + " not stored. The configuration datastore is full.";
 		}
+		Fill_Rule_Slot (input);
 		
 		writeToRuleRegistry(input);
-		App_Inventory[Integer.parseInt(input.getAppID())] = App_Inventory[Integer.parseInt(input.getAppID())] + 1;
+		Audit_Ring.publish(AuditRing.STORED, input.getRuleID(), null);
+		Applied_Decisions[Shard_Of (input)]++;
 		Greeting_Message = "Rule ID: " + input.getRuleID() + " for App ID: " +input.getAppID() + " stored.";										
-
-		Universal_Counter = Universal_Counter + 1;
-		dynamic_capacity = dynamic_capacity - 1; // Required for third mode of operation, i.e., Resource Allocation as an Optimization Problem.
 		
-		if (Mode == 2) {
-			Threshold_Inventory = Set_Threshold_Inventory (Mode);
+		return Greeting_Message;		
+	}
+	
+	/* Stores a rule in the next free slot of its application's shard and indexes it; the caller holds that shard, has
+	 * taken its slot from Capacity_Lease and takes care of the datastore. */
+	private void Fill_Rule_Slot (ConfigurationRules input) {
+		Index_Rule_Slot (input);
+		App_Inventory.acquire(Integer.parseInt(input.getAppID()));
+	}
+	
+	/* Fill_Rule_Slot without the App_Inventory count. Returns the slot. */
+	private int Index_Rule_Slot (ConfigurationRules input) {
+		int Shard = Shard_Of (input);
+		int Slot = Shard * C + Shard_Counter.get(Shard);
+		RuleIDInventory.set(Slot, input.getRuleID());
+		SourceIPInventory.set(Slot, IPPrefix.parse(input.getSourceIP()));
+		DestinationIPInventory.set(Slot, IPPrefix.parse(input.getDestinationIP()));
+		PriorityInventory.set(Slot, input.getPriority());
+		ActionInventory.set(Slot, input.getAction());
+		
+		if (Is_Any_Port (input.getSourcePort()))
+		{
+			SourcePortInventory.set(Slot, "0");
+			DestinationPortInventory.set(Slot, "0");
 		}
 		else {
-			Threshold_Inventory = Threshold_Inventory;
+			SourcePortInventory.set(Slot, input.getSourcePort());				
+			DestinationPortInventory.set(Slot, input.getDestinationPort());
 		}
-		return Greeting_Message;		
+		Rule_Tuple_Index.put(SourceIPInventory.get(Slot), DestinationIPInventory.get(Slot), SourcePortInventory.get(Slot),
+				DestinationPortInventory.get(Slot), PriorityInventory.get(Slot), input.getRuleID());
+		Rule_Slot_Index.put(input.getRuleID(), Slot);
+		Rule_ID_Filter.add(input.getRuleID());
+		Eviction_Index.add(input.getRuleID(), App_Precedence[Integer.parseInt(input.getAppID())], PriorityInventory.get(Slot));
+		Rule_Digest.put(Integer.parseInt(input.getAppID()), input.getRuleID(), Rule_Hash(Slot));
+		IndexAppRule (input.getRuleID());
+		Schedule_Expiry (input);
+
+		Shard_Counter.incrementAndGet(Shard);
+		return Slot;
 	}
 	
 	public String DeleteFromRuleCatalog (String RuleID, String AppID, int indexToBeDeleted) {
 		String Greeting_Message = null;
 		deletefromRuleRegistry (RuleID);
-		App_Inventory[Integer.parseInt(AppID)] = App_Inventory[Integer.parseInt(AppID)] - 1;
 		
 		Greeting_Message = "Rule ID: " + RuleID + "for App ID: " + AppID + " deleted.";
-		RuleIDInventory = DeleteEntryFromStringArray (indexToBeDeleted, RuleIDInventory);
-		SourceIPInventory = DeleteEntryFromStringArray (indexToBeDeleted, SourceIPInventory);
-		DestinationIPInventory = DeleteEntryFromStringArray (indexToBeDeleted, DestinationIPInventory);
-		SourcePortInventory = DeleteEntryFromStringArray (indexToBeDeleted, SourcePortInventory);
-		DestinationPortInventory = DeleteEntryFromStringArray (indexToBeDeleted, DestinationPortInventory);
-		PriorityInventory = DeleteEntryFromIntegerArray (indexToBeDeleted, PriorityInventory);
-		ActionInventory = DeleteEntryFromStringArray (indexToBeDeleted, ActionInventory);
-
-		Universal_Counter = Universal_Counter - 1;
-		dynamic_capacity = dynamic_capacity + 1; // Required for third mode of operation, i.e., Resource Allocation as an Optimization Problem.
+		RemoveRuleSlot (indexToBeDeleted);
+		
+		return Greeting_Message;		
+	}
+	
+	/* Drops a rule from the in-memory catalog, its indexes and App_Inventory; the caller holds the rule's shard and takes
+	 * care of the datastore. */
+	private void RemoveRuleSlot (int indexToBeDeleted) {
+		int AppID = Unindex_Rule_Slot (indexToBeDeleted);
+		Capacity_Lease.release();
+		App_Inventory.release(AppID); // Required for third mode of operation; also its threshold, see Get_Threshold.
+	}
+	
+	/* RemoveRuleSlot without giving the rule's capacity back. Returns the AppID of the rule. */
+	private int Unindex_Rule_Slot (int indexToBeDeleted) {
+		int AppID = FindAppIDFromRuleID(RuleIDInventory.get(indexToBeDeleted));
+		UnindexAppRule (RuleIDInventory.get(indexToBeDeleted));
+		Rule_Tuple_Index.remove(SourceIPInventory.get(indexToBeDeleted), DestinationIPInventory.get(indexToBeDeleted), SourcePortInventory.get(indexToBeDeleted),
+				DestinationPortInventory.get(indexToBeDeleted), PriorityInventory.get(indexToBeDeleted), RuleIDInventory.get(indexToBeDeleted));
+		Rule_Slot_Index.remove(RuleIDInventory.get(indexToBeDeleted));
+		Rule_ID_Filter.remove(RuleIDInventory.get(indexToBeDeleted));
+		Eviction_Index.remove(RuleIDInventory.get(indexToBeDeleted));
+		Rule_Digest.remove(AppID, RuleIDInventory.get(indexToBeDeleted));
+		Cancel_Expiry (RuleIDInventory.get(indexToBeDeleted));
+		
+		// Fill the hole with the last rule stored in the shard instead of shifting every array down by one.
+		int Shard = Shard_Of_Slot (indexToBeDeleted);
+		int Stored = Shard_Counter.get(Shard) - 1;
+		int last = Shard * C + Stored;
+		if (indexToBeDeleted != last) {
+			MoveRuleSlot (last, indexToBeDeleted);
+		}
+		ClearRuleSlot (last);
 
-		if (Mode == 2) {
-			Threshold_Inventory = Set_Threshold_Inventory (Mode);
+		Shard_Counter.set(Shard, Stored);
+		TrimRuleSlots (Shard, Stored);
+		return AppID;
+	}
+	
+	/* Puts the input in the place of a duplicate or conflicting stored rule of another application, keeping its unit of
+	 * capacity. The input joins its own application's shard, so a rule of another shard gives up its slot there. The
+	 * caller holds both shards and takes care of the datastore. */
+	private void Replace_Rule_Slot (int slot, ApplicationHelloInput input, String Existing_RuleID) {
+		if (Shard_Of_Slot (slot) == Shard_Of (input)) {
+			RuleIDInventory.set(slot, input.getRuleID()); //overwrite existing RuleID
+			ActionInventory.set(slot, input.getAction()); // same action, possibly spelled differently
+			ReindexRuleSlot (slot, Existing_RuleID);
+			Schedule_Expiry (input);
 		}
 		else {
-			Threshold_Inventory = Threshold_Inventory;
+			Unindex_Rule_Slot (slot);
+			Index_Rule_Slot (input);
 		}
-		
-		return Greeting_Message;		
+		App_Inventory.transfer(FindAppIDFromRuleID (Existing_RuleID), Integer.parseInt(input.getAppID()));
 	}
 	
-	public String Decision_Engine (ApplicationHelloInput input) {
-		String Greeting_Message = null;
-		String [] parameters = {"false","-2","false","-2"};
-		int Operation = input.getOperation();
-		
-		String Existing_RuleID = null;
-		int AppID_part = -2;
-	    int High_Priority_App;
-		String result;
-		result = readFromruleRegistry (input.getRuleID());
-		
-		if (Universal_Counter == 0) {
-			if (Operation == 0) {
-				Greeting_Message = UpdateRuleCatalog (input);
+	/* The shard holding the rules of an application; anything that is not an App ID maps to some shard too. */
+	int Shard_Of (int AppID) {
+		return CatalogShards.shardOf(AppID, Number_of_Shards);
+	}
+	
+	private int Shard_Of (ConfigurationRules input) {
+		return Shard_Of (Integer.parseInt(input.getAppID()));
+	}
+	
+	int Shard_Of_Rule (String RuleID) {
+		return Shard_Of (FindAppIDFromRuleID (RuleID));
+	}
+	
+	int Shard_Of_Slot (int slot) {
+		return slot / C;
+	}
+	
+	/* Rules stored in every shard. Exact under Catalog_Lock.lock(), a moment's count otherwise. */
+	public int Stored_Rules () {
+		int Stored = 0;
+		for (int Shard = 0; Shard < Number_of_Shards; Shard++) {
+			Stored += Shard_Counter.get(Shard);
+		}
+		return Stored;
+	}
+	
+	/* The first slot at or after From that holds a rule, or -1; walks the stored rules of every shard in slot order:
+	 * for (int i = Next_Stored_Slot(0); i != -1; i = Next_Stored_Slot(i + 1)). */
+	int Next_Stored_Slot (int From) {
+		for (int Shard = Math.max(From, 0) / Math.max(C, 1); Shard < Number_of_Shards; Shard++) {
+			int Slot = Math.max(From, Shard * C);
+			if (Slot < Shard * C + Shard_Counter.get(Shard)) {
+				return Slot;
 			}
-			else if (Operation == 1) {
-    			Greeting_Message = "Rule ID: " + input.getRuleID() + " for App ID: " +input.getAppID() + " does not exist.";									
+		}
+		return -1;
+	}
+	
+	private void IndexAppRule (String RuleID) {
+		int AppID = FindAppIDFromRuleID(RuleID);
+		NavigableSet<String> Rules = App_Rule_Index.get(AppID);
+		if (Rules == null) {
+			Rules = new TreeSet<String>();
+			App_Rule_Index.put(AppID, Rules);
+		}
+		Rules.add(RuleID);
+	}
+	
+	private void UnindexAppRule (String RuleID) {
+		Set<String> Rules = App_Rule_Index.get(FindAppIDFromRuleID(RuleID));
+		if (Rules != null) {
+			Rules.remove(RuleID);
+		}
+	}
+	
+	private void MoveRuleSlot (int from, int to) {
+		RuleIDInventory.set(to, RuleIDInventory.get(from));
+		SourceIPInventory.set(to, SourceIPInventory.get(from));
+		DestinationIPInventory.set(to, DestinationIPInventory.get(from));
+		SourcePortInventory.set(to, SourcePortInventory.get(from));
+		DestinationPortInventory.set(to, DestinationPortInventory.get(from));
+		PriorityInventory.set(to, PriorityInventory.get(from));
+		ActionInventory.set(to, ActionInventory.get(from));
+		Rule_Slot_Index.put(RuleIDInventory.get(to), to);
+	}
+	
+	/* Gives back the inventory segments that a shrinking shard no longer uses. */
+	private void TrimRuleSlots (int Shard, int size) {
+		RuleIDInventory.trimTo(Shard, size);
+		SourceIPInventory.trimTo(Shard, size);
+		DestinationIPInventory.trimTo(Shard, size);
+		SourcePortInventory.trimTo(Shard, size);
+		DestinationPortInventory.trimTo(Shard, size);
+		PriorityInventory.trimTo(Shard, size);
+		ActionInventory.trimTo(Shard, size);
+	}
+	
+	private void ClearRuleSlot (int slot) {
+		RuleIDInventory.set(slot, null);
+		SourceIPInventory.set(slot, null);
+		DestinationIPInventory.set(slot, null);
+		SourcePortInventory.set(slot, "");
+		DestinationPortInventory.set(slot, "");
+		PriorityInventory.set(slot, 0);
+		ActionInventory.set(slot, "");
+	}
+	
+	/* Starts the rule's TTL, if it has one. Runs under the rule's shard lock, and synchronized on the wheel like every
+	 * change to it. */
+	private void Schedule_Expiry (ConfigurationRules input) {
+		Long TTL = input.getTTL();
+		if (TTL == null || TTL <= 0) {
+			return;
+		}
+		long Ticks = (TTL * 1000 + Expiry_Tick_Millis - 1) / Expiry_Tick_Millis;
+		synchronized (Rule_Expiry) {
+			Rule_Expiry_Timers.put(input.getRuleID(), Rule_Expiry.schedule(input.getRuleID(), Current_Expiry_Tick() + Ticks));
+		}
+	}
+	
+	private void Cancel_Expiry (String RuleID) {
+		synchronized (Rule_Expiry) {
+			TimingWheel.Timeout<String> Timeout = Rule_Expiry_Timers.remove(RuleID);
+			if (Timeout != null) {
+				Rule_Expiry.cancel(Timeout);
 			}
-			else {
-				// do nothing
+		}
+	}
+	
+	/* Hash of the rule held in a slot, computed as RuleReconciler computes it for the same rule read from the datastore. */
+	long Rule_Hash (int slot) {
+		return RuleDigest.hash(RuleIDInventory.get(slot), SourceIPInventory.get(slot).toString(), DestinationIPInventory.get(slot).toString(),
+				SourcePortInventory.get(slot), DestinationPortInventory.get(slot), PriorityInventory.get(slot), ActionInventory.get(slot));
+	}
+	
+	/* The registry entry of the rule held in a slot, as it should be in the datastore; used to repair it. */
+	ConfigurationRulesRegistryEntry Registry_Entry (int slot) {
+		String RuleID = RuleIDInventory.get(slot);
+		return new ConfigurationRulesRegistryEntryBuilder()
+				.setAppID(Integer.toString(FindAppIDFromRuleID(RuleID)))
+				.setOperation((short) 0)
+				.setRuleID(RuleID)
+				.setSourceIP(SourceIPInventory.get(slot).toString())
+				.setDestinationIP(DestinationIPInventory.get(slot).toString())
+				.setSourcePort(SourcePortInventory.get(slot))
+				.setDestinationPort(DestinationPortInventory.get(slot))
+				.setPriority(PriorityInventory.get(slot))
+				.setAction(ActionInventory.get(slot))
+				.setTTL(Remaining_TTL(RuleID))
+				.build();
+	}
+	
+	/* Seconds left before the rule expires, rounded up, or null if it has no TTL. */
+	private Long Remaining_TTL (String RuleID) {
+		TimingWheel.Timeout<String> Timeout;
+		synchronized (Rule_Expiry) {
+			Timeout = Rule_Expiry_Timers.get(RuleID);
+		}
+		if (Timeout == null) {
+			return null;
+		}
+		long Millis = Math.max(1, Timeout.getDeadline() - Current_Expiry_Tick()) * Expiry_Tick_Millis;
+		return (Millis + 999) / 1000;
+	}
+	
+	long Current_Expiry_Tick () {
+		return (System.nanoTime() - Expiry_Origin) / TimeUnit.MILLISECONDS.toNanos(Expiry_Tick_Millis);
+	}
+	
+	private void Start_Rule_Expiry () {
+		Expiry_Ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "antivirus-expiry");
+				t.setDaemon(true);
+				return t;
 			}
+		});
+		Expiry_Ticker.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Expire_Rules (Current_Expiry_Tick());
+				}
+				catch (RuntimeException e) {
+					LOG.warn("Expiring rules failed", e);
+				}
+			}
+		}, Expiry_Tick_Millis, Expiry_Tick_Millis, TimeUnit.MILLISECONDS);
+		if (Capacity_Lease_Idle_Millis > 0) {
+			Expiry_Ticker.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Capacity_Lease.returnIdle();
+					}
+					catch (RuntimeException e) {
+						LOG.warn("Returning idle rule slots failed", e);
+					}
+				}
+			}, Capacity_Lease_Idle_Millis, Capacity_Lease_Idle_Millis, TimeUnit.MILLISECONDS);
 		}
-		
-		else if ((result == "Rule Found") && (Operation == 0)) // do not allow Rules with same IDs to exist in configuration datastore.
-		{
-				Greeting_Message = ("Rule with Rule ID : " + input.getRuleID() + "already exists.");
+	}
+	
+	/* Deletes the rules whose TTL ran out by Now_Tick, Expiry_Batch_Size rules per datastore transaction. Each rule is
+	 * deleted under the lock of its own shard only, so a burst of expiries does not hold up Application-hello in the
+	 * other shards. Returns the rules deleted. */
+	int Expire_Rules (long Now_Tick) {
+		List<TimingWheel.Timeout<String>> Expired = new ArrayList<TimingWheel.Timeout<String>>();
+		synchronized (Rule_Expiry) {
+			Rule_Expiry.advance(Now_Tick, Expired);
 		}
-			
-		else {
-			parameters = FindDuplicateConflictingRule (input);
-			
-			if (parameters[0].equals("true")) { // Duplicate Rule Found
-				// check if the operation was to add a rule or delete a rule.
-				if (Operation == 0) {
-					// do not store.
-					Existing_RuleID = RuleIDInventory[Integer.parseInt(parameters[1])]; //Rule ID has format AppID:Rule Number
-					AppID_part = FindAppIDFromRuleID (Existing_RuleID);
-					High_Priority_App = FindHighPriorityApp (Integer.parseInt(input.getAppID()), AppID_part);
-					if (High_Priority_App == AppID_part) {
-						Greeting_Message = "The rule already exists with App ID: " + AppID_part;						
-						// do nothing
+		
+		int Deleted = 0;
+		for (int From = 0; From < Expired.size(); From += Expiry_Batch_Size) {
+			WriteTransaction transaction = null;
+			for (int i = From; i < Math.min(From + Expiry_Batch_Size, Expired.size()); i++) {
+				TimingWheel.Timeout<String> Timeout = Expired.get(i);
+				String RuleID = Timeout.getKey();
+				int Shard = Shard_Of_Rule (RuleID);
+				Catalog_Lock.lock(Shard);
+				try {
+					Integer Slot = Rule_Slot_Index.get(RuleID);
+					synchronized (Rule_Expiry) {
+						if (Slot == null || Rule_Expiry_Timers.get(RuleID) != Timeout) {
+							continue; // deleted, or deleted and stored again, since the wheel fired
+						}
+						Rule_Expiry_Timers.remove(RuleID);
 					}
-					else if (High_Priority_App == Integer.parseInt(input.getAppID())) {
-						deletefromRuleRegistry (RuleIDInventory[Integer.parseInt(parameters[1])]);
-		    			App_Inventory[AppID_part] = App_Inventory[AppID_part] - 1;						
-		    			
-						writeToRuleRegistry(input);
-		    			App_Inventory[Integer.parseInt(input.getAppID())] = App_Inventory[Integer.parseInt(input.getAppID())] + 1;
-
-						RuleIDInventory[Integer.parseInt(parameters[1])]= input.getRuleID(); //overwrite existing RuleID
-						Greeting_Message = "Duplicate Rule Found. Replaced with High Priority App having AppID : " + input.getAppID();						
+					if (transaction == null) {
+						transaction = db.newWriteOnlyTransaction();
 					}
+					transaction.delete(LogicalDatastoreType.CONFIGURATION, toInstanceIdentifier(RuleID));
+					Rule_IID_Cache.invalidate(RuleID);
+					RemoveRuleSlot (Slot);
+					Audit_Ring.publish(AuditRing.EXPIRED, RuleID, null);
+					Deleted++;
 				}
-				else if (Operation == 1) {
+				finally {
+					Catalog_Lock.unlock(Shard);
+				}
+			}
+			if (transaction != null) {
+				CheckedFuture<Void, TransactionCommitFailedException> future = transaction.submit();
+				Futures.addCallback(future, new LoggingFuturesCallBack<Void>("Failed to delete expired rules", LOG));
+			}
+		}
+		return Deleted;
+	}
+	
+	/* Loads the rules of the locally owned applications back from the CONFIGURATION registry, so that a restarted
+	 * controller decides against the rules it stored before, and Rule_ID_Filter knows their Rule IDs. Run at startup,
+	 * before any rule is decided. A restored TTL counts from the restart. The capacity pool is then told how many slots
+	 * the restored rules take, in place of what it counted for this member before the restart, rather than the slots
+	 * being acquired once more on top of it. */
+	int Restore_Rule_Catalog () {
+		ReadOnlyTransaction transaction = db.newReadOnlyTransaction();
+		Optional<ConfigurationRulesRegistry> Registry;
+		try {
+			Registry = transaction.read(LogicalDatastoreType.CONFIGURATION,
+					InstanceIdentifier.create(ConfigurationRulesRegistry.class)).checkedGet();
+		} catch (ReadFailedException e) {
+			LOG.warn("Reading the rule registry failed, starting with an empty catalog:", e);
+			return 0;
+		} finally {
+			transaction.close();
+		}
+		if (!Registry.isPresent() || Registry.get().getConfigurationRulesRegistryEntry() == null) {
+			return 0;
+		}
+		int Restored = 0;
+		Catalog_Lock.lock();
+		try {
+			for (ConfigurationRulesRegistryEntry Entry : Registry.get().getConfigurationRulesRegistryEntry()) {
+				int AppID;
+				try {
+					AppID = Integer.parseInt(Entry.getAppID());
+				} catch (NumberFormatException e) {
+					AppID = -1;
+				}
+				if (AppID < 0 || AppID >= Number_of_Applications || Entry.getRuleID() == null || Rule_Slot_Index.containsKey(Entry.getRuleID())) {
+					Skip_Restore (Entry, "Its App ID or Rule ID is not valid, or the Rule ID is taken.");
+					continue;
+				}
+				if (!Ownership.isLocallyOwned(AppID)) {
+					if (Remote_Rules != null) {
+						Remote_Rules.put(Entry);
+					}
+					Rule_ID_Filter.add(Entry.getRuleID());
+					continue; // restored by its owner
+				}
+				String Error_Message = Restore_Error_Message (Entry, AppID);
+				if (Error_Message != null) {
+					Skip_Restore (Entry, Error_Message);
+					continue;
+				}
+				if (Restored >= C) {
+					Skip_Restore (Entry, "The configuration datastore is full.");
+					continue;
+				}
+				Fill_Rule_Slot (Entry);
+				Restored++;
+			}
+			Capacity_Lease.restore(Restored);
+		} finally {
+			Catalog_Lock.unlock();
+		}
+		LOG.info("Restored {} rules from the rule registry", Restored);
+		return Restored;
+	}
+	
+	/* Why a registry entry of a locally owned application cannot be restored, or null. It gets the field checks of a new
+	 * rule, so that a malformed entry is left out instead of failing once it is indexed. */
+	private String Restore_Error_Message (ConfigurationRulesRegistryEntry Entry, int AppID) {
+		try {
+			if ((Entry.getPriority() == null) || (FindAppIDFromRuleID (Entry.getRuleID()) != AppID)) {
+				return "It is incomplete or could not be parsed.";
+			}
+			return Stateless_Error_Message (new ApplicationHelloInputBuilder(Entry).setOperation((short) 0).build(), true);
+		}
+		catch (NumberFormatException | NullPointerException e) {
+			return "It is incomplete or could not be parsed.";
+		}
+	}
+	
+	/* An entry left out of the catalog keeps its Rule ID in Rule_ID_Filter, so that a request reusing the Rule ID still
+	 * reads the registry and finds it taken. */
+	private void Skip_Restore (ConfigurationRulesRegistryEntry Entry, String Reason) {
+		LOG.warn("Rule ID: {} of the rule registry not restored. {}", Entry.getRuleID(), Reason);
+		if (Entry.getRuleID() != null) {
+			Rule_ID_Filter.add(Entry.getRuleID());
+		}
+	}
+	
+	/* Re-points the indexes after the rule stored in a slot has been overwritten by another application's rule. */
+	private void ReindexRuleSlot (int slot, String Old_RuleID) {
+		Rule_Slot_Index.remove(Old_RuleID);
+		Rule_Slot_Index.put(RuleIDInventory.get(slot), slot);
+		Rule_ID_Filter.remove(Old_RuleID);
+		Rule_ID_Filter.add(RuleIDInventory.get(slot));
+		Eviction_Index.remove(Old_RuleID);
+		Eviction_Index.add(RuleIDInventory.get(slot), App_Precedence[FindAppIDFromRuleID(RuleIDInventory.get(slot))], PriorityInventory.get(slot));
+		Rule_Digest.remove(FindAppIDFromRuleID(Old_RuleID), Old_RuleID);
+		Rule_Digest.put(FindAppIDFromRuleID(RuleIDInventory.get(slot)), RuleIDInventory.get(slot), Rule_Hash(slot));
+		Cancel_Expiry (Old_RuleID);
+		UnindexAppRule (Old_RuleID);
+		IndexAppRule (RuleIDInventory.get(slot));
+		Rule_Tuple_Index.put(SourceIPInventory.get(slot), DestinationIPInventory.get(slot), SourcePortInventory.get(slot),
+				DestinationPortInventory.get(slot), PriorityInventory.get(slot), RuleIDInventory.get(slot));
+	}
+	
+	public String Decision_Engine (ApplicationHelloInput input) {
+		return Decision_Engine (input, Find_Registered_Rule_ID (input.getRuleID()));
+	}
+	
+	/* "Rule Found" if the CONFIGURATION registry holds the Rule ID, otherwise null. Rule_ID_Filter spares the read for
+	 * most new Rule IDs. HandleApplicationHello calls it before taking any shard lock, so that the reads of concurrent
+	 * requests overlap instead of queueing behind the lock; Decision_Engine checks the answer against the catalog. */
+	private String Find_Registered_Rule_ID (String RuleID) {
+		String result = null;
+		if ((RuleID != null) && Rule_ID_Filter.mightContain(RuleID)) {
+			result = readFromruleRegistry (RuleID);
+			if (result == null) {
+				Rule_ID_Filter.recordFalsePositive();
+			}
+		}
+		return result;
+	}
+	
+	/* Decides the input given Registry_Result, the answer of Find_Registered_Rule_ID. That may have been read before the
+	 * shard locks were taken, so it is checked again under them: a Rule ID in Rule_Slot_Index is stored whatever the read
+	 * said, and one Rule_ID_Filter no longer knows was deleted since. A Rule ID lives in the shard of its own application,
+	 * which the caller holds, so neither can change until the decision is made. */
+	public String Decision_Engine (ApplicationHelloInput input, String Registry_Result) {
+		input = Canonical_Addresses (input);
+		String Greeting_Message = null;
+		String [] parameters = {"false","-2","false","-2"};
+		int Operation = input.getOperation();
+		
+		String Existing_RuleID = null;
+		int AppID_part = -2;
+	    int High_Priority_App;
+		String result = Registry_Result;
+		if (Rule_Slot_Index.containsKey(input.getRuleID())) {
+			result = "Rule Found";
+		}
+		else if ((result != null) && !Rule_ID_Filter.mightContain(input.getRuleID())) {
+			result = null;
+		}
+		
+		if (Stored_Rules() == 0) {
+			if (Operation == 0) {
+				Greeting_Message = Store_New_Rule (input);
+			}
+			else if (Operation == 1) {
+    			Greeting_Message = "Rule ID: " + input.getRuleID() + " for App ID: " +input.getAppID() + " does not exist.";									
+			}
+			else {
+				// do nothing
+			}
+		}
+		
+		else if ((result == "Rule Found") && (Operation == 0)) // do not allow Rules with same IDs to exist in configuration datastore.
+		{
+				Greeting_Message = ("Rule with Rule ID : " + input.getRuleID() + "already exists.");
+		}
+			
+		else {
+			parameters = FindDuplicateConflictingRule (input);
+			
+			if (parameters[0].equals("true")) { // Duplicate Rule Found
+				// check if the operation was to add a rule or delete a rule.
+				if (Operation == 0) {
+					// do not store.
+					Existing_RuleID = RuleIDInventory.get(Integer.parseInt(parameters[1])); //Rule ID has format AppID:Rule Number
+					AppID_part = FindAppIDFromRuleID (Existing_RuleID);
+					High_Priority_App = FindHighPriorityApp (Integer.parseInt(input.getAppID()), AppID_part);
+					if (High_Priority_App == AppID_part) {
+						Audit_Ring.publish(AuditRing.DUPLICATE_KEPT, input.getRuleID(), Existing_RuleID);
+						Greeting_Message = "The rule already exists with App ID: " + AppID_part;						
+						// do nothing
+					}
+					else if (High_Priority_App == Integer.parseInt(input.getAppID())) {
+						deletefromRuleRegistry (RuleIDInventory.get(Integer.parseInt(parameters[1])));
+						writeToRuleRegistry(input);
+						Replace_Rule_Slot (Integer.parseInt(parameters[1]), input, Existing_RuleID);
+						Audit_Ring.publish(AuditRing.DUPLICATE_REPLACED, input.getRuleID(), Existing_RuleID);
+						Applied_Decisions[Shard_Of (input)]++;
+						Greeting_Message = "Duplicate Rule Found. Replaced with High Priority App having AppID : " + input.getAppID();						
+					}
+				}
+				else if (Operation == 1) {
 				// delete the rule
-					if (input.getRuleID().equals(RuleIDInventory[Integer.parseInt(parameters[1])]))
+					if (input.getRuleID().equals(RuleIDInventory.get(Integer.parseInt(parameters[1]))))
 					{
+						Audit_Ring.publish(AuditRing.DELETED, input.getRuleID(), null);
+						Applied_Decisions[Shard_Of (input)]++;
 						Greeting_Message = DeleteFromRuleCatalog (input.getRuleID(), input.getAppID(), Integer.parseInt(parameters[1]));
 		    		}
 		    		else
@@ -878,29 +1427,30 @@ public class AntivirusImpl implements AntivirusService {
 			else if (parameters[2].equals("true")) { //Conflicting Rule Found
 				if (Operation == 0) {
 					// do not store.
-					Existing_RuleID = RuleIDInventory[Integer.parseInt(parameters[3])]; //Rule ID has format AppID:Rule Number
+					Existing_RuleID = RuleIDInventory.get(Integer.parseInt(parameters[3])); //Rule ID has format AppID:Rule Number
 					AppID_part = FindAppIDFromRuleID (Existing_RuleID);
 					High_Priority_App = FindHighPriorityApp (Integer.parseInt(input.getAppID()), AppID_part);
 					if (High_Priority_App == AppID_part) {
+						Audit_Ring.publish(AuditRing.CONFLICT_KEPT, input.getRuleID(), Existing_RuleID);
 						Greeting_Message = "Conflict resolved. Keeping Rule with App ID: " + AppID_part;						
 						// do nothing
 					}
 					else if (High_Priority_App == Integer.parseInt(input.getAppID())) {
-						deletefromRuleRegistry (RuleIDInventory[Integer.parseInt(parameters[3])]);
-		    			App_Inventory[AppID_part] = App_Inventory[AppID_part] - 1;						
-		    			
+						deletefromRuleRegistry (RuleIDInventory.get(Integer.parseInt(parameters[3])));
 						writeToRuleRegistry(input);
-		    			App_Inventory[Integer.parseInt(input.getAppID())] = App_Inventory[Integer.parseInt(input.getAppID())] + 1;
-						RuleIDInventory[Integer.parseInt(parameters[3])] = input.getRuleID(); //overwrite existing RuleID
-						ActionInventory[Integer.parseInt(parameters[3])] = input.getAction();
+						Replace_Rule_Slot (Integer.parseInt(parameters[3]), input, Existing_RuleID);
+						Audit_Ring.publish(AuditRing.CONFLICT_REPLACED, input.getRuleID(), Existing_RuleID);
+						Applied_Decisions[Shard_Of (input)]++;
 						Greeting_Message = "Rule conflict Found. Replaced with High Priority App having AppID : " + input.getAppID();						
 					}
 				}
 				else if (Operation == 1) {
 				// delete the rule
-					if (input.getRuleID().equals(RuleIDInventory[Integer.parseInt(parameters[3])]) && 
-							(input.getAction().equals(ActionInventory[Integer.parseInt(parameters[3])])))
+					if (input.getRuleID().equals(RuleIDInventory.get(Integer.parseInt(parameters[3]))) && 
+							(input.getAction().equals(ActionInventory.get(Integer.parseInt(parameters[3])))))
 					{
+						Audit_Ring.publish(AuditRing.DELETED, input.getRuleID(), null);
+						Applied_Decisions[Shard_Of (input)]++;
 						Greeting_Message = DeleteFromRuleCatalog (input.getRuleID(), input.getAppID(), Integer.parseInt(parameters[3]));
 		    		}
 		    		else
@@ -912,7 +1462,7 @@ public class AntivirusImpl implements AntivirusService {
 			else { // The new rule is neither a conflicting rule nor a duplicate rule
 				LOG.info("Breakpoint119: The rule is neither a duplicate rule nor a conflicting rule.");
 				if (Operation == 0) {
-					Greeting_Message = UpdateRuleCatalog (input);
+					Greeting_Message = Store_New_Rule (input);
 				}
 				else if (Operation == 1) {
 	    			Greeting_Message = "Rule ID: " + input.getRuleID() + " for App ID: " +input.getAppID() + " does not exist.";					
@@ -925,9 +1475,160 @@ public class AntivirusImpl implements AntivirusService {
 		return Greeting_Message;
 	}
 			
+	/* Stores a rule that matches no rule of the catalog, unless it duplicates or conflicts with a rule of an application
+	 * another member owns. If that rule wins, it is kept; otherwise its member has to yield it first. That is a remote call,
+	 * so it is not made here, under the shard locks: a RemoteYield is thrown for With_Rule_Shards to make it once it has
+	 * let go of them, and the input is decided again afterwards. */
+	private String Store_New_Rule (ApplicationHelloInput input) {
+		RemoteYield Asked = Asked_Yield.get();
+		if ((Asked != null) && Asked.Replaced_By.equals(input.getRuleID())) {
+			Asked_Yield.remove();
+			return Store_In_Place_Of_Yielded (input, Asked);
+		}
+		RemoteRuleDirectory.Rule Remote = Find_Remote_Rule (input);
+		if (Remote == null) {
+			return UpdateRuleCatalog (input);
+		}
+		boolean Duplicate = SameAction (input.getAction(), Remote.getAction());
+		int AppID_part = FindAppIDFromRuleID (Remote.getRuleID());
+		if (FindHighPriorityApp (Integer.parseInt(input.getAppID()), AppID_part) == AppID_part) {
+			Audit_Ring.publish(Duplicate ? AuditRing.DUPLICATE_KEPT : AuditRing.CONFLICT_KEPT, input.getRuleID(), Remote.getRuleID());
+			return Duplicate ? "The rule already exists with App ID: " + AppID_part : "Conflict resolved. Keeping Rule with App ID: " + AppID_part;
+		}
+		// The slot is taken first: once the other member has deleted its rule, the new one must be stored.
+		if (!Capacity_Lease.tryAcquire()) {
+			Audit_Ring.publish(AuditRing.REJECTED_FULL, input.getRuleID(), null);
+			return "Rule ID: " + input.getRuleID() + " for App ID: " + input.getAppID() + " not stored. The configuration datastore is full.";
+		}
+		throw new RemoteYield (Remote.getRuleID(), Ownership.ownerOf(AppID_part), input.getRuleID(), Duplicate);
+	}
+	
+	/* Decided again after Asked's member was asked to yield its rule: the input was found new once more, so it takes the
+	 * slot acquired for it before the shard locks were let go. */
+	private String Store_In_Place_Of_Yielded (ApplicationHelloInput input, RemoteYield Asked) {
+		if (!Asked.Yielded) {
+			Capacity_Lease.release();
+			return "Rule ID: " + input.getRuleID() + " for App ID: " + input.getAppID() + " not stored. Rule ID: " + Asked.RuleID
+					+ " of cluster member " + Asked.Owner + " could not be replaced. Try Again!";
+		}
+		Fill_Rule_Slot (input);
+		writeToRuleRegistry(input);
+		Audit_Ring.publish(Asked.Duplicate ? AuditRing.DUPLICATE_REPLACED : AuditRing.CONFLICT_REPLACED, input.getRuleID(), Asked.RuleID);
+		Applied_Decisions[Shard_Of (input)]++;
+		return (Asked.Duplicate ? "Duplicate Rule Found. Replaced" : "Rule conflict Found. Replaced") + " with High Priority App having AppID : " + input.getAppID();
+	}
+	
+	/* The rule of another member's application with the same match tuple as the input, or null. */
+	private RemoteRuleDirectory.Rule Find_Remote_Rule (ApplicationHelloInput input) {
+		if (Remote_Rules == null) {
+			return null;
+		}
+		return Remote_Rules.find(IPPrefix.parse(input.getSourceIP()), IPPrefix.parse(input.getDestinationIP()), input.getSourcePort(),
+				input.getDestinationPort(), input.getPriority());
+	}
+	
+	/* Deletes a rule of this member in favour of a duplicate or conflicting rule that another member stores in its place.
+	 * The asking member holds none of its shard locks while it waits, but its caller does wait, so the rule's shard is
+	 * only waited for Yield_Timeout_Millis. */
+	public boolean Yield_Rule (String RuleID, String Replaced_By) {
+		int Shard;
+		try {
+			Shard = Shard_Of_Rule (RuleID);
+		}
+		catch (NumberFormatException | NullPointerException e) {
+			return false;
+		}
+		try {
+			if (!Catalog_Lock.tryLock(Shard, Yield_Timeout_Millis, TimeUnit.MILLISECONDS)) {
+				LOG.info("Rule ID: {} not yielded to {}: the catalog is busy.", RuleID, Replaced_By);
+				return false;
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		try {
+			Integer Slot = (RuleID == null) ? null : Rule_Slot_Index.get(RuleID);
+			if (Slot == null || Replaced_By == null || !check_format_AppID(Integer.toString(FindAppIDFromRuleID(Replaced_By)))) {
+				return false;
+			}
+			int AppID = FindAppIDFromRuleID(RuleID);
+			int Winner = FindAppIDFromRuleID(Replaced_By);
+			if (Winner >= Number_of_Applications || FindHighPriorityApp (Winner, AppID) != Winner) {
+				return false;
+			}
+			LOG.info("Rule ID: {} yielded to Rule ID: {} of another cluster member.", RuleID, Replaced_By);
+			DeleteFromRuleCatalog (RuleID, Integer.toString(AppID), Slot);
+			return true;
+		}
+		catch (NumberFormatException e) {
+			return false;
+		}
+		finally {
+			Catalog_Lock.unlock(Shard);
+		}
+	}
+	
+	/* Rewrites the source and destination prefixes in their canonical text, so that the datastore holds the same form
+	 * as the inventories: "010.0.0.1/32" is stored as "10.0.0.1/32.", and an IPv6 prefix in its RFC 5952 form. */
+	private ApplicationHelloInput Canonical_Addresses (ApplicationHelloInput input) {
+		IPPrefix SourceIP = IPPrefix.parse(input.getSourceIP());
+		IPPrefix DestinationIP = IPPrefix.parse(input.getDestinationIP());
+		if (SourceIP == null || DestinationIP == null) {
+			return input;
+		}
+		String Canonical_SourceIP = SourceIP.toString();
+		String Canonical_DestinationIP = DestinationIP.toString();
+		if (Canonical_SourceIP.equals(input.getSourceIP()) && Canonical_DestinationIP.equals(input.getDestinationIP())) {
+			return input;
+		}
+		return new ApplicationHelloInputBuilder(input)
+				.setSourceIP(Canonical_SourceIP)
+				.setDestinationIP(Canonical_DestinationIP)
+				.build();
+	}
+	
 	public String[] FindDuplicateConflictingRule (ApplicationHelloInput input) {
-		String SourceIP = input.getSourceIP();
-		String DestinationIP = input.getDestinationIP();
+		String SourcePort = input.getSourcePort();
+		String DestinationPort = input.getDestinationPort();
+		
+		if (SourcePort.equals("0") || DestinationPort.equals("0")) {
+			// A "0" port matches any stored port, which an exact tuple lookup cannot answer.
+			return ScanDuplicateConflictingRule (input);
+		}
+		
+		String [] parameters = {"false","-2","false","-2"};
+		String Existing_RuleID = Rule_Tuple_Index.get(IPPrefix.parse(input.getSourceIP()), IPPrefix.parse(input.getDestinationIP()), SourcePort, DestinationPort,
+				input.getPriority());
+		if (Existing_RuleID != null) {
+			// The match may belong to an application of another shard, which the decision then has to hold as well.
+			Catalog_Lock.checkHeld(Shard_Of_Rule (Existing_RuleID));
+		}
+		Integer slot = (Existing_RuleID == null) ? null : Rule_Slot_Index.get(Existing_RuleID);
+		
+		if (slot != null) {
+			if (SameAction (input.getAction(), ActionInventory.get(slot))) {
+				parameters [0] = "true";
+				parameters [1] = Integer.toString(slot);
+			}
+			else {
+				parameters [2] = "true";
+				parameters [3] = Integer.toString(slot);
+			}
+		}
+		return parameters;
+	}
+	
+	public boolean SameAction (String Action1, String Action2) {
+		return Action1.equalsIgnoreCase(Action2) && (Action1.equalsIgnoreCase("ALLOW") || Action1.equalsIgnoreCase("DENY"));
+	}
+	
+	/* Looks at every shard, so the caller must hold them all. */
+	public String[] ScanDuplicateConflictingRule (ApplicationHelloInput input) {
+		Catalog_Lock.checkHeld();
+		IPPrefix SourceIP = IPPrefix.parse(input.getSourceIP());
+		IPPrefix DestinationIP = IPPrefix.parse(input.getDestinationIP());
 		String SourcePort = input.getSourcePort();
 		String DestinationPort = input.getDestinationPort();
 		int Priority = input.getPriority();
@@ -948,7 +1649,7 @@ public class AntivirusImpl implements AntivirusService {
 		int duplicate_rule_found;
 		int conflicting_rule_found;
 	    		
-		for (i = 0; i < Universal_Counter; i++) {
+		for (i = Next_Stored_Slot(0); i != -1; i = Next_Stored_Slot(i + 1)) {
 			srcIP_match = 0;
 			dstIP_match = 0;
 			srcPort_match = 0;
@@ -958,31 +1659,31 @@ public class AntivirusImpl implements AntivirusService {
 			duplicate_rule_found = 0;
 			conflicting_rule_found = 0;
 			
-			if (SourceIPInventory[i].equals(SourceIP)) {
+			if (SourceIPInventory.get(i).equals(SourceIP)) {
 				srcIP_match = srcIP_match + 1;
 			}
 			
-			if (DestinationIPInventory[i].equals(DestinationIP)) {
+			if (DestinationIPInventory.get(i).equals(DestinationIP)) {
 				dstIP_match = dstIP_match + 1;
 			}
 			
-			if ( (SourcePortInventory[i].equals(SourcePort) || (SourcePort.equals("0"))))
+			if ( (SourcePortInventory.get(i).equals(SourcePort) || (SourcePort.equals("0"))))
 			{
 				srcPort_match = srcPort_match + 1;
 			}
 			
-			if ( (DestinationPortInventory[i].equals(DestinationPort)) || (DestinationPort.equals("0")) )
+			if ( (DestinationPortInventory.get(i).equals(DestinationPort)) || (DestinationPort.equals("0")) )
 			{
 				dstPort_match = dstPort_match + 1;
 			}
 			
-			if ( (PriorityInventory[i] == Priority)) 
+			if ( (PriorityInventory.get(i) == Priority)) 
 			{
 				priority_match = priority_match + 1;
 			}
 			
 			if ( (Action.equals("ALLOW")) || (Action.equals("allow")) || (Action.equals("Allow")) ) {
-				if ( (ActionInventory[i].equals("Allow")) || (ActionInventory[i].equals("ALLOW")) || (ActionInventory[i].equals("allow")) ) {
+				if ( (ActionInventory.get(i).equals("Allow")) || (ActionInventory.get(i).equals("ALLOW")) || (ActionInventory.get(i).equals("allow")) ) {
 					Action_match = Action_match + 1;
 				}
 				else {
@@ -991,7 +1692,7 @@ public class AntivirusImpl implements AntivirusService {
 			}
 
 			else if ( (Action.equals("DENY")) || (Action.equals("deny")) || (Action.equals("Deny")) ) {
-				if ( (ActionInventory[i].equals("Deny")) || (ActionInventory[i].equals("DENY")) || (ActionInventory[i].equals("deny"))) {
+				if ( (ActionInventory.get(i).equals("Deny")) || (ActionInventory.get(i).equals("DENY")) || (ActionInventory.get(i).equals("deny"))) {
 					Action_match = Action_match + 1;
 				}
 				else {
@@ -1027,41 +1728,52 @@ public class AntivirusImpl implements AntivirusService {
 		return parameters;		
 	}
 		
+	/* Reads and deletes only use a cached identifier; writeToRuleRegistry is what caches them. */
 	private InstanceIdentifier<ConfigurationRulesRegistryEntry> toInstanceIdentifier(String RuleID) {
-	        InstanceIdentifier<ConfigurationRulesRegistryEntry> iid = InstanceIdentifier.create(ConfigurationRulesRegistry.class)
-	            .child(ConfigurationRulesRegistryEntry.class, new ConfigurationRulesRegistryEntryKey(RuleID));
-	        return iid;
+	        return Rule_IID_Cache.get(RuleID);
 	    }
 
+	/* Inside an Application-hello batch, writes and deletes join Batch_Transaction, which is submitted once the batch is
+	 * decided, and Batch_Writes lets the later requests of the batch see them. */
 	private void writeToRuleRegistry(ApplicationHelloInput input_rule) {
-	    WriteTransaction transaction = db.newWriteOnlyTransaction();
-	    InstanceIdentifier<ConfigurationRulesRegistryEntry> iid = toInstanceIdentifier(input_rule.getRuleID());
-	    ConfigurationRulesRegistryEntry ruleregistry = new ConfigurationRulesRegistryEntryBuilder()
-	    		.setAppID(input_rule.getAppID())
-	    		.setOperation(input_rule.getOperation())
-	            .setRuleID(input_rule.getRuleID())
-	            .setSourceIP(input_rule.getSourceIP())
-	            .setDestinationIP(input_rule.getDestinationIP())
-	            .setSourcePort(input_rule.getSourcePort())
-	            .setDestinationPort(input_rule.getDestinationPort())
-	            .setPriority(input_rule.getPriority())
-	            .setAction(input_rule.getAction())
+	    WriteTransaction transaction = (Batch_Writes != null) ? Open_Batch_Transaction() : db.newWriteOnlyTransaction();
+	    InstanceIdentifier<ConfigurationRulesRegistryEntry> iid = Rule_IID_Cache.getAndCache(input_rule.getRuleID());
+	    // The RPC input and the registry entry share the ConfigurationRules grouping, so build the entry straight from it.
+	    ConfigurationRulesRegistryEntry ruleregistry = new ConfigurationRulesRegistryEntryBuilder(input_rule)
+	    		.setPassword(null) // never persist the application password
 	            .build();
 	    transaction.put(LogicalDatastoreType.CONFIGURATION, iid, ruleregistry);
+	    if (Batch_Writes != null) {
+	    	Batch_Writes.put(input_rule.getRuleID(), Optional.of(ruleregistry));
+	    	return;
+	    }
 	    CheckedFuture<Void, TransactionCommitFailedException> future = transaction.submit();
 	    Futures.addCallback(future, new LoggingFuturesCallBack<Void>("Failed to write a rule", LOG));
 		}
 
 	public void deletefromRuleRegistry (String RuleID) {
+		if (Batch_Writes != null) {
+			Open_Batch_Transaction().delete(LogicalDatastoreType.CONFIGURATION, toInstanceIdentifier(RuleID));
+			Rule_IID_Cache.invalidate(RuleID);
+			Batch_Writes.put(RuleID, Optional.<ConfigurationRulesRegistryEntry>absent());
+			return;
+		}
 		ReadWriteTransaction transaction = db.newReadWriteTransaction();
 		InstanceIdentifier<ConfigurationRulesRegistryEntry> iid = toInstanceIdentifier(RuleID);
 		transaction.delete(LogicalDatastoreType.CONFIGURATION, iid);	
+		Rule_IID_Cache.invalidate(RuleID);
 		CheckedFuture<Void, org.opendaylight.controller.md.sal.common.api.data.TransactionCommitFailedException> future = transaction.submit();
 		Futures.addCallback(future, new LoggingFuturesCallBack<Void>("Failed to delete a rule", LOG));
 		}
 	
 	private String readFromruleRegistry (String RuleID) {
 	    String result = null;
+	    // Only the batch, which holds every shard, may look at its own unsubmitted writes.
+	    Optional<ConfigurationRulesRegistryEntry> Written = ((Batch_Writes != null) && Catalog_Lock.isHeldByCurrentThread())
+	    		? Batch_Writes.get(RuleID) : null;
+	    if (Written != null) {
+	    	return Written.isPresent() ? "Rule Found" : null; // not submitted yet, so not readable yet
+	    }
 	    ReadOnlyTransaction transaction = db.newReadOnlyTransaction();
 	    InstanceIdentifier<ConfigurationRulesRegistryEntry> iid = toInstanceIdentifier(RuleID);
 	    CheckedFuture<Optional<ConfigurationRulesRegistryEntry>, ReadFailedException> future =
@@ -1077,41 +1789,1016 @@ public class AntivirusImpl implements AntivirusService {
 	    }
 	    return result;
 		}
+	
+	private WriteTransaction Open_Batch_Transaction () {
+		if (Batch_Transaction == null) {
+			Batch_Transaction = db.newWriteOnlyTransaction();
+		}
+		return Batch_Transaction;
+	}
 
+	/* With Hello_Batcher set, concurrent calls are decided in micro-batches; otherwise each runs on the Dispatcher. */
+	@Override
+	public Future<RpcResult<ApplicationHelloOutput>> applicationHello (final ApplicationHelloInput input) {
+		Integer Owner = Remote_Owner (input.getAppID());
+		if (Owner != null) {
+			return Futures.immediateFuture(Member_Router.applicationHello(Owner, input));
+		}
+		return Local_Application_Hello (input);
+	}
+	
+	private ListenableFuture<RpcResult<ApplicationHelloOutput>> Local_Application_Hello (final ApplicationHelloInput input) {
+		if (Hello_Batcher != null) {
+			return Hello_Batcher.submit(input);
+		}
+		return Dispatcher.submit(input.getAppID(), new Callable<RpcResult<ApplicationHelloOutput>>() {
+			@Override
+			public RpcResult<ApplicationHelloOutput> call() {
+				return RpcResultBuilder.success(HandleApplicationHello(input)).build();
+			}
+		});
+	}
+	
+	/* Null if requests for App_ID are handled here: it is owned by this member, malformed, or there is no Member_Router to
+	 * reach its owner with. Otherwise the member to pass them on to. */
+	private Integer Remote_Owner (String App_ID) {
+		if ((Member_Router == null) || !check_format_AppID(App_ID)) {
+			return null;
+		}
+		int AppID = Integer.parseInt(App_ID);
+		return Ownership.isLocallyOwned(AppID) ? null : Ownership.ownerOf(AppID);
+	}
+	
+	/* Starts passing the requests for applications owned by other members on to them. */
+	public void Enable_Member_Routing (MemberRouter Router) {
+		Member_Router = Router;
+	}
+	
+	/* A request another member passed on is handled here as it is, never passed on again: if this member does not own
+	 * the App ID either, the members disagree on the ownership and the caller is told where to go. */
+	@Override
+	public Future<RpcResult<ForwardApplicationHelloOutput>> forwardApplicationHello (ForwardApplicationHelloInput input) {
+		return Futures.transform(Local_Application_Hello (new ApplicationHelloInputBuilder(input).build()),
+				new Function<RpcResult<ApplicationHelloOutput>, RpcResult<ForwardApplicationHelloOutput>>() {
+					@Override
+					public RpcResult<ForwardApplicationHelloOutput> apply(RpcResult<ApplicationHelloOutput> Result) {
+						if (!Result.isSuccessful()) {
+							return RpcResultBuilder.<ForwardApplicationHelloOutput>failed().withRpcErrors(Result.getErrors()).build();
+						}
+						return RpcResultBuilder.success(new ForwardApplicationHelloOutputBuilder()
+								.setGreeting(Result.getResult().getGreeting())
+								.setCounter(Result.getResult().getCounter())
+								.build()).build();
+					}
+				});
+	}
+	
+	@Override
+	public Future<RpcResult<ForwardEvaluateRuleOutput>> forwardEvaluateRule (ForwardEvaluateRuleInput input) {
+		EvaluateRuleOutput Output = HandleEvaluateRule(new ApplicationHelloInputBuilder(input).build());
+		return RpcResultBuilder.success(new ForwardEvaluateRuleOutputBuilder()
+				.setDecision(Output.getDecision())
+				.setGreeting(Output.getGreeting())
+				.setRelatedRuleID(Output.getRelatedRuleID())
+				.setEvictedRuleID(Output.getEvictedRuleID())
+				.build()).buildFuture();
+	}
+	
+	@Override
+	public Future<RpcResult<ForwardBulkLoadRulesOutput>> forwardBulkLoadRules (final ForwardBulkLoadRulesInput input) {
+		return Validation_Pool.submit(new Callable<RpcResult<ForwardBulkLoadRulesOutput>>() {
+			@Override
+			public RpcResult<ForwardBulkLoadRulesOutput> call() {
+				List<? extends ConfigurationRules> Rules = input.getRule();
+				BulkLoadRulesOutput Output = HandleBulkLoadRules(Rules == null ? new ArrayList<ConfigurationRules>() : Rules, false);
+				List<org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.forward.bulk.load.rules.output.Result> Results =
+						new ArrayList<>(Output.getResult().size());
+				for (Result R : Output.getResult()) {
+					Results.add(new org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.forward.bulk.load.rules.output.ResultBuilder()
+							.setRuleID(R.getRuleID()).setGreeting(R.getGreeting()).build());
+				}
+				return RpcResultBuilder.success(new ForwardBulkLoadRulesOutputBuilder()
+						.setAccepted(Output.getAccepted())
+						.setRejected(Output.getRejected())
+						.setUnchanged(Output.getUnchanged())
+						.setResult(Results)
+						.build()).build();
+			}
+		});
+	}
+	
+	@Override
+	public Future<RpcResult<ForwardPurgeApplicationOutput>> forwardPurgeApplication (final ForwardPurgeApplicationInput input) {
+		final PurgeApplicationInput Purge = new PurgeApplicationInputBuilder().setAppID(input.getAppID()).setPassword(input.getPassword()).build();
+		return Dispatcher.submit(input.getAppID(), new Callable<RpcResult<ForwardPurgeApplicationOutput>>() {
+			@Override
+			public RpcResult<ForwardPurgeApplicationOutput> call() {
+				PurgeApplicationOutput Output = HandlePurgeApplication(Purge);
+				return RpcResultBuilder.success(new ForwardPurgeApplicationOutputBuilder()
+						.setGreeting(Output.getGreeting())
+						.setPurged(Output.getPurged())
+						.build()).build();
+			}
+		});
+	}
+	
+	/* Runs on the calling thread, which the asking member is waiting on; see Yield_Rule. */
 	@Override
-	public Future<RpcResult<ApplicationHelloOutput>> applicationHello (ApplicationHelloInput input) {
+	public Future<RpcResult<YieldRuleOutput>> yieldRule (YieldRuleInput input) {
+		return RpcResultBuilder.success(new YieldRuleOutputBuilder()
+				.setYielded(Yield_Rule(input.getRuleID(), input.getReplacedBy()))
+				.build()).buildFuture();
+	}
+	
+	public ApplicationHelloOutput HandleApplicationHello (final ApplicationHelloInput input) {
 
-		String Greeting_Message = null;
-		boolean check_App_ID_format;
-		int current_AppID;
-		int Counter; 
-		boolean PasswordCorrect;
+		String Greeting_Message = Hello_Rejection (input);
+		int Counter = 0;
+		
+		if (Greeting_Message == null) {
+			final String Registry_Result = Find_Registered_Rule_ID (input.getRuleID());
+			final long Started = System.nanoTime();
+			Greeting_Message = With_Rule_Shards (input, new RuleDecision<String>() {
+				@Override
+				public String decide() {
+					long Locked = System.nanoTime();
+					String Greeting = checkInputFormat (input, Registry_Result);
+					Lock_Wait_Latency.record(Locked - Started);
+					Decision_Latency.record(System.nanoTime() - Locked);
+					return Greeting;
+				}
+			});
+			Counter = App_Inventory.usage(Integer.parseInt(input.getAppID()));
+		}
+		
+		ApplicationHelloOutput output = new ApplicationHelloOutputBuilder()
+					  .setGreeting(Greeting_Message)
+					  .setCounter(String.valueOf(Counter))
+					  .build();
+		return output;
+		}
+	
+	/* A decision about one rule, run by With_Rule_Shards once the shards it touches are locked. It throws
+	 * ShardLocks.NotHeldException, before it changes anything, if it finds that it touches another shard. */
+	private interface RuleDecision<T> {
+		T decide ();
+	}
+	
+	/* Thrown by Store_New_Rule, after it acquired a slot for the input, when a rule another member owns has to be yielded
+	 * before the input can be stored. Made without a stack trace: it is an outcome, not an error. */
+	private static final class RemoteYield extends RuntimeException {
+		private static final long serialVersionUID = 1L;
 		
-		check_App_ID_format = check_format_AppID(input.getAppID());
-		Counter = 0;
+		final String RuleID;
+		final int Owner;
+		final String Replaced_By;
+		final boolean Duplicate;
+		boolean Yielded;
 		
-		if (check_App_ID_format == true) {
-			current_AppID = Integer.parseInt(input.getAppID());
+		RemoteYield (String RuleID, int Owner, String Replaced_By, boolean Duplicate) {
+			super("Rule ID: " + RuleID + " of cluster member " + Owner + " has to be yielded first", null, false, false);
+			this.RuleID = RuleID;
+			this.Owner = Owner;
+			this.Replaced_By = Replaced_By;
+			this.Duplicate = Duplicate;
+		}
+	}
+	
+	/* The yield the current thread asked for, while it decides the input again; see With_Rule_Shards. */
+	private final ThreadLocal<RemoteYield> Asked_Yield = new ThreadLocal<RemoteYield>();
+	
+	/* Runs a decision about the input's rule under the locks of the shards it touches, see Lock_Rule_Shards. If the rule
+	 * first needs a rule of another member yielded, that member is asked with no lock held, and the decision is run again
+	 * under the locks: whatever changed in between is decided afresh, and the slot acquired for the input is handed back
+	 * if it is no longer stored in place of the yielded rule. */
+	private <T> T With_Rule_Shards (ApplicationHelloInput input, RuleDecision<T> Decision) {
+		try {
+			return Lock_Rule_Shards (input, Decision);
+		}
+		catch (RemoteYield Asked) {
+			Asked.Yielded = (Member_Router != null) && Member_Router.yieldRule(Asked.Owner, Asked.RuleID, Asked.Replaced_By);
+			if (Asked.Yielded) {
+				Remote_Rules.remove(Asked.RuleID);
+			}
+			Asked_Yield.set(Asked);
+			try {
+				return Lock_Rule_Shards (input, Decision);
+			}
+			finally {
+				if (Asked_Yield.get() != null) {
+					Asked_Yield.remove();
+					Capacity_Lease.release();
+				}
+			}
+		}
+	}
+	
+	/* Runs a decision under the locks of the shards it touches: the shard of its application, and those of the rules it
+	 * replaces or evicts, which the decision names as it comes across them. The lock of the rule's match tuple is taken
+	 * first, so that two decisions about the same tuple in different shards cannot both find it free; every other
+	 * catalog change locks shards only. After MAX_SHARD_ATTEMPTS tries, every shard is locked. */
+	private <T> T Lock_Rule_Shards (ApplicationHelloInput input, RuleDecision<T> Decision) {
+		int Home = Shard_Of (input);
+		int Second = -1;
+		int Third = -1;
+		ReentrantLock Stripe = null;
+		IPPrefix SourceIP = IPPrefix.parse(input.getSourceIP());
+		IPPrefix DestinationIP = IPPrefix.parse(input.getDestinationIP());
+		if (SourceIP != null && DestinationIP != null && input.getSourcePort() != null && input.getDestinationPort() != null
+				&& input.getPriority() != null) {
+			Stripe = Rule_Tuple_Index.stripeOf(SourceIP, DestinationIP, input.getSourcePort(), input.getDestinationPort(), input.getPriority());
+			// Lock the shard of the rule the input matches right away, rather than on the second try.
+			String Match = Rule_Tuple_Index.get(SourceIP, DestinationIP, input.getSourcePort(), input.getDestinationPort(), input.getPriority());
+			if (Match != null) {
+				Second = Shard_Of_Rule (Match);
+			}
+			Stripe.lock();
+		}
+		try {
+			for (int Attempt = 1; ; Attempt++) {
+				boolean All = Attempt > MAX_SHARD_ATTEMPTS;
+				int Missing;
+				if (All) {
+					Catalog_Lock.lock();
+				}
+				else {
+					Catalog_Lock.lock(Home, Second, Third);
+				}
+				try {
+					return Decision.decide();
+				}
+				catch (ShardLocks.NotHeldException e) {
+					Missing = e.getShard();
+				}
+				finally {
+					if (All) {
+						Catalog_Lock.unlock();
+					}
+					else {
+						Catalog_Lock.unlock(Home, Second, Third);
+					}
+				}
+				if (Second == -1 || Second == Home) {
+					Second = Missing;
+				}
+				else if (Third == -1) {
+					Third = Missing;
+				}
+				else {
+					Attempt = MAX_SHARD_ATTEMPTS;
+				}
+			}
+		}
+		finally {
+			if (Stripe != null) {
+				Stripe.unlock();
+			}
+		}
+	}
+	
+	/* Why Application-hello turns the caller away before looking at the rule: a malformed App ID, an application
+	 * handled by another cluster member, or a wrong password. Null if the caller may go on. */
+	private String Hello_Rejection (ApplicationHelloInput input) {
+		if (!check_format_AppID(input.getAppID())) {
+			return "App ID is a number between 1 and 400. Try Again!";
+		}
+		int current_AppID = Integer.parseInt(input.getAppID());
+		if (!Ownership.isLocallyOwned(current_AppID)) {
+			return "App ID: " + current_AppID + " is handled by cluster member " + Ownership.ownerOf(current_AppID) + ". Try Again there!";
+		}
+		if (!check_Password (input.getPassword(), current_AppID)) {
+			return "Password is not correct. Try Again!";
+		}
+		return null;
+	}
+	
+	/* Decides a micro-batch of Application-hello requests in arrival order under one hold of every shard lock, and writes
+	 * their datastore changes in one transaction. Each request is decided exactly as HandleApplicationHello would decide
+	 * it alone, and a request that fails gets a failed result without affecting the others. */
+	public List<RpcResult<ApplicationHelloOutput>> HandleApplicationHelloBatch (List<ApplicationHelloInput> Inputs) {
+		String [] Greetings = new String [Inputs.size()];
+		for (int i = 0; i < Inputs.size(); i++) {
+			Greetings[i] = Hello_Rejection (Inputs.get(i));
+		}
+		
+		List<RpcResult<ApplicationHelloOutput>> Results = new ArrayList<RpcResult<ApplicationHelloOutput>>(Inputs.size());
+		List<Integer> Deferred = new ArrayList<Integer>();
+		long Started = System.nanoTime();
+		Catalog_Lock.lock();
+		Lock_Wait_Latency.record(System.nanoTime() - Started);
+		Batch_Writes = new LinkedHashMap<String, Optional<ConfigurationRulesRegistryEntry>>();
+		try {
+			for (int i = 0; i < Inputs.size(); i++) {
+				ApplicationHelloInput input = Inputs.get(i);
+				int Counter = 0;
+				if (Greetings[i] == null) {
+					long Deciding = System.nanoTime();
+					try {
+						Greetings[i] = checkInputFormat (input);
+					}
+					catch (RemoteYield e) {
+						// The other member is asked once the batch has let go of the shard locks.
+						Capacity_Lease.release();
+						Deferred.add(i);
+						Results.add(null);
+						continue;
+					}
+					catch (RuntimeException e) {
+						LOG.warn("Application-hello for Rule ID {} failed", input.getRuleID(), e);
+						Results.add(RpcResultBuilder.<ApplicationHelloOutput>failed()
+								.withError(ErrorType.APPLICATION, "The rule could not be processed.", e).build());
+						continue;
+					}
+					Decision_Latency.record(System.nanoTime() - Deciding);
+					Counter = App_Inventory.usage(Integer.parseInt(input.getAppID()));
+				}
+				Results.add(RpcResultBuilder.success(new ApplicationHelloOutputBuilder()
+						.setGreeting(Greetings[i])
+						.setCounter(String.valueOf(Counter))
+						.build()).build());
+			}
+		}
+		finally {
+			if (Batch_Transaction != null) {
+				Submit_Batch (Batch_Transaction, Batch_Writes);
+			}
+			Batch_Transaction = null;
+			Batch_Writes = null;
+			Catalog_Lock.unlock();
+		}
+		for (int i : Deferred) {
+			Results.set(i, RpcResultBuilder.success(HandleApplicationHello (Inputs.get(i))).build());
+		}
+		return Results;
+	}
+
+	/* A failed batch transaction is written again one rule per transaction, so that the entry that made it fail does not
+	 * cost the rest of the batch their registry entries. The entries that still fail are left to the RuleReconciler. */
+	private void Submit_Batch (WriteTransaction Transaction, final Map<String, Optional<ConfigurationRulesRegistryEntry>> Writes) {
+		Futures.addCallback(Transaction.submit(), new FutureCallback<Void>() {
+			@Override
+			public void onSuccess(Void result) {
+				// the whole batch is in the registry
+			}
 			
-			PasswordCorrect = check_Password (input.getPassword(), current_AppID);
+			@Override
+			public void onFailure(Throwable t) {
+				LOG.warn("Failed to write a batch of {} rules, writing them one at a time", Writes.size(), t);
+				for (Map.Entry<String, Optional<ConfigurationRulesRegistryEntry>> Write : Writes.entrySet()) {
+					WriteTransaction transaction = db.newWriteOnlyTransaction();
+					if (Write.getValue().isPresent()) {
+						transaction.put(LogicalDatastoreType.CONFIGURATION, toInstanceIdentifier(Write.getKey()), Write.getValue().get());
+						Futures.addCallback(transaction.submit(), new LoggingFuturesCallBack<Void>("Failed to write a rule", LOG));
+					}
+					else {
+						transaction.delete(LogicalDatastoreType.CONFIGURATION, toInstanceIdentifier(Write.getKey()));
+						Futures.addCallback(transaction.submit(), new LoggingFuturesCallBack<Void>("Failed to delete a rule", LOG));
+					}
+				}
+			}
+		});
+	}
+
+	/* Starts gathering concurrent Application-hello calls into batches of at most Max_Batch requests, collected for at
+	 * most Window_Micros. */
+	public void Enable_Hello_Batching (int Max_Batch, long Window_Micros) {
+		Enable_Hello_Batching (Max_Batch, Window_Micros, Max_Batch * 16);
+	}
+	
+	/* As above, with at most Max_Pending calls of any one application waiting; the batches are filled by weighted fair
+	 * queueing over the applications, see FairRequestQueue. */
+	public void Enable_Hello_Batching (int Max_Batch, long Window_Micros, int Max_Pending) {
+		Hello_Batcher = new HelloBatcher(this, Max_Batch, Window_Micros, Max_Pending);
+		Hello_Batcher.start();
+	}
+
+	/* The batch spans applications, so it does not go through the per-AppID Dispatcher; it runs on the validation pool. */
+	@Override
+	public Future<RpcResult<BulkLoadRulesOutput>> bulkLoadRules (final BulkLoadRulesInput input) {
+		return Validation_Pool.submit(new Callable<RpcResult<BulkLoadRulesOutput>>() {
+			@Override
+			public RpcResult<BulkLoadRulesOutput> call() {
+				List<? extends ConfigurationRules> Rules = input.getRule();
+				return RpcResultBuilder.success(HandleBulkLoadRules(Rules == null ? new ArrayList<ConfigurationRules>() : Rules)).build();
+			}
+		});
+	}
+	
+	/* Validates every rule in parallel, then applies the valid ones one at a time in input order, so that each rule sees
+	 * the catalog exactly as a sequence of Application-hello calls would leave it. */
+	public BulkLoadRulesOutput HandleBulkLoadRules (List<? extends ConfigurationRules> Rules) {
+		return HandleBulkLoadRules (Rules, Member_Router != null);
+	}
+	
+	/* With Forward, the rules of applications other members own are passed on in one call per member, after the local
+	 * rules are applied, and their results are merged back in input order. */
+	BulkLoadRulesOutput HandleBulkLoadRules (List<? extends ConfigurationRules> Rules, boolean Forward) {
+		Map<Integer, List<Integer>> Forwarded = new TreeMap<Integer, List<Integer>>();
+		List<ConfigurationRules> Local_Rules = new ArrayList<ConfigurationRules>(Rules.size());
+		List<Integer> Local_Positions = new ArrayList<Integer>(Rules.size());
+		for (int i = 0; i < Rules.size(); i++) {
+			Integer Owner = Forward ? Remote_Owner (Rules.get(i).getAppID()) : null;
+			if (Owner == null) {
+				Local_Rules.add(Rules.get(i));
+				Local_Positions.add(i);
+				continue;
+			}
+			if (!Forwarded.containsKey(Owner)) {
+				Forwarded.put(Owner, new ArrayList<Integer>());
+			}
+			Forwarded.get(Owner).add(i);
+		}
+		if (Forwarded.isEmpty()) {
+			return Apply_Bulk_Rules (Rules);
+		}
+		
+		BulkLoadRulesOutput Local = Apply_Bulk_Rules (Local_Rules);
+		Result [] Results = new Result [Rules.size()];
+		long Accepted = Local.getAccepted();
+		long Rejected = Local.getRejected();
+		long Unchanged = Local.getUnchanged();
+		for (int i = 0; i < Local_Positions.size(); i++) {
+			Results[Local_Positions.get(i)] = Local.getResult().get(i);
+		}
+		for (Map.Entry<Integer, List<Integer>> Member : Forwarded.entrySet()) {
+			List<ConfigurationRules> Member_Rules = new ArrayList<ConfigurationRules>(Member.getValue().size());
+			for (int Position : Member.getValue()) {
+				Member_Rules.add(Rules.get(Position));
+			}
+			RpcResult<BulkLoadRulesOutput> Remote = Member_Router.bulkLoadRules(Member.getKey(), Member_Rules);
+			if (Remote.isSuccessful()) {
+				Accepted += Remote.getResult().getAccepted();
+				Rejected += Remote.getResult().getRejected();
+				Unchanged += Remote.getResult().getUnchanged();
+			}
+			else {
+				Rejected += Member_Rules.size();
+			}
+			for (int i = 0; i < Member.getValue().size(); i++) {
+				ConfigurationRules Rule = Member_Rules.get(i);
+				Results[Member.getValue().get(i)] = Remote.isSuccessful() ? Remote.getResult().getResult().get(i)
+						: new ResultBuilder().setRuleID(Rule.getRuleID())
+								.setGreeting("Cluster member " + Member.getKey() + " could not be reached. Try Again!").build();
+			}
+		}
+		return new BulkLoadRulesOutputBuilder()
+				.setAccepted(Accepted)
+				.setRejected(Rejected)
+				.setUnchanged(Unchanged)
+				.setResult(Arrays.asList(Results))
+				.build();
+	}
+	
+	private BulkLoadRulesOutput Apply_Bulk_Rules (List<? extends ConfigurationRules> Rules) {
+		int Number_of_Rules = Rules.size();
+		ApplicationHelloInput [] Inputs = new ApplicationHelloInput [Number_of_Rules];
+		String [] Errors = new String [Number_of_Rules];
+		Validation_Pool.invoke(new BulkRuleValidation(this, Rules, Inputs, Errors, 0, Number_of_Rules));
+		
+		List<Result> Results = new ArrayList<Result>(Number_of_Rules);
+		long Accepted = 0;
+		long Rejected = 0;
+		// Whether the rule being decided was accepted (1), rejected (-1) or left the catalog unchanged (0).
+		final int [] Outcome = new int [1];
+		for (int i = 0; i < Number_of_Rules; i++) {
+			String Greeting_Message = Errors[i];
+			if (Greeting_Message == null) {
+				final ApplicationHelloInput input = Inputs[i];
+				Greeting_Message = With_Rule_Shards (input, new RuleDecision<String>() {
+					@Override
+					public String decide() {
+						if (!check_Validated_RuleID (input)) {
+							Outcome[0] = -1;
+							return Stateless_Error_Message (input, false);
+						}
+						int Home = Shard_Of (input);
+						long Applied = Applied_Decisions[Home];
+						String Greeting = Decision_Engine (input);
+						Outcome[0] = (Applied_Decisions[Home] != Applied) ? 1 : 0;
+						return Greeting;
+					}
+				});
+				if (Outcome[0] == 1) {
+					Accepted++;
+				}
+				else if (Outcome[0] == -1) {
+					Rejected++;
+				}
+			}
+			else {
+				Rejected++;
+			}
+			Results.add(new ResultBuilder().setRuleID(Inputs[i].getRuleID()).setGreeting(Greeting_Message).build());
+		}
+		return new BulkLoadRulesOutputBuilder()
+				.setAccepted(Accepted)
+				.setRejected(Rejected)
+				.setUnchanged(Number_of_Rules - Accepted - Rejected)
+				.setResult(Results)
+				.build();
+	}
+	
+	/* Everything that can be checked without the catalog, safe to run on any thread: App ID, ownership, password and
+	 * the format of each field. Returns the greeting Application-hello would reply with, or null if the rule is valid. */
+	public String Validate_Rule (ApplicationHelloInput input) {
+		try {
+			String Rejection = Hello_Rejection (input);
+			if (Rejection != null) {
+				return Rejection;
+			}
+			return Stateless_Error_Message (input, true);
+		}
+		catch (NumberFormatException | NullPointerException e) {
+			return "Rule ID: " + input.getRuleID() + " is incomplete or could not be parsed. Try Again!";
+		}
+	}
+	
+	/* The stateful half of checkInputFormat: the Rule ID limit depends on the application's current usage. */
+	private boolean check_Validated_RuleID (ApplicationHelloInput input) {
+		try {
+			return check_format_RuleID (input);
+		}
+		catch (NumberFormatException | NullPointerException e) {
+			return false;
+		}
+	}
+	
+	/* Runs on the calling thread: the prediction only reads the in-memory catalog, under the locks of the shards it looks
+	 * at for a consistent view. */
+	@Override
+	public Future<RpcResult<EvaluateRuleOutput>> evaluateRule (EvaluateRuleInput input) {
+		Integer Owner = Remote_Owner (input.getAppID());
+		if (Owner != null) {
+			return Futures.immediateFuture(Member_Router.evaluateRule(Owner, input));
+		}
+		return RpcResultBuilder.success(HandleEvaluateRule(new ApplicationHelloInputBuilder(input).build())).buildFuture();
+	}
+	
+	public EvaluateRuleOutput HandleEvaluateRule (final ApplicationHelloInput input) {
+		EvaluateRuleOutputBuilder output = new EvaluateRuleOutputBuilder().setDecision("rejected");
+		
+		if (!check_format_AppID(input.getAppID())) {
+			return output.setGreeting("App ID is a number between 1 and 400. Try Again!").build();
+		}
+		int current_AppID = Integer.parseInt(input.getAppID());
+		
+		if (!Ownership.isLocallyOwned(current_AppID)) {
+			output.setGreeting("App ID: " + current_AppID + " is handled by cluster member " + Ownership.ownerOf(current_AppID) + ". Try Again there!");
+		}
+		else if (!check_Password (input.getPassword(), current_AppID)) {
+			output.setGreeting("Password is not correct. Try Again!");
+		}
+		else {
+			// Built afresh on every try, so a try that needed another shard leaves nothing behind.
+			output = With_Rule_Shards (input, new RuleDecision<EvaluateRuleOutputBuilder>() {
+				@Override
+				public EvaluateRuleOutputBuilder decide() {
+					EvaluateRuleOutputBuilder Prediction = new EvaluateRuleOutputBuilder().setDecision("rejected");
+					int Home = Shard_Of (input);
+					Predicted_Eviction_Slot[Home] = -2;
+					String Error = Format_Error_Message (input, false);
+					int Evicted = Predicted_Eviction_Slot[Home];
+					if (Evicted != -2) {
+						Prediction.setEvictedRuleID(RuleIDInventory.get(Evicted));
+					}
+					if (Error != null) {
+						Prediction.setGreeting(Error);
+					}
+					else {
+						Predict_Decision (input, Evicted, Prediction);
+					}
+					return Prediction;
+				}
+			});
+		}
+		return output.build();
+	}
+	
+	/* Side-effect-free mirror of Decision_Engine. The datastore lookup for an existing Rule ID is answered from
+	 * Rule_Slot_Index, and a rule that would be evicted first is treated as already gone. */
+	private void Predict_Decision (ApplicationHelloInput input, int Evicted, EvaluateRuleOutputBuilder output) {
+		int Operation = input.getOperation();
+		int Counter = (Evicted == -2) ? Stored_Rules() : Stored_Rules() - 1;
+		Integer Existing_Slot = Rule_Slot_Index.get(input.getRuleID());
+		boolean Rule_Found = (Existing_Slot != null) && (Existing_Slot != Evicted);
+		String [] parameters = (Counter == 0) ? new String [] {"false","-2","false","-2"} : FindDuplicateConflictingRule (input);
+		int Duplicate_Slot = Integer.parseInt(parameters[1]);
+		int Conflict_Slot = Integer.parseInt(parameters[3]);
+		boolean Duplicate = parameters[0].equals("true") && (Duplicate_Slot != Evicted);
+		boolean Conflict = !Duplicate && parameters[2].equals("true") && (Conflict_Slot != Evicted);
+		
+		if ((Counter != 0) && Rule_Found && (Operation == 0)) {
+			output.setDecision("already-exists").setGreeting("Rule with Rule ID : " + input.getRuleID() + "already exists.");
+		}
+		else if ((Operation == 0) && !Duplicate && !Conflict && (Find_Remote_Rule (input) != null)) {
+			RemoteRuleDirectory.Rule Remote = Find_Remote_Rule (input);
+			boolean Remote_Duplicate = SameAction (input.getAction(), Remote.getAction());
+			int AppID_part = FindAppIDFromRuleID (Remote.getRuleID());
+			output.setRelatedRuleID(Remote.getRuleID());
+			if (FindHighPriorityApp (Integer.parseInt(input.getAppID()), AppID_part) == AppID_part) {
+				output.setDecision(Remote_Duplicate ? "duplicate-kept" : "conflict-kept")
+					.setGreeting(Remote_Duplicate ? "The rule already exists with App ID: " + AppID_part
+							: "Conflict resolved. Keeping Rule with App ID: " + AppID_part);
+			}
+			else {
+				output.setDecision(Remote_Duplicate ? "duplicate-replaced" : "conflict-replaced")
+					.setGreeting((Remote_Duplicate ? "Duplicate Rule Found. Replaced" : "Rule conflict Found. Replaced")
+							+ " with High Priority App having AppID : " + input.getAppID());
+			}
+		}
+		else if (Duplicate || Conflict) {
+			int Slot = Duplicate ? Duplicate_Slot : Conflict_Slot;
+			String Existing_RuleID = RuleIDInventory.get(Slot);
+			int AppID_part = FindAppIDFromRuleID (Existing_RuleID);
+			output.setRelatedRuleID(Existing_RuleID);
 			
-			if (PasswordCorrect) {
-				Greeting_Message = checkInputFormat (input);			
-				Counter = App_Inventory[current_AppID];						
+			if (Operation == 0) {
+				int High_Priority_App = FindHighPriorityApp (Integer.parseInt(input.getAppID()), AppID_part);
+				if (High_Priority_App == AppID_part) {
+					output.setDecision(Duplicate ? "duplicate-kept" : "conflict-kept")
+						.setGreeting(Duplicate ? "The rule already exists with App ID: " + AppID_part
+								: "Conflict resolved. Keeping Rule with App ID: " + AppID_part);
+				}
+				else {
+					output.setDecision(Duplicate ? "duplicate-replaced" : "conflict-replaced")
+						.setGreeting((Duplicate ? "Duplicate Rule Found. Replaced" : "Rule conflict Found. Replaced")
+								+ " with High Priority App having AppID : " + input.getAppID());
+				}
+			}
+			else if (input.getRuleID().equals(Existing_RuleID) && (Duplicate || input.getAction().equals(ActionInventory.get(Slot)))) {
+				output.setDecision("deleted").setGreeting("Rule ID: " + input.getRuleID() + "for App ID: " + input.getAppID() + " deleted.");
 			}
 			else {
-				Greeting_Message = "Password is not correct. Try Again!";
+				output.setDecision("not-found").setGreeting("Rule ID: " + input.getRuleID() + " for App ID: " +input.getAppID() + " does not exist.");
 			}
 		}
-		else
-		{
+		else if (Operation == 0) {
+			if (!Capacity_Lease.peek() && (Evicted == -2)) {
+				output.setDecision("full").setGreeting("Rule ID: " + input.getRuleID() + " for App ID: " + input.getAppID() + " not stored. The configuration datastore is full.");
+			}
+			else {
+				output.setDecision("stored").setGreeting("Rule ID: " + input.getRuleID() + " for App ID: " +input.getAppID() + " stored.");
+			}
+		}
+		else {
+			output.setDecision("not-found").setGreeting("Rule ID: " + input.getRuleID() + " for App ID: " +input.getAppID() + " does not exist.");
+		}
+	}
+	
+	@Override
+	public Future<RpcResult<ExportRulesOutput>> exportRules (ExportRulesInput input) {
+		String After_RuleID = null;
+		if (input.getCursor() != null) {
+			try {
+				After_RuleID = new String(Base64.getUrlDecoder().decode(input.getCursor()), StandardCharsets.UTF_8);
+			}
+			catch (IllegalArgumentException e) {
+				return RpcResultBuilder.<ExportRulesOutput>failed()
+						.withError(ErrorType.APPLICATION, "The export cursor is not valid.").buildFuture();
+			}
+		}
+		
+		int Page_Size = Default_Export_Page_Size;
+		if (input.getPageSize() != null) {
+			Page_Size = Math.max(1, Math.min(input.getPageSize(), Max_Export_Page_Size));
+		}
+		int App_Filter = -1;
+		if (input.getAppID() != null) {
+			if (!check_format_AppID(input.getAppID())) {
+				return RpcResultBuilder.<ExportRulesOutput>failed()
+						.withError(ErrorType.APPLICATION, "App ID is a number between 1 and 400. Try Again!").buildFuture();
+			}
+			App_Filter = Integer.parseInt(input.getAppID());
+		}
+		int Min_Priority = (input.getMinPriority() == null) ? 0 : input.getMinPriority();
+		int Max_Priority = (input.getMaxPriority() == null) ? 65535 : input.getMaxPriority();
+		
+		List<ExportedRule> Page = new ArrayList<ExportedRule>(Page_Size);
+		String Last_RuleID = null;
+		boolean More = false;
+		
+		// With an App ID, only that application's shard is read.
+		if (App_Filter != -1) {
+			Catalog_Lock.lock(Shard_Of(App_Filter));
+		}
+		else {
+			Catalog_Lock.lock();
+		}
+		try {
+			// Walk the sorted Rule IDs from the cursor on, only those of the application when filtered by App ID, so only one
+			// page is ever held in memory. After Max_Export_Scan Rule IDs the page ends where the scan stopped, even if short.
+			Set<String> Remaining;
+			if (App_Filter != -1) {
+				NavigableSet<String> Rules = App_Rule_Index.get(App_Filter);
+				if (Rules == null) {
+					Remaining = Collections.<String>emptySet();
+				}
+				else {
+					Remaining = (After_RuleID == null) ? Rules : Rules.tailSet(After_RuleID, false);
+				}
+			}
+			else {
+				Remaining = ((After_RuleID == null) ? Rule_Slot_Index : Rule_Slot_Index.tailMap(After_RuleID, false)).keySet();
+			}
+			int Scanned = 0;
+			for (String RuleID : Remaining) {
+				if (Scanned == Max_Export_Scan) {
+					More = true;
+					break;
+				}
+				int slot = Rule_Slot_Index.get(RuleID);
+				boolean Matches = ((input.getAction() == null) || input.getAction().equalsIgnoreCase(ActionInventory.get(slot)))
+						&& (PriorityInventory.get(slot) >= Min_Priority) && (PriorityInventory.get(slot) <= Max_Priority);
+				if (Matches && (Page.size() == Page_Size)) {
+					More = true;
+					break;
+				}
+				Scanned++;
+				Last_RuleID = RuleID;
+				if (!Matches) {
+					continue;
+				}
+				Page.add(new ExportedRuleBuilder()
+						.setRuleID(RuleID)
+						.setAppID(Integer.toString(FindAppIDFromRuleID(RuleID)))
+						.setSourceIP(SourceIPInventory.get(slot).toString())
+						.setDestinationIP(DestinationIPInventory.get(slot).toString())
+						.setSourcePort(SourcePortInventory.get(slot))
+						.setDestinationPort(DestinationPortInventory.get(slot))
+						.setPriority(PriorityInventory.get(slot))
+						.setAction(ActionInventory.get(slot))
+						.setTTL(Remaining_TTL(RuleID))
+						.build());
+			}
+		}
+		finally {
+			if (App_Filter != -1) {
+				Catalog_Lock.unlock(Shard_Of(App_Filter));
+			}
+			else {
+				Catalog_Lock.unlock();
+			}
+		}
+		
+		ExportRulesOutputBuilder output = new ExportRulesOutputBuilder().setExportedRule(Page);
+		if (More) {
+			output.setNextCursor(Base64.getUrlEncoder().encodeToString(Last_RuleID.getBytes(StandardCharsets.UTF_8)));
+		}
+		return RpcResultBuilder.success(output.build()).buildFuture();
+	}
+
+	@Override
+	public Future<RpcResult<PurgeApplicationOutput>> purgeApplication (final PurgeApplicationInput input) {
+		Integer Owner = Remote_Owner (input.getAppID());
+		if (Owner != null) {
+			return Futures.immediateFuture(Member_Router.purgeApplication(Owner, input));
+		}
+		return Dispatcher.submit(input.getAppID(), new Callable<RpcResult<PurgeApplicationOutput>>() {
+			@Override
+			public RpcResult<PurgeApplicationOutput> call() {
+				return RpcResultBuilder.success(HandlePurgeApplication(input)).build();
+			}
+		});
+	}
+	
+	public PurgeApplicationOutput HandlePurgeApplication (PurgeApplicationInput input) {
+		String Greeting_Message = null;
+		long Purged = 0;
+		
+		if (!check_format_AppID(input.getAppID())) {
 			Greeting_Message = "App ID is a number between 1 and 400. Try Again!";
 		}
+		else {
+			int AppID = Integer.parseInt(input.getAppID());
+			
+			if (!Ownership.isLocallyOwned(AppID)) {
+				Greeting_Message = "App ID: " + AppID + " is handled by cluster member " + Ownership.ownerOf(AppID) + ". Try Again there!";
+			}
+			else if (!check_Password (input.getPassword(), AppID)) {
+				Greeting_Message = "Password is not correct. Try Again!";
+			}
+			else {
+				Catalog_Lock.lock(Shard_Of (AppID));
+				try {
+					Purged = PurgeFromRuleCatalog (AppID);
+				}
+				finally {
+					Catalog_Lock.unlock(Shard_Of (AppID));
+				}
+				Greeting_Message = Purged + " rules for App ID: " + AppID + " deleted.";
+			}
+		}
+		return new PurgeApplicationOutputBuilder()
+				.setGreeting(Greeting_Message)
+				.setPurged(Purged)
+				.build();
+	}
+	
+	/* Removes every rule of an application, deleting them from the datastore in a single transaction. The rules all live
+	 * in the application's shard, which the caller holds. */
+	public int PurgeFromRuleCatalog (int AppID) {
+		Set<String> Rules = App_Rule_Index.remove(AppID);
+		if ((Rules == null) || Rules.isEmpty()) {
+			return 0;
+		}
 		
-		ApplicationHelloOutput output = new ApplicationHelloOutputBuilder()
-					  .setGreeting(Greeting_Message)
-					  .setCounter(String.valueOf(Counter))
-					  .build();
-		return RpcResultBuilder.success(output).buildFuture();
+		WriteTransaction transaction = db.newWriteOnlyTransaction();
+		for (String RuleID : Rules) {
+			transaction.delete(LogicalDatastoreType.CONFIGURATION, toInstanceIdentifier(RuleID));
+			Rule_IID_Cache.invalidate(RuleID);
+			RemoveRuleSlot (Rule_Slot_Index.get(RuleID));
+			Audit_Ring.publish(AuditRing.DELETED, RuleID, null);
+		}
+		CheckedFuture<Void, TransactionCommitFailedException> future = transaction.submit();
+		Futures.addCallback(future, new LoggingFuturesCallBack<Void>("Failed to purge the rules of an application", LOG));
+		return Rules.size();
+	}
+	
+	/* Read-only: served from one App_Inventory snapshot on the calling thread, without the lock or the datastore. The
+	 * remaining capacity is therefore this member's: C less the rules it stores, not less those of the other members,
+	 * which only the capacity ledger in the datastore knows. */
+	@Override
+	public Future<RpcResult<QuotaStatusOutput>> quotaStatus () {
+		QuotaLedger.Snapshot Snapshot = App_Inventory.snapshot();
+		List<ApplicationQuota> Quotas = new ArrayList<>();
+		
+		for (int AppID = 0; AppID < Snapshot.applications(); AppID++) {
+			if (Ownership.isLocallyOwned(AppID)) {
+				int Threshold = (Mode == 2) ? Snapshot.remaining() : Get_Threshold(AppID);
+				Quotas.add(new ApplicationQuotaBuilder()
+						.setAppID(Integer.toString(AppID))
+						.setUsed((long) Snapshot.usage(AppID))
+						.setThreshold((long) Threshold)
+						.build());
+			}
+		}
+		return RpcResultBuilder.success(new QuotaStatusOutputBuilder()
+				.setRemainingCapacity((long) Snapshot.remaining())
+				.setSnapshotVersion(BigInteger.valueOf(Snapshot.version()))
+				.setApplicationQuota(Quotas)
+				.build()).buildFuture();
+	}
+	
+	/* The index sizes are read in one short hold of every shard lock, so they agree with each other; the byte estimate
+	 * takes the locks again per Diagnostics_Chunk rules. */
+	@Override
+	public Future<RpcResult<GetDiagnosticsOutput>> getDiagnostics () {
+		List<Latency> Stages = new ArrayList<>();
+		Stages.add(Histogram_Of("lock-wait", Lock_Wait_Latency));
+		Stages.add(Histogram_Of("decision", Decision_Latency));
+		
+		GetDiagnosticsOutputBuilder output = new GetDiagnosticsOutputBuilder();
+		Catalog_Lock.lock();
+		try {
+			output.setRulesStored((long) Stored_Rules())
+				.setSlotIndexEntries((long) Rule_Slot_Index.size())
+				.setTupleIndexEntries((long) Rule_Tuple_Index.size())
+				.setApplicationIndexEntries((long) App_Rule_Index.size())
+				.setEvictionIndexEntries((long) Eviction_Index.size())
+				.setInventorySlotsAllocated((long) RuleIDInventory.allocated());
+		}
+		finally {
+			Catalog_Lock.unlock();
+		}
+		
+		Runtime Heap = Runtime.getRuntime();
+		return RpcResultBuilder.success(output
+				.setCapacity((long) C)
+				.setIdentifierCacheEntries((long) Rule_IID_Cache.size())
+				.setEstimatedIndexBytes(BigInteger.valueOf(Estimate_Index_Bytes()))
+				.setHeapUsedBytes(BigInteger.valueOf(Heap.totalMemory() - Heap.freeMemory()))
+				.setRuleIdFilterLookups(BigInteger.valueOf(Rule_ID_Filter.lookups()))
+				.setRuleIdFilterPossibleHits(BigInteger.valueOf(Rule_ID_Filter.possibleHits()))
+				.setRuleIdFilterFalsePositives(BigInteger.valueOf(Rule_ID_Filter.falsePositives()))
+				.setRuleIdFilterFalsePositivePpm(Math.round(Rule_ID_Filter.falsePositiveRate() * 1000000))
+				.setLatency(Stages)
+				.build()).buildFuture();
+	}
+	
+	private Latency Histogram_Of (String Stage, LatencyHistogram Histogram) {
+		List<Bucket> Buckets = new ArrayList<>(LatencyHistogram.BUCKETS);
+		for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+			long Below = LatencyHistogram.upperBoundMicros(i);
+			Buckets.add(new BucketBuilder()
+					.setBelowMicros(Below < 0 ? null : BigInteger.valueOf(Below))
+					.setCount(BigInteger.valueOf(Histogram.count(i)))
+					.build());
 		}
-}
\ No newline at end of file
+		return new LatencyBuilder().setStage(Stage).setBucket(Buckets).build();
+	}
+	
+	/* A rough, 64-bit compressed-oops estimate: one reference or int per allocated slot in each inventory, a map entry
+	 * per index entry (plus a skip-list node for the eviction index), and the rule strings themselves (which the
+	 * indexes share with the inventories). */
+	long Estimate_Index_Bytes () {
+		long Bytes;
+		Catalog_Lock.lock();
+		try {
+			Bytes = RuleIDInventory.allocated() * 4L * 7;
+			Bytes += Rule_Slot_Index.size() * (40L + 16L);
+			Bytes += Rule_Tuple_Index.size() * (32L + 40L);
+			Bytes += Eviction_Index.size() * (40L + 32L + 48L);
+			Bytes += Rule_ID_Filter.size();
+			for (Set<String> RuleIDs : App_Rule_Index.values()) {
+				Bytes += 48L + RuleIDs.size() * 32L;
+			}
+		}
+		finally {
+			Catalog_Lock.unlock();
+		}
+		Bytes += Rule_IID_Cache.size() * 96L;
+		// The slots may move between two chunks, so a rule can be counted twice or missed; the total stays as rough.
+		for (int From = 0; From != -1; ) {
+			Catalog_Lock.lock();
+			try {
+				int i = Next_Stored_Slot(From);
+				for (int Sized = 0; (i != -1) && (Sized < Diagnostics_Chunk); Sized++) {
+					Bytes += String_Bytes(RuleIDInventory.get(i)) + IP_PREFIX_BYTES * 2
+							+ String_Bytes(SourcePortInventory.get(i)) + String_Bytes(DestinationPortInventory.get(i)) + String_Bytes(ActionInventory.get(i));
+					i = Next_Stored_Slot(i + 1);
+				}
+				From = i;
+			}
+			finally {
+				Catalog_Lock.unlock();
+			}
+		}
+		return Bytes;
+	}
+	
+	/* Object header, two longs and the prefix length. */
+	private static final long IP_PREFIX_BYTES = 40;
+	
+	private static long String_Bytes (String Value) {
+		return (Value == null) ? 0 : 40L + 2L * Value.length();
+	}
+	
+	/* Runs a copy of every stored rule through HandleEvaluateRule, which predicts without changing anything and holds
+	 * the shard locks for one rule at a time, so concurrent RPCs interleave with the benchmark. */
+	@Override
+	public Future<RpcResult<RunBenchmarkOutput>> runBenchmark (RunBenchmarkInput input) {
+		int Iterations = (input == null || input.getIterations() == null) ? 1 : Math.max(1, Math.min(input.getIterations(), Max_Benchmark_Iterations));
+		
+		List<ApplicationHelloInput> Rules = Benchmark_Rules();
+		long Evaluations = 0;
+		long Started = System.nanoTime();
+		for (int Pass = 0; Pass < Iterations; Pass++) {
+			for (ApplicationHelloInput Rule : Rules) {
+				HandleEvaluateRule (Rule);
+				Evaluations++;
+			}
+		}
+		long Elapsed = Math.max(1, System.nanoTime() - Started);
+		
+		return RpcResultBuilder.success(new RunBenchmarkOutputBuilder()
+				.setRules((long) Rules.size())
+				.setEvaluations(BigInteger.valueOf(Evaluations))
+				.setMeanNanos(BigInteger.valueOf(Evaluations == 0 ? 0 : Elapsed / Evaluations))
+				.setEvaluationsPerSecond(BigInteger.valueOf(Evaluations * 1000000000L / Elapsed))
+				.build()).buildFuture();
+	}
+	
+	/* A copy of every stored rule under a Rule ID its application does not use: the lowest free rule number of the
+	 * application. Replaying the stored Rule IDs would end every evaluation at the already-exists check, while a fresh
+	 * one goes through the capacity, duplicate and conflict checks a new rule meets. */
+	List<ApplicationHelloInput> Benchmark_Rules () {
+		List<ApplicationHelloInput> Rules = new ArrayList<>();
+		Map<Integer, String> Fresh_Rule_IDs = new HashMap<Integer, String>();
+		Catalog_Lock.lock();
+		try {
+			for (int i = Next_Stored_Slot(0); i != -1; i = Next_Stored_Slot(i + 1)) {
+				int AppID = FindAppIDFromRuleID (RuleIDInventory.get(i));
+				String RuleID = Fresh_Rule_IDs.get(AppID);
+				if (RuleID == null) {
+					int Rule_Number = 1;
+					while (Rule_Slot_Index.containsKey(AppID + ":" + Rule_Number + ".")) {
+						Rule_Number++;
+					}
+					RuleID = AppID + ":" + Rule_Number + ".";
+					Fresh_Rule_IDs.put(AppID, RuleID);
+				}
+				Rules.add(new ApplicationHelloInputBuilder()
+						.setAppID(Integer.toString(AppID))
+						.setPassword(Password_Dictionary[AppID])
+						.setOperation((short) 0)
+						.setRuleID(RuleID)
+						.setSourceIP(SourceIPInventory.get(i).toString())
+						.setDestinationIP(DestinationIPInventory.get(i).toString())
+						.setSourcePort(Benchmark_Port(SourcePortInventory.get(i)))
+						.setDestinationPort(Benchmark_Port(DestinationPortInventory.get(i)))
+						.setPriority(PriorityInventory.get(i))
+						.setAction(ActionInventory.get(i))
+						.build());
+			}
+		}
+		finally {
+			Catalog_Lock.unlock();
+		}
+		return Rules;
+	}
+	
+	/* ANY and NONE are stored as port "0", which the port format check would reject. */
+	private static String Benchmark_Port (String Port) {
+		return "0".equals(Port) ? "ANY" : Port;
+	}
+}
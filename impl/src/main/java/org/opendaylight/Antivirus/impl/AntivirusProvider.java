@@ -7,10 +7,15 @@
  */
 package org.opendaylight.Antivirus.impl;
 
+import java.io.File;
+
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.controller.sal.binding.api.BindingAwareBroker.RoutedRpcRegistration;
 import org.opendaylight.controller.sal.binding.api.BindingAwareBroker.RpcRegistration;
 import org.opendaylight.controller.sal.binding.api.RpcProviderRegistry;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.AntivirusService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ClusterMemberContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,13 +23,156 @@ public class AntivirusProvider {
 
     private static final Logger LOG = LoggerFactory.getLogger(AntivirusProvider.class);
 
+    /* RPC execution modes, selected with the rpc-execution-mode property. */
+    static final String MODE_SHARDS = "shards";
+    static final String MODE_VIRTUAL_THREADS = "virtual-threads";
+    static final String MODE_PLATFORM_POOL = "platform-pool";
+    static final String MODE_FAIR_QUEUE = "fair-queue";
+    static final int PLATFORM_POOL_THREADS = 64;
+    static final int DEFAULT_MAX_PENDING_PER_APPLICATION = 256;
+
     private final DataBroker dataBroker;
     private RpcRegistration<AntivirusService> serviceRegistration;
+    private RoutedRpcRegistration<AntivirusService> memberRegistration;
 	private RpcProviderRegistry rpcProviderRegistry;
+    private AntivirusImpl antivirusImpl;
+    private final int clusterMemberIndex;
+    private final int clusterMemberCount;
+    private final String rpcExecutionMode;
+    private String compactionMode = "off";
+    private long compactionIntervalMillis = 10000;
+    private int compactionComparisonsPerTick = 100000;
+    private RuleCompactionEngine compactionEngine;
+    private String auditLogDirectory = "data/antivirus-audit";
+    private long auditLogMaxFileBytes = 10 * 1024 * 1024;
+    private int auditLogMaxFiles = 5;
+    private long auditSummaryIntervalMillis = 1000;
+    private AuditJournal auditJournal;
+    private long usagePublishIntervalMillis = 1000;
+    private UsagePublisher usagePublisher;
+    private int helloBatchSize = 0;
+    private long helloBatchWindowMicros = 200;
+    private int maxPendingPerApplication = DEFAULT_MAX_PENDING_PER_APPLICATION;
+    private long reconcileIntervalMillis = 30000;
+    private RuleReconciler ruleReconciler;
+    private NotificationPublishService notificationPublishService;
+    private long notificationIntervalMillis = 1000;
+    private int notificationMaxRuleIds = 1000;
+    private RuleChangeNotifier ruleChangeNotifier;
+    private long memberForwardTimeoutMillis = 5000;
 
     public AntivirusProvider(final DataBroker dataBroker, RpcProviderRegistry rpcProviderRegistry) {
+        this(dataBroker, rpcProviderRegistry, 0, 1, MODE_FAIR_QUEUE);
+    }
+
+    public AntivirusProvider(final DataBroker dataBroker, RpcProviderRegistry rpcProviderRegistry,
+            int clusterMemberIndex, int clusterMemberCount, String rpcExecutionMode) {
         this.dataBroker = dataBroker;
         this.rpcProviderRegistry = rpcProviderRegistry;
+        this.clusterMemberIndex = clusterMemberIndex;
+        this.clusterMemberCount = clusterMemberCount;
+        this.rpcExecutionMode = rpcExecutionMode;
+    }
+
+    /** One of off, report or remove; see {@link RuleCompactionEngine.Mode}. */
+    public void setCompactionMode(String compactionMode) {
+        this.compactionMode = compactionMode;
+    }
+
+    public void setCompactionIntervalMillis(long compactionIntervalMillis) {
+        this.compactionIntervalMillis = compactionIntervalMillis;
+    }
+
+    public void setCompactionComparisonsPerTick(int compactionComparisonsPerTick) {
+        this.compactionComparisonsPerTick = compactionComparisonsPerTick;
+    }
+
+    public void setAuditLogDirectory(String auditLogDirectory) {
+        this.auditLogDirectory = auditLogDirectory;
+    }
+
+    public void setAuditLogMaxFileBytes(long auditLogMaxFileBytes) {
+        this.auditLogMaxFileBytes = auditLogMaxFileBytes;
+    }
+
+    public void setAuditLogMaxFiles(int auditLogMaxFiles) {
+        this.auditLogMaxFiles = auditLogMaxFiles;
+    }
+
+    /** How often the OPERATIONAL audit-summary is brought up to date; 0 disables it. */
+    public void setAuditSummaryIntervalMillis(long auditSummaryIntervalMillis) {
+        this.auditSummaryIntervalMillis = auditSummaryIntervalMillis;
+    }
+
+    /** How often the OPERATIONAL application-usage is brought up to date; 0 disables it. */
+    public void setUsagePublishIntervalMillis(long usagePublishIntervalMillis) {
+        this.usagePublishIntervalMillis = usagePublishIntervalMillis;
+    }
+
+    /**
+     * Most Application-hello calls decided as one batch; 0, the default, decides each call on its own. Compare
+     * both with ExecutionModeBenchmarkTest before turning batching on: it trades up to one batch window of latency
+     * for fewer lock hand-offs and datastore commits.
+     */
+    public void setHelloBatchSize(int helloBatchSize) {
+        this.helloBatchSize = helloBatchSize;
+    }
+
+    public void setHelloBatchWindowMicros(long helloBatchWindowMicros) {
+        this.helloBatchWindowMicros = helloBatchWindowMicros;
+    }
+
+    /** Most requests of one application waiting in the fair-queue mode or for an Application-hello batch. */
+    public void setMaxPendingPerApplication(int maxPendingPerApplication) {
+        this.maxPendingPerApplication = maxPendingPerApplication;
+    }
+
+    /** How often the in-memory catalog and the CONFIGURATION rule registry are compared; 0 disables it. */
+    public void setReconcileIntervalMillis(long reconcileIntervalMillis) {
+        this.reconcileIntervalMillis = reconcileIntervalMillis;
+    }
+
+    /** Where rules-changed notifications are published; without one, none are. */
+    public void setNotificationPublishService(NotificationPublishService notificationPublishService) {
+        this.notificationPublishService = notificationPublishService;
+    }
+
+    /** How often the rule changes of each application are published as one notification; 0 disables them. */
+    public void setNotificationIntervalMillis(long notificationIntervalMillis) {
+        this.notificationIntervalMillis = notificationIntervalMillis;
+    }
+
+    public void setNotificationMaxRuleIds(int notificationMaxRuleIds) {
+        this.notificationMaxRuleIds = notificationMaxRuleIds;
+    }
+
+    /** How long a request passed on to the cluster member owning its application may take before it fails. */
+    public void setMemberForwardTimeoutMillis(long memberForwardTimeoutMillis) {
+        this.memberForwardTimeoutMillis = memberForwardTimeoutMillis;
+    }
+
+    static RuleCompactionEngine.Mode parseCompactionMode(String mode) {
+        try {
+            return RuleCompactionEngine.Mode.valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            LOG.warn("Unknown compaction-mode {}, compaction disabled", mode);
+            return RuleCompactionEngine.Mode.OFF;
+        }
+    }
+
+    static RequestDispatcher createDispatcher(String mode, int maxPendingPerApplication) {
+        if (MODE_VIRTUAL_THREADS.equals(mode)) {
+            return new ThreadPerRequestDispatcher(true, PLATFORM_POOL_THREADS);
+        } else if (MODE_PLATFORM_POOL.equals(mode)) {
+            return new ThreadPerRequestDispatcher(false, PLATFORM_POOL_THREADS);
+        } else if (MODE_SHARDS.equals(mode)) {
+            return new CatalogShards(Runtime.getRuntime().availableProcessors());
+        } else {
+            if (!MODE_FAIR_QUEUE.equals(mode)) {
+                LOG.warn("Unknown rpc-execution-mode {}, using {}", mode, MODE_FAIR_QUEUE);
+            }
+            return new FairQueueDispatcher(Runtime.getRuntime().availableProcessors(), maxPendingPerApplication);
+        }
     }
 
     /**
@@ -32,7 +180,34 @@ public class AntivirusProvider {
      */
     public void init() {
         LOG.info("AntivirusProvider Session Initiated");
-        serviceRegistration = rpcProviderRegistry.addRpcImplementation(AntivirusService.class, new AntivirusImpl(dataBroker));
+        antivirusImpl = new AntivirusImpl(dataBroker, AntivirusImpl.DEFAULT_NUMBER_OF_APPLICATIONS,
+                AntivirusImpl.DEFAULT_CAPACITY, new ApplicationOwnership(clusterMemberIndex, clusterMemberCount), null,
+                createDispatcher(rpcExecutionMode, maxPendingPerApplication));
+        if (helloBatchSize > 0) {
+            antivirusImpl.Enable_Hello_Batching(helloBatchSize, helloBatchWindowMicros, maxPendingPerApplication);
+        }
+        auditJournal = new AuditJournal(antivirusImpl.Audit_Ring, dataBroker, clusterMemberIndex,
+                new File(auditLogDirectory), auditLogMaxFileBytes, auditLogMaxFiles, 200);
+        if (notificationPublishService != null && notificationIntervalMillis > 0) {
+            ruleChangeNotifier = new RuleChangeNotifier(notificationPublishService, notificationMaxRuleIds);
+            ruleChangeNotifier.start(notificationIntervalMillis);
+            auditJournal.setNotifier(ruleChangeNotifier);
+        }
+        auditJournal.start(auditSummaryIntervalMillis);
+        serviceRegistration = rpcProviderRegistry.addRpcImplementation(AntivirusService.class, antivirusImpl);
+        if (clusterMemberCount > 1) {
+            memberRegistration = rpcProviderRegistry.addRoutedRpcImplementation(AntivirusService.class, antivirusImpl);
+            memberRegistration.registerPath(ClusterMemberContext.class, MemberRouter.memberPath(clusterMemberIndex));
+            antivirusImpl.Enable_Member_Routing(new MemberRouter(
+                    rpcProviderRegistry.getRpcService(AntivirusService.class), memberForwardTimeoutMillis));
+        }
+        compactionEngine = new RuleCompactionEngine(antivirusImpl, parseCompactionMode(compactionMode),
+                compactionComparisonsPerTick);
+        compactionEngine.start(compactionIntervalMillis);
+        usagePublisher = new UsagePublisher(dataBroker, antivirusImpl, clusterMemberIndex);
+        usagePublisher.start(usagePublishIntervalMillis);
+        ruleReconciler = new RuleReconciler(dataBroker, antivirusImpl);
+        ruleReconciler.start(reconcileIntervalMillis);
     }
 
     /**
@@ -41,5 +216,16 @@ public class AntivirusProvider {
     public void close() {
         LOG.info("AntivirusProvider Closed");
         serviceRegistration.close();
+        if (memberRegistration != null) {
+            memberRegistration.close();
+        }
+        compactionEngine.close();
+        usagePublisher.close();
+        ruleReconciler.close();
+        antivirusImpl.close();
+        auditJournal.close();
+        if (ruleChangeNotifier != null) {
+            ruleChangeNotifier.close();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+/**
+ * Assigns every AppID to exactly one cluster member. Only the owner handles
+ * an application's requests, so its per-app quota in App_Inventory stays
+ * local to that member and is authoritative.
+ */
+public class ApplicationOwnership {
+
+    private final int memberIndex;
+    private final int memberCount;
+
+    public ApplicationOwnership(int memberIndex, int memberCount) {
+        if (memberCount < 1 || memberIndex < 0 || memberIndex >= memberCount) {
+            throw new IllegalArgumentException("Invalid cluster member " + memberIndex + " of " + memberCount);
+        }
+        this.memberIndex = memberIndex;
+        this.memberCount = memberCount;
+    }
+
+    /**
+     * Ownership for a controller that is not clustered: every application is local.
+     */
+    public static ApplicationOwnership singleNode() {
+        return new ApplicationOwnership(0, 1);
+    }
+
+    public int ownerOf(int AppID) {
+        return AppID % memberCount;
+    }
+
+    public boolean isLocallyOwned(int AppID) {
+        return ownerOf(AppID) == memberIndex;
+    }
+
+    public int getMemberIndex() {
+        return memberIndex;
+    }
+
+    public int getMemberCount() {
+        return memberCount;
+    }
+}
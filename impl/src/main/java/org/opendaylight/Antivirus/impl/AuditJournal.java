@@ -0,0 +1,284 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.controller.md.sal.common.api.data.TransactionCommitFailedException;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.AuditSummary;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.audit.summary.Member;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.audit.summary.MemberBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.audit.summary.MemberKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.audit.summary.member.Decision;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.audit.summary.member.DecisionBuilder;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.CheckedFuture;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Single consumer of an {@link AuditRing}. Drains the ring in batches on its
+ * own thread and appends the decisions as CSV lines to a size-rotated log
+ * file. With a {@link RuleChangeNotifier} set, it also hands every batch on
+ * to it.
+ *
+ * <p>The running totals of this member are published to the OPERATIONAL
+ * audit-summary on a timer of their own, not per batch: a steady trickle of
+ * decisions costs one write per interval, and an interval without new
+ * decisions costs nothing.
+ */
+public class AuditJournal implements AutoCloseable, Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditJournal.class);
+
+    static final String FILE_NAME = "audit.log";
+    private static final int BATCH = 1024;
+
+    private final AuditRing ring;
+    private final DataBroker db;
+    private final int memberIndex;
+    private final File directory;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final long idleMillis;
+
+    private final long[] times = new long[BATCH];
+    private final int[] fields = new int[BATCH * AuditRing.FIELDS];
+    /* Running totals, guarded by this; the summary timer reads them while the journal thread counts. */
+    private final long[] counts = new long[AuditRing.TYPE_NAMES.length];
+    private long recorded;
+    private long publishedRecorded = -1;
+    private long publishedDropped = -1;
+    private long fileBytes;
+    private BufferedWriter writer;
+    private volatile RuleChangeNotifier notifier;
+
+    private final Thread thread;
+    private volatile boolean running = true;
+    private ScheduledExecutorService timer;
+
+    public AuditJournal(AuditRing ring, DataBroker db, int memberIndex, File directory, long maxFileBytes,
+            int maxFiles, long idleMillis) {
+        this.ring = ring;
+        this.db = db;
+        this.memberIndex = memberIndex;
+        this.directory = directory;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.idleMillis = idleMillis;
+        this.thread = new Thread(this, "antivirus-audit");
+        this.thread.setDaemon(true);
+    }
+
+    public void setNotifier(RuleChangeNotifier notifier) {
+        this.notifier = notifier;
+    }
+
+    /** Starts draining; the audit-summary is published every {@code summaryIntervalMillis}, never if 0 or less. */
+    public void start(long summaryIntervalMillis) {
+        thread.start();
+        LOG.info("Audit log written to {}", new File(directory, FILE_NAME));
+        if (summaryIntervalMillis <= 0) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "antivirus-audit-summary");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    publishSummary();
+                } catch (RuntimeException e) {
+                    LOG.warn("Publishing the audit summary failed", e);
+                }
+            }
+        }, summaryIntervalMillis, summaryIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            if (drain() == 0) {
+                try {
+                    Thread.sleep(idleMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        drain();
+        closeWriter();
+    }
+
+    /** Writes out everything published so far; returns the number of events. */
+    int drain() {
+        int total = 0;
+        int count;
+        try {
+            while ((count = ring.poll(times, fields, BATCH)) > 0) {
+                if (notifier != null) {
+                    notifier.record(fields, count);
+                }
+                count(count);
+                for (int i = 0; i < count; i++) {
+                    write(i);
+                }
+                total += count;
+            }
+            if (total > 0) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not write the audit log in {}", directory, e);
+            closeWriter();
+        }
+        return total;
+    }
+
+    private synchronized void count(int count) {
+        for (int i = 0; i < count; i++) {
+            counts[fields[i * AuditRing.FIELDS]]++;
+        }
+        recorded += count;
+    }
+
+    private void write(int event) throws IOException {
+        int base = event * AuditRing.FIELDS;
+        int type = fields[base];
+        String line = times[event] + "," + AuditRing.TYPE_NAMES[type] + "," + ruleID(fields[base + 1], fields[base + 2])
+                + "," + ruleID(fields[base + 3], fields[base + 4]) + "\n";
+        if (writer == null || fileBytes + line.length() > maxFileBytes) {
+            open(writer != null);
+        }
+        writer.write(line);
+        fileBytes += line.length();
+    }
+
+    private static String ruleID(int AppID, int RuleNumber) {
+        return (AppID < 0) ? "" : AppID + ":" + RuleNumber + ".";
+    }
+
+    /*
+     * Opens audit.log for appending. When the current file is full, it first becomes audit.log.1,
+     * audit.log.1 becomes audit.log.2, and so on; the oldest is deleted.
+     */
+    private void open(boolean full) throws IOException {
+        closeWriter();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File current = new File(directory, FILE_NAME);
+        if (full || current.length() >= maxFileBytes) {
+            new File(directory, FILE_NAME + "." + (maxFiles - 1)).delete();
+            for (int i = maxFiles - 2; i >= 1; i--) {
+                new File(directory, FILE_NAME + "." + i).renameTo(new File(directory, FILE_NAME + "." + (i + 1)));
+            }
+            current.renameTo(new File(directory, FILE_NAME + ".1"));
+        }
+        fileBytes = current.length();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(current, true), StandardCharsets.UTF_8));
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOG.debug("Could not close the audit log", e);
+            }
+            writer = null;
+        }
+    }
+
+    /** Writes the running totals, unless they are the ones written last; returns whether it wrote. */
+    boolean publishSummary() {
+        Member summary;
+        synchronized (this) {
+            long dropped = ring.dropped();
+            if (recorded == publishedRecorded && dropped == publishedDropped) {
+                return false;
+            }
+            List<Decision> decisions = new ArrayList<>();
+            for (int type = 0; type < counts.length; type++) {
+                if (counts[type] > 0) {
+                    decisions.add(new DecisionBuilder().setType(AuditRing.TYPE_NAMES[type])
+                            .setCount(BigInteger.valueOf(counts[type])).build());
+                }
+            }
+            summary = new MemberBuilder()
+                    .setMemberIndex(memberIndex)
+                    .setRecorded(BigInteger.valueOf(recorded))
+                    .setDropped(BigInteger.valueOf(dropped))
+                    .setDecision(decisions)
+                    .build();
+            publishedRecorded = recorded;
+            publishedDropped = dropped;
+        }
+
+        WriteTransaction transaction = db.newWriteOnlyTransaction();
+        transaction.put(LogicalDatastoreType.OPERATIONAL, InstanceIdentifier.create(AuditSummary.class)
+                .child(Member.class, new MemberKey(memberIndex)), summary, true);
+        CheckedFuture<Void, TransactionCommitFailedException> future = transaction.submit();
+        Futures.addCallback(future, new LoggingFuturesCallBack<Void>("Failed to publish the audit summary", LOG) {
+            @Override
+            public void onFailure(Throwable e) {
+                super.onFailure(e);
+                synchronized (AuditJournal.this) {
+                    publishedRecorded = -1;
+                }
+            }
+        });
+        return true;
+    }
+
+    synchronized long recorded() {
+        return recorded;
+    }
+
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (timer != null) {
+            // The last decisions drained on the way out.
+            publishSummary();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Pre-allocated ring of rule decisions, written by any number of producers
+ * on the RPC path and read by a single consumer.
+ *
+ * <p>Each event is a timestamp and five ints: the decision type, the App ID
+ * and rule number of the rule it concerns (the incoming rule, or the removed
+ * one for deletions and evictions), and the App ID and rule number of the
+ * rule it was weighed against, or -1.
+ * Publishing never blocks and never allocates: a producer claims a sequence
+ * number with a CAS, fills the slot and marks it published. When the consumer
+ * is a full ring behind, the event is dropped and counted instead.
+ */
+public class AuditRing {
+
+    public static final int STORED = 0;
+    public static final int DELETED = 1;
+    public static final int DUPLICATE_KEPT = 2;
+    public static final int DUPLICATE_REPLACED = 3;
+    public static final int CONFLICT_KEPT = 4;
+    public static final int CONFLICT_REPLACED = 5;
+    public static final int EVICTED = 6;
+    public static final int REJECTED_FULL = 7;
+    public static final int COMPACTED = 8;
+    public static final int EXPIRED = 9;
+
+    static final String[] TYPE_NAMES = {"stored", "deleted", "duplicate-kept", "duplicate-replaced",
+        "conflict-kept", "conflict-replaced", "evicted", "rejected-full", "compacted", "expired"};
+
+    static final int FIELDS = 5;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] times;
+    private final int[] fields;
+    /* Sequence number + 1 of the event last published into each slot; 0 if none yet. */
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** @param capacity number of events held, rounded up to a power of two */
+    public AuditRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.times = new long[size];
+        this.fields = new int[size * FIELDS];
+        this.published = new AtomicLongArray(size);
+    }
+
+    /**
+     * Records a decision about RuleID, with OtherRuleID (may be null) as the
+     * rule it was weighed against. Returns false if the event was dropped.
+     */
+    public boolean publish(int type, String RuleID, String OtherRuleID) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= capacity) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) (sequence & mask);
+        int base = slot * FIELDS;
+        times[slot] = System.currentTimeMillis();
+        fields[base] = type;
+        fields[base + 1] = appID(RuleID);
+        fields[base + 2] = ruleNumber(RuleID);
+        fields[base + 3] = appID(OtherRuleID);
+        fields[base + 4] = ruleNumber(OtherRuleID);
+        published.lazySet(slot, sequence + 1);
+        return true;
+    }
+
+    /**
+     * Consumer only: copies up to max published events, in order, into the
+     * given arrays (FIELDS ints per event) and frees their slots.
+     */
+    public int poll(long[] eventTimes, int[] eventFields, int max) {
+        long next = consumed.get();
+        int count = 0;
+        while (count < max) {
+            int slot = (int) ((next + count) & mask);
+            if (published.get(slot) != next + count + 1) {
+                break;
+            }
+            eventTimes[count] = times[slot];
+            System.arraycopy(fields, slot * FIELDS, eventFields, count * FIELDS, FIELDS);
+            count++;
+        }
+        if (count > 0) {
+            consumed.lazySet(next + count);
+        }
+        return count;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /* Rule IDs have the format X:Y. with X the App ID; parsed in place to avoid allocating. */
+    static int appID(String RuleID) {
+        if (RuleID == null) {
+            return -1;
+        }
+        int colon = RuleID.indexOf(':');
+        return parse(RuleID, 0, colon < 0 ? RuleID.length() : colon);
+    }
+
+    static int ruleNumber(String RuleID) {
+        if (RuleID == null) {
+            return -1;
+        }
+        int colon = RuleID.indexOf(':');
+        if (colon < 0) {
+            return -1;
+        }
+        int dot = RuleID.indexOf('.', colon);
+        return parse(RuleID, colon + 1, dot < 0 ? RuleID.length() : dot);
+    }
+
+    private static int parse(String value, int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int result = 0;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9' || result > (Integer.MAX_VALUE - 9) / 10) {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+}
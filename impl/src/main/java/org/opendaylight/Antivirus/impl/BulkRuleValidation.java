@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRules;
+
+/**
+ * Normalizes and validates a range of a bulk load on a ForkJoin pool. Only the
+ * checks that do not depend on the catalog run here; the results land in
+ * per-index slots, so the ordered pass that follows sees them in input order.
+ */
+class BulkRuleValidation extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    private static final int LEAF_SIZE = 64;
+
+    private final AntivirusImpl antivirus;
+    private final List<? extends ConfigurationRules> rules;
+    private final ApplicationHelloInput[] inputs;
+    private final String[] errors;
+    private final int from;
+    private final int to;
+
+    BulkRuleValidation(AntivirusImpl antivirus, List<? extends ConfigurationRules> rules,
+            ApplicationHelloInput[] inputs, String[] errors, int from, int to) {
+        this.antivirus = antivirus;
+        this.rules = rules;
+        this.inputs = inputs;
+        this.errors = errors;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= LEAF_SIZE) {
+            for (int i = from; i < to; i++) {
+                inputs[i] = normalize(rules.get(i));
+                errors[i] = antivirus.Validate_Rule(inputs[i]);
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        invokeAll(new BulkRuleValidation(antivirus, rules, inputs, errors, from, middle),
+                new BulkRuleValidation(antivirus, rules, inputs, errors, middle, to));
+    }
+
+    /* Firewall exports often carry padding and mixed-case keywords; store them the way Application-hello expects. */
+    static ApplicationHelloInput normalize(ConfigurationRules rule) {
+        return new ApplicationHelloInputBuilder(rule)
+                .setAppID(trim(rule.getAppID()))
+                .setRuleID(trim(rule.getRuleID()))
+                .setSourceIP(trim(rule.getSourceIP()))
+                .setDestinationIP(trim(rule.getDestinationIP()))
+                .setSourcePort(port(rule.getSourcePort()))
+                .setDestinationPort(port(rule.getDestinationPort()))
+                .setAction(action(rule.getAction()))
+                .build();
+    }
+
+    private static String trim(String value) {
+        return (value == null) ? null : value.trim();
+    }
+
+    private static String port(String value) {
+        String port = trim(value);
+        if (AntivirusImpl.Is_Any_Port(port)) {
+            return port.toUpperCase();
+        }
+        return port;
+    }
+
+    private static String action(String value) {
+        String action = trim(value);
+        if ("allow".equalsIgnoreCase(action) || "deny".equalsIgnoreCase(action)) {
+            return action.toUpperCase();
+        }
+        return action;
+    }
+}
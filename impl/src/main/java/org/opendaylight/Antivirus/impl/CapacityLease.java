@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+/**
+ * A node-local share of the global capacity. Storing or deleting a rule only
+ * touches the local count; the shared {@link CapacityPool} is contacted once
+ * per batch, when the lease runs dry or holds more than one batch of unused
+ * slots, and when the lease has sat unused for a while. The sum of all
+ * leases never exceeds C, so the global limit holds without a cross-node
+ * round-trip on every RPC.
+ *
+ * <p>Slots held by a lease are unavailable to the other members, so the
+ * batch has to be small next to C: {@link #batchSizeFor(int, int, int)} gives
+ * every member room for several batches.
+ */
+public class CapacityLease {
+
+    private final CapacityPool pool;
+    private final int batchSize;
+    private int held;
+    private boolean usedSinceIdleCheck;
+
+    public CapacityLease(CapacityPool pool, int batchSize) {
+        this.pool = pool;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * A batch of at most maxBatchSize slots that lets each of the members hold
+     * a batch four times over before C is used up.
+     */
+    public static int batchSizeFor(int capacity, int memberCount, int maxBatchSize) {
+        return Math.max(1, Math.min(maxBatchSize, capacity / (4 * memberCount)));
+    }
+
+    /**
+     * Takes one slot for a rule about to be stored.
+     *
+     * @return false if neither this lease nor the pool has a slot left
+     */
+    public synchronized boolean tryAcquire() {
+        if (!hasCapacity()) {
+            return false;
+        }
+        held = held - 1;
+        return true;
+    }
+
+    /**
+     * Whether a rule could be stored without making room first. Reserves a
+     * batch from the pool when the lease is empty, so the answer reflects the
+     * whole cluster rather than this member alone.
+     */
+    public synchronized boolean hasCapacity() {
+        usedSinceIdleCheck = true;
+        if (held == 0) {
+            held = pool.reserve(batchSize);
+        }
+        return held > 0;
+    }
+
+    /**
+     * Whether a rule could be stored without making room first, as
+     * {@link #hasCapacity()} answers it, but without reserving anything from
+     * the pool or counting as use of the lease; for predictions that must
+     * leave the capacity as they found it.
+     */
+    public synchronized boolean peek() {
+        return held > 0 || pool.remaining() > 0;
+    }
+
+    /**
+     * Gives back the slot of a deleted rule.
+     */
+    public synchronized void release() {
+        held = held + 1;
+        if (held > batchSize) {
+            pool.release(held - batchSize);
+            held = batchSize;
+        }
+    }
+
+    /**
+     * Returns the held slots to the pool if the lease has not been used since
+     * the previous call, so a quiet member does not sit on capacity that the
+     * others need. Also has the pool record what an earlier release could
+     * not, see {@link CapacityPool#sync()}.
+     *
+     * @return the number of slots returned
+     */
+    public synchronized int returnIdle() {
+        int returned = 0;
+        if (!usedSinceIdleCheck && held > 0) {
+            returned = held;
+            pool.release(held);
+            held = 0;
+        }
+        usedSinceIdleCheck = false;
+        pool.sync();
+        return returned;
+    }
+
+    /**
+     * Has the pool count the slots of the rules restored at startup for this
+     * member. They are in use, so the lease itself holds none of them.
+     */
+    public synchronized void restore(int count) {
+        pool.restore(count);
+    }
+
+    /**
+     * Returns every unused slot to the pool, e.g. when the node shuts down.
+     */
+    public synchronized void flush() {
+        if (held > 0) {
+            pool.release(held);
+            held = 0;
+        }
+    }
+
+    public synchronized int held() {
+        return held;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+/**
+ * The global rule capacity C, shared by every controller node. Nodes never
+ * touch the pool per rule; they reserve and return capacity in batches
+ * through a {@link CapacityLease}.
+ */
+public interface CapacityPool {
+
+    /**
+     * Reserves up to the requested number of rule slots.
+     *
+     * @return the number of slots actually granted, between 0 and requested
+     */
+    int reserve(int requested);
+
+    /**
+     * Returns previously reserved slots to the pool.
+     */
+    void release(int count);
+
+    /**
+     * Slots not yet reserved by any node.
+     */
+    int remaining();
+
+    /**
+     * Records that this node holds exactly count slots, those of the rules it
+     * restored at startup, in place of whatever the pool still counted for it
+     * from before a restart. Called once, before the first reservation.
+     */
+    void restore(int count);
+
+    /**
+     * Records the slots this node holds again if an earlier reservation or
+     * release could not be recorded; does nothing otherwise.
+     */
+    void sync();
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Spreads RPC processing over N single-threaded loops, one per core by
+ * default, picked by AppID. All requests of one application run in order on
+ * the same loop, off the RPC caller's thread.
+ *
+ * <p>AntivirusImpl partitions its rule catalog the same way: with this
+ * dispatcher it keeps one catalog shard per loop, holding the rules, slots,
+ * App_Inventory counts and lock of the applications {@link #shardOf(int, int)}
+ * maps onto it. Loop k is then the only writer of shard k, except when a
+ * rule replaces or evicts a rule of another shard, or a duplicate check has
+ * to scan every shard; those decisions lock the other shards as well.
+ * Capacity C is shared through the capacity lease, and duplicates and
+ * conflicts are found across shards through the match-tuple index.
+ * ExecutionModeBenchmarkTest#testCompareShardCounts measures what the
+ * shards gain over a single one.
+ */
+public class CatalogShards implements RequestDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CatalogShards.class);
+
+    private final ExecutorService[] loops;
+
+    public CatalogShards(int numberOfShards) {
+        loops = new ExecutorService[numberOfShards];
+        for (int i = 0; i < numberOfShards; i++) {
+            final String name = "antivirus-shard-" + i;
+            loops[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, name);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        LOG.info("RPC processing spread over {} shards", numberOfShards);
+    }
+
+    @Override
+    public int shards() {
+        return loops.length;
+    }
+
+    /**
+     * Maps an AppID onto its shard. Anything that is not a valid AppID is
+     * handled by shard 0, where it is rejected by the format checks.
+     */
+    public static int shardOf(String AppID, int numberOfShards) {
+        try {
+            return shardOf(Integer.parseInt(AppID), numberOfShards);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** The shard of an AppID among {@code numberOfShards}, for the loops and the catalog alike. */
+    public static int shardOf(int AppID, int numberOfShards) {
+        return Math.abs(AppID % numberOfShards);
+    }
+
+    @Override
+    public <T> ListenableFuture<T> submit(String AppID, final Callable<T> task) {
+        final SettableFuture<T> result = SettableFuture.create();
+        loops[shardOf(AppID, loops.length)].execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(task.call());
+                } catch (Exception e) {
+                    result.setException(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void close() {
+        for (ExecutorService loop : loops) {
+            loop.shutdown();
+        }
+    }
+}
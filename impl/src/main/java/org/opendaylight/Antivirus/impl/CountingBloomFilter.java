@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A counting Bloom filter over string keys. {@link #mightContain(String)}
+ * returning false means the key was definitely never added, or has been
+ * removed as often as it was added; true means it may be present.
+ *
+ * <p>Each cell is an 8-bit counter, so keys can be removed. A counter that
+ * reaches 255 sticks there, since it can no longer tell how many keys share
+ * it; that only costs precision, never a false negative.
+ *
+ * <p>Adds and removes are synchronized, since the catalog shards share one
+ * filter. Lookups take no lock: a key's own cells never drop below its own
+ * count while it is present, whatever other keys do meanwhile. The lookup
+ * counters behind {@link #falsePositiveRate()} are atomic and can be read
+ * from any thread.
+ */
+public class CountingBloomFilter {
+
+    private static final int SATURATED = 0xFF;
+
+    private final byte[] counters;
+    private final int hashes;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong possibleHits = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    /**
+     * Sizes the filter for the expected number of keys and false-positive
+     * probability: m = -n ln p / (ln 2)^2 counters and k = m/n ln 2 hashes.
+     */
+    public CountingBloomFilter(int expectedKeys, double falsePositiveProbability) {
+        int n = Math.max(expectedKeys, 1);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        this.counters = new byte[(int) Math.min(Math.max(m, 64), Integer.MAX_VALUE - 8)];
+        this.hashes = Math.max(1, (int) Math.round((double) counters.length / n * Math.log(2)));
+    }
+
+    public synchronized void add(String key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashes; i++) {
+            int cell = cell(hash, i);
+            int count = counters[cell] & 0xFF;
+            if (count != SATURATED) {
+                counters[cell] = (byte) (count + 1);
+            }
+        }
+    }
+
+    public synchronized void remove(String key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashes; i++) {
+            int cell = cell(hash, i);
+            int count = counters[cell] & 0xFF;
+            if (count != SATURATED && count != 0) {
+                counters[cell] = (byte) (count - 1);
+            }
+        }
+    }
+
+    public boolean mightContain(String key) {
+        lookups.incrementAndGet();
+        long hash = hash(key);
+        for (int i = 0; i < hashes; i++) {
+            if (counters[cell(hash, i)] == 0) {
+                return false;
+            }
+        }
+        possibleHits.incrementAndGet();
+        return true;
+    }
+
+    /** The caller looked a possible hit up and found the key absent after all. */
+    public void recordFalsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    /** Forgets every key, e.g. before re-adding the keys of a rebuilt catalog. */
+    public synchronized void clear() {
+        Arrays.fill(counters, (byte) 0);
+    }
+
+    public long lookups() {
+        return lookups.get();
+    }
+
+    public long possibleHits() {
+        return possibleHits.get();
+    }
+
+    public long falsePositives() {
+        return falsePositives.get();
+    }
+
+    /** Observed share of lookups of absent keys that the filter could not rule out. */
+    public double falsePositiveRate() {
+        long negatives = lookups.get() - possibleHits.get() + falsePositives.get();
+        return (negatives == 0) ? 0.0 : (double) falsePositives.get() / negatives;
+    }
+
+    public int size() {
+        return counters.length;
+    }
+
+    public int hashes() {
+        return hashes;
+    }
+
+    /* Kirsch-Mitzenmacher: the i-th cell is h1 + i * h2, the halves of one 64-bit hash (FNV-1a, then a MurmurHash3 mix). */
+    private int cell(long hash, int i) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return ((h1 + i * h2) & Integer.MAX_VALUE) % counters.length;
+    }
+
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
+import org.opendaylight.controller.md.sal.binding.api.ReadTransaction;
+import org.opendaylight.controller.md.sal.binding.api.ReadWriteTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.controller.md.sal.common.api.data.ReadFailedException;
+import org.opendaylight.controller.md.sal.common.api.data.TransactionCommitFailedException;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.CapacityLedger;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.CapacityLedgerBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.capacity.ledger.Member;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.capacity.ledger.MemberBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.capacity.ledger.MemberKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+
+/**
+ * Capacity pool kept in the OPERATIONAL capacity-ledger container, which the
+ * distributed datastore replicates to every cluster member. Each member has
+ * its own entry in the ledger and only ever writes that one, always with the
+ * whole number of slots it holds rather than a difference. The allocated
+ * total is rewritten from the entries with every change, so that concurrent
+ * reservations of two members collide on it and one of them is retried.
+ *
+ * <p>Since every write carries the whole figure, a release that could not be
+ * committed is not lost: it is recorded by the next reservation or release
+ * of the member, or by {@link #sync()}, which the member runs periodically.
+ * A restarting member replaces its entry with the rules it restored, so a
+ * member that went away without releasing its slots does not keep them.
+ */
+public class DatastoreCapacityPool implements CapacityPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DatastoreCapacityPool.class);
+    private static final int MAX_ATTEMPTS = 5;
+    private static final InstanceIdentifier<CapacityLedger> LEDGER_IID = InstanceIdentifier.create(CapacityLedger.class);
+
+    private final DataBroker db;
+    private final int capacity;
+    private final int memberIndex;
+    private final InstanceIdentifier<Member> memberIID;
+
+    /* The slots this member holds, which its ledger entry should say. */
+    private int held;
+    private boolean unrecorded;
+
+    public DatastoreCapacityPool(DataBroker db, int capacity, int memberIndex) {
+        this.db = db;
+        this.capacity = capacity;
+        this.memberIndex = memberIndex;
+        this.memberIID = LEDGER_IID.child(Member.class, new MemberKey(memberIndex));
+    }
+
+    @Override
+    public synchronized int reserve(int requested) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            ReadWriteTransaction transaction = db.newReadWriteTransaction();
+            long others = readAllocatedByOthers(transaction);
+            int granted = (int) Math.min(requested, capacity - others - held);
+            if (others < 0 || granted <= 0) {
+                transaction.cancel();
+                return 0;
+            }
+            write(transaction, others, held + granted);
+            if (commit(transaction)) {
+                held += granted;
+                unrecorded = false;
+                return granted;
+            }
+        }
+        LOG.warn("Could not reserve {} rule slots after {} attempts", requested, MAX_ATTEMPTS);
+        return 0;
+    }
+
+    @Override
+    public synchronized void release(int count) {
+        held = Math.max(0, held - count);
+        record();
+    }
+
+    @Override
+    public int remaining() {
+        ReadOnlyTransaction transaction = db.newReadOnlyTransaction();
+        try {
+            long others = readAllocatedByOthers(transaction);
+            synchronized (this) {
+                return others < 0 ? 0 : (int) Math.max(0, capacity - others - held);
+            }
+        } finally {
+            transaction.close();
+        }
+    }
+
+    @Override
+    public synchronized void restore(int count) {
+        held = count;
+        record();
+    }
+
+    @Override
+    public synchronized void sync() {
+        if (unrecorded) {
+            record();
+        }
+    }
+
+    /* Writes the member's entry; on failure it stays unrecorded until the next write or sync. */
+    private void record() {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            ReadWriteTransaction transaction = db.newReadWriteTransaction();
+            long others = readAllocatedByOthers(transaction);
+            if (others < 0) {
+                transaction.cancel();
+                continue;
+            }
+            write(transaction, others, held);
+            if (commit(transaction)) {
+                unrecorded = false;
+                return;
+            }
+        }
+        unrecorded = true;
+        LOG.warn("Could not record the {} rule slots of member {} after {} attempts, trying again later", held,
+                memberIndex, MAX_ATTEMPTS);
+    }
+
+    private void write(ReadWriteTransaction transaction, long others, int allocated) {
+        transaction.put(LogicalDatastoreType.OPERATIONAL, memberIID,
+                new MemberBuilder().setMemberIndex(memberIndex).setAllocated((long) allocated).build());
+        transaction.merge(LogicalDatastoreType.OPERATIONAL, LEDGER_IID,
+                new CapacityLedgerBuilder().setAllocated(others + allocated).build());
+    }
+
+    /**
+     * @return the slots held by the other members, or -1 if the ledger could not be read
+     */
+    private long readAllocatedByOthers(ReadTransaction transaction) {
+        try {
+            Optional<CapacityLedger> ledger = transaction.read(LogicalDatastoreType.OPERATIONAL, LEDGER_IID).checkedGet();
+            long others = 0;
+            if (ledger.isPresent() && ledger.get().getMember() != null) {
+                for (Member member : ledger.get().getMember()) {
+                    if (member.getMemberIndex() != memberIndex && member.getAllocated() != null) {
+                        others += member.getAllocated();
+                    }
+                }
+            }
+            return others;
+        } catch (ReadFailedException e) {
+            LOG.warn("Reading the capacity ledger failed:", e);
+            return -1;
+        }
+    }
+
+    private boolean commit(ReadWriteTransaction transaction) {
+        try {
+            transaction.submit().checkedGet();
+            return true;
+        } catch (TransactionCommitFailedException e) {
+            LOG.debug("Capacity ledger updated concurrently, retrying", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Every stored rule, ordered from the weakest to the strongest by
+ * (precedence of its application, rule priority, age), so the rule Mode 2
+ * should evict is always the first one: the lowest precedence tier, within
+ * it the lowest priority, and among equals the rule stored first.
+ *
+ * <p>Built on a skip list, so adding, removing and finding the weakest rule
+ * are O(log n). A rule is only added or removed under the lock of its
+ * catalog shard, so writers of different shards run at once; readers need
+ * no lock and see each rule either fully added or not at all.
+ */
+public class EvictionIndex {
+
+    /** One rule's position in the order. */
+    public static final class Entry implements Comparable<Entry> {
+        private final int precedence;
+        private final int priority;
+        private final long age;
+        private final String ruleID;
+
+        Entry(int precedence, int priority, long age, String ruleID) {
+            this.precedence = precedence;
+            this.priority = priority;
+            this.age = age;
+            this.ruleID = ruleID;
+        }
+
+        public int getPrecedence() {
+            return precedence;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public String getRuleID() {
+            return ruleID;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (precedence != other.precedence) {
+                return Integer.compare(precedence, other.precedence);
+            }
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(age, other.age);
+        }
+    }
+
+    private final ConcurrentSkipListSet<Entry> order = new ConcurrentSkipListSet<>();
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong nextAge = new AtomicLong();
+
+    /** Adds a newly stored rule, younger than every rule already indexed. */
+    public void add(String ruleID, int precedence, int priority) {
+        Entry entry = new Entry(precedence, priority, nextAge.getAndIncrement(), ruleID);
+        Entry previous = entries.put(ruleID, entry);
+        if (previous != null) {
+            order.remove(previous);
+        }
+        order.add(entry);
+    }
+
+    public void remove(String ruleID) {
+        Entry entry = entries.remove(ruleID);
+        if (entry != null) {
+            order.remove(entry);
+        }
+    }
+
+    /** The weakest rule of all, or null if there is none. */
+    public Entry weakest() {
+        try {
+            return order.first();
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /** The weakest rule of an application with a precedence below {@code precedence}, or null if there is none. */
+    public Entry weakestBelow(int precedence) {
+        Entry weakest = weakest();
+        return (weakest != null && weakest.precedence < precedence) ? weakest : null;
+    }
+
+    /** Rules with a priority below {@code priority}, in every precedence tier, lowest tier and priority first. */
+    public List<Entry> below(int priority) {
+        List<Entry> found = new ArrayList<>();
+        Entry tier = weakest();
+        while (tier != null) {
+            found.addAll(order.subSet(bound(tier.precedence, Integer.MIN_VALUE), bound(tier.precedence, priority)));
+            if (tier.precedence == Integer.MAX_VALUE) {
+                break;
+            }
+            tier = order.ceiling(bound(tier.precedence + 1, Integer.MIN_VALUE));
+        }
+        return found;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /* Sorts before every rule of the tier with at least this priority. */
+    private static Entry bound(int precedence, int priority) {
+        return new Entry(precedence, priority, Long.MIN_VALUE, null);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Runs RPCs on one consumer thread per catalog shard, each taking the
+ * requests of the AppIDs {@link CatalogShards#shardOf(int, int)} maps onto
+ * its shard from a {@link FairRequestQueue} of its own, so that, under
+ * overload, the applications of a shard are served in proportion to their
+ * precedence instead of in arrival order. A request beyond its
+ * application's queue depth fails straight away with a
+ * {@link RejectedExecutionException}, so a flooding application cannot hold
+ * callers of the others up either.
+ *
+ * <p>With a single consumer per shard, the requests of a shard reach its
+ * lock one at a time, in tag order, rather than racing for it from several
+ * workers, and the requests of one application run in order as in the
+ * shards mode. Applications on different shards run in parallel.
+ */
+public class FairQueueDispatcher implements RequestDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FairQueueDispatcher.class);
+
+    private static final long IDLE_CHECK_MILLIS = 100;
+
+    private final List<FairRequestQueue<Runnable>> queues = new ArrayList<>();
+    private final List<Thread> consumers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    public FairQueueDispatcher(int numberOfShards, int maxDepth) {
+        for (int i = 0; i < numberOfShards; i++) {
+            final FairRequestQueue<Runnable> queue = new FairRequestQueue<>(maxDepth);
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    consume(queue);
+                }
+            }, "antivirus-fair-" + i);
+            t.setDaemon(true);
+            queues.add(queue);
+            consumers.add(t);
+        }
+        for (Thread t : consumers) {
+            t.start();
+        }
+        LOG.info("RPCs fair-queued by precedence over {} shards, at most {} pending per application",
+                numberOfShards, maxDepth);
+    }
+
+    @Override
+    public void setPrecedence(int[] App_Precedence) {
+        for (FairRequestQueue<Runnable> queue : queues) {
+            queue.setPrecedence(App_Precedence);
+        }
+    }
+
+    @Override
+    public int shards() {
+        return queues.size();
+    }
+
+    @Override
+    public <T> ListenableFuture<T> submit(final String AppID, final Callable<T> task) {
+        final SettableFuture<T> result = SettableFuture.create();
+        Runnable request = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(task.call());
+                } catch (Exception e) {
+                    result.setException(e);
+                }
+            }
+        };
+        if (!running) {
+            result.setException(new RejectedExecutionException("The dispatcher has been closed"));
+        } else if (!queues.get(CatalogShards.shardOf(AppID, queues.size())).offer(AppID, request)) {
+            result.setException(new RejectedExecutionException("Too many pending requests for App ID: " + AppID));
+        }
+        return result;
+    }
+
+    public long rejected() {
+        long rejected = 0;
+        for (FairRequestQueue<Runnable> queue : queues) {
+            rejected += queue.rejected();
+        }
+        return rejected;
+    }
+
+    /* Exits once the dispatcher is closed and every request queued before that has run, like shutdown() of the
+     * executors behind the other dispatchers. */
+    private void consume(FairRequestQueue<Runnable> queue) {
+        while (true) {
+            Runnable request;
+            try {
+                request = queue.poll(IDLE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (request != null) {
+                request.run();
+            } else if (!running) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pending requests, one FIFO queue per AppID, served by weighted fair
+ * queueing so that a flood from one application cannot delay the others
+ * beyond their share.
+ *
+ * <p>Each request gets a virtual finish tag when it arrives: the later of
+ * the current virtual time and its application's previous tag, plus
+ * {@code 1 / weight}. Requests are served in tag order (self-clocked fair
+ * queueing), so while several applications are backlogged each one is
+ * served in proportion to its weight, and a request of an idle application
+ * is served within one request per other backlogged application.
+ *
+ * <p>Weights follow App_Precedence, the ranking that already decides whose
+ * rule survives a conflict (FindHighPriorityApp keeps the rule of the
+ * higher precedence): the applications the operator ranks above the others
+ * are also served first when the controller cannot keep up. The lowest
+ * precedence gets weight 1 and the highest {@value #MAX_WEIGHT}, linearly
+ * in between, read when a request arrives:
+ * <ul>
+ * <li>Mode 0: every application 1;</li>
+ * <li>Mode 1: AppIDs 0 to 200, the tier with precedence 0 that loses every
+ * conflict, 1; 201 to 300 get 2 and 301 to 399 get 3;</li>
+ * <li>Mode 2: from 1 for AppID 0 up to 3 for the highest AppID.</li>
+ * </ul>
+ * The bound keeps the share of the lowest application at a third of the
+ * highest one's, rather than 1/400 with the raw Mode 2 precedences, so it is
+ * slowed down under overload but not starved. Each application holds at
+ * most {@code maxDepth} requests; further ones are refused rather than
+ * queued.
+ */
+public class FairRequestQueue<E> {
+
+    /* Tags are fixed point, so that 1 / weight stays exact enough for any precedence. */
+    private static final long ONE = 1L << 20;
+    /* The weight of the highest precedence; the lowest has weight 1. */
+    static final int MAX_WEIGHT = 3;
+    /* Requests with an AppID outside App_Precedence share this flow. */
+    private static final int UNKNOWN = -1;
+
+    private static final class Request<E> {
+        final E item;
+        final long finish;
+        final long sequence;
+
+        Request(E item, long finish, long sequence) {
+            this.item = item;
+            this.finish = finish;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Flow<E> implements Comparable<Flow<E>> {
+        final int AppID;
+        final ArrayDeque<Request<E>> requests = new ArrayDeque<>();
+        long lastFinish;
+
+        Flow(int AppID) {
+            this.AppID = AppID;
+        }
+
+        /* Backlogged flows are ordered by the tag of the request at their head. */
+        @Override
+        public int compareTo(Flow<E> other) {
+            Request<E> mine = requests.peek();
+            Request<E> theirs = other.requests.peek();
+            if (mine.finish != theirs.finish) {
+                return Long.compare(mine.finish, theirs.finish);
+            }
+            return Long.compare(mine.sequence, theirs.sequence);
+        }
+    }
+
+    private final int maxDepth;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<Integer, Flow<E>> flows = new HashMap<>();
+    private final PriorityQueue<Flow<E>> backlogged = new PriorityQueue<>();
+    private volatile int[] precedence = new int[0];
+    private volatile int highest;
+    private long virtualTime;
+    private long sequence;
+    private int size;
+    private long rejected;
+
+    public FairRequestQueue(int maxDepth) {
+        this.maxDepth = Math.max(maxDepth, 1);
+    }
+
+    /** The App_Precedence array the weights are read from; changes to it apply to later requests. */
+    public void setPrecedence(int[] precedence) {
+        int highest = 0;
+        for (int p : precedence) {
+            highest = Math.max(highest, p);
+        }
+        this.highest = highest;
+        this.precedence = precedence;
+    }
+
+    /** Queues a request, or returns false if its application already has {@code maxDepth} pending. */
+    public boolean offer(String AppID, E item) {
+        int[] weights = precedence;
+        int key = flowOf(AppID, weights.length);
+        long cost = costOf(key == UNKNOWN ? 0 : weights[key]);
+        lock.lock();
+        try {
+            Flow<E> flow = flows.get(key);
+            if (flow == null) {
+                flow = new Flow<>(key);
+                flows.put(key, flow);
+            }
+            if (flow.requests.size() >= maxDepth) {
+                rejected++;
+                return false;
+            }
+            long finish = Math.max(virtualTime, flow.lastFinish) + cost;
+            flow.lastFinish = finish;
+            flow.requests.add(new Request<>(item, finish, sequence++));
+            if (flow.requests.size() == 1) {
+                backlogged.add(flow);
+            }
+            size++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Waits for the request with the lowest tag. */
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Waits at most {@code timeout} for the request with the lowest tag, or returns null. */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Moves at most {@code max} requests, in tag order, into {@code into}; returns how many. */
+    public int drainTo(Collection<? super E> into, int max) {
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < max && size > 0) {
+                into.add(next());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Requests refused so far because their application's queue was full. */
+    public long rejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private E next() {
+        Flow<E> flow = backlogged.poll();
+        Request<E> request = flow.requests.poll();
+        virtualTime = request.finish;
+        if (flow.requests.isEmpty()) {
+            // An idle application starts again from the virtual time, so its earlier tags carry no credit.
+            flows.remove(flow.AppID);
+        } else {
+            backlogged.add(flow);
+        }
+        size--;
+        return request.item;
+    }
+
+    /* ONE / weight, with the weight 1 + (MAX_WEIGHT - 1) * precedence / highest. */
+    private long costOf(int p) {
+        int top = highest;
+        if (top <= 0) {
+            return ONE;
+        }
+        long clamped = Math.min(Math.max(p, 0), top);
+        return ONE * top / (top + (MAX_WEIGHT - 1) * clamped);
+    }
+
+    private static int flowOf(String AppID, int applications) {
+        try {
+            int key = Integer.parseInt(AppID);
+            return (key >= 0 && key < applications) ? key : UNKNOWN;
+        } catch (NumberFormatException e) {
+            return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloOutput;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Gathers concurrent Application-hello calls into micro-batches. A single
+ * thread takes the first waiting request, then keeps collecting until the
+ * batch holds {@code maxBatch} requests or {@code windowMicros} have passed,
+ * and hands the batch to {@link AntivirusImpl#HandleApplicationHelloBatch(List)}.
+ * That takes the catalog lock once and writes the datastore in one
+ * transaction for the whole batch, while each request is still decided on
+ * its own, in the order taken, and gets its own result.
+ *
+ * <p>A lone request waits at most one window. Waiting requests are taken
+ * by weighted fair queueing over the applications, so under overload a
+ * flood from one application does not crowd the others out of the batches;
+ * the requests of one application are still taken in arrival order.
+ * Each application has at most {@code maxPending} requests waiting; a call
+ * beyond that fails with a {@link RejectedExecutionException} instead of
+ * growing the backlog.
+ */
+public class HelloBatcher implements AutoCloseable, Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HelloBatcher.class);
+
+    private static final class Pending {
+        final ApplicationHelloInput input;
+        final SettableFuture<RpcResult<ApplicationHelloOutput>> result = SettableFuture.create();
+
+        Pending(ApplicationHelloInput input) {
+            this.input = input;
+        }
+    }
+
+    private final AntivirusImpl antivirus;
+    private final int maxBatch;
+    private final long windowNanos;
+    private final FairRequestQueue<Pending> queue;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+
+    public HelloBatcher(AntivirusImpl antivirus, int maxBatch, long windowMicros, int maxPending) {
+        this.antivirus = antivirus;
+        this.maxBatch = Math.max(maxBatch, 1);
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(windowMicros, 0));
+        this.queue = new FairRequestQueue<>(maxPending);
+        this.queue.setPrecedence(antivirus.App_Precedence);
+        this.thread = new Thread(this, "antivirus-hello-batch");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+        LOG.info("Application-hello batched up to {} requests per {} us", maxBatch,
+                TimeUnit.NANOSECONDS.toMicros(windowNanos));
+    }
+
+    public ListenableFuture<RpcResult<ApplicationHelloOutput>> submit(ApplicationHelloInput input) {
+        Pending pending = new Pending(input);
+        if (!running) {
+            pending.result.setException(new IllegalStateException("Application-hello batching has been closed"));
+        } else if (!queue.offer(input.getAppID(), pending)) {
+            pending.result.setException(new RejectedExecutionException(
+                    "Too many pending requests for App ID: " + input.getAppID()));
+        } else if (!running) {
+            // Closed in between: the batching thread may already have failed what it found queued.
+            List<Pending> left = new ArrayList<>();
+            queue.drainTo(left, Integer.MAX_VALUE);
+            fail(left);
+        }
+        return pending.result;
+    }
+
+    @Override
+    public void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    if (queue.drainTo(batch, maxBatch - batch.size()) > 0) {
+                        continue;
+                    }
+                    long wait = deadline - System.nanoTime();
+                    Pending next = (wait > 0) ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            process(batch);
+            batch.clear();
+        }
+        fail(batch);
+        List<Pending> left = new ArrayList<>();
+        queue.drainTo(left, Integer.MAX_VALUE);
+        fail(left);
+    }
+
+    private void process(List<Pending> batch) {
+        List<ApplicationHelloInput> inputs = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            inputs.add(pending.input);
+        }
+        batches.incrementAndGet();
+        requests.addAndGet(batch.size());
+        try {
+            List<RpcResult<ApplicationHelloOutput>> results = antivirus.HandleApplicationHelloBatch(inputs);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.set(results.get(i));
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Application-hello batch of {} failed", batch.size(), e);
+            for (Pending pending : batch) {
+                pending.result.setException(e);
+            }
+        }
+    }
+
+    private static void fail(List<Pending> pending) {
+        for (Pending p : pending) {
+            p.result.setException(new IllegalStateException("Application-hello batching has been closed"));
+        }
+    }
+
+    public long batches() {
+        return batches.get();
+    }
+
+    public long requests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+/**
+ * An IPv4 or IPv6 prefix in a fixed-width binary form: the 128 address bits
+ * as two longs plus the prefix length. IPv4 prefixes are held as IPv4-mapped
+ * IPv6 prefixes (::ffff:a.b.c.d/96+n), so both families share one
+ * representation and compare with two long compares.
+ *
+ * <p>The host bits beyond the prefix length are cleared, so "10.0.0.1/24.",
+ * "010.0.0.0/24" and "10.0.0.0/24." are the same prefix. {@link #toString()}
+ * gives the canonical text, in the "address/length." form the rule inputs use.
+ */
+public final class IPPrefix {
+
+    private static final long IPV4_MAPPED = 0xFFFFL << 32;
+    private static final int IPV4_OFFSET = 96;
+
+    private final long high;
+    private final long low;
+    private final int length;
+
+    private IPPrefix(long high, long low, int length) {
+        this.high = (length == 0) ? 0 : high & mask(length);
+        this.low = (length <= 64) ? 0 : low & mask(length - 64);
+        this.length = length;
+    }
+
+    /** The first {@code bits} bits of a long set, for 1 to 64 bits. */
+    private static long mask(int bits) {
+        return (bits >= 64) ? -1L : ~(-1L >>> bits);
+    }
+
+    /**
+     * Parses "a.b.c.d/n" or an IPv6 "x:x::x/n", each optionally followed by
+     * the terminating "." of the rule input format. Returns null if the text
+     * is not a valid prefix.
+     */
+    public static IPPrefix parse(String text) {
+        if (text == null) {
+            return null;
+        }
+        int end = text.endsWith(".") ? text.length() - 1 : text.length();
+        int slash = text.indexOf('/');
+        if (slash <= 0 || slash >= end - 1 || end - slash > 4) {
+            return null;
+        }
+        int prefixLength = parseDecimal(text, slash + 1, end, 128);
+        if (prefixLength < 0) {
+            return null;
+        }
+        if (text.lastIndexOf(':', slash) < 0) {
+            long address = parseIPv4(text, 0, slash);
+            if (address < 0 || prefixLength > 32) {
+                return null;
+            }
+            return new IPPrefix(0, IPV4_MAPPED | address, IPV4_OFFSET + prefixLength);
+        }
+        long[] address = parseIPv6(text, 0, slash);
+        return (address == null) ? null : new IPPrefix(address[0], address[1], prefixLength);
+    }
+
+    /** Decimal digits only, at most {@code max}; -1 if not. */
+    private static int parseDecimal(String text, int from, int to, int max) {
+        if (from >= to || to - from > 3) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return (value > max) ? -1 : value;
+    }
+
+    /** Dotted quad to its 32 bits, or -1. Leading zeros are read as decimal. */
+    private static long parseIPv4(String text, int from, int to) {
+        long address = 0;
+        int start = from;
+        for (int octet = 0; octet < 4; octet++) {
+            int dot = (octet < 3) ? text.indexOf('.', start) : to;
+            if (dot < 0 || dot > to) {
+                return -1;
+            }
+            int value = parseDecimal(text, start, dot, 255);
+            if (value < 0) {
+                return -1;
+            }
+            address = (address << 8) | value;
+            start = dot + 1;
+        }
+        return address;
+    }
+
+    /** Colon-separated hex groups with at most one "::" and an optional dotted-quad tail, or null. */
+    private static long[] parseIPv6(String text, int from, int to) {
+        int[] groups = new int[8];
+        int count = 0;
+        int gap = -1;
+        int i = from;
+        if (text.startsWith("::", i)) {
+            gap = 0;
+            i += 2;
+        }
+        while (i < to) {
+            int next = text.indexOf(':', i);
+            if (next < 0 || next > to) {
+                next = to;
+            }
+            if (next == i) {
+                return null;
+            }
+            if (next == to && text.indexOf('.', i) >= 0 && text.indexOf('.', i) < to) {
+                long address = (count <= 6) ? parseIPv4(text, i, to) : -1;
+                if (address < 0) {
+                    return null;
+                }
+                groups[count++] = (int) (address >>> 16);
+                groups[count++] = (int) (address & 0xFFFF);
+                i = to;
+                break;
+            }
+            if (next - i > 4 || count == 8) {
+                return null;
+            }
+            int group = 0;
+            for (int k = i; k < next; k++) {
+                int digit = Character.digit(text.charAt(k), 16);
+                if (digit < 0) {
+                    return null;
+                }
+                group = (group << 4) | digit;
+            }
+            groups[count++] = group;
+            i = next;
+            if (i < to) {
+                if (text.startsWith("::", i)) {
+                    if (gap >= 0) {
+                        return null;
+                    }
+                    gap = count;
+                    i += 2;
+                } else {
+                    i++;
+                    if (i == to) {
+                        return null;
+                    }
+                }
+            }
+        }
+        if ((gap < 0) ? count != 8 : count > 7) {
+            return null;
+        }
+        long[] address = new long[2];
+        int zeros = 8 - count;
+        for (int g = 0, src = 0; g < 8; g++) {
+            int value = (gap >= 0 && g >= gap && g < gap + zeros) ? 0 : groups[src++];
+            address[g / 4] |= ((long) value) << (16 * (3 - g % 4));
+        }
+        return address;
+    }
+
+    public boolean isIPv4() {
+        return high == 0 && (low >>> 32) == 0xFFFFL && length >= IPV4_OFFSET;
+    }
+
+    /** Prefix length in the address family of the prefix (0-32 for IPv4). */
+    public int getPrefixLength() {
+        return isIPv4() ? length - IPV4_OFFSET : length;
+    }
+
+    /** True if every address in {@code narrower} also lies in this prefix. */
+    public boolean covers(IPPrefix narrower) {
+        if (length > narrower.length) {
+            return false;
+        }
+        if (length <= 64) {
+            return length == 0 || (narrower.high & mask(length)) == high;
+        }
+        return narrower.high == high && (narrower.low & mask(length - 64)) == low;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = high * 31 + low;
+        return (int) (h ^ (h >>> 32)) * 31 + length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof IPPrefix)) {
+            return false;
+        }
+        IPPrefix other = (IPPrefix) obj;
+        return high == other.high && low == other.low && length == other.length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(44);
+        if (isIPv4()) {
+            sb.append((low >>> 24) & 0xFF).append('.').append((low >>> 16) & 0xFF).append('.')
+                    .append((low >>> 8) & 0xFF).append('.').append(low & 0xFF);
+        } else {
+            appendIPv6(sb);
+        }
+        return sb.append('/').append(getPrefixLength()).append('.').toString();
+    }
+
+    /* RFC 5952: lower-case hex, no leading zeros, the longest run of two or more zero groups as "::". */
+    private void appendIPv6(StringBuilder sb) {
+        int[] groups = new int[8];
+        for (int g = 0; g < 8; g++) {
+            groups[g] = (int) (((g < 4) ? high : low) >>> (16 * (3 - g % 4))) & 0xFFFF;
+        }
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int g = 0; g < 8; g++) {
+            int run = 0;
+            while (g + run < 8 && groups[g + run] == 0) {
+                run++;
+            }
+            if (run > bestLength) {
+                bestStart = g;
+                bestLength = run;
+            }
+            g += run;
+        }
+        for (int g = 0; g < 8; g++) {
+            if (g == bestStart) {
+                sb.append("::");
+                g += bestLength - 1;
+                continue;
+            }
+            if (g > 0 && g != bestStart + bestLength) {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(groups[g]));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in power-of-two microsecond buckets. Recording is a single
+ * atomic increment, so it can sit on the RPC path, and reading never blocks a
+ * writer.
+ */
+public class LatencyHistogram {
+
+    /** Bucket i counts latencies below 2^i microseconds; the last bucket counts everything slower. */
+    static final int BUCKETS = 24;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    public long count(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /** Exclusive upper bound of the bucket in microseconds, or -1 for the overflow bucket. */
+    public static long upperBoundMicros(int bucket) {
+        return (bucket == BUCKETS - 1) ? -1 : 1L << bucket;
+    }
+
+    public long total() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.AntivirusService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.BulkLoadRulesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.BulkLoadRulesOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ClusterMembers;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRules;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.EvaluateRuleInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.EvaluateRuleOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.EvaluateRuleOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardApplicationHelloInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardApplicationHelloOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardBulkLoadRulesInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardBulkLoadRulesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardEvaluateRuleInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardEvaluateRuleOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardPurgeApplicationInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ForwardPurgeApplicationOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.PurgeApplicationInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.PurgeApplicationOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.PurgeApplicationOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.YieldRuleInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.YieldRuleOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.bulk.load.rules.output.Result;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.bulk.load.rules.output.ResultBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.cluster.members.ClusterMember;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.cluster.members.ClusterMemberKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.forward.bulk.load.rules.input.Rule;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.forward.bulk.load.rules.input.RuleBuilder;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.common.RpcError.ErrorType;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes requests for applications owned by another cluster member on to
+ * that member, through the routed forward-* and yield-rule RPCs. Each member
+ * registers its implementation for its own cluster-member path, so the RPC
+ * broker delivers every call to the member its member leaf names, which
+ * handles it as if it had been called there.
+ *
+ * <p>Calls wait at most a fixed timeout for the other member: a member that
+ * cannot be reached in time gets a failed result, and a rule it was asked to
+ * yield is kept.
+ */
+public class MemberRouter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemberRouter.class);
+
+    private final AntivirusService service;
+    private final long timeoutMillis;
+
+    /**
+     * @param service the routed Antivirus RPCs, as returned by the RPC registry
+     */
+    public MemberRouter(AntivirusService service, long timeoutMillis) {
+        this.service = service;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /** The path a member registers its routed RPCs for. */
+    public static InstanceIdentifier<ClusterMember> memberPath(int memberIndex) {
+        return InstanceIdentifier.create(ClusterMembers.class).child(ClusterMember.class,
+                new ClusterMemberKey(memberIndex));
+    }
+
+    /** The RPCs that reach the given member. */
+    protected AntivirusService serviceOf(int memberIndex) {
+        return service;
+    }
+
+    public RpcResult<ApplicationHelloOutput> applicationHello(int memberIndex, ApplicationHelloInput input) {
+        RpcResult<ForwardApplicationHelloOutput> result = await(memberIndex, serviceOf(memberIndex)
+                .forwardApplicationHello(new ForwardApplicationHelloInputBuilder(input)
+                        .setMember(memberPath(memberIndex)).build()));
+        if (!result.isSuccessful()) {
+            return RpcResultBuilder.<ApplicationHelloOutput>failed().withRpcErrors(result.getErrors()).build();
+        }
+        return RpcResultBuilder.success(new ApplicationHelloOutputBuilder()
+                .setGreeting(result.getResult().getGreeting())
+                .setCounter(result.getResult().getCounter())
+                .build()).build();
+    }
+
+    public RpcResult<EvaluateRuleOutput> evaluateRule(int memberIndex, EvaluateRuleInput input) {
+        RpcResult<ForwardEvaluateRuleOutput> result = await(memberIndex, serviceOf(memberIndex)
+                .forwardEvaluateRule(new ForwardEvaluateRuleInputBuilder(input)
+                        .setMember(memberPath(memberIndex)).build()));
+        if (!result.isSuccessful()) {
+            return RpcResultBuilder.<EvaluateRuleOutput>failed().withRpcErrors(result.getErrors()).build();
+        }
+        return RpcResultBuilder.success(new EvaluateRuleOutputBuilder()
+                .setDecision(result.getResult().getDecision())
+                .setGreeting(result.getResult().getGreeting())
+                .setRelatedRuleID(result.getResult().getRelatedRuleID())
+                .setEvictedRuleID(result.getResult().getEvictedRuleID())
+                .build()).build();
+    }
+
+    public RpcResult<BulkLoadRulesOutput> bulkLoadRules(int memberIndex, List<? extends ConfigurationRules> rules) {
+        List<Rule> forwarded = new ArrayList<>(rules.size());
+        for (ConfigurationRules rule : rules) {
+            forwarded.add(new RuleBuilder(rule).build());
+        }
+        RpcResult<ForwardBulkLoadRulesOutput> result = await(memberIndex, serviceOf(memberIndex)
+                .forwardBulkLoadRules(new ForwardBulkLoadRulesInputBuilder()
+                        .setMember(memberPath(memberIndex)).setRule(forwarded).build()));
+        if (!result.isSuccessful()) {
+            return RpcResultBuilder.<BulkLoadRulesOutput>failed().withRpcErrors(result.getErrors()).build();
+        }
+        List<Result> results = new ArrayList<>();
+        if (result.getResult().getResult() != null) {
+            for (org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.forward.bulk.load.rules.output.Result r
+                    : result.getResult().getResult()) {
+                results.add(new ResultBuilder().setRuleID(r.getRuleID()).setGreeting(r.getGreeting()).build());
+            }
+        }
+        return RpcResultBuilder.success(new BulkLoadRulesOutputBuilder()
+                .setAccepted(result.getResult().getAccepted())
+                .setRejected(result.getResult().getRejected())
+                .setUnchanged(result.getResult().getUnchanged())
+                .setResult(results)
+                .build()).build();
+    }
+
+    public RpcResult<PurgeApplicationOutput> purgeApplication(int memberIndex, PurgeApplicationInput input) {
+        RpcResult<ForwardPurgeApplicationOutput> result = await(memberIndex, serviceOf(memberIndex)
+                .forwardPurgeApplication(new ForwardPurgeApplicationInputBuilder()
+                        .setMember(memberPath(memberIndex))
+                        .setAppID(input.getAppID())
+                        .setPassword(input.getPassword())
+                        .build()));
+        if (!result.isSuccessful()) {
+            return RpcResultBuilder.<PurgeApplicationOutput>failed().withRpcErrors(result.getErrors()).build();
+        }
+        return RpcResultBuilder.success(new PurgeApplicationOutputBuilder()
+                .setGreeting(result.getResult().getGreeting())
+                .setPurged(result.getResult().getPurged())
+                .build()).build();
+    }
+
+    /**
+     * Asks the member that owns a rule to delete it in favour of another.
+     *
+     * @return whether the rule was deleted
+     */
+    public boolean yieldRule(int memberIndex, String ruleID, String replacedBy) {
+        RpcResult<YieldRuleOutput> result = await(memberIndex, serviceOf(memberIndex)
+                .yieldRule(new YieldRuleInputBuilder()
+                        .setMember(memberPath(memberIndex))
+                        .setRuleID(ruleID)
+                        .setReplacedBy(replacedBy)
+                        .build()));
+        return result.isSuccessful() && Boolean.TRUE.equals(result.getResult().isYielded());
+    }
+
+    private <T> RpcResult<T> await(int memberIndex, Future<RpcResult<T>> future) {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return unreachable(memberIndex, e);
+        } catch (ExecutionException | TimeoutException e) {
+            future.cancel(true);
+            return unreachable(memberIndex, e);
+        }
+    }
+
+    private static <T> RpcResult<T> unreachable(int memberIndex, Exception e) {
+        LOG.warn("Cluster member {} could not be reached", memberIndex, e);
+        return RpcResultBuilder.<T>failed()
+                .withError(ErrorType.RPC, "Cluster member " + memberIndex + " could not be reached. Try Again!", e)
+                .build();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-application rule counts and the remaining dynamic capacity, readable
+ * without taking the catalog lock.
+ *
+ * <p>The counts of an application are updated by the holder of its catalog
+ * shard's lock, so each shard has a single writer at a time. Every update is
+ * bracketed by the sequence number of the shard, which is odd while the
+ * update is in progress, and a move between applications of two shards
+ * brackets itself with both. {@link #snapshot()} retries until it has copied
+ * all counters while every sequence number stayed even and unchanged, so a
+ * snapshot never shows half of a move between two applications.
+ */
+public class QuotaLedger {
+
+    private final AtomicIntegerArray usage;
+    private final AtomicInteger remaining;
+    private final AtomicLongArray sequences;
+
+    public QuotaLedger(int applications, int capacity) {
+        this(applications, capacity, 1);
+    }
+
+    /** Applications are spread over {@code shards} as {@link CatalogShards#shardOf(int, int)} spreads them. */
+    public QuotaLedger(int applications, int capacity, int shards) {
+        this.usage = new AtomicIntegerArray(applications);
+        this.remaining = new AtomicInteger(capacity);
+        this.sequences = new AtomicLongArray(shards);
+    }
+
+    public int usage(int AppID) {
+        return usage.get(AppID);
+    }
+
+    public int remaining() {
+        return remaining.get();
+    }
+
+    /** A new rule of the application takes one unit of capacity. */
+    public void acquire(int AppID) {
+        int shard = shardOf(AppID);
+        sequences.incrementAndGet(shard);
+        usage.incrementAndGet(AppID);
+        remaining.decrementAndGet();
+        sequences.incrementAndGet(shard);
+    }
+
+    /** A rule of the application was deleted and its capacity is free again. */
+    public void release(int AppID) {
+        int shard = shardOf(AppID);
+        sequences.incrementAndGet(shard);
+        usage.decrementAndGet(AppID);
+        remaining.incrementAndGet();
+        sequences.incrementAndGet(shard);
+    }
+
+    /**
+     * A stored rule was replaced by a rule of another application; the caller
+     * holds the locks of both applications' shards.
+     */
+    public void transfer(int fromAppID, int toAppID) {
+        int from = shardOf(fromAppID);
+        int to = shardOf(toAppID);
+        sequences.incrementAndGet(from);
+        if (to != from) {
+            sequences.incrementAndGet(to);
+        }
+        usage.decrementAndGet(fromAppID);
+        usage.incrementAndGet(toAppID);
+        sequences.incrementAndGet(from);
+        if (to != from) {
+            sequences.incrementAndGet(to);
+        }
+    }
+
+    public Snapshot snapshot() {
+        int[] copy = new int[usage.length()];
+        long[] before = new long[sequences.length()];
+        while (true) {
+            if (readSequences(before)) {
+                for (int i = 0; i < copy.length; i++) {
+                    copy[i] = usage.get(i);
+                }
+                int free = remaining.get();
+                if (unchanged(before)) {
+                    long version = 0;
+                    for (long sequence : before) {
+                        version += sequence >>> 1;
+                    }
+                    return new Snapshot(version, copy, free);
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /* Copies the sequence numbers; false if an update is in progress in any shard. */
+    private boolean readSequences(long[] into) {
+        for (int i = 0; i < into.length; i++) {
+            into[i] = sequences.get(i);
+            if ((into[i] & 1) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean unchanged(long[] before) {
+        for (int i = 0; i < before.length; i++) {
+            if (sequences.get(i) != before[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int shardOf(int AppID) {
+        return CatalogShards.shardOf(AppID, sequences.length());
+    }
+
+    /** Immutable view of the ledger at one point in time. */
+    public static final class Snapshot {
+        private final long version;
+        private final int[] usage;
+        private final int remaining;
+
+        Snapshot(long version, int[] usage, int remaining) {
+            this.version = version;
+            this.usage = usage;
+            this.remaining = remaining;
+        }
+
+        /** Number of updates applied before this snapshot was taken. */
+        public long version() {
+            return version;
+        }
+
+        public int usage(int AppID) {
+            return usage[AppID];
+        }
+
+        public int applications() {
+            return usage.length;
+        }
+
+        public int remaining() {
+            return remaining;
+        }
+
+        public int used() {
+            int total = 0;
+            for (int count : usage) {
+                total += count;
+            }
+            return total;
+        }
+    }
+}
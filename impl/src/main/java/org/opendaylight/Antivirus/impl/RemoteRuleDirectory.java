@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.DataObjectModification;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeChangeListener;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeIdentifier;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeModification;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRules;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRulesRegistry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntry;
+import org.opendaylight.yangtools.concepts.ListenerRegistration;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The rules of the applications that other cluster members own, indexed by
+ * match tuple.
+ *
+ * <p>A member's catalog only holds the rules of its own applications, so on
+ * its own it would miss a duplicate or conflicting rule stored by another
+ * member. The directory follows the CONFIGURATION rule registry, which every
+ * member shares, through data tree change notifications, and is seeded from
+ * the registry read at startup. Lookups answer the same questions as the
+ * catalog's Rule_Tuple_Index and scan, for the rules the catalog lacks.
+ */
+public class RemoteRuleDirectory implements DataTreeChangeListener<ConfigurationRulesRegistryEntry>, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RemoteRuleDirectory.class);
+
+    /** A rule of another member, in the form the catalog keeps its own: canonical prefixes, "0" for ANY ports. */
+    public static final class Rule {
+        private final String ruleID;
+        private final IPPrefix sourceIP;
+        private final IPPrefix destinationIP;
+        private final String sourcePort;
+        private final String destinationPort;
+        private final int priority;
+        private final String action;
+
+        Rule(String ruleID, IPPrefix sourceIP, IPPrefix destinationIP, String sourcePort, String destinationPort,
+                int priority, String action) {
+            this.ruleID = ruleID;
+            this.sourceIP = sourceIP;
+            this.destinationIP = destinationIP;
+            this.sourcePort = sourcePort;
+            this.destinationPort = destinationPort;
+            this.priority = priority;
+            this.action = action;
+        }
+
+        public String getRuleID() {
+            return ruleID;
+        }
+
+        public String getAction() {
+            return action;
+        }
+    }
+
+    private final ApplicationOwnership ownership;
+    private final RuleTupleIndex tuples = new RuleTupleIndex();
+    private final ConcurrentMap<String, Rule> rules = new ConcurrentHashMap<>();
+    private ListenerRegistration<RemoteRuleDirectory> registration;
+
+    public RemoteRuleDirectory(ApplicationOwnership ownership) {
+        this.ownership = ownership;
+    }
+
+    public void start(DataBroker db) {
+        registration = db.registerDataTreeChangeListener(new DataTreeIdentifier<>(LogicalDatastoreType.CONFIGURATION,
+                InstanceIdentifier.create(ConfigurationRulesRegistry.class).child(ConfigurationRulesRegistryEntry.class)),
+                this);
+    }
+
+    @Override
+    public void onDataTreeChanged(Collection<DataTreeModification<ConfigurationRulesRegistryEntry>> changes) {
+        for (DataTreeModification<ConfigurationRulesRegistryEntry> change : changes) {
+            DataObjectModification<ConfigurationRulesRegistryEntry> node = change.getRootNode();
+            if (node.getDataBefore() != null) {
+                remove(node.getDataBefore().getRuleID());
+            }
+            if (node.getDataAfter() != null) {
+                put(node.getDataAfter());
+            }
+        }
+    }
+
+    /**
+     * Records a registry entry, unless its application is owned by this
+     * member or the entry cannot be parsed.
+     */
+    public synchronized void put(ConfigurationRules entry) {
+        try {
+            int appID = Integer.parseInt(entry.getAppID());
+            if (ownership.isLocallyOwned(appID)) {
+                return;
+            }
+            boolean anyPort = AntivirusImpl.Is_Any_Port(entry.getSourcePort());
+            Rule rule = new Rule(entry.getRuleID(), IPPrefix.parse(entry.getSourceIP()),
+                    IPPrefix.parse(entry.getDestinationIP()), anyPort ? "0" : entry.getSourcePort(),
+                    anyPort ? "0" : entry.getDestinationPort(), entry.getPriority(), entry.getAction());
+            if (rule.ruleID == null || rule.sourceIP == null || rule.destinationIP == null) {
+                return;
+            }
+            remove(rule.ruleID);
+            rules.put(rule.ruleID, rule);
+            tuples.put(rule.sourceIP, rule.destinationIP, rule.sourcePort, rule.destinationPort, rule.priority,
+                    rule.ruleID);
+        } catch (NumberFormatException | NullPointerException e) {
+            LOG.debug("Rule ID: {} of the rule registry left out of the remote rules", entry.getRuleID(), e);
+        }
+    }
+
+    public synchronized void remove(String ruleID) {
+        Rule rule = (ruleID == null) ? null : rules.remove(ruleID);
+        if (rule != null) {
+            tuples.remove(rule.sourceIP, rule.destinationIP, rule.sourcePort, rule.destinationPort, rule.priority,
+                    rule.ruleID);
+        }
+    }
+
+    /**
+     * The remote rule with the same match tuple, or null. As in the
+     * catalog, a "0" port of the rule looked up matches any stored port.
+     */
+    public Rule find(IPPrefix sourceIP, IPPrefix destinationIP, String sourcePort, String destinationPort,
+            int priority) {
+        if (!sourcePort.equals("0") && !destinationPort.equals("0")) {
+            String ruleID = tuples.get(sourceIP, destinationIP, sourcePort, destinationPort, priority);
+            return (ruleID == null) ? null : rules.get(ruleID);
+        }
+        for (Rule rule : rules.values()) {
+            if (rule.sourceIP.equals(sourceIP) && rule.destinationIP.equals(destinationIP)
+                    && (sourcePort.equals("0") || rule.sourcePort.equals(sourcePort))
+                    && (destinationPort.equals("0") || rule.destinationPort.equals(destinationPort))
+                    && rule.priority == priority) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    @Override
+    public void close() {
+        if (registration != null) {
+            registration.close();
+        }
+    }
+}
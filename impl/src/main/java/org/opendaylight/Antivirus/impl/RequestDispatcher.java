@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.concurrent.Callable;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Decides which thread runs an RPC. The RPC caller gets a future back
+ * straight away and is never blocked by the datastore waits of the handler.
+ */
+public interface RequestDispatcher extends AutoCloseable {
+
+    <T> ListenableFuture<T> submit(String AppID, Callable<T> task);
+
+    /** Hands over App_Precedence, for dispatchers that schedule by it; the others ignore it. */
+    default void setPrecedence(int[] App_Precedence) {
+    }
+
+    /**
+     * The number of loops that run the requests of the AppIDs
+     * {@link CatalogShards#shardOf(int, int)} maps onto them, one loop each,
+     * or 0 if requests are not run by shard. AntivirusImpl keeps one catalog
+     * shard per loop.
+     */
+    default int shards() {
+        return 0;
+    }
+
+    @Override
+    void close();
+}
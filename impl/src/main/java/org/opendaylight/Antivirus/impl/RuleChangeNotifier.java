@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.RulesChanged;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.RulesChangedBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tells applications about the decisions that went against their rules:
+ * rules replaced by a higher-priority application, evicted in Mode 2, not
+ * stored because a conflicting rule was kept, or deleted by the
+ * {@link RuleCompactionEngine} in favour of a broader rule of their own.
+ *
+ * <p>Fed by the {@link AuditJournal} with the decisions it drains from the
+ * {@link AuditRing}, so the RPC path pays nothing for it. The affected Rule
+ * IDs are gathered per application and published every interval as one
+ * rules-changed notification per application that has any, so a burst of
+ * thousands of evictions becomes one notification per application. A
+ * notification lists at most {@code maxRuleIDs} rules and counts the rest
+ * as omitted.
+ */
+public class RuleChangeNotifier implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RuleChangeNotifier.class);
+
+    private static final class Changes {
+        final List<String> replaced = new ArrayList<>();
+        final List<String> evicted = new ArrayList<>();
+        final List<String> conflictLost = new ArrayList<>();
+        final List<String> compacted = new ArrayList<>();
+        long omitted;
+
+        int size() {
+            return replaced.size() + evicted.size() + conflictLost.size() + compacted.size();
+        }
+    }
+
+    private final NotificationPublishService notifications;
+    private final int maxRuleIDs;
+
+    /* AppID -> changes since the last flush; guarded by this. */
+    private Map<Integer, Changes> pending = new TreeMap<>();
+    private long published;
+    private ScheduledExecutorService timer;
+
+    public RuleChangeNotifier(NotificationPublishService notifications, int maxRuleIDs) {
+        this.notifications = notifications;
+        this.maxRuleIDs = Math.max(maxRuleIDs, 1);
+    }
+
+    /** Publishes every {@code intervalMillis}; 0 or less disables the notifications. */
+    public void start(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "antivirus-notify");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    LOG.warn("Publishing rules-changed notifications failed", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        LOG.info("Rule changes notified every {} ms, at most {} Rule IDs per notification", intervalMillis, maxRuleIDs);
+    }
+
+    /** Takes note of the first {@code count} events of a batch polled from the {@link AuditRing}. */
+    synchronized void record(int[] fields, int count) {
+        for (int i = 0; i < count; i++) {
+            int base = i * AuditRing.FIELDS;
+            int type = fields[base];
+            if (type == AuditRing.DUPLICATE_REPLACED || type == AuditRing.CONFLICT_REPLACED) {
+                // The stored rule is the one the incoming rule was weighed against.
+                add(type, fields[base + 3], fields[base + 4]);
+            } else if (type == AuditRing.EVICTED || type == AuditRing.CONFLICT_KEPT || type == AuditRing.COMPACTED) {
+                add(type, fields[base + 1], fields[base + 2]);
+            }
+        }
+    }
+
+    /** Publishes one notification per application with changes since the last call; returns how many. */
+    int flush() throws InterruptedException {
+        Map<Integer, Changes> changes;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return 0;
+            }
+            changes = pending;
+            pending = new TreeMap<>();
+        }
+        int count = 0;
+        for (Map.Entry<Integer, Changes> entry : changes.entrySet()) {
+            Changes app = entry.getValue();
+            RulesChanged notification = new RulesChangedBuilder()
+                    .setAppID(Integer.toString(entry.getKey()))
+                    .setReplaced(app.replaced.isEmpty() ? null : app.replaced)
+                    .setEvicted(app.evicted.isEmpty() ? null : app.evicted)
+                    .setConflictLost(app.conflictLost.isEmpty() ? null : app.conflictLost)
+                    .setCompacted(app.compacted.isEmpty() ? null : app.compacted)
+                    .setOmitted(app.omitted == 0 ? null : app.omitted)
+                    .build();
+            notifications.putNotification(notification);
+            count++;
+        }
+        synchronized (this) {
+            published += count;
+        }
+        return count;
+    }
+
+    synchronized long published() {
+        return published;
+    }
+
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    private void add(int type, int AppID, int RuleNumber) {
+        if (AppID < 0) {
+            return;
+        }
+        Changes app = pending.get(AppID);
+        if (app == null) {
+            app = new Changes();
+            pending.put(AppID, app);
+        }
+        if (app.size() >= maxRuleIDs) {
+            app.omitted++;
+            return;
+        }
+        String RuleID = AppID + ":" + RuleNumber + ".";
+        if (type == AuditRing.EVICTED) {
+            app.evicted.add(RuleID);
+        } else if (type == AuditRing.CONFLICT_KEPT) {
+            app.conflictLost.add(RuleID);
+        } else if (type == AuditRing.COMPACTED) {
+            app.compacted.add(RuleID);
+        } else {
+            app.replaced.add(RuleID);
+        }
+    }
+}
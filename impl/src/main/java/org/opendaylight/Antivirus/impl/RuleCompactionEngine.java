@@ -0,0 +1,233 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background analysis of the stored rules that finds entries which can never
+ * take effect:
+ * <ul>
+ * <li>shadowed: a higher-priority rule with the other action matches
+ * everything this rule matches;</li>
+ * <li>redundant: a rule with the same action and at least the same priority
+ * matches everything this rule matches.</li>
+ * </ul>
+ * Each tick examines rules from where the previous tick stopped and stops
+ * after a fixed number of pairwise comparisons, so the time spent holding
+ * the catalog's shard locks, all of which a tick takes since rules are
+ * compared across shards, is bounded.
+ *
+ * <p>In REMOVE mode a finding is deleted only when the rule that covers it
+ * belongs to the same application, which gives its slot back to the
+ * remaining capacity in App_Inventory; the owning application hears about
+ * it in its next rules-changed notification. A rule covered only by the
+ * rules of other applications is reported and kept: whether it still takes
+ * effect is for its own application to decide, not for the others.
+ */
+public class RuleCompactionEngine implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RuleCompactionEngine.class);
+
+    public enum Mode { OFF, REPORT, REMOVE }
+
+    private static final int NONE = 0;
+    private static final int SHADOWED = 1;
+    private static final int REDUNDANT = 2;
+    /* Added to a finding when only rules of other applications cover the rule. */
+    private static final int OTHER_APPLICATION = 4;
+
+    private final AntivirusImpl antivirus;
+    private final Mode mode;
+    private final int comparisonsPerTick;
+    private ScheduledExecutorService timer;
+
+    private int cursor;
+    private long shadowedFound;
+    private long redundantFound;
+    private long otherApplicationFound;
+    private long removed;
+    private long passes;
+
+    public RuleCompactionEngine(AntivirusImpl antivirus, Mode mode, int comparisonsPerTick) {
+        this.antivirus = antivirus;
+        this.mode = mode;
+        this.comparisonsPerTick = comparisonsPerTick;
+    }
+
+    public void start(long intervalMillis) {
+        if (mode == Mode.OFF) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "antivirus-compaction");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (RuntimeException e) {
+                    LOG.warn("Rule compaction tick failed", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        LOG.info("Rule compaction started in {} mode, every {} ms", mode, intervalMillis);
+    }
+
+    /**
+     * Runs one bounded slice of the analysis. Stops at the end of a full
+     * pass, so a small catalog is not re-scanned within the same tick.
+     */
+    public void tick() {
+        antivirus.Catalog_Lock.lock();
+        try {
+            int comparisons = 0;
+            while (comparisons < comparisonsPerTick && antivirus.Stored_Rules() > 0) {
+                cursor = antivirus.Next_Stored_Slot(cursor);
+                if (cursor == -1) {
+                    cursor = 0;
+                    passes++;
+                    break;
+                }
+                int[] finding = analyze(cursor);
+                comparisons += antivirus.Stored_Rules();
+
+                if (finding[0] == NONE) {
+                    cursor++;
+                    continue;
+                }
+                String RuleID = antivirus.RuleIDInventory.get(cursor);
+                String Covering_RuleID = antivirus.RuleIDInventory.get(finding[1]);
+                boolean otherApplication = (finding[0] & OTHER_APPLICATION) != 0;
+                if ((finding[0] & SHADOWED) != 0) {
+                    shadowedFound++;
+                    LOG.info("Rule ID: {} is shadowed by {}, a higher-priority rule with a different action.", RuleID,
+                            Covering_RuleID);
+                } else {
+                    redundantFound++;
+                    LOG.info("Rule ID: {} is redundant with {}, a broader rule with the same action.", RuleID,
+                            Covering_RuleID);
+                }
+                if (otherApplication) {
+                    otherApplicationFound++;
+                }
+                if (mode == Mode.REMOVE && !otherApplication) {
+                    // The last rule stored in the shard moves into this slot, so it is analyzed next.
+                    antivirus.Audit_Ring.publish(AuditRing.COMPACTED, RuleID, Covering_RuleID);
+                    antivirus.DeleteFromRuleCatalog(RuleID, Integer.toString(antivirus.FindAppIDFromRuleID(RuleID)), cursor);
+                    removed++;
+                } else {
+                    cursor++;
+                }
+            }
+        } finally {
+            antivirus.Catalog_Lock.unlock();
+        }
+    }
+
+    /*
+     * Returns the finding for rule r and the slot of the rule that covers it. A rule of the same application is
+     * preferred; failing one, the finding about a rule of another application is returned with OTHER_APPLICATION.
+     */
+    private int[] analyze(int r) {
+        int[] otherApplication = {NONE, -1};
+        IPPrefix source = antivirus.SourceIPInventory.get(r);
+        IPPrefix destination = antivirus.DestinationIPInventory.get(r);
+        if (source == null || destination == null) {
+            return otherApplication;
+        }
+        int priority = antivirus.PriorityInventory.get(r);
+        String action = antivirus.ActionInventory.get(r);
+        int AppID = antivirus.FindAppIDFromRuleID(antivirus.RuleIDInventory.get(r));
+
+        for (int s = antivirus.Next_Stored_Slot(0); s != -1; s = antivirus.Next_Stored_Slot(s + 1)) {
+            if (s == r || !portCovers(antivirus.SourcePortInventory.get(s), antivirus.SourcePortInventory.get(r))
+                    || !portCovers(antivirus.DestinationPortInventory.get(s), antivirus.DestinationPortInventory.get(r))) {
+                continue;
+            }
+            IPPrefix otherSource = antivirus.SourceIPInventory.get(s);
+            IPPrefix otherDestination = antivirus.DestinationIPInventory.get(s);
+            if (!otherSource.covers(source) || !otherDestination.covers(destination)) {
+                continue;
+            }
+            int otherPriority = antivirus.PriorityInventory.get(s);
+            boolean sameAction = action.equalsIgnoreCase(antivirus.ActionInventory.get(s));
+
+            int finding = NONE;
+            if (!sameAction && otherPriority > priority) {
+                finding = SHADOWED;
+            } else if (sameAction && otherPriority > priority) {
+                finding = REDUNDANT;
+            } else if (sameAction && otherPriority == priority) {
+                // Of two rules covering each other, only the one with the larger Rule ID is dropped.
+                boolean identical = source.equals(otherSource) && destination.equals(otherDestination)
+                        && antivirus.SourcePortInventory.get(r).equals(antivirus.SourcePortInventory.get(s))
+                        && antivirus.DestinationPortInventory.get(r).equals(antivirus.DestinationPortInventory.get(s));
+                if (!identical || antivirus.RuleIDInventory.get(r).compareTo(antivirus.RuleIDInventory.get(s)) > 0) {
+                    finding = REDUNDANT;
+                }
+            }
+            if (finding == NONE) {
+                continue;
+            }
+            if (antivirus.FindAppIDFromRuleID(antivirus.RuleIDInventory.get(s)) == AppID) {
+                return new int[] {finding, s};
+            }
+            if (otherApplication[0] == NONE) {
+                otherApplication[0] = finding | OTHER_APPLICATION;
+                otherApplication[1] = s;
+            }
+        }
+        return otherApplication;
+    }
+
+    /* A stored port of "0" stands for ANY. */
+    private static boolean portCovers(String broader, String narrower) {
+        return broader.equals("0") || broader.equals(narrower);
+    }
+
+    public long getShadowedFound() {
+        return shadowedFound;
+    }
+
+    public long getRedundantFound() {
+        return redundantFound;
+    }
+
+    /** Findings covered only by rules of other applications, which are never removed. */
+    public long getOtherApplicationFound() {
+        return otherApplicationFound;
+    }
+
+    public long getRemoved() {
+        return removed;
+    }
+
+    public long getPasses() {
+        return passes;
+    }
+
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+}
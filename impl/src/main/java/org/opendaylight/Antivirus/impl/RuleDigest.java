@@ -0,0 +1,155 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Merkle tree over a set of rules, bucketed by AppID. Each leaf holds the
+ * sum of the hashes of the rules in its bucket, so adding or removing a rule
+ * updates one leaf and the {@code log2(buckets)} nodes above it. Two digests
+ * of the same rules have the same root; when they differ,
+ * {@link #divergentBuckets(RuleDigest)} walks down only the subtrees whose
+ * hashes differ to find the buckets that need a closer look.
+ *
+ * <p>The per-rule hashes of each bucket are kept as well, so a divergent
+ * bucket can be narrowed down to the rules that differ. Methods are
+ * synchronized: one side of a comparison may be updated by the catalog and
+ * the other by a datastore listener while a third thread compares them.
+ */
+public class RuleDigest {
+
+    private final int leaves;
+    private final long[] nodes;
+    private final List<Map<String, Long>> buckets;
+
+    public RuleDigest(int applications) {
+        int size = 1;
+        while (size < applications) {
+            size <<= 1;
+        }
+        this.leaves = size;
+        this.nodes = new long[2 * size];
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new HashMap<String, Long>());
+        }
+    }
+
+    /** Hash of a rule's stored fields; both sides must pass them in the same normalized spelling. */
+    public static long hash(String ruleID, String sourceIP, String destinationIP, String sourcePort,
+            String destinationPort, int priority, String action) {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, ruleID);
+        hash = mix(hash, sourceIP);
+        hash = mix(hash, destinationIP);
+        hash = mix(hash, sourcePort);
+        hash = mix(hash, destinationPort);
+        hash = (hash ^ priority) * 0x100000001b3L;
+        hash = mix(hash, action);
+        return finish(hash);
+    }
+
+    /** Records the rule, replacing whatever hash it had before. */
+    public synchronized void put(int appID, String ruleID, long hash) {
+        int bucket = bucketOf(appID);
+        Long previous = buckets.get(bucket).put(ruleID, hash);
+        update(bucket, hash - (previous == null ? 0 : previous));
+    }
+
+    public synchronized void remove(int appID, String ruleID) {
+        int bucket = bucketOf(appID);
+        Long previous = buckets.get(bucket).remove(ruleID);
+        if (previous != null) {
+            update(bucket, -previous);
+        }
+    }
+
+    public synchronized long root() {
+        return nodes[1];
+    }
+
+    /** The rule hashes of the bucket holding {@code appID}, copied. */
+    public synchronized Map<String, Long> rules(int appID) {
+        return new HashMap<>(buckets.get(bucketOf(appID)));
+    }
+
+    /**
+     * The buckets, as the lowest AppID each holds, in which this digest and
+     * {@code other} disagree. Costs one comparison per node on the paths to
+     * the divergent leaves, so O(log n) per divergent bucket and O(1) when
+     * the roots agree.
+     */
+    public List<Integer> divergentBuckets(RuleDigest other) {
+        long[] mine = snapshot();
+        long[] theirs = other.snapshot();
+        List<Integer> divergent = new ArrayList<>();
+        if (mine.length == theirs.length) {
+            descend(mine, theirs, 1, divergent);
+        }
+        return divergent;
+    }
+
+    public int buckets() {
+        return leaves;
+    }
+
+    private synchronized long[] snapshot() {
+        return nodes.clone();
+    }
+
+    private void descend(long[] mine, long[] theirs, int node, List<Integer> divergent) {
+        if (mine[node] == theirs[node]) {
+            return;
+        }
+        if (node >= leaves) {
+            divergent.add(node - leaves);
+            return;
+        }
+        descend(mine, theirs, 2 * node, divergent);
+        descend(mine, theirs, 2 * node + 1, divergent);
+    }
+
+    private int bucketOf(int appID) {
+        return appID & (leaves - 1);
+    }
+
+    private void update(int bucket, long delta) {
+        int node = leaves + bucket;
+        nodes[node] += delta;
+        for (node >>>= 1; node > 0; node >>>= 1) {
+            nodes[node] = combine(nodes[2 * node], nodes[2 * node + 1]);
+        }
+    }
+
+    /* An empty subtree hashes to 0 so that unused buckets cost nothing to compare. */
+    private static long combine(long left, long right) {
+        return (left == 0 && right == 0) ? 0 : finish(left * 0x9E3779B97F4A7C15L + right);
+    }
+
+    private static long mix(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        return (hash ^ 0x1F) * 0x100000001b3L;
+    }
+
+    /* MurmurHash3 fmix64. */
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
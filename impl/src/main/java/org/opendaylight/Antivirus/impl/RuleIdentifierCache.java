@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRulesRegistry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntryKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+/**
+ * Bounded LRU cache of the per-rule InstanceIdentifiers used by the datastore
+ * read, write and delete paths, so that a stored rule does not rebuild its
+ * identifier chain on every RPC. Only writes add entries: a read or delete of
+ * a rule ID that is not cached builds a throwaway identifier, so that lookups
+ * of absent rule IDs cannot push the identifiers of stored rules out.
+ */
+public class RuleIdentifierCache {
+
+    private static final InstanceIdentifier<ConfigurationRulesRegistry> REGISTRY_IID =
+            InstanceIdentifier.create(ConfigurationRulesRegistry.class);
+
+    private final Map<String, InstanceIdentifier<ConfigurationRulesRegistryEntry>> cache;
+
+    public RuleIdentifierCache(final int maxEntries) {
+        this.cache = new LinkedHashMap<String, InstanceIdentifier<ConfigurationRulesRegistryEntry>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, InstanceIdentifier<ConfigurationRulesRegistryEntry>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the identifier of the registry entry for the given rule ID,
+     * building it without caching it on a miss.
+     */
+    public synchronized InstanceIdentifier<ConfigurationRulesRegistryEntry> get(String RuleID) {
+        InstanceIdentifier<ConfigurationRulesRegistryEntry> iid = cache.get(RuleID);
+        return (iid != null) ? iid : build(RuleID);
+    }
+
+    /**
+     * Returns the identifier of the registry entry for the given rule ID,
+     * creating and caching it on a miss. For writes of the rule.
+     */
+    public synchronized InstanceIdentifier<ConfigurationRulesRegistryEntry> getAndCache(String RuleID) {
+        InstanceIdentifier<ConfigurationRulesRegistryEntry> iid = cache.get(RuleID);
+        if (iid == null) {
+            iid = build(RuleID);
+            cache.put(RuleID, iid);
+        }
+        return iid;
+    }
+
+    public synchronized void invalidate(String RuleID) {
+        cache.remove(RuleID);
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    private static InstanceIdentifier<ConfigurationRulesRegistryEntry> build(String RuleID) {
+        return REGISTRY_IID.child(ConfigurationRulesRegistryEntry.class, new ConfigurationRulesRegistryEntryKey(RuleID));
+    }
+}
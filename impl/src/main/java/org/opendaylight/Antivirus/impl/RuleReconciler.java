@@ -0,0 +1,218 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.DataObjectModification;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeChangeListener;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeIdentifier;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeModification;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.controller.md.sal.common.api.data.TransactionCommitFailedException;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRulesRegistry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntry;
+import org.opendaylight.yangtools.concepts.ListenerRegistration;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.CheckedFuture;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Keeps the CONFIGURATION rule registry in step with the in-memory catalog.
+ *
+ * <p>A write or delete that never reached the datastore, or an entry changed
+ * behind the catalog's back, leaves the two sides disagreeing until someone
+ * notices. The reconciler keeps a {@link RuleDigest} of the registry entries
+ * of the locally owned applications, updated from data tree change
+ * notifications, next to the catalog's own digest. Each pass compares the
+ * two roots, which costs nothing while they agree, and otherwise descends to
+ * the divergent AppID buckets and the rules that differ in them.
+ *
+ * <p>Notifications lag behind commits, so a rule is only repaired once it
+ * has differed on two passes in a row. The catalog is the reference: a rule
+ * it holds is written back as it holds it, any other entry is deleted.
+ */
+public class RuleReconciler implements DataTreeChangeListener<ConfigurationRulesRegistryEntry>, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RuleReconciler.class);
+
+    private final DataBroker db;
+    private final AntivirusImpl antivirus;
+    private final RuleDigest stored;
+
+    /* Rules that differed on the previous pass. */
+    private Set<String> suspects = new HashSet<>();
+    private long passes;
+    private long repairs;
+    private ListenerRegistration<RuleReconciler> registration;
+    private ScheduledExecutorService timer;
+
+    public RuleReconciler(DataBroker db, AntivirusImpl antivirus) {
+        this.db = db;
+        this.antivirus = antivirus;
+        this.stored = new RuleDigest(antivirus.App_Precedence.length);
+    }
+
+    /** Listens to the registry and reconciles every {@code intervalMillis}; 0 or less disables reconciliation. */
+    public void start(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            return;
+        }
+        registration = db.registerDataTreeChangeListener(new DataTreeIdentifier<>(LogicalDatastoreType.CONFIGURATION,
+                InstanceIdentifier.create(ConfigurationRulesRegistry.class).child(ConfigurationRulesRegistryEntry.class)),
+                this);
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "antivirus-reconcile");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reconcile();
+                } catch (RuntimeException e) {
+                    LOG.warn("Reconciling the rule registry failed", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        LOG.info("Rule registry reconciled every {} ms", intervalMillis);
+    }
+
+    @Override
+    public void onDataTreeChanged(Collection<DataTreeModification<ConfigurationRulesRegistryEntry>> changes) {
+        for (DataTreeModification<ConfigurationRulesRegistryEntry> change : changes) {
+            DataObjectModification<ConfigurationRulesRegistryEntry> node = change.getRootNode();
+            ConfigurationRulesRegistryEntry before = node.getDataBefore();
+            ConfigurationRulesRegistryEntry after = node.getDataAfter();
+            if (before != null && isTracked(before)) {
+                stored.remove(antivirus.FindAppIDFromRuleID(before.getRuleID()), before.getRuleID());
+            }
+            if (after != null && isTracked(after)) {
+                stored.put(antivirus.FindAppIDFromRuleID(after.getRuleID()), after.getRuleID(), hash(after));
+            }
+        }
+    }
+
+    /**
+     * Compares the catalog with the registry and repairs the rules that
+     * differed on this pass and the previous one. Returns the rules repaired.
+     */
+    synchronized int reconcile() {
+        passes++;
+        List<Integer> divergent = antivirus.Rule_Digest.divergentBuckets(stored);
+        Set<String> differing = new HashSet<>();
+        for (int bucket : divergent) {
+            Map<String, Long> catalog = antivirus.Rule_Digest.rules(bucket);
+            Map<String, Long> registry = stored.rules(bucket);
+            for (Map.Entry<String, Long> rule : catalog.entrySet()) {
+                if (!rule.getValue().equals(registry.get(rule.getKey()))) {
+                    differing.add(rule.getKey());
+                }
+            }
+            for (String ruleID : registry.keySet()) {
+                if (!catalog.containsKey(ruleID)) {
+                    differing.add(ruleID);
+                }
+            }
+        }
+
+        Set<String> confirmed = new HashSet<>(differing);
+        confirmed.retainAll(suspects);
+        differing.removeAll(confirmed);
+        suspects = differing;
+        if (!confirmed.isEmpty()) {
+            repair(confirmed);
+        }
+        return confirmed.size();
+    }
+
+    long passes() {
+        return passes;
+    }
+
+    long repairs() {
+        return repairs;
+    }
+
+    @Override
+    public void close() {
+        if (registration != null) {
+            registration.close();
+        }
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    /* Writes what the catalog holds now, under every shard lock, so no Application-hello slips in between. */
+    private void repair(Set<String> ruleIDs) {
+        antivirus.Catalog_Lock.lock();
+        try {
+            WriteTransaction transaction = db.newWriteOnlyTransaction();
+            for (String ruleID : ruleIDs) {
+                Integer slot = antivirus.Rule_Slot_Index.get(ruleID);
+                if (slot != null) {
+                    transaction.put(LogicalDatastoreType.CONFIGURATION, antivirus.Rule_IID_Cache.get(ruleID),
+                            antivirus.Registry_Entry(slot));
+                } else {
+                    transaction.delete(LogicalDatastoreType.CONFIGURATION, antivirus.Rule_IID_Cache.get(ruleID));
+                    antivirus.Rule_IID_Cache.invalidate(ruleID);
+                }
+            }
+            CheckedFuture<Void, TransactionCommitFailedException> future = transaction.submit();
+            Futures.addCallback(future, new LoggingFuturesCallBack<Void>("Failed to repair the rule registry", LOG));
+        } finally {
+            antivirus.Catalog_Lock.unlock();
+        }
+        repairs += ruleIDs.size();
+        LOG.info("Repaired {} rules that differed between the catalog and the registry: {}", ruleIDs.size(), ruleIDs);
+    }
+
+    /* Entries of the applications another member owns are that member's to reconcile. */
+    private boolean isTracked(ConfigurationRulesRegistryEntry entry) {
+        if (entry.getRuleID() == null) {
+            return false;
+        }
+        int AppID = antivirus.FindAppIDFromRuleID(entry.getRuleID());
+        return AppID >= 0 && AppID < antivirus.App_Precedence.length && antivirus.Ownership.isLocallyOwned(AppID);
+    }
+
+    /* Spelled the way the catalog holds the rule: canonical prefixes, and both ports 0 when the source port is any. */
+    static long hash(ConfigurationRulesRegistryEntry entry) {
+        String sourcePort = entry.getSourcePort();
+        String destinationPort = entry.getDestinationPort();
+        if (AntivirusImpl.Is_Any_Port(sourcePort)) {
+            sourcePort = "0";
+            destinationPort = "0";
+        }
+        return RuleDigest.hash(entry.getRuleID(), canonical(entry.getSourceIP()), canonical(entry.getDestinationIP()),
+                sourcePort, destinationPort, entry.getPriority() == null ? 0 : entry.getPriority(), entry.getAction());
+    }
+
+    private static String canonical(String prefix) {
+        IPPrefix parsed = IPPrefix.parse(prefix);
+        return (parsed == null) ? prefix : parsed.toString();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock-free index from a rule's match tuple (canonical source and destination
+ * prefixes, source port, destination port, priority) to the ID of the rule stored for
+ * it. A duplicate rule shares the tuple and the action; a conflicting rule
+ * shares the tuple only, so one lookup answers both questions.
+ *
+ * <p>The rules of a tuple may live in any catalog shard, so the index also
+ * hands out one lock per tuple hash stripe: a decision holds it while it
+ * looks the tuple up and stores its rule, so two applications in different
+ * shards can never both find the same tuple free.
+ */
+public class RuleTupleIndex {
+
+    static final int STRIPES = 1024;
+
+    private final ConcurrentMap<RuleTuple, String> index = new ConcurrentHashMap<>();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    public RuleTupleIndex() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public String get(IPPrefix SourceIP, IPPrefix DestinationIP, String SourcePort, String DestinationPort, int Priority) {
+        return index.get(new RuleTuple(SourceIP, DestinationIP, SourcePort, DestinationPort, Priority));
+    }
+
+    public void put(IPPrefix SourceIP, IPPrefix DestinationIP, String SourcePort, String DestinationPort, int Priority,
+            String RuleID) {
+        index.put(new RuleTuple(SourceIP, DestinationIP, SourcePort, DestinationPort, Priority), RuleID);
+    }
+
+    /**
+     * Removes the tuple only if it still points at the given rule, so a
+     * stale delete can never drop a newer mapping.
+     */
+    public void remove(IPPrefix SourceIP, IPPrefix DestinationIP, String SourcePort, String DestinationPort, int Priority,
+            String RuleID) {
+        index.remove(new RuleTuple(SourceIP, DestinationIP, SourcePort, DestinationPort, Priority), RuleID);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * The lock of the stripe the tuple hashes to. Taken before any shard
+     * lock, never while holding one.
+     */
+    public ReentrantLock stripeOf(IPPrefix SourceIP, IPPrefix DestinationIP, String SourcePort, String DestinationPort,
+            int Priority) {
+        int h = hash(SourceIP, DestinationIP, SourcePort, DestinationPort, Priority);
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    static int hash(IPPrefix sourceIP, IPPrefix destinationIP, String sourcePort, String destinationPort, int priority) {
+        int h = sourceIP.hashCode();
+        h = 31 * h + destinationIP.hashCode();
+        h = 31 * h + sourcePort.hashCode();
+        h = 31 * h + destinationPort.hashCode();
+        return 31 * h + priority;
+    }
+
+    private static final class RuleTuple {
+        private final IPPrefix sourceIP;
+        private final IPPrefix destinationIP;
+        private final String sourcePort;
+        private final String destinationPort;
+        private final int priority;
+        private final int hash;
+
+        RuleTuple(IPPrefix sourceIP, IPPrefix destinationIP, String sourcePort, String destinationPort, int priority) {
+            this.sourceIP = sourceIP;
+            this.destinationIP = destinationIP;
+            this.sourcePort = sourcePort;
+            this.destinationPort = destinationPort;
+            this.priority = priority;
+            this.hash = hash(sourceIP, destinationIP, sourcePort, destinationPort, priority);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof RuleTuple)) {
+                return false;
+            }
+            RuleTuple other = (RuleTuple) obj;
+            return hash == other.hash && priority == other.priority && sourceIP.equals(other.sourceIP)
+                    && destinationIP.equals(other.destinationIP) && sourcePort.equals(other.sourcePort)
+                    && destinationPort.equals(other.destinationPort);
+        }
+    }
+}
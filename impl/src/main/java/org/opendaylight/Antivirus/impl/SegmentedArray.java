@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+/**
+ * Fixed-length array whose storage is allocated on first write, in segments
+ * that double in size: the first holds {@link #FIRST_SEGMENT} elements, the
+ * next twice as many, and so on. Memory follows the highest index written,
+ * and growing never copies elements that are already stored.
+ *
+ * <p>Reading an index whose segment was never written returns null. Not
+ * thread-safe; the rule catalog is only written under its lock.
+ */
+public class SegmentedArray<T> {
+
+    static final int FIRST_SEGMENT_BITS = 6;
+    static final int FIRST_SEGMENT = 1 << FIRST_SEGMENT_BITS;
+
+    private final int length;
+    private final Object[][] segments;
+
+    public SegmentedArray(int length) {
+        this.length = length;
+        this.segments = new Object[segmentOf(Math.max(length, 1) - 1) + 1][];
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        checkIndex(index, length);
+        Object[] segment = segments[segmentOf(index)];
+        return (segment == null) ? null : (T) segment[offsetOf(index)];
+    }
+
+    public void set(int index, T value) {
+        checkIndex(index, length);
+        int s = segmentOf(index);
+        if (segments[s] == null) {
+            if (value == null) {
+                return;
+            }
+            segments[s] = new Object[FIRST_SEGMENT << s];
+        }
+        segments[s][offsetOf(index)] = value;
+    }
+
+    /**
+     * Frees the segments that lie entirely beyond {@code size}, keeping one
+     * empty segment past the last used one so that a size oscillating around
+     * a segment boundary does not reallocate every time.
+     */
+    public void trimTo(int size) {
+        for (int s = (size == 0) ? 1 : segmentOf(size - 1) + 2; s < segments.length; s++) {
+            segments[s] = null;
+        }
+    }
+
+    /** Number of elements the allocated segments can hold. */
+    public int allocated() {
+        int total = 0;
+        for (int s = 0; s < segments.length; s++) {
+            if (segments[s] != null) {
+                total += FIRST_SEGMENT << s;
+            }
+        }
+        return total;
+    }
+
+    static int segmentOf(int index) {
+        return (31 - Integer.numberOfLeadingZeros(index + FIRST_SEGMENT)) - FIRST_SEGMENT_BITS;
+    }
+
+    static int offsetOf(int index) {
+        int biased = index + FIRST_SEGMENT;
+        return biased - Integer.highestOneBit(biased);
+    }
+
+    static void checkIndex(int index, int length) {
+        if (index < 0 || index >= length) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.opendaylight.Antivirus.impl.SegmentedArray.FIRST_SEGMENT;
+import static org.opendaylight.Antivirus.impl.SegmentedArray.checkIndex;
+import static org.opendaylight.Antivirus.impl.SegmentedArray.offsetOf;
+import static org.opendaylight.Antivirus.impl.SegmentedArray.segmentOf;
+
+/**
+ * {@link SegmentedArray} of primitive ints; an index that was never written
+ * reads as 0.
+ */
+public class SegmentedIntArray {
+
+    private final int length;
+    private final int[][] segments;
+
+    public SegmentedIntArray(int length) {
+        this.length = length;
+        this.segments = new int[segmentOf(Math.max(length, 1) - 1) + 1][];
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int get(int index) {
+        checkIndex(index, length);
+        int[] segment = segments[segmentOf(index)];
+        return (segment == null) ? 0 : segment[offsetOf(index)];
+    }
+
+    public void set(int index, int value) {
+        checkIndex(index, length);
+        int s = segmentOf(index);
+        if (segments[s] == null) {
+            if (value == 0) {
+                return;
+            }
+            segments[s] = new int[FIRST_SEGMENT << s];
+        }
+        segments[s][offsetOf(index)] = value;
+    }
+
+    /** See {@link SegmentedArray#trimTo(int)}. */
+    public void trimTo(int size) {
+        for (int s = (size == 0) ? 1 : segmentOf(size - 1) + 2; s < segments.length; s++) {
+            segments[s] = null;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One lock per catalog shard. A rule decision locks the shard of its
+ * application and the shards of the rules it may replace or evict, always
+ * in ascending shard order, so decisions on different shards run in
+ * parallel and two decisions never wait on each other in a cycle.
+ * {@link #lock()} takes every shard, for the work that spans the whole
+ * catalog.
+ *
+ * <p>ReentrantLocks rather than monitors, so that a virtual thread waiting
+ * for a shard does not pin its carrier.
+ */
+public class ShardLocks {
+
+    /**
+     * Thrown by a decision that found it needs a shard its caller did not
+     * lock. It is thrown before the decision changes anything, so the caller
+     * can release its locks, take the shard as well and decide again.
+     */
+    public static final class NotHeldException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int shard;
+
+        NotHeldException(int shard) {
+            super("Shard " + shard + " is not locked", null, false, false);
+            this.shard = shard;
+        }
+
+        public int getShard() {
+            return shard;
+        }
+    }
+
+    private final ReentrantLock[] locks;
+
+    public ShardLocks(int numberOfShards) {
+        locks = new ReentrantLock[numberOfShards];
+        for (int i = 0; i < numberOfShards; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public int size() {
+        return locks.length;
+    }
+
+    /** Locks every shard. */
+    public void lock() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    public void unlock() {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    public void lock(int shard) {
+        locks[shard].lock();
+    }
+
+    public void unlock(int shard) {
+        locks[shard].unlock();
+    }
+
+    public boolean tryLock(int shard, long timeout, TimeUnit unit) throws InterruptedException {
+        return locks[shard].tryLock(timeout, unit);
+    }
+
+    /**
+     * Locks up to three shards in ascending order, each once; -1 and
+     * repeated shards are skipped.
+     */
+    public void lock(int first, int second, int third) {
+        int low = Math.min(first, Math.min(second, third));
+        int high = Math.max(first, Math.max(second, third));
+        int middle = first + second + third - low - high;
+        lockOnce(low, -1, -1);
+        lockOnce(middle, low, -1);
+        lockOnce(high, middle, low);
+    }
+
+    /** Releases what {@link #lock(int, int, int)} took for the same shards. */
+    public void unlock(int first, int second, int third) {
+        unlockOnce(first, -1, -1);
+        unlockOnce(second, first, -1);
+        unlockOnce(third, second, first);
+    }
+
+    public boolean isHeldByCurrentThread(int shard) {
+        return locks[shard].isHeldByCurrentThread();
+    }
+
+    /** Whether the current thread holds every shard, as {@link #lock()} leaves it. */
+    public boolean isHeldByCurrentThread() {
+        for (ReentrantLock lock : locks) {
+            if (!lock.isHeldByCurrentThread()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fails with a {@link NotHeldException} unless the current thread holds
+     * the shard.
+     */
+    public void checkHeld(int shard) {
+        if (!locks[shard].isHeldByCurrentThread()) {
+            throw new NotHeldException(shard);
+        }
+    }
+
+    /**
+     * Fails with a {@link NotHeldException} for the first shard the current
+     * thread does not hold.
+     */
+    public void checkHeld() {
+        for (int i = 0; i < locks.length; i++) {
+            checkHeld(i);
+        }
+    }
+
+    private void lockOnce(int shard, int before, int beforeThat) {
+        if (shard >= 0 && shard != before && shard != beforeThat) {
+            locks[shard].lock();
+        }
+    }
+
+    private void unlockOnce(int shard, int before, int beforeThat) {
+        if (shard >= 0 && shard != before && shard != beforeThat) {
+            locks[shard].unlock();
+        }
+    }
+}
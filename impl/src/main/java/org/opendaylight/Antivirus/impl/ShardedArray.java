@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.opendaylight.Antivirus.impl.SegmentedArray.checkIndex;
+
+/**
+ * Rule inventory split into one {@link SegmentedArray} per catalog shard.
+ * Index {@code shard * shardLength + i} is element i of that shard's array,
+ * so each shard keeps its rules dense from the start of its own range and
+ * only allocates segments for the rules it holds.
+ *
+ * <p>Not thread-safe; the elements of a shard are only written under that
+ * shard's lock.
+ */
+public class ShardedArray<T> {
+
+    private final int shardLength;
+    private final SegmentedArray<T>[] shards;
+
+    @SuppressWarnings("unchecked")
+    public ShardedArray(int numberOfShards, int shardLength) {
+        this.shardLength = shardLength;
+        this.shards = new SegmentedArray[numberOfShards];
+        for (int i = 0; i < numberOfShards; i++) {
+            shards[i] = new SegmentedArray<>(shardLength);
+        }
+    }
+
+    public int length() {
+        return shards.length * shardLength;
+    }
+
+    public T get(int index) {
+        checkIndex(index, length());
+        return shards[index / shardLength].get(index % shardLength);
+    }
+
+    public void set(int index, T value) {
+        checkIndex(index, length());
+        shards[index / shardLength].set(index % shardLength, value);
+    }
+
+    /** See {@link SegmentedArray#trimTo(int)}; {@code size} counts from the start of the shard. */
+    public void trimTo(int shard, int size) {
+        shards[shard].trimTo(size);
+    }
+
+    /** Number of elements the allocated segments of all shards can hold. */
+    public int allocated() {
+        int total = 0;
+        for (SegmentedArray<T> shard : shards) {
+            total += shard.allocated();
+        }
+        return total;
+    }
+}
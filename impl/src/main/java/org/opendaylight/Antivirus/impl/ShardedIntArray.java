@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.opendaylight.Antivirus.impl.SegmentedArray.checkIndex;
+
+/**
+ * {@link ShardedArray} of primitive ints; an index that was never written
+ * reads as 0.
+ */
+public class ShardedIntArray {
+
+    private final int shardLength;
+    private final SegmentedIntArray[] shards;
+
+    public ShardedIntArray(int numberOfShards, int shardLength) {
+        this.shardLength = shardLength;
+        this.shards = new SegmentedIntArray[numberOfShards];
+        for (int i = 0; i < numberOfShards; i++) {
+            shards[i] = new SegmentedIntArray(shardLength);
+        }
+    }
+
+    public int length() {
+        return shards.length * shardLength;
+    }
+
+    public int get(int index) {
+        checkIndex(index, length());
+        return shards[index / shardLength].get(index % shardLength);
+    }
+
+    public void set(int index, int value) {
+        checkIndex(index, length());
+        shards[index / shardLength].set(index % shardLength, value);
+    }
+
+    /** See {@link SegmentedArray#trimTo(int)}. */
+    public void trimTo(int shard, int size) {
+        shards[shard].trimTo(size);
+    }
+}
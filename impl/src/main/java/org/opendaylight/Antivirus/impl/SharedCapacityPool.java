@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-JVM capacity pool. Used on a single node, and shared between several
+ * AntivirusImpl instances to stand in for a cluster in tests.
+ */
+public class SharedCapacityPool implements CapacityPool {
+
+    private final AtomicInteger remaining;
+
+    public SharedCapacityPool(int capacity) {
+        this.remaining = new AtomicInteger(capacity);
+    }
+
+    @Override
+    public int reserve(int requested) {
+        while (true) {
+            int current = remaining.get();
+            int granted = Math.min(current, requested);
+            if (granted <= 0) {
+                return 0;
+            }
+            if (remaining.compareAndSet(current, current - granted)) {
+                return granted;
+            }
+        }
+    }
+
+    @Override
+    public void release(int count) {
+        remaining.addAndGet(count);
+    }
+
+    @Override
+    public int remaining() {
+        return remaining.get();
+    }
+
+    /**
+     * Takes the restored slots whether or not they are free: the rules are
+     * already stored. Nothing is counted for a node of this JVM before it
+     * starts, so there is nothing to replace.
+     */
+    @Override
+    public void restore(int count) {
+        remaining.addAndGet(-count);
+    }
+
+    /** Every change is recorded as it is made. */
+    @Override
+    public void sync() {
+    }
+}
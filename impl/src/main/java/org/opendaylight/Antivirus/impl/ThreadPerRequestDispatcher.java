@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Runs every RPC on its own virtual thread when the JDK has them, so
+ * thousands of callers can wait on the datastore without holding a platform
+ * thread each. On older JDKs, or when asked to, it falls back to a bounded
+ * pool of platform threads.
+ */
+public class ThreadPerRequestDispatcher implements RequestDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThreadPerRequestDispatcher.class);
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    public ThreadPerRequestDispatcher(boolean preferVirtualThreads, int maxPlatformThreads) {
+        ExecutorService virtualExecutor = preferVirtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            executor = virtualExecutor;
+            virtualThreads = true;
+            LOG.info("Dispatching RPCs on virtual threads");
+        } else {
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(maxPlatformThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "antivirus-rpc-" + count.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            virtualThreads = false;
+            LOG.info("Dispatching RPCs on a pool of {} platform threads", maxPlatformThreads);
+        }
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor() reflectively, so
+     * the bundle still builds and runs on a JDK without virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            LOG.info("Virtual threads are not available on this JDK");
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("Could not create a virtual thread executor", e);
+            return null;
+        }
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    @Override
+    public <T> ListenableFuture<T> submit(String AppID, final Callable<T> task) {
+        final SettableFuture<T> result = SettableFuture.create();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(task.call());
+                } catch (Exception e) {
+                    result.setException(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
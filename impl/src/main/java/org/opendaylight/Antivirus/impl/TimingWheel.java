@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.Collection;
+
+/**
+ * Hashed hierarchical timing wheel: {@value #LEVELS} wheels of {@value #SLOTS}
+ * slots, where a slot of level l spans 64^l ticks. A timeout is hashed into
+ * the slot of the lowest level that can hold its deadline and moves down a
+ * level each time its slot comes round, so scheduling and cancelling are O(1)
+ * and each timeout is touched at most {@value #LEVELS} times before it fires.
+ *
+ * <p>Deadlines further away than the wheels reach (64^4 ticks) wait in the
+ * last slot of the top level and are re-hashed when it comes round.
+ *
+ * <p>Not thread-safe; the owner serializes all calls.
+ */
+public class TimingWheel<K> {
+
+    static final int SLOT_BITS = 6;
+    static final int SLOTS = 1 << SLOT_BITS;
+    static final int LEVELS = 4;
+    private static final long RANGE = 1L << (SLOT_BITS * LEVELS);
+
+    /** A pending expiry; keep it to cancel it. */
+    public static final class Timeout<K> {
+        private final K key;
+        private final long deadline;
+        private Timeout<K> previous;
+        private Timeout<K> next;
+        private int level = -1;
+        private int slot;
+
+        Timeout(K key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public boolean isPending() {
+            return level >= 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private final Timeout<K>[][] wheels = new Timeout[LEVELS][SLOTS];
+    private long currentTick;
+    private int pending;
+
+    public TimingWheel(long startTick) {
+        this.currentTick = startTick;
+    }
+
+    /** Schedules {@code key} to expire at {@code deadlineTick}, or on the next tick if that has passed. */
+    public Timeout<K> schedule(K key, long deadlineTick) {
+        Timeout<K> timeout = new Timeout<>(key, Math.max(deadlineTick, currentTick + 1));
+        insert(timeout);
+        pending++;
+        return timeout;
+    }
+
+    /** Returns false if the timeout has already fired or been cancelled. */
+    public boolean cancel(Timeout<K> timeout) {
+        if (!timeout.isPending()) {
+            return false;
+        }
+        unlink(timeout);
+        pending--;
+        return true;
+    }
+
+    /**
+     * Moves the wheel forward to {@code nowTick}, adding every timeout whose
+     * deadline has been reached to {@code expired}, in deadline order.
+     * Returns the number of timeouts added.
+     */
+    public int advance(long nowTick, Collection<? super Timeout<K>> expired) {
+        int fired = 0;
+        while (currentTick < nowTick) {
+            if (pending == 0) {
+                currentTick = nowTick;
+                break;
+            }
+            currentTick++;
+            // Cascade the higher levels whose slot starts at this tick, top down, so that entries can fall through
+            // several levels into the level 0 slot about to be expired.
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) (currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+                }
+            }
+            int slot = (int) currentTick & (SLOTS - 1);
+            Timeout<K> timeout = wheels[0][slot];
+            wheels[0][slot] = null;
+            while (timeout != null) {
+                Timeout<K> next = timeout.next;
+                timeout.previous = null;
+                timeout.next = null;
+                timeout.level = -1;
+                expired.add(timeout);
+                pending--;
+                fired++;
+                timeout = next;
+            }
+        }
+        return fired;
+    }
+
+    public int pending() {
+        return pending;
+    }
+
+    public long currentTick() {
+        return currentTick;
+    }
+
+    private void cascade(int level, int slot) {
+        Timeout<K> timeout = wheels[level][slot];
+        wheels[level][slot] = null;
+        while (timeout != null) {
+            Timeout<K> next = timeout.next;
+            timeout.previous = null;
+            timeout.next = null;
+            insert(timeout);
+            timeout = next;
+        }
+    }
+
+    private void insert(Timeout<K> timeout) {
+        long delta = timeout.deadline - currentTick;
+        long placed = (delta >= RANGE) ? currentTick + RANGE - 1 : Math.max(timeout.deadline, currentTick);
+        int level = 0;
+        while (level < LEVELS - 1 && placed - currentTick >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int slot = (int) (placed >>> (SLOT_BITS * level)) & (SLOTS - 1);
+        timeout.level = level;
+        timeout.slot = slot;
+        Timeout<K> head = wheels[level][slot];
+        timeout.next = head;
+        if (head != null) {
+            head.previous = timeout;
+        }
+        wheels[level][slot] = timeout;
+    }
+
+    private void unlink(Timeout<K> timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            wheels[timeout.level][timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.level = -1;
+    }
+}
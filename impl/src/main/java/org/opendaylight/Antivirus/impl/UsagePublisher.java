@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.controller.md.sal.common.api.data.TransactionCommitFailedException;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationUsage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.application.usage.Application;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.application.usage.ApplicationBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.application.usage.ApplicationKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.application.usage.Member;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.application.usage.MemberBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.application.usage.MemberKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.CheckedFuture;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Publishes the rule usage of the locally owned applications to the
+ * OPERATIONAL application-usage subtree.
+ *
+ * <p>Rule changes are not written as they happen. Every interval the
+ * publisher takes one {@link QuotaLedger} snapshot, compares it with what it
+ * published last, and writes only the applications whose usage, threshold or
+ * precedence differ, all in one transaction. A burst of any size therefore
+ * costs at most one transaction per interval, touching at most one entry per
+ * application plus the member entry; an idle interval costs nothing.
+ *
+ * <p>Entries are taken as published when they are handed to the
+ * transaction; if the commit fails they are forgotten again, so that the
+ * next interval rewrites them instead of taking the datastore as current.
+ */
+public class UsagePublisher implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UsagePublisher.class);
+
+    private final DataBroker db;
+    private final AntivirusImpl antivirus;
+    private final int memberIndex;
+
+    /* What the datastore holds, as far as this publisher knows; -1 until first written or after a failed commit.
+     * Guarded by this. */
+    private final int[] publishedUsage;
+    private final int[] publishedThreshold;
+    private final int[] publishedPrecedence;
+    private int publishedRemaining = -1;
+    private long publishedVersion = -1;
+
+    private long transactions;
+    private long applicationsWritten;
+    private ScheduledExecutorService timer;
+
+    public UsagePublisher(DataBroker db, AntivirusImpl antivirus, int memberIndex) {
+        this.db = db;
+        this.antivirus = antivirus;
+        this.memberIndex = memberIndex;
+        int applications = antivirus.App_Precedence.length;
+        this.publishedUsage = new int[applications];
+        this.publishedThreshold = new int[applications];
+        this.publishedPrecedence = new int[applications];
+        Arrays.fill(publishedUsage, -1);
+        Arrays.fill(publishedThreshold, -1);
+        Arrays.fill(publishedPrecedence, -1);
+    }
+
+    /** Publishes right away, then every {@code intervalMillis}; 0 or less disables publication. */
+    public void start(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "antivirus-usage");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    publish();
+                } catch (RuntimeException e) {
+                    LOG.warn("Publishing the application usage failed", e);
+                }
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        LOG.info("Application usage published every {} ms", intervalMillis);
+    }
+
+    /**
+     * Writes the applications that changed since the previous call, in one
+     * transaction. Returns the number of applications written.
+     */
+    synchronized int publish() {
+        QuotaLedger.Snapshot snapshot = antivirus.App_Inventory.snapshot();
+        if (snapshot.version() == publishedVersion) {
+            return 0;
+        }
+        boolean bounded = antivirus.Mode != 2;
+        InstanceIdentifier<ApplicationUsage> root = InstanceIdentifier.create(ApplicationUsage.class);
+        WriteTransaction transaction = null;
+        int written = 0;
+        final boolean[] writtenApps = new boolean[snapshot.applications()];
+        boolean memberWritten = false;
+
+        for (int AppID = 0; AppID < snapshot.applications(); AppID++) {
+            if (!antivirus.Ownership.isLocallyOwned(AppID)) {
+                continue;
+            }
+            int usage = snapshot.usage(AppID);
+            int threshold = bounded ? antivirus.Get_Threshold(AppID) : -1;
+            int precedence = antivirus.App_Precedence[AppID];
+            if (usage == publishedUsage[AppID] && threshold == publishedThreshold[AppID]
+                    && precedence == publishedPrecedence[AppID]) {
+                continue;
+            }
+            if (transaction == null) {
+                transaction = db.newWriteOnlyTransaction();
+            }
+            String key = Integer.toString(AppID);
+            Application entry = new ApplicationBuilder()
+                    .setAppID(key)
+                    .setUsed((long) usage)
+                    .setThreshold(bounded ? Long.valueOf(threshold) : null)
+                    .setPrecedence(precedence)
+                    .build();
+            transaction.put(LogicalDatastoreType.OPERATIONAL,
+                    root.child(Application.class, new ApplicationKey(key)), entry, true);
+            publishedUsage[AppID] = usage;
+            publishedThreshold[AppID] = threshold;
+            publishedPrecedence[AppID] = precedence;
+            writtenApps[AppID] = true;
+            written++;
+        }
+
+        if (snapshot.remaining() != publishedRemaining) {
+            if (transaction == null) {
+                transaction = db.newWriteOnlyTransaction();
+            }
+            Member member = new MemberBuilder()
+                    .setMemberIndex(memberIndex)
+                    .setRemainingCapacity((long) snapshot.remaining())
+                    .build();
+            transaction.put(LogicalDatastoreType.OPERATIONAL,
+                    root.child(Member.class, new MemberKey(memberIndex)), member, true);
+            publishedRemaining = snapshot.remaining();
+            memberWritten = true;
+        }
+        publishedVersion = snapshot.version();
+
+        if (transaction != null) {
+            CheckedFuture<Void, TransactionCommitFailedException> future = transaction.submit();
+            final boolean memberLost = memberWritten;
+            Futures.addCallback(future, new LoggingFuturesCallBack<Void>("Failed to publish the application usage", LOG) {
+                @Override
+                public void onFailure(Throwable e) {
+                    super.onFailure(e);
+                    forget(writtenApps, memberLost);
+                }
+            });
+            transactions++;
+            applicationsWritten += written;
+        }
+        return written;
+    }
+
+    /* The commit that was to write these entries failed: the datastore may still hold older figures for them. */
+    private synchronized void forget(boolean[] apps, boolean member) {
+        for (int AppID = 0; AppID < apps.length; AppID++) {
+            if (apps[AppID]) {
+                publishedUsage[AppID] = -1;
+                publishedThreshold[AppID] = -1;
+                publishedPrecedence[AppID] = -1;
+            }
+        }
+        if (member) {
+            publishedRemaining = -1;
+        }
+        publishedVersion = -1;
+    }
+
+    synchronized long transactions() {
+        return transactions;
+    }
+
+    synchronized long applicationsWritten() {
+        return applicationsWritten;
+    }
+
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+}
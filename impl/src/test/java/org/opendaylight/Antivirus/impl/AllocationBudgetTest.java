@@ -0,0 +1,220 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.opendaylight.Antivirus.impl.RuleFixture.rule;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bytes allocated per call on the hot path of Application-hello, measured
+ * with the allocation counter of the calling thread after a JIT warm-up.
+ * The budgets below are checked in; raising one needs a reason in review.
+ * Override one for an experiment with -Dantivirus.alloc.&lt;entry point&gt;.
+ */
+public class AllocationBudgetTest extends AbstractConcurrentDataBrokerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AllocationBudgetTest.class);
+
+    private static final int WARM_UP = 20000;
+    private static final int MEASURED = 20000;
+
+    /* Allowance over the measured figures for run-to-run noise; between runs they moved by at most 80 bytes. */
+    private static final long SLACK = 128;
+
+    /* Budgets in bytes per call: what each entry point allocated when it was last measured, plus SLACK. */
+    private static final long REJECTED_HELLO = Long.getLong("antivirus.alloc.rejectedHello", 96 + SLACK);
+    private static final long DUPLICATE_HELLO = Long.getLong("antivirus.alloc.duplicateHello", 1600 + SLACK);
+    private static final long CONFLICT_HELLO = Long.getLong("antivirus.alloc.conflictHello", 1632 + SLACK);
+    private static final long CHECK_INPUT_FORMAT = Long.getLong("antivirus.alloc.checkInputFormat", 1288 + SLACK);
+    private static final long DECISION_ENGINE = Long.getLong("antivirus.alloc.decisionEngine", 1016 + SLACK);
+    private static final long EVALUATE_RULE = Long.getLong("antivirus.alloc.evaluateRule", 1240 + SLACK);
+    /* Twice the slack: the datastore writes of each call vary more from run to run. */
+    private static final long ADD_DELETE_HELLO = Long.getLong("antivirus.alloc.addDeleteHello", 4981 + 2 * SLACK);
+    /* Before RuleIdentifierCache every lookup built its identifier, 192 bytes; a cached one allocates nothing. */
+    private static final long REGISTRY_IDENTIFIER_CACHED = Long.getLong("antivirus.alloc.registryIdentifierCached", 0 + SLACK);
+    private static final long REGISTRY_IDENTIFIER_BUILT = Long.getLong("antivirus.alloc.registryIdentifierBuilt", 192 + SLACK);
+
+    private AntivirusImpl antivirus;
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 30, ApplicationOwnership.singleNode(), null);
+        // Stored by the application that wins every tie, so the requests below leave the catalog as it was.
+        antivirus.HandleApplicationHello(rule(2, "2:1.").build());
+    }
+
+    @After
+    public void tearDown() {
+        if (antivirus != null) {
+            antivirus.close();
+        }
+    }
+
+    @Test
+    public void testRejectedHello() {
+        final ApplicationHelloInput input = rule(0, "0:1.").password("wrong").build();
+        assertWithinBudget("rejectedHello", REJECTED_HELLO, new Runnable() {
+            @Override
+            public void run() {
+                antivirus.HandleApplicationHello(input);
+            }
+        });
+    }
+
+    @Test
+    public void testDuplicateHello() {
+        final ApplicationHelloInput input = rule(0, "0:1.").build();
+        assertWithinBudget("duplicateHello", DUPLICATE_HELLO, new Runnable() {
+            @Override
+            public void run() {
+                antivirus.HandleApplicationHello(input);
+            }
+        });
+    }
+
+    @Test
+    public void testConflictHello() {
+        final ApplicationHelloInput input = rule(0, "0:1.").action("ALLOW").build();
+        assertWithinBudget("conflictHello", CONFLICT_HELLO, new Runnable() {
+            @Override
+            public void run() {
+                antivirus.HandleApplicationHello(input);
+            }
+        });
+    }
+
+    @Test
+    public void testCheckInputFormat() {
+        final ApplicationHelloInput input = rule(0, "0:1.").build();
+        assertWithinBudget("checkInputFormat", CHECK_INPUT_FORMAT, new Runnable() {
+            @Override
+            public void run() {
+                antivirus.Catalog_Lock.lock();
+                try {
+                    antivirus.checkInputFormat(input);
+                } finally {
+                    antivirus.Catalog_Lock.unlock();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testDecisionEngine() {
+        final ApplicationHelloInput input = rule(0, "0:1.").build();
+        assertWithinBudget("decisionEngine", DECISION_ENGINE, new Runnable() {
+            @Override
+            public void run() {
+                antivirus.Catalog_Lock.lock();
+                try {
+                    antivirus.Decision_Engine(input);
+                } finally {
+                    antivirus.Catalog_Lock.unlock();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testEvaluateRule() {
+        final ApplicationHelloInput input = rule(1, "1:1.").action("ALLOW").build();
+        assertWithinBudget("evaluateRule", EVALUATE_RULE, new Runnable() {
+            @Override
+            public void run() {
+                antivirus.HandleEvaluateRule(input);
+            }
+        });
+    }
+
+    /* One call stores a rule, through UpdateRuleCatalog and writeToRuleRegistry, and deletes it again through
+     * DeleteFromRuleCatalog, so the catalog is back where it started after each call. Only the calling thread is
+     * counted: the data broker commits the registry writes on its own threads, and what they allocate is not in the
+     * figure. */
+    @Test
+    public void testAddDeleteHello() {
+        final ApplicationHelloInput add = rule(0, "0:1.").sourcePort("2001").build();
+        final ApplicationHelloInput delete = rule(0, "0:1.").sourcePort("2001").delete().build();
+        assertTrue(antivirus.HandleApplicationHello(add).getGreeting().endsWith(" stored."));
+        antivirus.HandleApplicationHello(delete);
+        assertEquals(1, antivirus.Stored_Rules());
+        assertWithinBudget("addDeleteHello", ADD_DELETE_HELLO, new Runnable() {
+            @Override
+            public void run() {
+                antivirus.HandleApplicationHello(add);
+                antivirus.HandleApplicationHello(delete);
+            }
+        });
+    }
+
+    /* What RuleIdentifierCache saves: the identifier of a stored rule, cached by its write, against the one built for
+     * each lookup of a rule ID that is not stored. */
+    @Test
+    public void testRegistryIdentifier() {
+        final String[] absent = new String[64];
+        for (int i = 0; i < absent.length; i++) {
+            absent[i] = "0:" + (100 + i) + ".";
+        }
+        long cached = bytesPerCall(new Runnable() {
+            @Override
+            public void run() {
+                antivirus.Rule_IID_Cache.get("2:1.");
+            }
+        });
+        long built = bytesPerCall(new Runnable() {
+            private int next;
+
+            @Override
+            public void run() {
+                antivirus.Rule_IID_Cache.get(absent[next++ & (absent.length - 1)]);
+            }
+        });
+        LOG.info("registryIdentifier: {} bytes per lookup when cached, {} when built", cached, built);
+        assertEquals("lookups must not cache absent rule IDs", 1, antivirus.Rule_IID_Cache.size());
+        assertTrue("a cached identifier allocates " + cached + " bytes", cached <= REGISTRY_IDENTIFIER_CACHED);
+        assertTrue("a built identifier allocates " + built + " bytes", built <= REGISTRY_IDENTIFIER_BUILT);
+    }
+
+    private void assertWithinBudget(String entryPoint, long budget, Runnable call) {
+        long perCall = bytesPerCall(call);
+        assertEquals("the measured calls must leave the catalog alone", 1, antivirus.Stored_Rules());
+        LOG.info("{}: {} bytes allocated per call, budget {}", entryPoint, perCall, budget);
+        assertTrue(entryPoint + " allocates " + perCall + " bytes per call, over its budget of " + budget,
+                perCall <= budget);
+    }
+
+    private long bytesPerCall(Runnable call) {
+        for (int i = 0; i < WARM_UP; i++) {
+            call.run();
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED; i++) {
+            call.run();
+        }
+        return (threads.getThreadAllocatedBytes(thread) - before) / MEASURED;
+    }
+}
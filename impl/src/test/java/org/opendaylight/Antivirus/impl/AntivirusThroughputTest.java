@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * End-to-end throughput of Application-hello against the in-memory MD-SAL
+ * DataBroker. The thresholds are deliberately loose defaults; tighten them
+ * per machine with -Dantivirus.load.minOpsPerSec and -Dantivirus.load.maxP99Micros.
+ */
+public class AntivirusThroughputTest extends AbstractConcurrentDataBrokerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AntivirusThroughputTest.class);
+
+    private static final int APPLICATIONS = Integer.getInteger("antivirus.load.applications", 400);
+    private static final int RULES_PER_APPLICATION = Integer.getInteger("antivirus.load.rulesPerApplication", 10);
+    private static final int THREADS = Integer.getInteger("antivirus.load.threads", 8);
+    private static final int OPERATIONS = Integer.getInteger("antivirus.load.operationsPerThread", 5000);
+    private static final long MIN_OPS_PER_SEC = Long.getLong("antivirus.load.minOpsPerSec", 1000);
+    private static final long MAX_P99_MICROS = Long.getLong("antivirus.load.maxP99Micros", 50000);
+
+    private AntivirusImpl antivirus;
+
+    @Before
+    public void setUp() {
+        antivirus = new AntivirusImpl(getDataBroker(), APPLICATIONS, APPLICATIONS * RULES_PER_APPLICATION,
+                ApplicationOwnership.singleNode(), null);
+    }
+
+    @After
+    public void tearDown() {
+        antivirus.close();
+    }
+
+    @Test
+    public void testMixedWorkloadThroughput() throws InterruptedException {
+        LoadGenerator generator = new LoadGenerator(antivirus, APPLICATIONS, RULES_PER_APPLICATION, 42);
+
+        // Warm up the JIT and fill the catalog before measuring.
+        generator.run(THREADS, OPERATIONS / 5);
+        LoadGenerator.LoadReport report = generator.run(THREADS, OPERATIONS);
+        LOG.info("Mixed workload: {}", report);
+
+        assertEquals("requests failed: " + report, 0, report.failures());
+        assertTrue("throughput regressed: " + report, report.opsPerSecond() >= MIN_OPS_PER_SEC);
+        assertTrue("p99 latency regressed: " + report, report.percentileMicros(99) <= MAX_P99_MICROS);
+    }
+
+    @Test
+    public void testAddOnlyWorkloadThroughput() throws InterruptedException {
+        LoadGenerator generator = new LoadGenerator(antivirus, APPLICATIONS, RULES_PER_APPLICATION, 7)
+                .withMix(100, 0, 0, 0, 0);
+
+        LoadGenerator.LoadReport report = generator.run(THREADS, OPERATIONS);
+        LOG.info("Add-only workload: {}", report);
+
+        assertEquals("requests failed: " + report, 0, report.failures());
+        assertTrue("throughput regressed: " + report, report.opsPerSecond() >= MIN_OPS_PER_SEC);
+    }
+}
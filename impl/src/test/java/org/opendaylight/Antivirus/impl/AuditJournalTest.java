@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.AuditSummary;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.audit.summary.Member;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.audit.summary.MemberKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+import com.google.common.base.Optional;
+
+public class AuditJournalTest extends AbstractConcurrentDataBrokerTest {
+
+    @Test
+    public void testSummaryIsPublishedApartFromTheDrain() throws Exception {
+        File directory = Files.createTempDirectory("antivirus-audit").toFile();
+        AuditRing ring = new AuditRing(1024);
+        AuditJournal journal = new AuditJournal(ring, getDataBroker(), 0, directory, 1024 * 1024, 2, 10);
+
+        for (int i = 1; i <= 100; i++) {
+            ring.publish(AuditRing.STORED, "0:" + i + ".", null);
+            // One event per poll: every one of them used to be followed by a summary write.
+            journal.drain();
+        }
+        assertEquals(100, journal.recorded());
+        assertFalse(summary().isPresent());
+
+        assertTrue(journal.publishSummary());
+        assertEquals(BigInteger.valueOf(100), summary().get().getRecorded());
+        // Nothing new since: nothing written.
+        assertFalse(journal.publishSummary());
+
+        ring.publish(AuditRing.DELETED, "0:1.", null);
+        journal.drain();
+        assertTrue(journal.publishSummary());
+        assertEquals(BigInteger.valueOf(101), summary().get().getRecorded());
+        assertEquals(2, summary().get().getDecision().size());
+        journal.close();
+    }
+
+    private Optional<Member> summary() throws Exception {
+        return getDataBroker().newReadOnlyTransaction().read(LogicalDatastoreType.OPERATIONAL,
+                InstanceIdentifier.create(AuditSummary.class).child(Member.class, new MemberKey(0))).checkedGet();
+    }
+}
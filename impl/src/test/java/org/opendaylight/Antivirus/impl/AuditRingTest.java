@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class AuditRingTest {
+
+    @Test
+    public void testEventsAreReadInOrder() {
+        AuditRing ring = new AuditRing(8);
+        ring.publish(AuditRing.STORED, "12:3.", null);
+        ring.publish(AuditRing.DUPLICATE_REPLACED, "7:1.", "12:3.");
+
+        long[] times = new long[8];
+        int[] fields = new int[8 * AuditRing.FIELDS];
+        assertEquals(2, ring.poll(times, fields, 8));
+        assertEquals(AuditRing.STORED, fields[0]);
+        assertEquals(12, fields[1]);
+        assertEquals(3, fields[2]);
+        assertEquals(-1, fields[3]);
+        assertEquals(AuditRing.DUPLICATE_REPLACED, fields[5]);
+        assertEquals(7, fields[6]);
+        assertEquals(12, fields[8]);
+        assertEquals(0, ring.poll(times, fields, 8));
+    }
+
+    @Test
+    public void testFullRingDropsInsteadOfBlocking() {
+        AuditRing ring = new AuditRing(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.publish(AuditRing.STORED, "1:" + i + ".", null));
+        }
+        assertFalse(ring.publish(AuditRing.STORED, "1:4.", null));
+        assertEquals(1, ring.dropped());
+
+        assertEquals(4, ring.poll(new long[4], new int[4 * AuditRing.FIELDS], 4));
+        assertTrue(ring.publish(AuditRing.STORED, "1:5.", null));
+    }
+
+    @Test
+    public void testConcurrentProducersLoseNothingWhileConsumerKeepsUp() throws InterruptedException {
+        final AuditRing ring = new AuditRing(1024);
+        final int producers = 4;
+        final int perProducer = 50000;
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final String RuleID = p + ":1.";
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!ring.publish(AuditRing.STORED, RuleID, null)) {
+                            Thread.yield();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long[] times = new long[256];
+        int[] fields = new int[256 * AuditRing.FIELDS];
+        int[] perApp = new int[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            int count = ring.poll(times, fields, 256);
+            for (int i = 0; i < count; i++) {
+                perApp[fields[i * AuditRing.FIELDS + 1]]++;
+            }
+            received += count;
+        }
+        done.await();
+        for (int count : perApp) {
+            assertEquals(perProducer, count);
+        }
+    }
+}
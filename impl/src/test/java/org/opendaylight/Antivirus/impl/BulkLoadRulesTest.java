@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.BulkLoadRulesInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.BulkLoadRulesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.bulk.load.rules.input.Rule;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.bulk.load.rules.input.RuleBuilder;
+
+/**
+ * A bulk load must answer every rule, in input order, with the greeting
+ * Application-hello would have given it.
+ */
+public class BulkLoadRulesTest extends AbstractConcurrentDataBrokerTest {
+
+    private AntivirusImpl antivirus;
+
+    @After
+    public void tearDown() {
+        antivirus.close();
+    }
+
+    @Test
+    public void testResultsFollowInputOrder() throws Exception {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 6, ApplicationOwnership.singleNode(), null);
+
+        List<Rule> rules = new ArrayList<>();
+        rules.add(rule("0", "0", "0:1.", "10.0.0.1/32.", "ALLOW"));
+        rules.add(rule("1", "1", "1:1.", "10.0.0.1/32.", "ALLOW"));
+        rules.add(rule("1", "wrong", "1:2.", "10.0.0.2/32.", "ALLOW"));
+        rules.add(rule("2", "2", "2:1.", "10.0.0.3", "ALLOW"));
+        rules.add(rule(" 2 ", "2", " 2:1. ", "10.0.0.3/32.", "deny"));
+        rules.add(rule("0", "0", "0:9.", "10.0.0.4/32.", "ALLOW"));
+        rules.add(rule("0", "0", "0:x.", "10.0.0.4/32.", "ALLOW"));
+        rules.add(rule("1", "1", "1:3.", "10.0.0.5/32.", null));
+        // Valid, but the stored duplicate of a stronger application is kept.
+        rules.add(rule("0", "0", "0:2.", "10.0.0.1/32.", "ALLOW"));
+
+        BulkLoadRulesOutput output = antivirus.bulkLoadRules(new BulkLoadRulesInputBuilder().setRule(rules).build())
+                .get().getResult();
+
+        assertEquals(rules.size(), output.getResult().size());
+        assertEquals(Long.valueOf(3), output.getAccepted());
+        assertEquals(Long.valueOf(5), output.getRejected());
+        assertEquals(Long.valueOf(1), output.getUnchanged());
+        assertEquals("Rule ID: 0:1. for App ID: 0 stored.", output.getResult().get(0).getGreeting());
+        assertEquals("Duplicate Rule Found. Replaced with High Priority App having AppID : 1",
+                output.getResult().get(1).getGreeting());
+        assertEquals("Password is not correct. Try Again!", output.getResult().get(2).getGreeting());
+        assertEquals("The format for Source IP is X.X.X.X/X.; Try Again!.", output.getResult().get(3).getGreeting());
+        assertEquals("Rule ID: 2:1. for App ID: 2 stored.", output.getResult().get(4).getGreeting());
+        assertTrue(output.getResult().get(5).getGreeting().startsWith("Check Rule ID format"));
+        assertTrue(output.getResult().get(6).getGreeting().startsWith("Check Rule ID format"));
+
+        assertTrue(output.getResult().get(7).getGreeting().endsWith("could not be parsed. Try Again!"));
+        assertEquals("The rule already exists with App ID: 1", output.getResult().get(8).getGreeting());
+
+        assertEquals(2, antivirus.Stored_Rules());
+        assertEquals("DENY", antivirus.ActionInventory.get(antivirus.Rule_Slot_Index.get("2:1.")));
+    }
+
+    private static Rule rule(String app, String password, String ruleID, String sourceIP, String action) {
+        return new RuleBuilder()
+                .setAppID(app)
+                .setPassword(password)
+                .setOperation((short) 0)
+                .setRuleID(ruleID)
+                .setSourceIP(sourceIP)
+                .setDestinationIP("192.168.0.1/32.")
+                .setSourcePort(" 2000 ")
+                .setDestinationPort("3000")
+                .setPriority(5)
+                .setAction(action)
+                .build();
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opendaylight.Antivirus.impl.RuleFixture.rule;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+
+/**
+ * With four shards each application's rules live in the shard of its AppID,
+ * also after they replace or evict a rule of another shard, and a decision
+ * only waits for the shards it touches.
+ */
+public class CatalogShardsTest extends AbstractConcurrentDataBrokerTest {
+
+    private static final int SHARDS = 4;
+    private static final int APPLICATIONS = 8;
+
+    private AntivirusImpl antivirus;
+
+    @After
+    public void tearDown() {
+        antivirus.close();
+    }
+
+    @Test
+    public void testReplacementMovesToTheWinnersShard() {
+        antivirus = new AntivirusImpl(getDataBroker(), APPLICATIONS, 20, ApplicationOwnership.singleNode(), null,
+                new CatalogShards(SHARDS));
+
+        store(rule(0, "0:1."));
+        assertShard(0, "0:1.");
+
+        assertEquals("Duplicate Rule Found. Replaced with High Priority App having AppID : 1",
+                antivirus.HandleApplicationHello(rule(1, "1:1.").build()).getGreeting());
+        assertFalse(antivirus.Rule_Slot_Index.containsKey("0:1."));
+        assertShard(1, "1:1.");
+
+        antivirus.HandleApplicationHello(rule(2, "2:1.").action("ALLOW").build());
+        assertFalse(antivirus.Rule_Slot_Index.containsKey("1:1."));
+        assertShard(2, "2:1.");
+
+        assertEquals(1, antivirus.Stored_Rules());
+        assertEquals(0, antivirus.App_Inventory.usage(0));
+        assertEquals(0, antivirus.App_Inventory.usage(1));
+        assertEquals(1, antivirus.App_Inventory.usage(2));
+        assertIndexesAgree();
+    }
+
+    @Test
+    public void testModeTwoEvictsFromAnotherShard() {
+        antivirus = new AntivirusImpl(getDataBroker(), APPLICATIONS, 3, ApplicationOwnership.singleNode(), null,
+                new CatalogShards(SHARDS));
+        antivirus.Mode = 2;
+        antivirus.App_Precedence = antivirus.Set_App_Precedence(2);
+
+        store(rule(0, "0:1.").sourceIP("10.0.0.1/32."));
+        store(rule(1, "1:1.").sourceIP("10.0.0.2/32."));
+        store(rule(0, "0:2.").sourceIP("10.0.0.3/32."));
+        store(rule(2, "2:1.").sourceIP("10.0.0.4/32."));
+
+        assertEquals(3, antivirus.Stored_Rules());
+        assertEquals(1, antivirus.App_Inventory.usage(0));
+        assertShard(2, "2:1.");
+        assertIndexesAgree();
+    }
+
+    @Test
+    public void testOtherShardsDecideWhileOneIsLocked() throws Exception {
+        antivirus = new AntivirusImpl(getDataBroker(), APPLICATIONS, 20, ApplicationOwnership.singleNode(), null,
+                new CatalogShards(SHARDS));
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        antivirus.Catalog_Lock.lock(0);
+        try {
+            Future<String> greeting = caller.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return antivirus.HandleApplicationHello(rule(1, "1:1.").build()).getGreeting();
+                }
+            });
+            assertEquals("Rule ID: 1:1. for App ID: 1 stored.", greeting.get(10, TimeUnit.SECONDS));
+        } finally {
+            antivirus.Catalog_Lock.unlock(0);
+            caller.shutdownNow();
+        }
+        assertShard(1, "1:1.");
+    }
+
+    /* Application-hello reads the registry before locking; what changed in between is caught under the lock. */
+    @Test
+    public void testStaleRegistryReadIsCheckedUnderTheLock() {
+        antivirus = new AntivirusImpl(getDataBroker(), APPLICATIONS, 20, ApplicationOwnership.singleNode(), null,
+                new CatalogShards(SHARDS));
+        store(rule(1, "1:1."));
+
+        antivirus.Catalog_Lock.lock(1);
+        try {
+            // Stored after the read missed it.
+            assertEquals("Rule with Rule ID : 1:1.already exists.",
+                    antivirus.Decision_Engine(rule(1, "1:1.").sourceIP("10.0.0.9/32.").build(), null));
+            // Deleted after the read found it.
+            assertEquals("Rule ID: 1:2. for App ID: 1 stored.",
+                    antivirus.Decision_Engine(rule(1, "1:2.").sourceIP("10.0.0.8/32.").build(), "Rule Found"));
+        } finally {
+            antivirus.Catalog_Lock.unlock(1);
+        }
+    }
+
+    @Test
+    public void testConcurrentApplicationsKeepTheShardsConsistent() throws Exception {
+        antivirus = new AntivirusImpl(getDataBroker(), APPLICATIONS, 40, ApplicationOwnership.singleNode(), null,
+                new CatalogShards(SHARDS));
+        ExecutorService callers = Executors.newFixedThreadPool(APPLICATIONS);
+        try {
+            Future<?>[] done = new Future<?>[APPLICATIONS];
+            for (int app = 0; app < APPLICATIONS; app++) {
+                final int caller = app;
+                done[app] = callers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        // Few match tuples, so that most decisions replace a rule of another application.
+                        Random random = new Random(caller);
+                        for (int step = 0; step < 150; step++) {
+                            int number = 1 + random.nextInt(6);
+                            RuleFixture fixture = rule(caller, number).sourceIP("10.0.0." + random.nextInt(5) + "/32.")
+                                    .action(random.nextBoolean() ? "ALLOW" : "DENY");
+                            antivirus.HandleApplicationHello(
+                                    (random.nextInt(4) == 0 ? fixture.delete() : fixture).build());
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<?> future : done) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        int usage = 0;
+        for (int app = 0; app < APPLICATIONS; app++) {
+            usage += antivirus.App_Inventory.usage(app);
+        }
+        assertEquals(antivirus.Stored_Rules(), usage);
+        for (String ruleID : antivirus.Rule_Slot_Index.keySet()) {
+            assertShard(antivirus.FindAppIDFromRuleID(ruleID) % SHARDS, ruleID);
+        }
+        assertIndexesAgree();
+    }
+
+    private void store(RuleFixture fixture) {
+        String greeting = antivirus.HandleApplicationHello(fixture.build()).getGreeting();
+        assertTrue(greeting, greeting.endsWith(" stored."));
+    }
+
+    private void assertShard(int shard, String ruleID) {
+        int slot = antivirus.Rule_Slot_Index.get(ruleID);
+        assertEquals(ruleID, shard, antivirus.Shard_Of_Slot(slot));
+        assertEquals(ruleID, antivirus.RuleIDInventory.get(slot));
+    }
+
+    /* As in PurgeApplicationTest, plus: each shard holds its rules dense from the start of its range. */
+    private void assertIndexesAgree() {
+        Set<String> indexed = new HashSet<>();
+        for (Set<String> ruleIDs : antivirus.App_Rule_Index.values()) {
+            indexed.addAll(ruleIDs);
+        }
+        assertEquals(antivirus.Rule_Slot_Index.keySet(), indexed);
+        assertEquals(antivirus.Stored_Rules(), antivirus.Rule_Slot_Index.size());
+        for (int slot = antivirus.Next_Stored_Slot(0); slot != -1; slot = antivirus.Next_Stored_Slot(slot + 1)) {
+            String ruleID = antivirus.RuleIDInventory.get(slot);
+            assertEquals(ruleID, Integer.valueOf(slot), antivirus.Rule_Slot_Index.get(ruleID));
+            assertEquals(ruleID, antivirus.Rule_Tuple_Index.get(antivirus.SourceIPInventory.get(slot),
+                    antivirus.DestinationIPInventory.get(slot), antivirus.SourcePortInventory.get(slot),
+                    antivirus.DestinationPortInventory.get(slot), antivirus.PriorityInventory.get(slot)));
+            int shard = antivirus.Shard_Of_Slot(slot);
+            assertTrue(ruleID, slot - shard * antivirus.C < antivirus.Shard_Counter.get(shard));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Runs three controller "members" in one JVM against a shared capacity pool.
+ */
+public class ClusterCapacityTest {
+
+    private static final int CAPACITY = 1000;
+    private static final int MEMBERS = 3;
+
+    @Test
+    public void testEveryApplicationHasExactlyOneOwner() {
+        ApplicationOwnership[] members = new ApplicationOwnership[MEMBERS];
+        for (int i = 0; i < MEMBERS; i++) {
+            members[i] = new ApplicationOwnership(i, MEMBERS);
+        }
+        for (int appID = 0; appID < 400; appID++) {
+            int owners = 0;
+            for (ApplicationOwnership member : members) {
+                if (member.isLocallyOwned(appID)) {
+                    owners++;
+                }
+            }
+            assertEquals(1, owners);
+        }
+    }
+
+    @Test
+    public void testGlobalCapacityHoldsAcrossMembers() throws InterruptedException {
+        final SharedCapacityPool pool = new SharedCapacityPool(CAPACITY);
+        final CapacityLease[] leases = new CapacityLease[MEMBERS];
+        final AtomicInteger stored = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(MEMBERS);
+        for (int i = 0; i < MEMBERS; i++) {
+            final CapacityLease lease = new CapacityLease(pool, 16);
+            leases[i] = lease;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < CAPACITY; j++) {
+                        if (lease.tryAcquire()) {
+                            stored.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        assertEquals(CAPACITY, stored.get());
+        assertEquals(0, pool.remaining());
+        for (CapacityLease lease : leases) {
+            assertFalse(lease.tryAcquire());
+        }
+    }
+
+    @Test
+    public void testDeletesReturnCapacityInBatches() {
+        SharedCapacityPool pool = new SharedCapacityPool(100);
+        CapacityLease first = new CapacityLease(pool, 10);
+        CapacityLease second = new CapacityLease(pool, 10);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(first.tryAcquire());
+        }
+        assertFalse(second.tryAcquire());
+
+        // A single delete stays local to the member that made it.
+        first.release();
+        assertEquals(0, pool.remaining());
+
+        // Once the member holds more than a batch, the surplus goes back.
+        for (int i = 0; i < 20; i++) {
+            first.release();
+        }
+        assertEquals(10, first.held());
+        assertEquals(11, pool.remaining());
+        assertTrue(second.tryAcquire());
+
+        first.flush();
+        assertEquals(0, first.held());
+    }
+
+    @Test
+    public void testIdleLeaseReturnsItsSlots() {
+        SharedCapacityPool pool = new SharedCapacityPool(100);
+        CapacityLease lease = new CapacityLease(pool, 10);
+        assertTrue(lease.tryAcquire());
+        assertEquals(90, pool.remaining());
+
+        // Used since the last check: kept.
+        assertEquals(0, lease.returnIdle());
+        assertEquals(9, lease.held());
+        // Unused for a whole interval: returned.
+        assertEquals(9, lease.returnIdle());
+        assertEquals(99, pool.remaining());
+    }
+
+    @Test
+    public void testPeekReservesNothing() {
+        SharedCapacityPool pool = new SharedCapacityPool(10);
+        CapacityLease lease = new CapacityLease(pool, 4);
+        assertTrue(lease.peek());
+        assertEquals(0, lease.held());
+        assertEquals(10, pool.remaining());
+
+        CapacityLease other = new CapacityLease(pool, 10);
+        assertTrue(other.tryAcquire());
+        assertFalse(lease.peek());
+        assertEquals(0, other.returnIdle());
+        // A peek is not use: the idle lease still gives its slots back.
+        assertTrue(other.peek());
+        assertEquals(9, other.returnIdle());
+    }
+
+    @Test
+    public void testBatchLeavesEveryMemberRoom() {
+        assertEquals(16, CapacityLease.batchSizeFor(10000, 3, 16));
+        assertEquals(2, CapacityLease.batchSizeFor(9, 1, 16));
+        assertEquals(1, CapacityLease.batchSizeFor(9, 3, 16));
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opendaylight.Antivirus.impl.RuleFixture.rule;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.AntivirusService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.BulkLoadRulesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.CapacityLedger;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRulesRegistry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntryBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.capacity.ledger.Member;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntryKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+/**
+ * Runs several controller members, each with its own AntivirusImpl, against
+ * one data broker, the way the members of a cluster share the datastore.
+ */
+public class ClusterMembersTest extends AbstractConcurrentDataBrokerTest {
+
+    private static final int APPLICATIONS = 6;
+
+    private final List<AntivirusImpl> members = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (AntivirusImpl member : members) {
+            member.close();
+        }
+    }
+
+    @Test
+    public void testStartingAMemberKeepsTheRulesOfTheOthers() throws Exception {
+        SharedCapacityPool pool = new SharedCapacityPool(30);
+        AntivirusImpl first = start(0, 2, 30, pool);
+        assertTrue(first.HandleApplicationHello(rule(0, "0:1.").build()).getGreeting().endsWith(" stored."));
+
+        start(1, 2, 30, pool);
+        assertTrue(stored("0:1."));
+    }
+
+    @Test
+    public void testRestartedMemberRestoresItsRules() throws Exception {
+        SharedCapacityPool pool = new SharedCapacityPool(30);
+        AntivirusImpl first = start(0, 2, 30, pool);
+        AntivirusImpl second = start(1, 2, 30, pool);
+        assertTrue(first.HandleApplicationHello(rule(0, "0:1.").build()).getGreeting().endsWith(" stored."));
+        assertTrue(first.HandleApplicationHello(rule(2, "2:1.").sourcePort("2001").build()).getGreeting()
+                .endsWith(" stored."));
+        assertTrue(second.HandleApplicationHello(rule(1, "1:1.").sourcePort("2002").build()).getGreeting()
+                .endsWith(" stored."));
+
+        members.remove(first);
+        first.close();
+        AntivirusImpl restarted = start(0, 2, 30, pool);
+
+        // Only the rules of its own applications, each holding a slot of C again.
+        assertEquals(2, restarted.Stored_Rules());
+        assertTrue(restarted.Rule_Slot_Index.containsKey("2:1."));
+        assertFalse(restarted.Rule_Slot_Index.containsKey("1:1."));
+        assertEquals(30 - 3, pool.remaining() + restarted.Capacity_Lease.held() + second.Capacity_Lease.held());
+        // The Rule ID filter knows the restored rules, so they are not stored twice.
+        assertTrue(restarted.Rule_ID_Filter.mightContain("0:1."));
+        assertFalse(restarted.HandleApplicationHello(rule(0, "0:1.").build()).getGreeting().endsWith(" stored."));
+        assertEquals(2, restarted.Stored_Rules());
+    }
+
+    @Test
+    public void testMembersShareASmallCapacity() throws Exception {
+        // With C = 9 a batch of 16 let the first member to store a rule hold all of C.
+        SharedCapacityPool pool = new SharedCapacityPool(9);
+        AntivirusImpl first = start(0, 2, 9, pool);
+        AntivirusImpl second = start(1, 2, 9, pool);
+
+        assertTrue(first.HandleApplicationHello(rule(0, "0:1.").build()).getGreeting().endsWith(" stored."));
+        assertEquals(0, first.Capacity_Lease.held());
+        assertEquals(8, pool.remaining());
+        for (int appID = 1; appID < APPLICATIONS; appID += 2) {
+            String greeting = second.HandleApplicationHello(rule(appID, 1).sourcePort(Integer.toString(2000 + appID)).build())
+                    .getGreeting();
+            assertTrue(greeting, greeting.endsWith(" stored."));
+        }
+        assertEquals(5, pool.remaining());
+    }
+
+    @Test
+    public void testModeTwoEvictsWhenTheClusterIsFull() throws Exception {
+        SharedCapacityPool pool = new SharedCapacityPool(9);
+        AntivirusImpl first = start(0, 2, 9, pool);
+        AntivirusImpl second = start(1, 2, 9, pool);
+        for (AntivirusImpl member : members) {
+            member.Mode = 2;
+            member.App_Precedence = member.Set_App_Precedence(2);
+        }
+
+        assertTrue(first.HandleApplicationHello(rule(0, "0:1.").build()).getGreeting().endsWith(" stored."));
+        fill(second, 5, 5);
+        fill(second, 3, 3);
+        assertEquals(0, pool.remaining());
+
+        // First's own App_Inventory still has room, but C is used up across the cluster: its weakest rule makes way.
+        String greeting = first.HandleApplicationHello(rule(2, "2:1.").sourcePort("2100").build()).getGreeting();
+        assertTrue(greeting, greeting.endsWith(" stored."));
+        assertFalse(stored("0:1."));
+        assertTrue(stored("2:1."));
+        assertEquals(9, first.Stored_Rules() + second.Stored_Rules());
+    }
+
+    @Test
+    public void testHelloForAnotherMembersApplicationIsStoredByIt() throws Exception {
+        SharedCapacityPool pool = new SharedCapacityPool(30);
+        AntivirusImpl first = start(0, 2, 30, pool);
+        AntivirusImpl second = start(1, 2, 30, pool);
+        route();
+
+        String greeting = first.applicationHello(rule(1, "1:1.").build()).get().getResult().getGreeting();
+        assertTrue(greeting, greeting.endsWith(" stored."));
+        assertTrue(second.Rule_Slot_Index.containsKey("1:1."));
+        assertFalse(first.Rule_Slot_Index.containsKey("1:1."));
+        assertEquals(0, first.Stored_Rules());
+    }
+
+    @Test
+    public void testMalformedRegistryEntriesAreSkippedButTheirRuleIDsStayTaken() throws Exception {
+        WriteTransaction transaction = getDataBroker().newWriteOnlyTransaction();
+        register(transaction, entry("0:1.").build());
+        register(transaction, entry("0:2.").setSourceIP("10.0.0.300/32.").build());
+        register(transaction, entry("0:3.").setPriority(null).build());
+        register(transaction, entry("0:4.").setAppID("2").build());
+        transaction.submit().checkedGet();
+
+        AntivirusImpl restarted = start(0, 1, 30, new SharedCapacityPool(30));
+
+        assertEquals(1, restarted.Stored_Rules());
+        assertTrue(restarted.Rule_Slot_Index.containsKey("0:1."));
+        for (String ruleID : Arrays.asList("0:2.", "0:3.", "0:4.")) {
+            assertTrue(ruleID, restarted.Rule_ID_Filter.mightContain(ruleID));
+            assertEquals("Rule with Rule ID : " + ruleID + "already exists.", restarted.HandleApplicationHello(
+                    rule(0, ruleID).sourcePort("3001").build()).getGreeting());
+        }
+    }
+
+    /* A member that stopped without releasing its slots gets its ledger entry back to what it restores. */
+    @Test
+    public void testRestartedMemberReplacesItsLedgerEntry() throws Exception {
+        AntivirusImpl first = start(0, 2, 30, new DatastoreCapacityPool(getDataBroker(), 30, 0));
+        AntivirusImpl second = start(1, 2, 30, new DatastoreCapacityPool(getDataBroker(), 30, 1));
+        fill(first, 0, 3);
+        fill(second, 1, 2);
+        int secondHeld = 2 + second.Capacity_Lease.held();
+        assertEquals(3 + first.Capacity_Lease.held(), ledgerEntry(0));
+        assertEquals(secondHeld, ledgerEntry(1));
+
+        // Not closed until the test ends, as after a crash: its slots were never released.
+        AntivirusImpl restarted = start(0, 2, 30, new DatastoreCapacityPool(getDataBroker(), 30, 0));
+
+        assertEquals(3, restarted.Stored_Rules());
+        assertEquals(0, restarted.Capacity_Lease.held());
+        assertEquals(3, ledgerEntry(0));
+        assertEquals(3 + secondHeld, ledger().getAllocated().intValue());
+    }
+
+    @Test
+    public void testDuplicateOfAStrongerRuleOfAnotherMemberIsKept() throws Exception {
+        SharedCapacityPool pool = new SharedCapacityPool(30);
+        AntivirusImpl first = start(0, 2, 30, pool);
+        AntivirusImpl second = start(1, 2, 30, pool);
+        route();
+        assertTrue(second.HandleApplicationHello(rule(3, "3:1.").build()).getGreeting().endsWith(" stored."));
+
+        // Same match tuple, and App ID 3 wins over App ID 2.
+        String greeting = first.HandleApplicationHello(rule(2, "2:1.").build()).getGreeting();
+        assertEquals("The rule already exists with App ID: 3", greeting);
+        assertFalse(stored("2:1."));
+        assertTrue(stored("3:1."));
+    }
+
+    @Test
+    public void testDuplicateOfAWeakerRuleOfAnotherMemberIsReplaced() throws Exception {
+        SharedCapacityPool pool = new SharedCapacityPool(30);
+        AntivirusImpl first = start(0, 2, 30, pool);
+        AntivirusImpl second = start(1, 2, 30, pool);
+        route();
+        assertTrue(second.HandleApplicationHello(rule(1, "1:1.").build()).getGreeting().endsWith(" stored."));
+
+        String greeting = first.HandleApplicationHello(rule(2, "2:1.").build()).getGreeting();
+        assertTrue(greeting, greeting.startsWith("Duplicate Rule Found. Replaced"));
+        assertFalse(stored("1:1."));
+        assertTrue(stored("2:1."));
+        assertEquals(0, second.Stored_Rules());
+        assertEquals(1, first.Stored_Rules());
+    }
+
+    @Test
+    public void testOtherMemberIsAskedToYieldWithNoShardLocked() throws Exception {
+        SharedCapacityPool pool = new SharedCapacityPool(30);
+        final AntivirusImpl first = start(0, 2, 30, pool);
+        AntivirusImpl second = start(1, 2, 30, pool);
+        route();
+        final AtomicInteger lockedWhileAsking = new AtomicInteger(-1);
+        first.Enable_Member_Routing(new MemberRouter(null, 1000) {
+            @Override
+            protected AntivirusService serviceOf(int memberIndex) {
+                int locked = 0;
+                for (int shard = 0; shard < first.Catalog_Lock.size(); shard++) {
+                    if (first.Catalog_Lock.isHeldByCurrentThread(shard)) {
+                        locked++;
+                    }
+                }
+                lockedWhileAsking.set(locked);
+                return members.get(memberIndex);
+            }
+        });
+        assertTrue(second.HandleApplicationHello(rule(1, "1:1.").build()).getGreeting().endsWith(" stored."));
+
+        String greeting = first.HandleApplicationHello(rule(2, "2:1.").build()).getGreeting();
+        assertTrue(greeting, greeting.startsWith("Duplicate Rule Found. Replaced"));
+        assertEquals(0, lockedWhileAsking.get());
+        assertEquals(1, first.Stored_Rules());
+        assertEquals(30 - 1, pool.remaining() + first.Capacity_Lease.held() + second.Capacity_Lease.held());
+    }
+
+    @Test
+    public void testConflictWithAStrongerRuleOfAnotherMemberIsKept() throws Exception {
+        SharedCapacityPool pool = new SharedCapacityPool(30);
+        AntivirusImpl first = start(0, 2, 30, pool);
+        AntivirusImpl second = start(1, 2, 30, pool);
+        route();
+        assertTrue(second.HandleApplicationHello(rule(5, "5:1.").build()).getGreeting().endsWith(" stored."));
+
+        String greeting = first.HandleApplicationHello(rule(4, "4:1.").action("ALLOW").build()).getGreeting();
+        assertEquals("Conflict resolved. Keeping Rule with App ID: 5", greeting);
+        assertFalse(stored("4:1."));
+    }
+
+    @Test
+    public void testBulkLoadPassesRulesOnToTheirOwners() throws Exception {
+        SharedCapacityPool pool = new SharedCapacityPool(30);
+        AntivirusImpl first = start(0, 2, 30, pool);
+        AntivirusImpl second = start(1, 2, 30, pool);
+        route();
+
+        BulkLoadRulesOutput output = first.HandleBulkLoadRules(Arrays.asList(rule(0, "0:1.").build(),
+                rule(1, "1:1.").sourcePort("2001").build(), rule(2, "2:1.").sourcePort("2002").build()));
+        assertEquals(3L, output.getAccepted().longValue());
+        assertEquals("1:1.", output.getResult().get(1).getRuleID());
+        assertTrue(second.Rule_Slot_Index.containsKey("1:1."));
+        assertEquals(2, first.Stored_Rules());
+    }
+
+    @Test
+    public void testUnreachableOwnerRejectsItsRules() throws Exception {
+        SharedCapacityPool pool = new SharedCapacityPool(30);
+        AntivirusImpl first = start(0, 2, 30, pool);
+        start(1, 2, 30, pool);
+        // A member that never answers.
+        AntivirusService silent = (AntivirusService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { AntivirusService.class }, (proxy, method, args) -> new CompletableFuture<Object>());
+        first.Enable_Member_Routing(new MemberRouter(silent, 100));
+
+        BulkLoadRulesOutput output = first.HandleBulkLoadRules(Arrays.asList(rule(0, "0:1.").build(),
+                rule(1, "1:1.").sourcePort("2001").build()));
+        assertEquals(1L, output.getAccepted().longValue());
+        assertEquals(1L, output.getRejected().longValue());
+        assertTrue(output.getResult().get(1).getGreeting().endsWith("could not be reached. Try Again!"));
+        assertFalse(stored("1:1."));
+    }
+
+    /* Lets every member reach the others, as the RPC broker does for the routed RPCs of a cluster. */
+    private void route() {
+        for (AntivirusImpl member : members) {
+            member.Enable_Member_Routing(new MemberRouter(null, 1000) {
+                @Override
+                protected AntivirusService serviceOf(int memberIndex) {
+                    return members.get(memberIndex);
+                }
+            });
+        }
+    }
+
+    private void fill(AntivirusImpl member, int appID, int rules) {
+        for (int rule = 1; rule <= rules; rule++) {
+            String greeting = member.HandleApplicationHello(rule(appID, rule).sourcePort(Integer.toString(2000 + 10 * appID + rule))
+                    .build()).getGreeting();
+            assertTrue(greeting, greeting.endsWith(" stored."));
+        }
+    }
+
+    private AntivirusImpl start(int index, int count, int capacity, CapacityPool pool) {
+        AntivirusImpl member = new AntivirusImpl(getDataBroker(), APPLICATIONS, capacity,
+                new ApplicationOwnership(index, count), pool);
+        members.add(member);
+        return member;
+    }
+
+    private static ConfigurationRulesRegistryEntryBuilder entry(String ruleID) {
+        return new ConfigurationRulesRegistryEntryBuilder(rule(0, ruleID).build()).setPassword(null);
+    }
+
+    private static void register(WriteTransaction transaction, ConfigurationRulesRegistryEntry entry) {
+        transaction.put(LogicalDatastoreType.CONFIGURATION, InstanceIdentifier.create(ConfigurationRulesRegistry.class)
+                .child(ConfigurationRulesRegistryEntry.class, new ConfigurationRulesRegistryEntryKey(entry.getRuleID())), entry);
+    }
+
+    private CapacityLedger ledger() throws Exception {
+        return getDataBroker().newReadOnlyTransaction().read(LogicalDatastoreType.OPERATIONAL,
+                InstanceIdentifier.create(CapacityLedger.class)).checkedGet().get();
+    }
+
+    private int ledgerEntry(int memberIndex) throws Exception {
+        for (Member member : ledger().getMember()) {
+            if (member.getMemberIndex() == memberIndex) {
+                return member.getAllocated().intValue();
+            }
+        }
+        return -1;
+    }
+
+    private boolean stored(String ruleID) throws Exception {
+        return getDataBroker().newReadOnlyTransaction().read(LogicalDatastoreType.CONFIGURATION,
+                InstanceIdentifier.create(ConfigurationRulesRegistry.class).child(ConfigurationRulesRegistryEntry.class,
+                        new ConfigurationRulesRegistryEntryKey(ruleID))).checkedGet().isPresent();
+    }
+}
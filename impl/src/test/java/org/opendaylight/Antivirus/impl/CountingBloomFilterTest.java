@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CountingBloomFilterTest {
+
+    private static final int KEYS = 4000;
+
+    @Test
+    public void testNoFalseNegatives() {
+        CountingBloomFilter filter = new CountingBloomFilter(KEYS, 0.01);
+        for (int i = 0; i < KEYS; i++) {
+            filter.add(i % 400 + ":" + i + ".");
+        }
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(filter.mightContain(i % 400 + ":" + i + "."));
+        }
+        assertEquals(KEYS, filter.possibleHits());
+    }
+
+    @Test
+    public void testRemovedKeysAreRuledOutAgain() {
+        CountingBloomFilter filter = new CountingBloomFilter(KEYS, 0.01);
+        for (int i = 0; i < KEYS; i++) {
+            filter.add("1:" + i + ".");
+        }
+        for (int i = 0; i < KEYS; i++) {
+            filter.remove("1:" + i + ".");
+        }
+        for (int i = 0; i < KEYS; i++) {
+            assertFalse(filter.mightContain("1:" + i + "."));
+        }
+
+        filter.add("2:1.");
+        filter.add("2:1.");
+        filter.remove("2:1.");
+        assertTrue(filter.mightContain("2:1."));
+    }
+
+    @Test
+    public void testFalsePositiveRateStaysNearTarget() {
+        CountingBloomFilter filter = new CountingBloomFilter(KEYS, 0.01);
+        for (int i = 0; i < KEYS; i++) {
+            filter.add("0:" + i + ".");
+        }
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain("1:" + i + ".")) {
+                filter.recordFalsePositive();
+            }
+        }
+        assertTrue("rate " + filter.falsePositiveRate(), filter.falsePositiveRate() < 0.03);
+    }
+}
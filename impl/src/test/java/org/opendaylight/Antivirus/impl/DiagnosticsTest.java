@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.opendaylight.Antivirus.impl.RuleFixture.rule;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.GetDiagnosticsOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.RunBenchmarkInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.RunBenchmarkOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.get.diagnostics.output.Latency;
+
+public class DiagnosticsTest extends AbstractConcurrentDataBrokerTest {
+
+    private AntivirusImpl antivirus;
+
+    @After
+    public void tearDown() {
+        if (antivirus != null) {
+            antivirus.close();
+        }
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500);
+        histogram.record(1500);
+        histogram.record(3000);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(1, histogram.count(0));
+        assertEquals(1, histogram.count(1));
+        assertEquals(1, histogram.count(2));
+        assertEquals(1, histogram.count(LatencyHistogram.BUCKETS - 1));
+        assertEquals(4, histogram.total());
+        assertEquals(-1, LatencyHistogram.upperBoundMicros(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void testDiagnosticsAndBenchmarkLeaveRulesUntouched() throws Exception {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 9, ApplicationOwnership.singleNode(), null);
+        for (int app = 0; app < 3; app++) {
+            antivirus.HandleApplicationHello(new ApplicationHelloInputBuilder()
+                    .setAppID(Integer.toString(app))
+                    .setPassword(Integer.toString(app))
+                    .setOperation((short) 0)
+                    .setRuleID(app + ":1.")
+                    .setSourceIP("10.0.0." + app + "/32.")
+                    .setDestinationIP("192.168.0.1/32.")
+                    .setSourcePort("ANY")
+                    .setDestinationPort("3000")
+                    .setPriority(5)
+                    .setAction("ALLOW")
+                    .build());
+        }
+
+        GetDiagnosticsOutput diagnostics = antivirus.getDiagnostics().get().getResult();
+        assertEquals(Long.valueOf(3), diagnostics.getRulesStored());
+        assertEquals(Long.valueOf(3), diagnostics.getSlotIndexEntries());
+        assertTrue(diagnostics.getEstimatedIndexBytes().signum() > 0);
+        // Every Rule ID was new, so the filter ruled each one out without a datastore read.
+        assertEquals(BigInteger.valueOf(3), diagnostics.getRuleIdFilterLookups());
+        assertEquals(BigInteger.ZERO, diagnostics.getRuleIdFilterPossibleHits());
+        for (Latency latency : diagnostics.getLatency()) {
+            assertEquals(LatencyHistogram.BUCKETS, latency.getBucket().size());
+            assertNull(latency.getBucket().get(LatencyHistogram.BUCKETS - 1).getBelowMicros());
+            BigInteger calls = BigInteger.ZERO;
+            for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+                calls = calls.add(latency.getBucket().get(i).getCount());
+            }
+            assertEquals(BigInteger.valueOf(3), calls);
+        }
+
+        RunBenchmarkOutput benchmark = antivirus.runBenchmark(new RunBenchmarkInputBuilder()
+                .setIterations(2).build()).get().getResult();
+        assertEquals(Long.valueOf(3), benchmark.getRules());
+        assertEquals(BigInteger.valueOf(6), benchmark.getEvaluations());
+        assertEquals(3, antivirus.Stored_Rules());
+        assertEquals(3, antivirus.App_Inventory.snapshot().used());
+    }
+
+    @Test
+    public void testBenchmarkEvaluatesFreshRuleIds() {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 9, ApplicationOwnership.singleNode(), null);
+        antivirus.HandleApplicationHello(rule(0, "0:1.").build());
+        antivirus.HandleApplicationHello(rule(0, "0:2.").sourceIP("10.0.0.2/32.").build());
+        antivirus.HandleApplicationHello(rule(1, "1:1.").sourceIP("10.0.0.3/32.").build());
+
+        List<ApplicationHelloInput> rules = antivirus.Benchmark_Rules();
+        assertEquals(3, rules.size());
+        for (ApplicationHelloInput rule : rules) {
+            assertFalse(rule.getRuleID(), antivirus.Rule_Slot_Index.containsKey(rule.getRuleID()));
+            // Each copy meets the rule it was made from: a duplicate, not a Rule ID seen before.
+            assertEquals("duplicate-kept", antivirus.HandleEvaluateRule(rule).getDecision());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class EvictionIndexTest {
+
+    @Test
+    public void testWeakestIsLowestTierThenPriorityThenAge() {
+        EvictionIndex index = new EvictionIndex();
+        index.add("2:1.", 2, 1);
+        index.add("1:1.", 1, 9);
+        index.add("1:2.", 1, 3);
+        index.add("1:3.", 1, 3);
+        index.add("0:1.", 0, 50);
+
+        assertEquals("0:1.", index.weakest().getRuleID());
+        index.remove("0:1.");
+        assertEquals("1:2.", index.weakest().getRuleID());
+        assertEquals("1:2.", index.weakestBelow(2).getRuleID());
+        assertNull(index.weakestBelow(1));
+
+        // Stored again, it becomes the youngest of its priority.
+        index.add("1:2.", 1, 3);
+        assertEquals("1:3.", index.weakest().getRuleID());
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void testBelowSpansEveryTier() {
+        EvictionIndex index = new EvictionIndex();
+        index.add("0:1.", 0, 5);
+        index.add("0:2.", 0, 20);
+        index.add("1:1.", 1, 1);
+        index.add("1:2.", 1, 10);
+        index.add("2:1.", 2, 9);
+
+        assertEquals(ids("0:1.", "1:1.", "2:1."), ruleIDs(index.below(10)));
+        assertEquals(ids(), ruleIDs(index.below(1)));
+        assertEquals(ids("0:1.", "0:2.", "1:1.", "1:2.", "2:1."), ruleIDs(index.below(65536)));
+        assertNull(new EvictionIndex().weakest());
+    }
+
+    @Test
+    public void testReadersNeverSeeAHalfUpdatedIndex() throws InterruptedException {
+        final EvictionIndex index = new EvictionIndex();
+        index.add("0:0.", 0, 0);
+        final AtomicBoolean done = new AtomicBoolean();
+        final List<String> errors = new ArrayList<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    EvictionIndex.Entry weakest = index.weakest();
+                    // 0:0. is never removed and sorts before every other rule.
+                    if (weakest == null || !"0:0.".equals(weakest.getRuleID())) {
+                        errors.add(String.valueOf(weakest));
+                    }
+                    for (EvictionIndex.Entry entry : index.below(5)) {
+                        if (entry.getPriority() >= 5) {
+                            errors.add(entry.getRuleID());
+                        }
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (int i = 1; i <= 20000; i++) {
+            index.add("1:" + i + ".", 1 + i % 3, i % 10);
+            if (i > 100) {
+                index.remove("1:" + (i - 100) + ".");
+            }
+        }
+        done.set(true);
+        reader.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(101, index.size());
+        assertFalse(index.below(5).isEmpty());
+    }
+
+    private static List<String> ids(String... ruleIDs) {
+        List<String> list = new ArrayList<>();
+        for (String ruleID : ruleIDs) {
+            list.add(ruleID);
+        }
+        return list;
+    }
+
+    private static List<String> ruleIDs(List<EvictionIndex.Entry> entries) {
+        List<String> list = new ArrayList<>();
+        for (EvictionIndex.Entry entry : entries) {
+            list.add(entry.getRuleID());
+        }
+        return list;
+    }
+}
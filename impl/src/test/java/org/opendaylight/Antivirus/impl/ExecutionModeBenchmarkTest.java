@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the RPC execution modes of AntivirusProvider under a large
+ * number of concurrent callers. Only runs with -Dantivirus.benchmark=true.
+ */
+public class ExecutionModeBenchmarkTest extends AbstractConcurrentDataBrokerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExecutionModeBenchmarkTest.class);
+
+    private static final int APPLICATIONS = 400;
+    private static final int RULES_PER_APPLICATION = 10;
+    private static final int CALLERS = Integer.getInteger("antivirus.benchmark.callers", 512);
+    private static final int OPERATIONS = Integer.getInteger("antivirus.benchmark.operationsPerCaller", 200);
+    private static final long HELLO_BATCH_WINDOW_MICROS = 200;
+
+    @Test
+    public void testCompareExecutionModes() throws InterruptedException {
+        assumeTrue(Boolean.getBoolean("antivirus.benchmark"));
+
+        for (String mode : new String[] {AntivirusProvider.MODE_SHARDS, AntivirusProvider.MODE_VIRTUAL_THREADS,
+            AntivirusProvider.MODE_PLATFORM_POOL, AntivirusProvider.MODE_FAIR_QUEUE}) {
+            run(mode, 0);
+        }
+    }
+
+    /** The same load with Application-hello batching off and on, as hello-batch-size sets it. */
+    @Test
+    public void testCompareHelloBatching() throws InterruptedException {
+        assumeTrue(Boolean.getBoolean("antivirus.benchmark"));
+
+        for (int batchSize : new int[] {0, 16, 64}) {
+            run(AntivirusProvider.MODE_SHARDS, batchSize);
+        }
+    }
+
+    /**
+     * The shards mode with one loop and with one loop per core. Every
+     * decision takes the catalog lock, so this shows how much of the load
+     * the extra loops can run in parallel around it.
+     */
+    @Test
+    public void testCompareShardCounts() throws InterruptedException {
+        assumeTrue(Boolean.getBoolean("antivirus.benchmark"));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int shards : new int[] {1, Math.max(2, cores / 2), cores}) {
+            run(new CatalogShards(shards), AntivirusProvider.MODE_SHARDS + "/" + shards, 0);
+        }
+    }
+
+    private void run(String mode, int helloBatchSize) throws InterruptedException {
+        run(AntivirusProvider.createDispatcher(mode, AntivirusProvider.DEFAULT_MAX_PENDING_PER_APPLICATION), mode,
+                helloBatchSize);
+    }
+
+    private void run(RequestDispatcher dispatcher, String mode, int helloBatchSize) throws InterruptedException {
+        AntivirusImpl antivirus = new AntivirusImpl(getDataBroker(), APPLICATIONS,
+                APPLICATIONS * RULES_PER_APPLICATION, ApplicationOwnership.singleNode(), null, dispatcher);
+        try {
+            if (helloBatchSize > 0) {
+                antivirus.Enable_Hello_Batching(helloBatchSize, HELLO_BATCH_WINDOW_MICROS,
+                        AntivirusProvider.DEFAULT_MAX_PENDING_PER_APPLICATION);
+            }
+            LoadGenerator generator = new LoadGenerator(antivirus, APPLICATIONS, RULES_PER_APPLICATION, 11);
+            generator.run(CALLERS, OPERATIONS / 4);
+            LoadGenerator.LoadReport report = generator.run(CALLERS, OPERATIONS);
+            boolean virtual = (dispatcher instanceof ThreadPerRequestDispatcher)
+                    && ((ThreadPerRequestDispatcher) dispatcher).usesVirtualThreads();
+            LOG.info("{} ({} callers{}, hello-batch-size {}): {}", mode, CALLERS, virtual ? ", virtual threads" : "",
+                    helloBatchSize, report);
+            assertEquals("requests failed in " + mode + ": " + report, 0, report.failures());
+        } finally {
+            antivirus.close();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.opendaylight.Antivirus.impl.RuleFixture.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ExportRulesInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ExportRulesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.export.rules.output.ExportedRule;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+
+/**
+ * export-rules pages through the catalog in Rule ID order, one cursor at a
+ * time, and filters before it counts a page.
+ */
+public class ExportRulesTest extends AbstractConcurrentDataBrokerTest {
+
+    private AntivirusImpl antivirus;
+
+    @Before
+    public void setUp() {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 30, ApplicationOwnership.singleNode(), null);
+        store(rule(0, 1).sourceIP("10.0.0.1/32.").priority(5));
+        store(rule(0, 2).sourceIP("10.0.0.2/32.").priority(10).action("ALLOW"));
+        store(rule(0, 3).sourceIP("10.0.0.3/32.").priority(20));
+        store(rule(1, 1).sourceIP("10.0.1.1/32.").priority(10));
+        store(rule(1, 2).sourceIP("10.0.1.2/32.").priority(30).action("ALLOW"));
+        store(rule(2, 1).sourceIP("10.0.2.1/32.").priority(10));
+    }
+
+    @After
+    public void tearDown() {
+        antivirus.close();
+    }
+
+    @Test
+    public void testPagesCoverEveryRuleOnceInOrder() throws Exception {
+        assertEquals(Arrays.asList("0:1.", "0:2.", "0:3.", "1:1.", "1:2.", "2:1."),
+                exportAll(new ExportRulesInputBuilder().setPageSize(4)));
+        // Six rules in pages of two: the third page is the last, with no cursor and no empty page after it.
+        assertEquals(3, pages(new ExportRulesInputBuilder().setPageSize(2)));
+    }
+
+    @Test
+    public void testFiltersApplyBeforeThePageIsCounted() throws Exception {
+        assertEquals(Arrays.asList("1:1.", "1:2."),
+                exportAll(new ExportRulesInputBuilder().setPageSize(1).setAppID("1")));
+        assertEquals(Arrays.asList("0:2.", "1:2."),
+                exportAll(new ExportRulesInputBuilder().setPageSize(1).setAction("allow")));
+        assertEquals(Arrays.asList("0:2.", "0:3.", "1:1.", "2:1."),
+                exportAll(new ExportRulesInputBuilder().setPageSize(3).setMinPriority(10).setMaxPriority(20)));
+        assertEquals(Arrays.asList("0:2."),
+                exportAll(new ExportRulesInputBuilder().setAppID("0").setAction("ALLOW").setMaxPriority(10)));
+    }
+
+    @Test
+    public void testScanLimitEndsThePageWithACursor() throws Exception {
+        antivirus.Max_Export_Scan = 2;
+        // Only 0:2. is among the first two Rule IDs, so the first page is short but not the last.
+        ExportRulesOutput first = export(new ExportRulesInputBuilder().setAction("ALLOW"));
+        assertEquals(Arrays.asList("0:2."), ruleIDs(first));
+        ExportRulesOutput second = export(new ExportRulesInputBuilder().setAction("ALLOW")
+                .setCursor(first.getNextCursor()));
+        assertTrue(ruleIDs(second).isEmpty());
+        assertNotNull(second.getNextCursor());
+
+        assertEquals(Arrays.asList("0:2.", "1:2."), exportAll(new ExportRulesInputBuilder().setAction("ALLOW")));
+        assertEquals(Arrays.asList("0:1.", "0:2.", "0:3."), exportAll(new ExportRulesInputBuilder().setAppID("0")));
+    }
+
+    @Test
+    public void testExportedRuleCarriesTheStoredMatch() throws Exception {
+        ExportedRule exported = export(new ExportRulesInputBuilder().setAppID("1").setPageSize(1)).getExportedRule()
+                .get(0);
+        assertEquals("1:1.", exported.getRuleID());
+        assertEquals("1", exported.getAppID());
+        assertEquals("10.0.1.1/32.", exported.getSourceIP());
+        assertEquals("2000", exported.getSourcePort());
+        assertEquals(Integer.valueOf(10), exported.getPriority());
+        assertEquals("DENY", exported.getAction());
+        assertNull(exported.getPassword());
+    }
+
+    @Test
+    public void testCursorOutlivesTheRuleItPointsAt() throws Exception {
+        ExportRulesOutput first = export(new ExportRulesInputBuilder().setPageSize(2));
+        assertEquals("0:2.", first.getExportedRule().get(1).getRuleID());
+
+        // The page ended at 0:2.; once it is deleted the cursor still resumes right after it.
+        antivirus.HandleApplicationHello(rule(0, 2).priority(10).action("ALLOW").sourceIP("10.0.0.2/32.").delete()
+                .build());
+        assertFalse(antivirus.Rule_Slot_Index.containsKey("0:2."));
+        ExportRulesOutput second = export(new ExportRulesInputBuilder().setPageSize(2)
+                .setCursor(first.getNextCursor()));
+        assertEquals(Arrays.asList("0:3.", "1:1."), ruleIDs(second));
+    }
+
+    @Test
+    public void testBadCursorAndAppIdAreRejected() throws Exception {
+        RpcResult<ExportRulesOutput> badCursor = antivirus.exportRules(new ExportRulesInputBuilder()
+                .setCursor("not base64!").build()).get();
+        assertFalse(badCursor.isSuccessful());
+        RpcResult<ExportRulesOutput> badApp = antivirus.exportRules(new ExportRulesInputBuilder()
+                .setAppID("x").build()).get();
+        assertFalse(badApp.isSuccessful());
+    }
+
+    private void store(RuleFixture fixture) {
+        String greeting = antivirus.HandleApplicationHello(fixture.build()).getGreeting();
+        assertTrue(greeting, greeting.endsWith(" stored."));
+    }
+
+    private List<String> exportAll(ExportRulesInputBuilder input) throws Exception {
+        List<String> ruleIDs = new ArrayList<>();
+        ExportRulesOutput page = export(input);
+        ruleIDs.addAll(ruleIDs(page));
+        while (page.getNextCursor() != null) {
+            page = export(input.setCursor(page.getNextCursor()));
+            ruleIDs.addAll(ruleIDs(page));
+        }
+        return ruleIDs;
+    }
+
+    private int pages(ExportRulesInputBuilder input) throws Exception {
+        int pages = 1;
+        ExportRulesOutput page = export(input);
+        while (page.getNextCursor() != null) {
+            page = export(input.setCursor(page.getNextCursor()));
+            assertFalse(page.getExportedRule().isEmpty());
+            pages++;
+        }
+        return pages;
+    }
+
+    private ExportRulesOutput export(ExportRulesInputBuilder input) throws Exception {
+        RpcResult<ExportRulesOutput> result = antivirus.exportRules(input.build()).get();
+        assertTrue(result.isSuccessful());
+        return result.getResult();
+    }
+
+    private static List<String> ruleIDs(ExportRulesOutput page) {
+        List<String> ruleIDs = new ArrayList<>();
+        for (ExportedRule exported : page.getExportedRule()) {
+            ruleIDs.add(exported.getRuleID());
+        }
+        return ruleIDs;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class FairRequestQueueTest {
+
+    @Test
+    public void testLoneRequestOvertakesAFlood() throws InterruptedException {
+        FairRequestQueue<String> queue = new FairRequestQueue<>(1000);
+        queue.setPrecedence(new int[3]);
+        for (int i = 0; i < 500; i++) {
+            assertTrue(queue.offer("0", "0:" + i));
+        }
+        queue.take();
+        assertTrue(queue.offer("1", "1:0"));
+        assertTrue(queue.offer("2", "2:0"));
+
+        // Served after one more request of the flood, not after all of it.
+        List<String> next = new ArrayList<>();
+        queue.drainTo(next, 4);
+        assertEquals("[0:1, 1:0, 2:0, 0:2]", next.toString());
+        // The flood keeps its own order.
+        assertEquals("0:3", queue.take());
+    }
+
+    @Test
+    public void testBackloggedApplicationsShareByPrecedence() {
+        FairRequestQueue<Integer> queue = new FairRequestQueue<>(1000);
+        // Mode 1 style tiers: weights 1, 2 and 3.
+        queue.setPrecedence(new int[] {0, 1, 2});
+        for (int i = 0; i < 300; i++) {
+            for (int app = 0; app < 3; app++) {
+                queue.offer(Integer.toString(app), app);
+            }
+        }
+        List<Integer> served = new ArrayList<>();
+        queue.drainTo(served, 300);
+        int[] share = new int[3];
+        for (int app : served) {
+            share[app]++;
+        }
+        assertEquals(50, share[0]);
+        assertEquals(100, share[1]);
+        assertEquals(150, share[2]);
+    }
+
+    @Test
+    public void testModeTwoWeightsStayWithinThreeToOne() {
+        FairRequestQueue<Integer> queue = new FairRequestQueue<>(1000);
+        int[] precedence = new int[400];
+        for (int app = 0; app < precedence.length; app++) {
+            precedence[app] = app;
+        }
+        queue.setPrecedence(precedence);
+        for (int i = 0; i < 400; i++) {
+            queue.offer("0", 0);
+            queue.offer("399", 399);
+        }
+        List<Integer> served = new ArrayList<>();
+        queue.drainTo(served, 400);
+        int lowest = 0;
+        for (int app : served) {
+            if (app == 0) {
+                lowest++;
+            }
+        }
+        // Weights 1 and 3, not 1 and 400.
+        assertTrue(Integer.toString(lowest), Math.abs(lowest - 100) <= 1);
+    }
+
+    @Test
+    public void testDepthIsBoundedPerApplication() throws InterruptedException {
+        FairRequestQueue<String> queue = new FairRequestQueue<>(2);
+        queue.setPrecedence(new int[3]);
+        assertTrue(queue.offer("0", "a"));
+        assertTrue(queue.offer("0", "b"));
+        assertFalse(queue.offer("0", "c"));
+        assertTrue(queue.offer("1", "d"));
+        // Malformed and unknown AppIDs share one queue.
+        assertTrue(queue.offer("x", "e"));
+        assertTrue(queue.offer("400", "f"));
+        assertFalse(queue.offer("-1", "g"));
+        assertEquals(2, queue.rejected());
+        assertEquals(5, queue.size());
+
+        queue.drainTo(new ArrayList<String>(), 5);
+        assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer("0", "h"));
+    }
+
+    @Test
+    public void testDispatcherRefusesBeyondTheDepth() throws Exception {
+        FairQueueDispatcher dispatcher = new FairQueueDispatcher(1, 2);
+        dispatcher.setPrecedence(new int[3]);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            Callable<String> blocked = new Callable<String>() {
+                @Override
+                public String call() throws InterruptedException {
+                    release.await();
+                    return "done";
+                }
+            };
+            List<Future<String>> calls = new ArrayList<>();
+            calls.add(dispatcher.submit("0", blocked));
+            // Wait for the only worker to pick it up, so the next ones stay queued.
+            while (dispatcher.rejected() == 0 && calls.size() < 4) {
+                calls.add(dispatcher.submit("0", blocked));
+            }
+            Future<String> refused = calls.get(calls.size() - 1);
+            try {
+                refused.get(10, TimeUnit.SECONDS);
+                fail("expected the request to be refused");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            Future<String> other = dispatcher.submit("1", blocked);
+            release.countDown();
+            assertEquals("done", other.get(10, TimeUnit.SECONDS));
+            assertEquals("done", calls.get(0).get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            dispatcher.close();
+        }
+    }
+
+    /* One consumer per shard, so the requests of a shard run one at a time and in tag order. */
+    @Test
+    public void testDispatcherRunsAShardInTagOrder() throws Exception {
+        FairQueueDispatcher dispatcher = new FairQueueDispatcher(1, 10);
+        dispatcher.setPrecedence(new int[] {0, 1, 2});
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = new ArrayList<>();
+        final AtomicInteger running = new AtomicInteger();
+        try {
+            dispatcher.submit("0", new Callable<String>() {
+                @Override
+                public String call() throws InterruptedException {
+                    started.countDown();
+                    release.await();
+                    return null;
+                }
+            });
+            started.await(10, TimeUnit.SECONDS);
+            List<Future<String>> calls = new ArrayList<>();
+            for (final String request : new String[] {"0:a", "0:b", "0:c", "2:a", "2:b", "2:c"}) {
+                calls.add(dispatcher.submit(request.substring(0, 1), new Callable<String>() {
+                    @Override
+                    public String call() {
+                        assertEquals(1, running.incrementAndGet());
+                        synchronized (order) {
+                            order.add(request);
+                        }
+                        running.decrementAndGet();
+                        return request;
+                    }
+                }));
+            }
+            release.countDown();
+            for (Future<String> call : calls) {
+                call.get(10, TimeUnit.SECONDS);
+            }
+            // App 2 has three times the weight of App 0.
+            assertEquals("[2:a, 2:b, 2:c, 0:a, 0:b, 0:c]", order.toString());
+        } finally {
+            release.countDown();
+            dispatcher.close();
+        }
+    }
+}
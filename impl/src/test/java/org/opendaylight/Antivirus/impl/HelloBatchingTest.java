@@ -0,0 +1,152 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opendaylight.Antivirus.impl.RuleFixture.rule;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.Futures;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.controller.md.sal.common.api.data.TransactionCommitFailedException;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRulesRegistry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntryKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+
+public class HelloBatchingTest extends AbstractConcurrentDataBrokerTest {
+
+    private AntivirusImpl antivirus;
+
+    @After
+    public void tearDown() {
+        antivirus.close();
+    }
+
+    @Test
+    public void testBatchSeesItsOwnEarlierRequests() {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 9, ApplicationOwnership.singleNode(), null);
+
+        List<RpcResult<ApplicationHelloOutput>> results = antivirus.HandleApplicationHelloBatch(Arrays.asList(
+                rule(0, "0:1.").build(),
+                // Same Rule ID again: written by this batch, not yet committed, still refused.
+                rule(0, "0:1.").sourceIP("10.0.0.2/32.").build(),
+                rule(0, "0:2.").password("wrong").sourceIP("10.0.0.3/32.").build(),
+                rule(0, "0:1.").delete().build(),
+                // Deleted earlier in the batch, so it can be stored again.
+                rule(0, "0:1.").sourceIP("10.0.0.2/32.").build()));
+
+        assertEquals(5, results.size());
+        assertEquals("Rule ID: 0:1. for App ID: 0 stored.", greeting(results.get(0)));
+        assertEquals("1", results.get(0).getResult().getCounter());
+        assertEquals("Rule with Rule ID : 0:1.already exists.", greeting(results.get(1)));
+        assertEquals("Password is not correct. Try Again!", greeting(results.get(2)));
+        assertEquals("0", results.get(3).getResult().getCounter());
+        assertEquals("Rule ID: 0:1. for App ID: 0 stored.", greeting(results.get(4)));
+        assertEquals(1, antivirus.Stored_Rules());
+        assertEquals("10.0.0.2/32.", antivirus.SourceIPInventory.get(antivirus.Rule_Slot_Index.get("0:1.")).toString());
+        assertTrue(antivirus.Batch_Writes == null);
+    }
+
+    @Test
+    public void testConcurrentCallsAreBatched() throws Exception {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 300, ApplicationOwnership.singleNode(), null);
+        antivirus.Enable_Hello_Batching(32, 5000);
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        List<Future<RpcResult<ApplicationHelloOutput>>> calls = new ArrayList<>();
+        try {
+            List<Future<Future<RpcResult<ApplicationHelloOutput>>>> submitted = new ArrayList<>();
+            for (int i = 1; i <= 60; i++) {
+                final ApplicationHelloInput input = rule(i % 3, i).sourceIP("10.0.0." + i + "/32.").build();
+                submitted.add(clients.submit(() -> antivirus.applicationHello(input)));
+            }
+            for (Future<Future<RpcResult<ApplicationHelloOutput>>> call : submitted) {
+                calls.add(call.get());
+            }
+            for (Future<RpcResult<ApplicationHelloOutput>> call : calls) {
+                assertTrue(greeting(call.get(10, TimeUnit.SECONDS)).endsWith(" stored."));
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+        assertEquals(60, antivirus.Stored_Rules());
+        assertEquals(60, antivirus.Hello_Batcher.requests());
+        assertTrue(antivirus.Hello_Batcher.batches() < 60);
+    }
+
+    @Test
+    public void testFailedBatchIsWrittenOneRuleAtATime() throws Exception {
+        antivirus = new AntivirusImpl(rejecting(getDataBroker(), "0:2."), 3, 9, ApplicationOwnership.singleNode(), null);
+
+        List<RpcResult<ApplicationHelloOutput>> results = antivirus.HandleApplicationHelloBatch(Arrays.asList(
+                rule(0, "0:1.").build(),
+                rule(0, "0:2.").sourceIP("10.0.0.2/32.").build(),
+                rule(0, "0:3.").sourceIP("10.0.0.3/32.").build()));
+
+        assertEquals("Rule ID: 0:3. for App ID: 0 stored.", greeting(results.get(2)));
+        // The batch transaction failed on 0:2.; the other two rules were written on their own.
+        assertTrue(stored("0:1."));
+        assertFalse(stored("0:2."));
+        assertTrue(stored("0:3."));
+    }
+
+    /* A data broker whose write transactions fail to commit once they write the given Rule ID. */
+    private static DataBroker rejecting(final DataBroker broker, final String ruleID) {
+        return (DataBroker) Proxy.newProxyInstance(DataBroker.class.getClassLoader(), new Class<?>[] {DataBroker.class},
+            (proxy, method, args) -> {
+                Object result = method.invoke(broker, args);
+                if (!method.getName().equals("newWriteOnlyTransaction")) {
+                    return result;
+                }
+                final WriteTransaction transaction = (WriteTransaction) result;
+                final boolean[] rejected = {false};
+                return Proxy.newProxyInstance(WriteTransaction.class.getClassLoader(),
+                    new Class<?>[] {WriteTransaction.class}, (txProxy, txMethod, txArgs) -> {
+                        if (txMethod.getName().equals("put") && txArgs[2] instanceof ConfigurationRulesRegistryEntry
+                                && ruleID.equals(((ConfigurationRulesRegistryEntry) txArgs[2]).getRuleID())) {
+                            rejected[0] = true;
+                        }
+                        if (txMethod.getName().equals("submit") && rejected[0]) {
+                            transaction.cancel();
+                            return Futures.immediateFailedCheckedFuture(
+                                    new TransactionCommitFailedException("Rule ID: " + ruleID + " rejected"));
+                        }
+                        return txMethod.invoke(transaction, txArgs);
+                    });
+            });
+    }
+
+    private boolean stored(String ruleID) throws Exception {
+        return getDataBroker().newReadOnlyTransaction().read(LogicalDatastoreType.CONFIGURATION,
+                InstanceIdentifier.create(ConfigurationRulesRegistry.class).child(ConfigurationRulesRegistryEntry.class,
+                        new ConfigurationRulesRegistryEntryKey(ruleID))).checkedGet().isPresent();
+    }
+
+    private static String greeting(RpcResult<ApplicationHelloOutput> result) {
+        return result.getResult().getGreeting();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IPPrefixTest {
+
+    @Test
+    public void testIPv4SpellingsAreOnePrefix() {
+        IPPrefix canonical = IPPrefix.parse("10.0.0.1/32.");
+        assertEquals(canonical, IPPrefix.parse("010.0.0.1/32"));
+        assertEquals(canonical, IPPrefix.parse("10.000.0.01/32."));
+        assertEquals(canonical.hashCode(), IPPrefix.parse("010.0.0.1/32").hashCode());
+        assertEquals("10.0.0.1/32.", IPPrefix.parse("010.0.0.1/32").toString());
+        assertEquals("10.0.0.0/24.", IPPrefix.parse("10.0.0.77/24.").toString());
+        assertTrue(canonical.isIPv4());
+        assertEquals(32, canonical.getPrefixLength());
+    }
+
+    @Test
+    public void testIPv6IsParsedAndPrintedCanonically() {
+        IPPrefix prefix = IPPrefix.parse("2001:0DB8:0000:0000:0000:0000:0000:0001/128.");
+        assertEquals(prefix, IPPrefix.parse("2001:db8::1/128"));
+        assertEquals("2001:db8::1/128.", prefix.toString());
+        assertEquals("2001:db8::/32.", IPPrefix.parse("2001:db8:1:2::/32").toString());
+        assertEquals("::/0.", IPPrefix.parse("::/0").toString());
+        assertEquals("2001:db8:0:1:1:1:1:1/128.", IPPrefix.parse("2001:db8:0:1:1:1:1:1/128").toString());
+        assertEquals("1:0:0:2::3/128.", IPPrefix.parse("1:0:0:2:0:0:0:3/128").toString());
+        assertEquals("64:ff9b::a00:1/128.", IPPrefix.parse("64:ff9b::10.0.0.1/128").toString());
+        assertFalse(prefix.isIPv4());
+    }
+
+    @Test
+    public void testMalformedPrefixesAreRejected() {
+        String[] malformed = { null, "", "10.0.0.1", "10.0.0.1/", "10.0.0.1/33.", "256.0.0.1/32.", "10.0.0/8.",
+            "10.0.0.1.5/32.", "10.0.0.a/32.", "1:2:3:4:5:6:7:8:9/64", "1::2::3/64", "12345::/16", "2001:db8::/129",
+            ":1::/64", "1:2:3:4:5:6:7:/64", "10.0.0.1/32..", "10.0.0.1/-1." };
+        for (String text : malformed) {
+            assertNull(text, IPPrefix.parse(text));
+        }
+    }
+
+    @Test
+    public void testCovers() {
+        IPPrefix network = IPPrefix.parse("10.0.0.0/8.");
+        assertTrue(network.covers(IPPrefix.parse("10.1.2.3/32.")));
+        assertFalse(network.covers(IPPrefix.parse("11.0.0.0/32.")));
+        assertFalse(IPPrefix.parse("10.1.2.3/32.").covers(network));
+        assertTrue(IPPrefix.parse("0.0.0.0/0.").covers(IPPrefix.parse("192.168.0.1/32.")));
+        assertFalse(IPPrefix.parse("0.0.0.0/0.").covers(IPPrefix.parse("2001:db8::1/128")));
+        assertTrue(IPPrefix.parse("2001:db8::/32").covers(IPPrefix.parse("2001:db8:ffff::1/128")));
+        assertTrue(IPPrefix.parse("2001:db8::1:0/112").covers(IPPrefix.parse("2001:db8::1:ff/128")));
+        assertFalse(IPPrefix.parse("2001:db8::1:0/112").covers(IPPrefix.parse("2001:db8::2:0/128")));
+    }
+}
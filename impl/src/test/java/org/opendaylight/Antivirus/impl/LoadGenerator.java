@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.AntivirusService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloOutput;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+
+/**
+ * Drives Application-hello through the RPC interface from several client
+ * threads with a weighted mix of adds, deletes, duplicates, conflicts and
+ * bad passwords, spread over many applications. Every thread runs a closed
+ * loop, so the recorded latency is the full RPC round trip.
+ */
+public class LoadGenerator {
+
+    private static final int ADD = 0;
+    private static final int DELETE = 1;
+    private static final int DUPLICATE = 2;
+    private static final int CONFLICT = 3;
+    private static final int BAD_PASSWORD = 4;
+
+    private final AntivirusService service;
+    private final int applications;
+    private final int rulesPerApplication;
+    private final long seed;
+    private int[] weights = {50, 20, 10, 10, 10};
+
+    public LoadGenerator(AntivirusService service, int applications, int rulesPerApplication, long seed) {
+        this.service = service;
+        this.applications = applications;
+        this.rulesPerApplication = rulesPerApplication;
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the relative weight of each kind of request.
+     */
+    public LoadGenerator withMix(int add, int delete, int duplicate, int conflict, int badPassword) {
+        this.weights = new int[] {add, delete, duplicate, conflict, badPassword};
+        return this;
+    }
+
+    public LoadReport run(int threads, final int operationsPerThread) throws InterruptedException {
+        final long[][] latencies = new long[threads][operationsPerThread];
+        final AtomicLong failures = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final long[] recorded = latencies[t];
+            final Random random = new Random(seed + t);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < operationsPerThread; i++) {
+                            ApplicationHelloInput input = nextRequest(random);
+                            long begin = System.nanoTime();
+                            try {
+                                RpcResult<ApplicationHelloOutput> result = service.applicationHello(input).get();
+                                if (!result.isSuccessful() || result.getResult().getGreeting() == null) {
+                                    failures.incrementAndGet();
+                                }
+                            } catch (Exception e) {
+                                failures.incrementAndGet();
+                            }
+                            recorded[i] = System.nanoTime() - begin;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "antivirus-load-" + t).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+
+        long[] all = new long[threads * operationsPerThread];
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(latencies[t], 0, all, t * operationsPerThread, operationsPerThread);
+        }
+        return new LoadReport(all, elapsed, failures.get());
+    }
+
+    private ApplicationHelloInput nextRequest(Random random) {
+        int app = random.nextInt(applications);
+        int rule = 1 + random.nextInt(rulesPerApplication);
+        int otherApp = random.nextInt(applications);
+        int otherRule = 1 + random.nextInt(rulesPerApplication);
+
+        switch (pickKind(random)) {
+            case DELETE:
+                return request(app, Integer.toString(app), 1, rule, app, rule, "ALLOW");
+            case DUPLICATE:
+                // Same match tuple and action as a rule of another application.
+                return request(app, Integer.toString(app), 0, rule, otherApp, otherRule, "ALLOW");
+            case CONFLICT:
+                // Same match tuple as a rule of another application, opposite action.
+                return request(app, Integer.toString(app), 0, rule, otherApp, otherRule, "DENY");
+            case BAD_PASSWORD:
+                return request(app, "not-the-password", 0, rule, app, rule, "ALLOW");
+            case ADD:
+            default:
+                return request(app, Integer.toString(app), 0, rule, app, rule, "ALLOW");
+        }
+    }
+
+    private int pickKind(Random random) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int pick = random.nextInt(total);
+        for (int kind = 0; kind < weights.length; kind++) {
+            pick -= weights[kind];
+            if (pick < 0) {
+                return kind;
+            }
+        }
+        return ADD;
+    }
+
+    /**
+     * Builds a request whose match tuple is derived from (tupleApp, tupleRule),
+     * so different applications can be made to collide on purpose.
+     */
+    private static ApplicationHelloInput request(int app, String password, int operation, int rule, int tupleApp,
+            int tupleRule, String action) {
+        return RuleFixture.rule(app, rule)
+                .password(password)
+                .operation(operation)
+                .sourceIP("10." + (tupleApp / 250) + "." + (tupleApp % 250) + "." + tupleRule + "/32.")
+                .action(action)
+                .build();
+    }
+
+    public static class LoadReport {
+        private final long[] sortedLatencies;
+        private final long elapsedNanos;
+        private final long failures;
+
+        LoadReport(long[] latencies, long elapsedNanos, long failures) {
+            this.sortedLatencies = latencies;
+            Arrays.sort(this.sortedLatencies);
+            this.elapsedNanos = elapsedNanos;
+            this.failures = failures;
+        }
+
+        public long operations() {
+            return sortedLatencies.length;
+        }
+
+        public long failures() {
+            return failures;
+        }
+
+        public double opsPerSecond() {
+            return sortedLatencies.length * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Latency in microseconds at the given percentile, e.g. 99.9.
+         */
+        public double percentileMicros(double percentile) {
+            int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length) - 1;
+            index = Math.max(0, Math.min(index, sortedLatencies.length - 1));
+            return sortedLatencies[index] / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d ops, %d failures, %.0f ops/sec, p50 %.1f us, p99 %.1f us, p999 %.1f us",
+                    operations(), failures, opsPerSecond(), percentileMicros(50), percentileMicros(99),
+                    percentileMicros(99.9));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opendaylight.Antivirus.impl.RuleFixture.rule;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRulesRegistry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.PurgeApplicationInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.PurgeApplicationOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntryKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+/**
+ * purge-application deletes one application's rules, found through
+ * App_Rule_Index, while the slots of the other rules move to keep each shard dense.
+ */
+public class PurgeApplicationTest extends AbstractConcurrentDataBrokerTest {
+
+    private static final int APPLICATIONS = 3;
+
+    private AntivirusImpl antivirus;
+
+    @Before
+    public void setUp() {
+        antivirus = new AntivirusImpl(getDataBroker(), APPLICATIONS, 30, ApplicationOwnership.singleNode(), null);
+    }
+
+    @After
+    public void tearDown() {
+        antivirus.close();
+    }
+
+    @Test
+    public void testPurgeDeletesOnlyThatApplicationsRules() throws Exception {
+        // Interleaved, so that every slot freed by the purge is filled by a rule of another application.
+        for (int number = 1; number <= 4; number++) {
+            for (int app = 0; app < APPLICATIONS; app++) {
+                store(app, number);
+            }
+        }
+
+        PurgeApplicationOutput output = antivirus.HandlePurgeApplication(new PurgeApplicationInputBuilder()
+                .setAppID("1").setPassword("1").build());
+        assertEquals(Long.valueOf(4), output.getPurged());
+        assertEquals("4 rules for App ID: 1 deleted.", output.getGreeting());
+        assertEquals(8, antivirus.Stored_Rules());
+        assertEquals(0, antivirus.App_Inventory.usage(1));
+        for (int number = 1; number <= 4; number++) {
+            assertFalse(stored("1:" + number + "."));
+            assertTrue(stored("0:" + number + "."));
+            assertTrue(stored("2:" + number + "."));
+        }
+        assertIndexesAgree();
+
+        // The application can store again, and a second purge finds nothing left.
+        store(1, 1);
+        assertIndexesAgree();
+        assertEquals(Long.valueOf(1), antivirus.HandlePurgeApplication(new PurgeApplicationInputBuilder()
+                .setAppID("1").setPassword("1").build()).getPurged());
+        assertEquals(Long.valueOf(0), antivirus.HandlePurgeApplication(new PurgeApplicationInputBuilder()
+                .setAppID("1").setPassword("1").build()).getPurged());
+    }
+
+    @Test
+    public void testWrongPasswordPurgesNothing() throws Exception {
+        store(0, 1);
+
+        PurgeApplicationOutput output = antivirus.HandlePurgeApplication(new PurgeApplicationInputBuilder()
+                .setAppID("0").setPassword("wrong").build());
+        assertEquals(Long.valueOf(0), output.getPurged());
+        assertEquals("Password is not correct. Try Again!", output.getGreeting());
+        assertTrue(stored("0:1."));
+        assertEquals(1, antivirus.Stored_Rules());
+    }
+
+    @Test
+    public void testApplicationIndexFollowsSlotMoves() {
+        Random random = new Random(7);
+        Set<String> stored = new HashSet<>();
+        for (int step = 0; step < 400; step++) {
+            int app = random.nextInt(APPLICATIONS);
+            int number = 1 + random.nextInt(10);
+            String ruleID = app + ":" + number + ".";
+            if (random.nextInt(8) == 0) {
+                antivirus.HandlePurgeApplication(new PurgeApplicationInputBuilder()
+                        .setAppID(Integer.toString(app)).setPassword(Integer.toString(app)).build());
+                stored.removeIf(id -> id.startsWith(app + ":"));
+            } else if (stored.contains(ruleID)) {
+                antivirus.HandleApplicationHello(fixture(app, number).delete().build());
+                stored.remove(ruleID);
+            } else {
+                assertTrue(antivirus.HandleApplicationHello(fixture(app, number).build()).getGreeting()
+                        .endsWith(" stored."));
+                stored.add(ruleID);
+            }
+            assertEquals(stored, antivirus.Rule_Slot_Index.keySet());
+            assertIndexesAgree();
+        }
+    }
+
+    /* Every slot in use is indexed by its Rule ID and its match tuple, and App_Rule_Index holds exactly those Rule IDs. */
+    private void assertIndexesAgree() {
+        Set<String> indexed = new HashSet<>();
+        for (Set<String> ruleIDs : antivirus.App_Rule_Index.values()) {
+            indexed.addAll(ruleIDs);
+        }
+        assertEquals(antivirus.Rule_Slot_Index.keySet(), indexed);
+        assertEquals(antivirus.Stored_Rules(), antivirus.Rule_Slot_Index.size());
+        for (int slot = antivirus.Next_Stored_Slot(0); slot != -1; slot = antivirus.Next_Stored_Slot(slot + 1)) {
+            String ruleID = antivirus.RuleIDInventory.get(slot);
+            assertEquals(ruleID, Integer.valueOf(slot), antivirus.Rule_Slot_Index.get(ruleID));
+            assertEquals(ruleID, antivirus.Rule_Tuple_Index.get(antivirus.SourceIPInventory.get(slot),
+                    antivirus.DestinationIPInventory.get(slot), antivirus.SourcePortInventory.get(slot),
+                    antivirus.DestinationPortInventory.get(slot), antivirus.PriorityInventory.get(slot)));
+            assertTrue(ruleID, antivirus.App_Rule_Index.get(antivirus.FindAppIDFromRuleID(ruleID)).contains(ruleID));
+        }
+    }
+
+    private void store(int app, int number) {
+        String greeting = antivirus.HandleApplicationHello(fixture(app, number).build()).getGreeting();
+        assertTrue(greeting, greeting.endsWith(" stored."));
+    }
+
+    /* A match tuple of its own for every Rule ID, so that no two rules are duplicates. */
+    private static RuleFixture fixture(int app, int number) {
+        return rule(app, number).sourceIP("10.0." + app + "." + number + "/32.");
+    }
+
+    private boolean stored(String ruleID) throws Exception {
+        return getDataBroker().newReadOnlyTransaction().read(LogicalDatastoreType.CONFIGURATION,
+                InstanceIdentifier.create(ConfigurationRulesRegistry.class).child(ConfigurationRulesRegistryEntry.class,
+                        new ConfigurationRulesRegistryEntryKey(ruleID))).checkedGet().isPresent();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class QuotaLedgerTest {
+
+    @Test
+    public void testAcquireReleaseAndTransfer() {
+        QuotaLedger ledger = new QuotaLedger(3, 10);
+        ledger.acquire(0);
+        ledger.acquire(0);
+        ledger.acquire(1);
+        ledger.transfer(0, 2);
+        ledger.release(1);
+
+        QuotaLedger.Snapshot snapshot = ledger.snapshot();
+        assertEquals(1, snapshot.usage(0));
+        assertEquals(0, snapshot.usage(1));
+        assertEquals(1, snapshot.usage(2));
+        assertEquals(8, snapshot.remaining());
+        assertEquals(5, snapshot.version());
+    }
+
+    @Test
+    public void testSnapshotsAreConsistentUnderConcurrentUpdates() throws InterruptedException {
+        final int capacity = 1000;
+        final QuotaLedger ledger = new QuotaLedger(4, capacity);
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int app = 0;
+                while (running.get()) {
+                    ledger.acquire(app);
+                    ledger.transfer(app, (app + 1) % 4);
+                    ledger.release((app + 1) % 4);
+                    app = (app + 1) % 4;
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 20000; i++) {
+                QuotaLedger.Snapshot snapshot = ledger.snapshot();
+                assertEquals(capacity, snapshot.used() + snapshot.remaining());
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.opendaylight.Antivirus.impl.RuleFixture.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.RulesChanged;
+import org.opendaylight.yangtools.yang.binding.Notification;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class RuleChangeNotifierTest extends AbstractConcurrentDataBrokerTest {
+
+    private final List<RulesChanged> published = new ArrayList<>();
+    private final NotificationPublishService notifications = new NotificationPublishService() {
+        @Override
+        public void putNotification(Notification notification) {
+            published.add((RulesChanged) notification);
+        }
+
+        @Override
+        public ListenableFuture<?> offerNotification(Notification notification) {
+            putNotification(notification);
+            return Futures.immediateFuture(null);
+        }
+    };
+
+    private AntivirusImpl antivirus;
+
+    @After
+    public void tearDown() {
+        if (antivirus != null) {
+            antivirus.close();
+        }
+    }
+
+    @Test
+    public void testDecisionsAgainstRulesAreNotified() throws InterruptedException {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 9, ApplicationOwnership.singleNode(), null);
+        RuleChangeNotifier notifier = new RuleChangeNotifier(notifications, 100);
+
+        antivirus.HandleApplicationHello(rule(0, "0:1.").action("ALLOW").build());
+        // Same rule from a stronger application: 0:1. is replaced.
+        antivirus.HandleApplicationHello(rule(1, "1:1.").action("ALLOW").build());
+        // Conflicting rule from a weaker application: 0:2. loses.
+        antivirus.HandleApplicationHello(rule(0, "0:2.").build());
+        // Conflicting rule from a stronger one: 1:1. is replaced.
+        antivirus.HandleApplicationHello(rule(2, "2:1.").build());
+        drain(notifier);
+        assertEquals(2, notifier.flush());
+
+        assertEquals("0", published.get(0).getAppID());
+        assertEquals(Arrays.asList("0:1."), published.get(0).getReplaced());
+        assertEquals(Arrays.asList("0:2."), published.get(0).getConflictLost());
+        assertNull(published.get(0).getEvicted());
+        assertEquals("1", published.get(1).getAppID());
+        assertEquals(Arrays.asList("1:1."), published.get(1).getReplaced());
+        // Nothing new: nothing published.
+        assertEquals(0, notifier.flush());
+    }
+
+    @Test
+    public void testBurstIsCoalescedAndCapped() throws InterruptedException {
+        AuditRing ring = new AuditRing(8192);
+        RuleChangeNotifier notifier = new RuleChangeNotifier(notifications, 1000);
+        for (int i = 1; i <= 3000; i++) {
+            ring.publish(AuditRing.EVICTED, "0:" + i + ".", "2:" + i + ".");
+            if (i % 100 == 0) {
+                ring.publish(AuditRing.EVICTED, "1:" + i + ".", "2:" + i + ".");
+            }
+            ring.publish(AuditRing.STORED, "2:" + i + ".", null);
+        }
+        long[] times = new long[8192];
+        int[] fields = new int[8192 * AuditRing.FIELDS];
+        int count;
+        while ((count = ring.poll(times, fields, 8192)) > 0) {
+            notifier.record(fields, count);
+        }
+
+        assertEquals(2, notifier.flush());
+        assertEquals(1000, published.get(0).getEvicted().size());
+        assertEquals("0:1.", published.get(0).getEvicted().get(0));
+        assertEquals(Long.valueOf(2000), published.get(0).getOmitted());
+        assertEquals(30, published.get(1).getEvicted().size());
+        assertNull(published.get(1).getOmitted());
+        assertEquals(2, notifier.published());
+    }
+
+    @Test
+    public void testCompactedRulesAreNotifiedToTheirApplication() throws InterruptedException {
+        AuditRing ring = new AuditRing(16);
+        RuleChangeNotifier notifier = new RuleChangeNotifier(notifications, 100);
+        ring.publish(AuditRing.COMPACTED, "0:2.", "0:1.");
+        long[] times = new long[16];
+        int[] fields = new int[16 * AuditRing.FIELDS];
+        notifier.record(fields, ring.poll(times, fields, 16));
+
+        assertEquals(1, notifier.flush());
+        assertEquals("0", published.get(0).getAppID());
+        assertEquals(Arrays.asList("0:2."), published.get(0).getCompacted());
+        assertNull(published.get(0).getReplaced());
+    }
+
+    /* Does what the AuditJournal thread does with each batch. */
+    private void drain(RuleChangeNotifier notifier) {
+        long[] times = new long[1024];
+        int[] fields = new int[1024 * AuditRing.FIELDS];
+        int count;
+        while ((count = antivirus.Audit_Ring.poll(times, fields, 1024)) > 0) {
+            notifier.record(fields, count);
+        }
+    }
+}
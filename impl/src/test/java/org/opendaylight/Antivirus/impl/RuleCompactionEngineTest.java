@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInputBuilder;
+
+public class RuleCompactionEngineTest extends AbstractConcurrentDataBrokerTest {
+
+    private AntivirusImpl antivirus;
+
+    @Before
+    public void setUp() {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 9, ApplicationOwnership.singleNode(), null);
+        // A broad DENY, a narrower lower-priority ALLOW it shadows, a narrower
+        // DENY it makes redundant, and an unrelated ALLOW.
+        store("0", "0:1.", "10.0.0.0/8.", "192.168.0.0/16.", "ANY", "ANY", 5, "DENY");
+        store("1", "1:1.", "10.1.2.3/32.", "192.168.1.1/32.", "2000", "3000", 3, "ALLOW");
+        store("2", "2:1.", "10.1.2.0/24.", "192.168.1.0/24.", "ANY", "ANY", 5, "DENY");
+        store("1", "1:2.", "172.16.0.1/32.", "192.168.1.1/32.", "2000", "3000", 5, "ALLOW");
+        assertEquals(4, antivirus.Stored_Rules());
+    }
+
+    @After
+    public void tearDown() {
+        antivirus.close();
+    }
+
+    @Test
+    public void testReportModeKeepsRules() {
+        RuleCompactionEngine engine = new RuleCompactionEngine(antivirus, RuleCompactionEngine.Mode.REPORT, 1000);
+        engine.tick();
+
+        assertEquals(1, engine.getShadowedFound());
+        assertEquals(1, engine.getRedundantFound());
+        assertEquals(0, engine.getRemoved());
+        assertEquals(4, antivirus.Stored_Rules());
+    }
+
+    @Test
+    public void testRemoveModeReclaimsCapacity() {
+        // Shadowed by 0:1., a rule of its own application.
+        store("0", "0:2.", "10.3.0.0/16.", "192.168.2.0/24.", "2000", "3000", 4, "ALLOW");
+        int capacityBefore = antivirus.App_Inventory.remaining();
+        RuleCompactionEngine engine = new RuleCompactionEngine(antivirus, RuleCompactionEngine.Mode.REMOVE, 1000);
+        engine.tick();
+
+        assertEquals(1, engine.getRemoved());
+        assertEquals(4, antivirus.Stored_Rules());
+        assertEquals(capacityBefore + 1, antivirus.App_Inventory.remaining());
+        assertFalse(antivirus.Rule_Slot_Index.containsKey("0:2."));
+    }
+
+    @Test
+    public void testRulesCoveredByOtherApplicationsAreOnlyReported() {
+        RuleCompactionEngine engine = new RuleCompactionEngine(antivirus, RuleCompactionEngine.Mode.REMOVE, 1000);
+        engine.tick();
+
+        // 0:1. covers 1:1. and 2:1., but neither belongs to application 0.
+        assertEquals(1, engine.getShadowedFound());
+        assertEquals(1, engine.getRedundantFound());
+        assertEquals(2, engine.getOtherApplicationFound());
+        assertEquals(0, engine.getRemoved());
+        assertEquals(4, antivirus.Stored_Rules());
+        assertTrue(antivirus.Rule_Slot_Index.containsKey("1:1."));
+        assertTrue(antivirus.Rule_Slot_Index.containsKey("2:1."));
+    }
+
+    @Test
+    public void testTickIsBoundedByComparisonBudget() {
+        // Each analyzed rule costs one comparison per stored rule.
+        RuleCompactionEngine engine = new RuleCompactionEngine(antivirus, RuleCompactionEngine.Mode.REPORT, 4);
+        engine.tick();
+        assertEquals(0, engine.getShadowedFound() + engine.getRedundantFound());
+
+        engine.tick();
+        engine.tick();
+        engine.tick();
+        assertEquals(2, engine.getShadowedFound() + engine.getRedundantFound());
+        assertEquals(0, engine.getPasses());
+        engine.tick();
+        assertEquals(1, engine.getPasses());
+    }
+
+    private void store(String app, String ruleID, String sourceIP, String destinationIP, String sourcePort,
+            String destinationPort, int priority, String action) {
+        String greeting = antivirus.HandleApplicationHello(new ApplicationHelloInputBuilder().setAppID(app)
+                .setPassword(app).setOperation((short) 0).setRuleID(ruleID).setSourceIP(sourceIP)
+                .setDestinationIP(destinationIP).setSourcePort(sourcePort).setDestinationPort(destinationPort)
+                .setPriority(priority).setAction(action).build()).getGreeting();
+        assertTrue(greeting, greeting.endsWith("stored."));
+    }
+}
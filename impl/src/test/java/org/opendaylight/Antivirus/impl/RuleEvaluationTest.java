@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.EvaluateRuleOutput;
+
+/**
+ * Every prediction of evaluate-rule must leave the catalog untouched and match
+ * what Application-hello then actually does with the same input.
+ */
+public class RuleEvaluationTest extends AbstractConcurrentDataBrokerTest {
+
+    private static final String TUPLE_A = "10.0.0.1/32.";
+    private static final String TUPLE_B = "10.0.0.2/32.";
+
+    private AntivirusImpl antivirus;
+
+    @After
+    public void tearDown() {
+        antivirus.close();
+    }
+
+    @Test
+    public void testPredictionsMatchDecisions() {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 6, ApplicationOwnership.singleNode(), null);
+
+        check("stored", 0, "0:1.", TUPLE_A, 0, "ALLOW");
+        check("duplicate-replaced", 1, "1:1.", TUPLE_A, 0, "ALLOW");
+        check("duplicate-kept", 0, "0:2.", TUPLE_A, 0, "ALLOW");
+        check("conflict-replaced", 2, "2:1.", TUPLE_A, 0, "DENY");
+        check("conflict-kept", 1, "1:2.", TUPLE_A, 0, "ALLOW");
+        check("deleted", 2, "2:1.", TUPLE_A, 1, "DENY");
+        check("not-found", 2, "2:2.", TUPLE_B, 1, "DENY");
+        check("rejected", 0, "0:9.", TUPLE_B, 0, "ALLOW");
+    }
+
+    @Test
+    public void testPredictsModeTwoEviction() {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 3, ApplicationOwnership.singleNode(), null);
+        antivirus.Mode = 2;
+        antivirus.App_Precedence = antivirus.Set_App_Precedence(2);
+
+        check("stored", 0, "0:1.", "10.0.0.1/32.", 0, "ALLOW");
+        check("stored", 1, "1:1.", "10.0.0.2/32.", 0, "ALLOW");
+        check("stored", 0, "0:2.", "10.0.0.3/32.", 0, "ALLOW");
+
+        EvaluateRuleOutput predicted = check("stored", 2, "2:1.", "10.0.0.4/32.", 0, "ALLOW");
+        assertFalse(antivirus.Rule_Slot_Index.containsKey(predicted.getEvictedRuleID()));
+        assertEquals(0, antivirus.FindAppIDFromRuleID(predicted.getEvictedRuleID()));
+    }
+
+    @Test
+    public void testPredictionReservesNoCapacity() {
+        SharedCapacityPool pool = new SharedCapacityPool(6);
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 6, ApplicationOwnership.singleNode(), pool);
+
+        EvaluateRuleOutput predicted = antivirus.HandleEvaluateRule(new ApplicationHelloInputBuilder()
+                .setAppID("0").setPassword("0").setOperation((short) 0).setRuleID("0:1.")
+                .setSourceIP(TUPLE_A).setDestinationIP("192.168.0.1/32.").setSourcePort("2000")
+                .setDestinationPort("3000").setPriority(5).setAction("ALLOW").build());
+        assertEquals("stored", predicted.getDecision());
+        assertEquals(0, antivirus.Capacity_Lease.held());
+        assertEquals(6, pool.remaining());
+    }
+
+    @Test
+    public void testAddressSpellingsMatchTheSameRule() {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 6, ApplicationOwnership.singleNode(), null);
+
+        check("stored", 0, "0:1.", "010.0.0.1/32", 0, "ALLOW");
+        check("duplicate-replaced", 1, "1:1.", TUPLE_A, 0, "ALLOW");
+        check("stored", 0, "0:2.", "2001:DB8:0:0::1/128", 0, "ALLOW");
+        check("conflict-replaced", 2, "2:1.", "2001:db8::1/128.", 0, "DENY");
+        assertEquals("2001:db8::1/128.", antivirus.SourceIPInventory.get(antivirus.Rule_Slot_Index.get("2:1.")).toString());
+    }
+
+    private EvaluateRuleOutput check(String decision, int app, String ruleID, String sourceIP, int operation,
+            String action) {
+        ApplicationHelloInput input = new ApplicationHelloInputBuilder()
+                .setAppID(Integer.toString(app))
+                .setPassword(Integer.toString(app))
+                .setOperation((short) operation)
+                .setRuleID(ruleID)
+                .setSourceIP(sourceIP)
+                .setDestinationIP("192.168.0.1/32.")
+                .setSourcePort("2000")
+                .setDestinationPort("3000")
+                .setPriority(5)
+                .setAction(action)
+                .build();
+
+        int counter = antivirus.Stored_Rules();
+        long version = antivirus.App_Inventory.snapshot().version();
+        EvaluateRuleOutput predicted = antivirus.HandleEvaluateRule(input);
+        assertEquals(counter, antivirus.Stored_Rules());
+        assertEquals(version, antivirus.App_Inventory.snapshot().version());
+
+        assertEquals(ruleID, decision, predicted.getDecision());
+        if (antivirus.Mode != 2) {
+            assertNull(predicted.getEvictedRuleID());
+        }
+        assertEquals(predicted.getGreeting(), antivirus.HandleApplicationHello(input).getGreeting());
+        return predicted;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opendaylight.Antivirus.impl.RuleFixture.rule;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+
+public class RuleExpiryTest extends AbstractConcurrentDataBrokerTest {
+
+    private AntivirusImpl antivirus;
+
+    @After
+    public void tearDown() {
+        antivirus.close();
+    }
+
+    @Test
+    public void testExpiredRulesGiveBackTheirQuota() {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 9, ApplicationOwnership.singleNode(), null);
+        antivirus.Expiry_Batch_Size = 2;
+        long now = antivirus.Current_Expiry_Tick();
+
+        antivirus.HandleApplicationHello(rule(0, "0:1.").ttl(60L).build());
+        antivirus.HandleApplicationHello(rule(0, "0:2.").sourceIP("10.0.0.2/32.").ttl(60L).build());
+        antivirus.HandleApplicationHello(rule(1, "1:1.").sourceIP("10.0.0.3/32.").ttl(60L).build());
+        antivirus.HandleApplicationHello(rule(1, "1:2.").sourceIP("10.0.0.4/32.").build());
+        antivirus.HandleApplicationHello(rule(2, "2:1.").sourceIP("10.0.0.5/32.").ttl(3600L).build());
+        // Deleted before it expires; its timer must go with it.
+        antivirus.HandleApplicationHello(rule(1, "1:1.").sourceIP("10.0.0.3/32.").delete().build());
+        assertEquals(4, antivirus.Stored_Rules());
+        assertEquals(3, antivirus.Rule_Expiry.pending());
+
+        assertEquals(0, antivirus.Expire_Rules(now + 30));
+        assertEquals(2, antivirus.Expire_Rules(now + 61));
+        assertEquals(2, antivirus.Stored_Rules());
+        assertFalse(antivirus.Rule_Slot_Index.containsKey("0:1."));
+        assertFalse(antivirus.Rule_Slot_Index.containsKey("0:2."));
+        assertTrue(antivirus.Rule_Slot_Index.containsKey("1:2."));
+        assertEquals(0, antivirus.App_Inventory.usage(0));
+        assertEquals(7, antivirus.App_Inventory.remaining());
+
+        assertEquals(1, antivirus.Expire_Rules(now + 3601));
+        assertEquals(0, antivirus.Rule_Expiry.pending());
+        assertTrue(antivirus.Rule_Expiry_Timers.isEmpty());
+    }
+
+    @Test
+    public void testReplacingRuleTakesItsOwnTimeToLive() {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 9, ApplicationOwnership.singleNode(), null);
+        long now = antivirus.Current_Expiry_Tick();
+
+        antivirus.HandleApplicationHello(rule(0, "0:1.").ttl(60L).build());
+        // Same tuple and action from a higher priority application: the duplicate replaces 0:1. and has no TTL.
+        antivirus.HandleApplicationHello(rule(1, "1:1.").build());
+        assertEquals(0, antivirus.Rule_Expiry.pending());
+        assertEquals(0, antivirus.Expire_Rules(now + 61));
+        assertTrue(antivirus.Rule_Slot_Index.containsKey("1:1."));
+    }
+}
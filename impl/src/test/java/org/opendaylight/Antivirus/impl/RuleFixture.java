@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ApplicationHelloInputBuilder;
+
+/**
+ * Builds the Application-hello inputs of the tests. A rule starts out as an add of
+ * a DENY rule from 10.0.0.1/32. port 2000 to 192.168.0.1/32. port 3000, priority 5,
+ * with the password of its application; tests only override what they care about.
+ */
+final class RuleFixture {
+
+    private final ApplicationHelloInputBuilder builder;
+
+    private RuleFixture(int app, String ruleID) {
+        builder = new ApplicationHelloInputBuilder()
+                .setAppID(Integer.toString(app))
+                .setPassword(Integer.toString(app))
+                .setOperation((short) 0)
+                .setRuleID(ruleID)
+                .setSourceIP("10.0.0.1/32.")
+                .setDestinationIP("192.168.0.1/32.")
+                .setSourcePort("2000")
+                .setDestinationPort("3000")
+                .setPriority(5)
+                .setAction("DENY");
+    }
+
+    static RuleFixture rule(int app, String ruleID) {
+        return new RuleFixture(app, ruleID);
+    }
+
+    /** Rule Number {@code rule} of {@code app}. */
+    static RuleFixture rule(int app, int rule) {
+        return new RuleFixture(app, app + ":" + rule + ".");
+    }
+
+    RuleFixture password(String password) {
+        builder.setPassword(password);
+        return this;
+    }
+
+    RuleFixture operation(int operation) {
+        builder.setOperation((short) operation);
+        return this;
+    }
+
+    RuleFixture delete() {
+        return operation(1);
+    }
+
+    RuleFixture sourceIP(String sourceIP) {
+        builder.setSourceIP(sourceIP);
+        return this;
+    }
+
+    RuleFixture sourcePort(String sourcePort) {
+        builder.setSourcePort(sourcePort);
+        return this;
+    }
+
+    RuleFixture priority(int priority) {
+        builder.setPriority(priority);
+        return this;
+    }
+
+    RuleFixture action(String action) {
+        builder.setAction(action);
+        return this;
+    }
+
+    RuleFixture ttl(Long ttl) {
+        builder.setTTL(ttl);
+        return this;
+    }
+
+    ApplicationHelloInput build() {
+        return builder.build();
+    }
+}
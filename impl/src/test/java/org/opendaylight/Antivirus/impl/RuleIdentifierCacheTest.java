@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRulesRegistry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntryKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+public class RuleIdentifierCacheTest {
+
+    @Test
+    public void testIdentifierPointsAtTheRegistryEntry() {
+        RuleIdentifierCache cache = new RuleIdentifierCache(4);
+
+        assertEquals(InstanceIdentifier.create(ConfigurationRulesRegistry.class).child(
+                ConfigurationRulesRegistryEntry.class, new ConfigurationRulesRegistryEntryKey("0:1.")),
+                cache.getAndCache("0:1."));
+        assertSame(cache.getAndCache("0:1."), cache.getAndCache("0:1."));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testOnlyWritesAreCached() {
+        RuleIdentifierCache cache = new RuleIdentifierCache(2);
+        InstanceIdentifier<ConfigurationRulesRegistryEntry> stored = cache.getAndCache("0:1.");
+        cache.getAndCache("0:2.");
+
+        // Lookups of rule IDs nobody stored build the identifier but keep it out of the cache.
+        for (int i = 3; i < 10; i++) {
+            assertEquals(InstanceIdentifier.create(ConfigurationRulesRegistry.class).child(
+                    ConfigurationRulesRegistryEntry.class, new ConfigurationRulesRegistryEntryKey("0:" + i + ".")),
+                    cache.get("0:" + i + "."));
+        }
+        assertEquals(2, cache.size());
+        assertSame(stored, cache.get("0:1."));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        RuleIdentifierCache cache = new RuleIdentifierCache(2);
+        InstanceIdentifier<ConfigurationRulesRegistryEntry> first = cache.getAndCache("0:1.");
+        InstanceIdentifier<ConfigurationRulesRegistryEntry> second = cache.getAndCache("0:2.");
+
+        // Using 0:1. again makes 0:2. the eldest, so 0:3. pushes 0:2. out.
+        assertSame(first, cache.getAndCache("0:1."));
+        cache.getAndCache("0:3.");
+        assertEquals(2, cache.size());
+        assertSame(first, cache.getAndCache("0:1."));
+        InstanceIdentifier<ConfigurationRulesRegistryEntry> rebuilt = cache.getAndCache("0:2.");
+        assertNotSame(second, rebuilt);
+        assertEquals(second, rebuilt);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testInvalidateDropsOnlyThatRule() {
+        RuleIdentifierCache cache = new RuleIdentifierCache(4);
+        InstanceIdentifier<ConfigurationRulesRegistryEntry> kept = cache.getAndCache("0:1.");
+        InstanceIdentifier<ConfigurationRulesRegistryEntry> dropped = cache.getAndCache("0:2.");
+
+        cache.invalidate("0:2.");
+        cache.invalidate("0:9.");
+        assertEquals(1, cache.size());
+        assertSame(kept, cache.getAndCache("0:1."));
+        assertNotSame(dropped, cache.getAndCache("0:2."));
+    }
+}
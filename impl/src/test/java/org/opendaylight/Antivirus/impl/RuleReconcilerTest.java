@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opendaylight.Antivirus.impl.RuleFixture.rule;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.ConfigurationRulesRegistry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntryBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.antivirus.rev150105.configurationrules.registry.ConfigurationRulesRegistryEntryKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+import com.google.common.base.Optional;
+
+public class RuleReconcilerTest extends AbstractConcurrentDataBrokerTest {
+
+    private AntivirusImpl antivirus;
+    private RuleReconciler reconciler;
+
+    @Before
+    public void setUp() {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 30, ApplicationOwnership.singleNode(), null);
+        reconciler = new RuleReconciler(getDataBroker(), antivirus);
+        // Listen, but leave the passes to the test.
+        reconciler.start(TimeUnit.HOURS.toMillis(1));
+    }
+
+    @After
+    public void tearDown() {
+        reconciler.close();
+        antivirus.close();
+    }
+
+    @Test
+    public void testNormalTrafficNeedsNoRepair() {
+        antivirus.HandleApplicationHello(rule(0, "0:1.").sourcePort("ANY").build());
+        antivirus.HandleApplicationHello(rule(1, "1:1.").sourceIP("10.0.0.2/32.").build());
+        // A conflicting rule of a stronger application takes over the slot of 1:1.
+        antivirus.HandleApplicationHello(rule(2, "2:1.").sourceIP("10.0.0.2/32.").action("ALLOW").build());
+        antivirus.HandleApplicationHello(rule(0, "0:1.").sourcePort("ANY").delete().build());
+
+        assertEquals(0, reconciler.reconcile());
+        assertEquals(0, reconciler.reconcile());
+        assertEquals(0, reconciler.repairs());
+    }
+
+    @Test
+    public void testOnlyConfirmedDifferencesAreRepaired() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            antivirus.HandleApplicationHello(rule(i % 3, i).sourceIP("10.0.0." + i + "/32.").build());
+        }
+        // A write that never reached the datastore, and an entry the catalog does not know about.
+        WriteTransaction transaction = getDataBroker().newWriteOnlyTransaction();
+        transaction.delete(LogicalDatastoreType.CONFIGURATION, iid("1:1."));
+        transaction.put(LogicalDatastoreType.CONFIGURATION, iid("2:9."), new ConfigurationRulesRegistryEntryBuilder()
+                .setAppID("2").setRuleID("2:9.").setSourceIP("10.0.9.9/32.").setDestinationIP("192.168.0.1/32.")
+                .setSourcePort("2000").setDestinationPort("3000").setPriority(5).setAction("DENY").build());
+        transaction.submit().checkedGet();
+
+        // Seen once, they could still be in flight.
+        assertEquals(0, reconciler.reconcile());
+        assertEquals(2, reconciler.reconcile());
+        assertTrue(read("1:1.").isPresent());
+        assertEquals("10.0.0.1/32.", read("1:1.").get().getSourceIP());
+        assertFalse(read("2:9.").isPresent());
+        assertEquals(0, reconciler.reconcile());
+        assertEquals(0, reconciler.reconcile());
+        assertEquals(2, reconciler.repairs());
+    }
+
+    @Test
+    public void testReplacedDuplicateKeepsTheSpellingOfItsAction() {
+        antivirus.HandleApplicationHello(rule(0, "0:1.").action("DENY").build());
+        // Same rule from a stronger application, action spelled differently.
+        antivirus.HandleApplicationHello(rule(1, "1:1.").action("deny").build());
+        antivirus.HandleApplicationHello(rule(2, "2:1.").sourceIP("10.0.0.2/32.").sourcePort("aNy").build());
+
+        assertEquals("deny", antivirus.ActionInventory.get(antivirus.Rule_Slot_Index.get("1:1.")));
+        assertEquals(0, reconciler.reconcile());
+        assertEquals(0, reconciler.reconcile());
+        assertEquals(0, reconciler.repairs());
+    }
+
+    @Test
+    public void testDigestFollowsTheCatalog() {
+        long empty = antivirus.Rule_Digest.root();
+        antivirus.HandleApplicationHello(rule(0, "0:1.").build());
+        assertFalse(empty == antivirus.Rule_Digest.root());
+        antivirus.HandleApplicationHello(rule(0, "0:1.").delete().build());
+        assertEquals(empty, antivirus.Rule_Digest.root());
+    }
+
+    private Optional<ConfigurationRulesRegistryEntry> read(String ruleID) throws Exception {
+        return getDataBroker().newReadOnlyTransaction().read(LogicalDatastoreType.CONFIGURATION, iid(ruleID))
+                .checkedGet();
+    }
+
+    private static InstanceIdentifier<ConfigurationRulesRegistryEntry> iid(String ruleID) {
+        return InstanceIdentifier.create(ConfigurationRulesRegistry.class)
+                .child(ConfigurationRulesRegistryEntry.class, new ConfigurationRulesRegistryEntryKey(ruleID));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.opendaylight.Antivirus.impl.RuleFixture.rule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+
+/**
+ * Get_Threshold must give every application the limit the per-application
+ * Threshold_Inventory it replaced held, in every mode and after every
+ * catalog change.
+ */
+public class RuleThresholdTest extends AbstractConcurrentDataBrokerTest {
+
+    private static final int APPLICATIONS = 400;
+    private static final int CAPACITY = 4000;
+
+    private AntivirusImpl antivirus;
+
+    @Before
+    public void setUp() {
+        antivirus = new AntivirusImpl(getDataBroker(), APPLICATIONS, CAPACITY, ApplicationOwnership.singleNode(), null);
+    }
+
+    @After
+    public void tearDown() {
+        antivirus.close();
+    }
+
+    @Test
+    public void testFairThresholds() {
+        switchTo(0);
+        assertEquals(10, antivirus.Get_Threshold(0));
+        assertThresholdsMatchInventory();
+    }
+
+    @Test
+    public void testRoleBasedThresholds() {
+        switchTo(1);
+        // 50, 30 and 20 percent of C over 200, 100 and 100 applications.
+        assertEquals(10, antivirus.Get_Threshold(0));
+        assertEquals(10, antivirus.Get_Threshold(200));
+        assertEquals(12, antivirus.Get_Threshold(201));
+        assertEquals(12, antivirus.Get_Threshold(300));
+        assertEquals(8, antivirus.Get_Threshold(301));
+        assertEquals(8, antivirus.Get_Threshold(399));
+        assertThresholdsMatchInventory();
+    }
+
+    @Test
+    public void testOptimizationThresholdsFollowTheRemainingCapacity() {
+        switchTo(2);
+        assertThresholdsMatchInventory();
+
+        for (int number = 1; number <= 3; number++) {
+            store(5, number);
+            assertThresholdsMatchInventory();
+        }
+        assertEquals(CAPACITY - 3, antivirus.Get_Threshold(399));
+
+        antivirus.HandleApplicationHello(fixture(5, 2).delete().build());
+        assertEquals(CAPACITY - 2, antivirus.Get_Threshold(0));
+        assertThresholdsMatchInventory();
+    }
+
+    @Test
+    public void testRuleNumberIsCheckedAgainstTheThreshold() {
+        switchTo(1);
+        store(301, 8);
+        assertEquals("Check Rule ID format, X:Y. (X is the AppID and Y is the rule number). "
+                + "Make sure rule number is within limits (Limit = 8).",
+                antivirus.HandleApplicationHello(fixture(301, 9).build()).getGreeting());
+        store(201, 12);
+    }
+
+    private void switchTo(int mode) {
+        antivirus.Mode = mode;
+        antivirus.App_Precedence = antivirus.Set_App_Precedence(mode);
+        antivirus.Threshold_Tiers = antivirus.Set_Threshold_Inventory(mode);
+    }
+
+    /* Compares every application with the Threshold_Inventory the former Set_Threshold_Inventory wrote. */
+    private void assertThresholdsMatchInventory() {
+        int[] inventory = thresholdInventory();
+        for (int appID = 0; appID < APPLICATIONS; appID++) {
+            assertEquals("App ID " + appID, inventory[appID], antivirus.Get_Threshold(appID));
+        }
+    }
+
+    /* The former per-application computation, run again after every catalog change in the third mode. */
+    private int[] thresholdInventory() {
+        int[] inventory = new int[APPLICATIONS];
+        int[] tiers = {CAPACITY * 50 / 100 / antivirus.TierOneApplications,
+            CAPACITY * 30 / 100 / antivirus.TierTwoApplications, CAPACITY * 20 / 100 / antivirus.TierThreeApplications};
+        for (int appID = 0; appID < APPLICATIONS; appID++) {
+            if (antivirus.Mode == 0) {
+                inventory[appID] = CAPACITY / APPLICATIONS;
+            } else if (antivirus.Mode == 1) {
+                inventory[appID] = tiers[antivirus.App_Precedence[appID]];
+            } else {
+                inventory[appID] = CAPACITY - antivirus.Stored_Rules();
+            }
+        }
+        return inventory;
+    }
+
+    private void store(int app, int number) {
+        String greeting = antivirus.HandleApplicationHello(fixture(app, number).build()).getGreeting();
+        assertTrue(greeting, greeting.endsWith(" stored."));
+    }
+
+    private static RuleFixture fixture(int app, int number) {
+        return rule(app, number).sourceIP("10.1." + (app % 256) + "." + number + "/32.");
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class SegmentedArrayTest {
+
+    @Test
+    public void testEveryIndexMapsToItsOwnSlot() {
+        SegmentedArray<String> array = new SegmentedArray<>(5000);
+        SegmentedIntArray ints = new SegmentedIntArray(5000);
+        for (int i = 0; i < 5000; i++) {
+            array.set(i, "rule-" + i);
+            ints.set(i, i + 1);
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertEquals("rule-" + i, array.get(i));
+            assertEquals(i + 1, ints.get(i));
+        }
+    }
+
+    @Test
+    public void testStorageGrowsWithHighestIndexWritten() {
+        SegmentedArray<String> array = new SegmentedArray<>(50000000);
+        assertEquals(0, array.allocated());
+        assertNull(array.get(49999999));
+
+        array.set(0, "a");
+        assertEquals(SegmentedArray.FIRST_SEGMENT, array.allocated());
+        for (int i = 0; i < 1000; i++) {
+            array.set(i, "a");
+        }
+        assertEquals(SegmentedArray.FIRST_SEGMENT * 31, array.allocated());
+    }
+
+    @Test
+    public void testTrimKeepsOneSpareSegment() {
+        SegmentedArray<String> array = new SegmentedArray<>(100000);
+        for (int i = 0; i < 10000; i++) {
+            array.set(i, "a");
+        }
+        array.trimTo(100);
+        // Segments 0 and 1 hold indexes 0..191, segment 2 is the spare.
+        assertEquals(SegmentedArray.FIRST_SEGMENT * 7, array.allocated());
+        assertEquals("a", array.get(99));
+        assertNull(array.get(5000));
+    }
+
+    @Test
+    public void testIndexOutsideLengthIsRejected() {
+        SegmentedArray<String> array = new SegmentedArray<>(10);
+        try {
+            array.set(10, "a");
+            fail("index 10 accepted");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testEveryTimeoutFiresOnItsDeadline() {
+        TimingWheel<Integer> wheel = new TimingWheel<>(0);
+        Random random = new Random(42);
+        long[] deadlines = new long[200000];
+        for (int i = 0; i < deadlines.length; i++) {
+            // Spread over all four levels and past the end of the wheels.
+            deadlines[i] = 1 + (long) (Math.pow(random.nextDouble(), 4) * (1L << 26));
+            wheel.schedule(i, deadlines[i]);
+        }
+        assertEquals(deadlines.length, wheel.pending());
+
+        List<TimingWheel.Timeout<Integer>> expired = new ArrayList<>();
+        long now = 0;
+        int fired = 0;
+        while (wheel.pending() > 0) {
+            now += 1 + random.nextInt(5000);
+            expired.clear();
+            fired += wheel.advance(now, expired);
+            for (TimingWheel.Timeout<Integer> timeout : expired) {
+                assertTrue(timeout.getDeadline() <= now);
+                assertTrue(deadlines[timeout.getKey()] > now - 5000);
+                assertFalse(timeout.isPending());
+            }
+        }
+        assertEquals(deadlines.length, fired);
+    }
+
+    @Test
+    public void testTickByTickFiringIsExact() {
+        TimingWheel<String> wheel = new TimingWheel<>(100);
+        long[] deadlines = {101, 163, 164, 165, 4195, 4196, 262243, 262244, 16777315, 16777316, 30000000};
+        for (long deadline : deadlines) {
+            wheel.schedule(Long.toString(deadline), deadline);
+        }
+        List<TimingWheel.Timeout<String>> expired = new ArrayList<>();
+        int next = 0;
+        for (long tick = 101; tick <= 30000000; tick++) {
+            expired.clear();
+            wheel.advance(tick, expired);
+            for (TimingWheel.Timeout<String> timeout : expired) {
+                assertEquals(deadlines[next++], tick);
+                assertEquals(Long.toString(tick), timeout.getKey());
+            }
+        }
+        assertEquals(deadlines.length, next);
+    }
+
+    @Test
+    public void testCancelledTimeoutsNeverFire() {
+        TimingWheel<String> wheel = new TimingWheel<>(0);
+        TimingWheel.Timeout<String> kept = wheel.schedule("kept", 70);
+        TimingWheel.Timeout<String> cancelled = wheel.schedule("cancelled", 70);
+        TimingWheel.Timeout<String> far = wheel.schedule("far", 5000);
+        assertTrue(wheel.cancel(cancelled));
+        assertFalse(wheel.cancel(cancelled));
+        assertTrue(wheel.cancel(far));
+
+        List<TimingWheel.Timeout<String>> expired = new ArrayList<>();
+        wheel.advance(10000, expired);
+        assertEquals(1, expired.size());
+        assertEquals(kept, expired.get(0));
+        assertEquals(0, wheel.pending());
+        assertFalse(wheel.cancel(kept));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2017 Sana and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.Antivirus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.opendaylight.Antivirus.impl.RuleFixture.rule;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.binding.test.AbstractConcurrentDataBrokerTest;
+import org.opendaylight.controller.md.sal.common.api.data.TransactionCommitFailedException;
+
+import com.google.common.util.concurrent.Futures;
+
+public class UsagePublisherTest extends AbstractConcurrentDataBrokerTest {
+
+    private AntivirusImpl antivirus;
+
+    @After
+    public void tearDown() {
+        antivirus.close();
+    }
+
+    @Test
+    public void testOnlyChangedApplicationsAreWritten() {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 9, ApplicationOwnership.singleNode(), null);
+        UsagePublisher publisher = new UsagePublisher(getDataBroker(), antivirus, 0);
+
+        assertEquals(3, publisher.publish());
+        assertEquals(1, publisher.transactions());
+        // Nothing changed: no transaction at all.
+        assertEquals(0, publisher.publish());
+        assertEquals(1, publisher.transactions());
+
+        antivirus.HandleApplicationHello(rule(1, "1:1.").build());
+        assertEquals(1, publisher.publish());
+        assertEquals(2, publisher.transactions());
+        assertEquals(4, publisher.applicationsWritten());
+    }
+
+    @Test
+    public void testBurstIsCoalescedIntoOneWritePerApplication() {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 9, ApplicationOwnership.singleNode(), null);
+        UsagePublisher publisher = new UsagePublisher(getDataBroker(), antivirus, 0);
+        publisher.publish();
+
+        for (int i = 1; i <= 3; i++) {
+            antivirus.HandleApplicationHello(rule(0, "0:" + i + ".").sourceIP("10.0.0." + i + "/32.").build());
+            antivirus.HandleApplicationHello(rule(2, "2:" + i + ".").sourceIP("10.0.1." + i + "/32.").build());
+        }
+        antivirus.HandleApplicationHello(rule(0, "0:1.").delete().build());
+        assertEquals(2, publisher.publish());
+        assertEquals(2, publisher.transactions());
+
+        // Back to where it was published: the ledger moved, but the application figures did not.
+        antivirus.HandleApplicationHello(rule(0, "0:4.").sourceIP("10.0.0.4/32.").build());
+        antivirus.HandleApplicationHello(rule(0, "0:4.").sourceIP("10.0.0.4/32.").delete().build());
+        assertEquals(0, publisher.publish());
+        assertEquals(2, publisher.transactions());
+    }
+
+    @Test
+    public void testEntriesOfAFailedCommitAreWrittenAgain() {
+        antivirus = new AntivirusImpl(getDataBroker(), 3, 9, ApplicationOwnership.singleNode(), null);
+        AtomicBoolean failing = new AtomicBoolean(true);
+        UsagePublisher publisher = new UsagePublisher(failingWhile(failing), antivirus, 0);
+
+        assertEquals(3, publisher.publish());
+        failing.set(false);
+        // The ledger did not move, but nothing reached the datastore.
+        assertEquals(3, publisher.publish());
+        assertEquals(0, publisher.publish());
+        assertEquals(2, publisher.transactions());
+    }
+
+    /* The test broker, except that write-only transactions fail to commit while failing is set. */
+    private DataBroker failingWhile(final AtomicBoolean failing) {
+        final DataBroker broker = getDataBroker();
+        return (DataBroker) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {DataBroker.class},
+            (proxy, method, args) -> {
+                Object result = method.invoke(broker, args);
+                if (!"newWriteOnlyTransaction".equals(method.getName())) {
+                    return result;
+                }
+                final WriteTransaction transaction = (WriteTransaction) result;
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {WriteTransaction.class},
+                    (txProxy, txMethod, txArgs) -> {
+                        if ("submit".equals(txMethod.getName()) && failing.get()) {
+                            transaction.cancel();
+                            return Futures.immediateFailedCheckedFuture(
+                                    new TransactionCommitFailedException("refused by the test"));
+                        }
+                        return txMethod.invoke(transaction, txArgs);
+                    });
+            });
+    }
+}